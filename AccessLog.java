@@ -0,0 +1,453 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AccessLog 類別
+ * 非同步的紀錄檔，HTTP 與 TFTP 伺服器共用，取代在處理請求的執行緒上直接呼叫 System.out.println / printf。
+ *
+ * 處理請求的執行緒只把事件編號、數值與文字複製進環狀緩衝區 (Ring Buffer) 中預先配置好的固定格式紀錄，
+ * 不格式化字串、不等待 I/O；緩衝區滿時直接丟掉這筆紀錄並計數，絕對不會卡住請求的處理。
+ * 一條背景執行緒依序取出紀錄，格式化成文字後整批寫入檔案，檔案超過大小上限時輪替 (access.log → access.log.1 ...)。
+ *
+ * 環狀緩衝區為多個寫入者、單一讀取者的有界佇列: 每格有自己的序號，
+ * 寫入者以 CAS 取得位置、填好內容後更新序號發布，讀取者看到序號就緒才讀取。
+ */
+final class AccessLog {
+
+    // 事件種類，索引對應 FORMATS；{1}、{2} 為兩段文字，{a}、{b} 為兩個數值
+    static final int HTTP_REQUEST = 0;
+    static final int HTTP_CLOSE = 1;
+    static final int TFTP_CONNECTION = 2;
+    static final int TFTP_REQUEST = 3;
+    static final int TFTP_FILE_NOT_FOUND = 4;
+    static final int TFTP_UNEXPECTED_PACKET = 5;
+    static final int TFTP_ACK_TIMEOUT = 6;
+    static final int TFTP_TRANSFER_FAILED = 7;
+    static final int TFTP_FILE_EXISTS = 8;
+    static final int TFTP_DATA_TIMEOUT = 9;
+    static final int TFTP_UPLOAD_FAILED = 10;
+    static final int TFTP_ERROR_NOT_SENT = 11;
+    static final int TFTP_SHED = 12;
+    static final int TFTP_OPTIONS = 13;
+
+    private static final String[] FORMATS = {
+            "INFO  Request received: {1}",
+            "INFO  Closing connection after {a} requests.",
+            "INFO  Receive connection from {1}:{a}",
+            "INFO  opcode={a}, mode={2}, file_name={1}",
+            "WARN  File not found: {1}",
+            "WARN  Unexpected packet, retrying...",
+            "WARN  Timeout waiting for ACK #{a}, retry {b}...",
+            "WARN  Transfer failed after retries.",
+            "WARN  File already exists: {1}",
+            "WARN  Timeout waiting for DATA #{a}, retry {b}...",
+            "WARN  Upload failed after retries.",
+            "WARN  Problem sending error packet.",
+            "WARN  Server busy, request from {1} shed ({2}), {a} shed so far",
+            "INFO  Options accepted for {1}: blksize={a}, windowsize={b}",
+    };
+
+    /** 寫到標準輸出而不是檔案 */
+    static final String STDOUT = "-";
+
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final int TEXT_SIZE = 192;
+    private static final int DETAIL_SIZE = 48;
+    // 輪替時保留的舊檔數
+    private static final int KEEP_FILES = 5;
+    // 沒有紀錄時背景執行緒休息的時間: 從 50 微秒開始加倍，最多 5 毫秒
+    private static final long MIN_PARK_NANOS = 50_000L;
+    private static final long MAX_PARK_NANOS = 5_000_000L;
+
+    private static final DateTimeFormatter SECOND_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.").withZone(ZoneOffset.UTC);
+
+    private static volatile AccessLog instance;
+
+    private final Record[] ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+
+    // 以下只由背景執行緒使用
+    private final Path path;
+    private final long maxBytes;
+    private WritableByteChannel out;
+    private long fileBytes;
+    private long head;
+    private long reportedDrops;
+    private final ByteBuffer line = ByteBuffer.allocate(64 * 1024);
+    private long cachedSecond = Long.MIN_VALUE;
+    private byte[] secondPrefix;
+
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    private AccessLog(String file, int capacity, long maxBytes) throws IOException {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new Record[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Record(i);
+        }
+        this.mask = size - 1;
+        this.maxBytes = maxBytes;
+
+        if (file.equals(STDOUT)) {
+            this.path = null;
+            this.out = Channels.newChannel(new FileOutputStream(FileDescriptor.out));
+        } else {
+            this.path = Paths.get(file).toAbsolutePath();
+            openFile();
+        }
+
+        this.writer = new Thread(this::run, "access-log");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    /**
+     * 開啟紀錄檔並設為全域共用的 AccessLog (程式啟動時呼叫一次)
+     *
+     * @param file 檔案路徑，"-" 表示標準輸出
+     * @param maxBytes 檔案超過這個大小就輪替
+     * @return 開啟的 AccessLog
+     * @throws IOException 當無法建立或開啟檔案時拋出
+     */
+    static synchronized AccessLog start(String file, long maxBytes) throws IOException {
+        AccessLog log = new AccessLog(file, DEFAULT_CAPACITY, maxBytes);
+        AccessLog previous = instance;
+        instance = log;
+        if (previous != null) {
+            previous.close();
+        }
+        return log;
+    }
+
+    /** @return 全域共用的 AccessLog；尚未呼叫 start 時寫到標準輸出 */
+    static AccessLog get() {
+        AccessLog log = instance;
+        if (log != null) {
+            return log;
+        }
+        synchronized (AccessLog.class) {
+            if (instance == null) {
+                try {
+                    instance = new AccessLog(STDOUT, DEFAULT_CAPACITY, Long.MAX_VALUE);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * 記錄只有數值的事件
+     *
+     * @param event 事件種類
+     * @param a 數值 {a}
+     * @param b 數值 {b}
+     */
+    void log(int event, long a, long b) {
+        log(event, null, null, a, b);
+    }
+
+    /**
+     * 記錄事件 (文字超過固定長度時截斷)
+     *
+     * @param event 事件種類
+     * @param text 文字 {1}，可為 null
+     * @param detail 文字 {2}，可為 null
+     * @param a 數值 {a}
+     * @param b 數值 {b}
+     */
+    void log(int event, CharSequence text, CharSequence detail, long a, long b) {
+        Record record = claim();
+        if (record == null) {
+            return;
+        }
+        record.set(event, a, b);
+        record.textLength = copy(text, record.text);
+        record.detailLength = copy(detail, record.detail);
+        record.publish();
+    }
+
+    /**
+     * 記錄事件，文字直接從 Buffer 複製 (例如 Request Line)，不建立 String
+     *
+     * @param event 事件種類
+     * @param buf 文字所在的 Buffer
+     * @param start 起始位置
+     * @param end 結束位置 (不含)
+     * @param a 數值 {a}
+     */
+    void log(int event, ByteBuffer buf, int start, int end, long a) {
+        Record record = claim();
+        if (record == null) {
+            return;
+        }
+        record.set(event, a, 0);
+        int length = Math.min(end - start, TEXT_SIZE);
+        buf.get(start, record.text, 0, length);
+        record.textLength = length;
+        record.detailLength = 0;
+        record.publish();
+    }
+
+    /** @return 因為緩衝區已滿而丟掉的紀錄數 */
+    long dropped() {
+        return dropped.sum();
+    }
+
+    private static int copy(CharSequence s, byte[] target) {
+        if (s == null) {
+            return 0;
+        }
+        int length = Math.min(s.length(), target.length);
+        for (int i = 0; i < length; i++) {
+            target[i] = (byte) s.charAt(i);
+        }
+        return length;
+    }
+
+    // 取得一格可寫入的紀錄；緩衝區已滿時回傳 null
+    private Record claim() {
+        long pos = tail.get();
+        while (true) {
+            Record record = ring[(int) (pos & mask)];
+            long diff = record.sequence.get() - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    record.position = pos;
+                    return record;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                dropped.increment();
+                return null;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    // 背景執行緒: 取出所有已發布的紀錄寫出，沒有紀錄時短暫休息
+    private void run() {
+        long park = MIN_PARK_NANOS;
+        while (true) {
+            try {
+                int count = drain();
+                if (count > 0) {
+                    park = MIN_PARK_NANOS;
+                    continue;
+                }
+                writeLine();
+                writeDropNotice();
+                writeLine();
+                if (closed) {
+                    return;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                park = MAX_PARK_NANOS;
+            }
+            LockSupport.parkNanos(park);
+            park = Math.min(park * 2, MAX_PARK_NANOS);
+        }
+    }
+
+    private int drain() throws IOException {
+        int count = 0;
+        while (true) {
+            Record record = ring[(int) (head & mask)];
+            if (record.sequence.get() != head + 1) {
+                return count;
+            }
+            if (line.remaining() < TEXT_SIZE + DETAIL_SIZE + 128) {
+                writeLine();
+            }
+            format(record);
+            record.sequence.set(head + ring.length);
+            head++;
+            count++;
+        }
+    }
+
+    private void format(Record record) {
+        timestamp(record.time);
+        String format = FORMATS[record.event];
+        for (int i = 0; i < format.length(); i++) {
+            char c = format.charAt(i);
+            if (c == '{' && i + 2 < format.length() && format.charAt(i + 2) == '}') {
+                switch (format.charAt(i + 1)) {
+                    case '1':
+                        line.put(record.text, 0, record.textLength);
+                        break;
+                    case '2':
+                        line.put(record.detail, 0, record.detailLength);
+                        break;
+                    case 'a':
+                        number(record.a);
+                        break;
+                    default:
+                        number(record.b);
+                        break;
+                }
+                i += 2;
+            } else {
+                line.put((byte) c);
+            }
+        }
+        line.put((byte) '\n');
+    }
+
+    // 2026-01-01T00:00:00.000Z，同一秒內重複使用已格式化的前半段
+    private void timestamp(long millis) {
+        long second = Math.floorDiv(millis, 1000);
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            secondPrefix = SECOND_FORMAT.format(Instant.ofEpochSecond(second)).getBytes(StandardCharsets.US_ASCII);
+        }
+        line.put(secondPrefix);
+        int ms = Math.floorMod(millis, 1000);
+        line.put((byte) ('0' + ms / 100)).put((byte) ('0' + ms / 10 % 10)).put((byte) ('0' + ms % 10));
+        line.put((byte) 'Z').put((byte) ' ');
+    }
+
+    private void number(long value) {
+        if (value < 0) {
+            line.put((byte) '-');
+            value = -value;
+        }
+        int start = line.position();
+        do {
+            line.put((byte) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+        // 反轉剛寫入的數字
+        for (int i = start, j = line.position() - 1; i < j; i++, j--) {
+            byte t = line.get(i);
+            line.put(i, line.get(j));
+            line.put(j, t);
+        }
+    }
+
+    private void writeDropNotice() {
+        long drops = dropped.sum();
+        if (drops != reportedDrops) {
+            timestamp(System.currentTimeMillis());
+            line.put("WARN  ".getBytes(StandardCharsets.US_ASCII));
+            number(drops - reportedDrops);
+            line.put(" log records dropped (buffer full)\n".getBytes(StandardCharsets.US_ASCII));
+            reportedDrops = drops;
+        }
+    }
+
+    private void writeLine() throws IOException {
+        if (line.position() == 0) {
+            return;
+        }
+        line.flip();
+        try {
+            while (line.hasRemaining()) {
+                fileBytes += out.write(line);
+            }
+        } finally {
+            line.clear();
+        }
+        if (path != null && fileBytes >= maxBytes) {
+            rotate();
+        }
+    }
+
+    // access.log.4 → access.log.5 ... access.log → access.log.1
+    private void rotate() throws IOException {
+        out.close();
+        for (int i = KEEP_FILES - 1; i >= 1; i--) {
+            Path older = rotated(i);
+            if (Files.exists(older)) {
+                Files.move(older, rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(path, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        openFile();
+    }
+
+    private Path rotated(int index) {
+        return path.resolveSibling(path.getFileName() + "." + index);
+    }
+
+    private void openFile() throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.fileBytes = channel.size();
+        this.out = channel;
+    }
+
+    // 結束時把剩下的紀錄寫完
+    private void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Record 類別
+     * 環狀緩衝區中的一格，建立後重複使用。
+     */
+    private static final class Record {
+
+        // 等於 position 時可寫入，等於 position + 1 時已發布可讀取
+        final AtomicLong sequence;
+        long position;
+
+        long time;
+        int event;
+        long a;
+        long b;
+        final byte[] text = new byte[TEXT_SIZE];
+        int textLength;
+        final byte[] detail = new byte[DETAIL_SIZE];
+        int detailLength;
+
+        Record(long index) {
+            this.sequence = new AtomicLong(index);
+        }
+
+        void set(int event, long a, long b) {
+            this.time = System.currentTimeMillis();
+            this.event = event;
+            this.a = a;
+            this.b = b;
+        }
+
+        void publish() {
+            sequence.set(position + 1);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AdmissionControl 類別
+ * 超過負荷時提早拒絕新的工作 (Load Shedding)，讓已經接受的請求仍維持有上限的延遲。
+ *
+ * 兩個條件，任一個設為 0 表示不限制:
+ * 同時處理中的工作數 (In-flight) 已達上限；或工作從到達到開始處理已經等待超過期限 (Queue Time)，
+ * 這時客戶端多半已經在等逾時，處理它只會讓排在後面的工作一起變慢。
+ * HTTP 以請求為單位 (回應寫完才算結束)、TFTP 以傳輸為單位，被拒絕的工作回 503 或 TFTP Error 封包。
+ */
+final class AdmissionControl {
+
+    /** 接受 */
+    static final int ADMITTED = 0;
+    /** 處理中的工作數已達上限 */
+    static final int SHED_IN_FLIGHT = 1;
+    /** 等待時間超過期限 */
+    static final int SHED_QUEUE_TIME = 2;
+
+    private static final String[] REASONS = {null, "in_flight", "queue_time"};
+
+    private final int maxInFlight;
+    private final long maxQueueNanos;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder[] shed = {null, new LongAdder(), new LongAdder()};
+
+    /**
+     * AdmissionControl 建構子
+     *
+     * @param maxInFlight 同時處理中的工作數上限，0 表示不限制
+     * @param maxQueueMillis 等待時間的期限 (毫秒)，0 表示不限制
+     */
+    AdmissionControl(int maxInFlight, long maxQueueMillis) {
+        this.maxInFlight = Math.max(0, maxInFlight);
+        this.maxQueueNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxQueueMillis));
+    }
+
+    /**
+     * 決定是否接受一個工作；接受時必須在工作結束後呼叫 release
+     *
+     * @param arrivedAt 工作到達的時間 (System.nanoTime)
+     * @return ADMITTED、SHED_IN_FLIGHT 或 SHED_QUEUE_TIME
+     */
+    int tryAcquire(long arrivedAt) {
+        if (expired(arrivedAt)) {
+            return SHED_QUEUE_TIME;
+        }
+        if (maxInFlight == 0) {
+            inFlight.incrementAndGet();
+            return ADMITTED;
+        }
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= maxInFlight) {
+                shed[SHED_IN_FLIGHT].increment();
+                return SHED_IN_FLIGHT;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return ADMITTED;
+    }
+
+    /**
+     * 工作接受後又等了一段時間才開始 (例如等待執行緒啟動) 時，再檢查一次等待時間；
+     * 超過期限時計為被拒絕，呼叫端仍須 release
+     *
+     * @param arrivedAt 工作到達的時間 (System.nanoTime)
+     * @return 是否已超過期限
+     */
+    boolean expired(long arrivedAt) {
+        if (maxQueueNanos > 0 && System.nanoTime() - arrivedAt > maxQueueNanos) {
+            shed[SHED_QUEUE_TIME].increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 結束已接受的工作
+     *
+     * @param count 工作數
+     */
+    void release(int count) {
+        inFlight.addAndGet(-count);
+    }
+
+    /** @return 目前處理中的工作數 */
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @param reason SHED_IN_FLIGHT 或 SHED_QUEUE_TIME
+     * @return 因這個原因被拒絕的工作數
+     */
+    long shed(int reason) {
+        return shed[reason].sum();
+    }
+
+    /** @return 被拒絕的工作總數 */
+    long shedTotal() {
+        return shed[SHED_IN_FLIGHT].sum() + shed[SHED_QUEUE_TIME].sum();
+    }
+
+    /**
+     * @param reason SHED_IN_FLIGHT 或 SHED_QUEUE_TIME
+     * @return 原因的名稱 (用於統計標籤與紀錄)
+     */
+    static String reason(int reason) {
+        return REASONS[reason];
+    }
+}
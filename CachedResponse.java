@@ -0,0 +1,194 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * CachedResponse 類別
+ * 預先編碼好的完整回應 (Status Line + Header + Body)，建立後不再改變。
+ * 每次送出只需要包成唯讀的 ByteBuffer，交給 OutboundQueue 以一次 Gathering Write 寫出，
+ * 不必每個請求重組字串、呼叫 getBytes()，也不會分成 Header、Body 兩次送出。
+ * HTTP/2 使用同一個物件: 另外保存狀態碼與小寫名稱的 Header，由每條連線的 HpackEncoder 壓縮。
+ */
+final class CachedResponse {
+
+    /** 不加 Connection Header (HTTP/1.1 預設保持連線) */
+    static final int CONNECTION_DEFAULT = 0;
+    /** 加上 Connection: close，送出後關閉連線 */
+    static final int CONNECTION_CLOSE = 1;
+    /** 加上 Connection: keep-alive (給要求保持連線的 HTTP/1.0 客戶端) */
+    static final int CONNECTION_KEEP_ALIVE = 2;
+
+    private static final String[] CONNECTION_HEADERS = {null, "Connection: close", "Connection: keep-alive"};
+
+    private static final String CHUNKED = "Transfer-Encoding: chunked";
+
+    // HTTP/2 禁止的連線層級 Header (RFC 7540 8.1.2.2)
+    private static final String[] CONNECTION_SPECIFIC = {
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade"};
+
+    // 依 Connection 模式預先編碼的三種 Head
+    private final byte[][] heads;
+    private final byte[] body;
+    private final boolean streaming;
+    // HTTP/2 用: 狀態碼 (3 個 ASCII 數字)，與名稱 (小寫)、值交錯排列的 Header
+    private final byte[] status;
+    private final byte[][] fields;
+
+    private CachedResponse(String status, String[] headers, byte[] body) {
+        this(status, headers, body, false);
+    }
+
+    private CachedResponse(String status, String[] headers, byte[] body, boolean streaming) {
+        this.heads = new byte[CONNECTION_HEADERS.length][];
+        for (int i = 0; i < heads.length; i++) {
+            // 送完就關閉的連線以關閉表示 Body 結束，不需要 chunked 編碼
+            String transferEncoding = streaming && i != CONNECTION_CLOSE ? CHUNKED : null;
+            heads[i] = encodeHead(status, headers, transferEncoding, CONNECTION_HEADERS[i]);
+        }
+        this.body = body;
+        this.streaming = streaming;
+        this.status = status.substring(0, 3).getBytes(StandardCharsets.ISO_8859_1);
+        this.fields = encodeFields(headers);
+    }
+
+    /**
+     * 建立有 Body 的回應
+     *
+     * @param status 狀態碼與說明，例如 "200 OK"
+     * @param contentType Content-Type，例如 "text/html"
+     * @param body Body 內容
+     * @param headers 其他 Header，每個元素為一整行 (不含換行)
+     * @return 預先編碼好的回應
+     */
+    static CachedResponse of(String status, String contentType, byte[] body, String... headers) {
+        return new CachedResponse(status, withEntityHeaders(contentType, body.length, headers), body);
+    }
+
+    /**
+     * 建立只有 Head 的回應，Body 由呼叫端另外送出 (例如大檔案以 transferTo 直接送出)
+     *
+     * @param status 狀態碼與說明，例如 "200 OK"
+     * @param contentType Content-Type
+     * @param contentLength 之後會送出的 Body 長度
+     * @param headers 其他 Header，每個元素為一整行 (不含換行)
+     * @return 預先編碼好的回應 (body() 為空)
+     */
+    static CachedResponse headOnly(String status, String contentType, long contentLength, String... headers) {
+        return new CachedResponse(status, withEntityHeaders(contentType, contentLength, headers), new byte[0]);
+    }
+
+    /**
+     * 建立串流回應的 Head，Body 由 StreamingBody 邊產生邊送出 (HttpExchange.send(CachedResponse, StreamingBody))
+     * 保持連線時以 Transfer-Encoding: chunked 分段；Connection: close 時直接送出內容，以關閉連線表示結束。
+     *
+     * @param status 狀態碼與說明，例如 "200 OK"
+     * @param contentType Content-Type
+     * @param headers 其他 Header，每個元素為一整行 (不含換行)
+     * @return 預先編碼好的回應 Head
+     */
+    static CachedResponse streaming(String status, String contentType, String... headers) {
+        String[] lines = new String[headers.length + 1];
+        lines[0] = "Content-Type: " + contentType;
+        System.arraycopy(headers, 0, lines, 1, headers.length);
+        return new CachedResponse(status, lines, new byte[0], true);
+    }
+
+    private static String[] withEntityHeaders(String contentType, long contentLength, String[] headers) {
+        String[] lines = new String[headers.length + 2];
+        lines[0] = "Content-Type: " + contentType;
+        lines[1] = "Content-Length: " + contentLength;
+        System.arraycopy(headers, 0, lines, 2, headers.length);
+        return lines;
+    }
+
+    /**
+     * 建立 304 Not Modified 回應 (不含 Body，也不帶 Content-Length)
+     *
+     * @param headers 與 200 回應相同的驗證用 Header，例如 ETag、Last-Modified、Vary
+     * @return 預先編碼好的回應
+     */
+    static CachedResponse notModified(String... headers) {
+        return new CachedResponse("304 Not Modified", headers, new byte[0]);
+    }
+
+    /**
+     * 建立沒有 Body 的回應
+     *
+     * @param status 狀態碼與說明，例如 "404 Not Found"
+     * @param headers 其他 Header，每個元素為一整行 (不含換行)
+     * @return 預先編碼好的回應
+     */
+    static CachedResponse empty(String status, String... headers) {
+        String[] lines = new String[headers.length + 1];
+        System.arraycopy(headers, 0, lines, 0, headers.length);
+        lines[headers.length] = "Content-Length: 0";
+        return new CachedResponse(status, lines, new byte[0]);
+    }
+
+    private static byte[] encodeHead(String status, String[] headers, String transferEncoding, String connection) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("HTTP/1.1 ").append(status).append("\r\n");
+        for (String header : headers) {
+            sb.append(header).append("\r\n");
+        }
+        if (transferEncoding != null) {
+            sb.append(transferEncoding).append("\r\n");
+        }
+        if (connection != null) {
+            sb.append(connection).append("\r\n");
+        }
+        sb.append("\r\n"); // Header 結束的空行
+        return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[][] encodeFields(String[] headers) {
+        byte[][] fields = new byte[headers.length * 2][];
+        int count = 0;
+        for (String header : headers) {
+            int colon = header.indexOf(':');
+            String name = header.substring(0, colon).trim().toLowerCase();
+            boolean connectionSpecific = false;
+            for (String forbidden : CONNECTION_SPECIFIC) {
+                connectionSpecific |= forbidden.equals(name);
+            }
+            if (!connectionSpecific) {
+                fields[count++] = name.getBytes(StandardCharsets.ISO_8859_1);
+                fields[count++] = header.substring(colon + 1).trim().getBytes(StandardCharsets.ISO_8859_1);
+            }
+        }
+        return count == fields.length ? fields : Arrays.copyOf(fields, count);
+    }
+
+    /**
+     * @param connection CONNECTION_DEFAULT、CONNECTION_CLOSE 或 CONNECTION_KEEP_ALIVE
+     * @return Status Line 與 Header 的唯讀 Buffer
+     */
+    ByteBuffer head(int connection) {
+        return ByteBuffer.wrap(heads[connection]).asReadOnlyBuffer();
+    }
+
+    /** @return Body 的唯讀 Buffer */
+    ByteBuffer body() {
+        return ByteBuffer.wrap(body).asReadOnlyBuffer();
+    }
+
+    /** @return 是否為 streaming() 建立的串流回應 */
+    boolean isStreaming() {
+        return streaming;
+    }
+
+    /** @return 狀態碼的 3 個 ASCII 數字 (HTTP/2 的 :status) */
+    byte[] status() {
+        return status;
+    }
+
+    /** @return HTTP/2 的 Header: 名稱 (小寫)、值交錯排列，不含連線層級的 Header (不可修改) */
+    byte[][] fields() {
+        return fields;
+    }
+
+    /** @return Body 的位元組數 */
+    int bodyLength() {
+        return body.length;
+    }
+}
@@ -0,0 +1,210 @@
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ClientHandler 類別
+ * 專門用來處理單一客戶端連線的執行緒邏輯。
+ * 實作了 Persistent HTTP (持續連線)，請求交給 Router 分派。
+ */
+class ClientHandler implements Runnable {
+
+    /** Request Head (Request Line + Header) 的大小上限 */
+    static final int MAX_REQUEST_HEAD = 8 * 1024;
+
+    // Response Cache: 固定內容的回應在類別載入時編碼一次，之後每個請求直接送出
+    // (/good.html、/style.css 等檔案改由 StaticFileHandler 從 Document Root 提供)
+
+    /** /redirect.html: 回應 301 Moved Permanently 並導向至 /good.html */
+    static final CachedResponse REDIRECT_RESPONSE = CachedResponse.empty("301 Moved Permanently",
+            "Location: /good.html"); // 告訴瀏覽器去哪裡
+
+    /** Request 格式錯誤 */
+    static final CachedResponse BAD_REQUEST_RESPONSE = CachedResponse.empty("400 Bad Request");
+
+    /** Request Head 超過 MAX_REQUEST_HEAD */
+    static final CachedResponse HEADERS_TOO_LARGE_RESPONSE = CachedResponse.empty(
+            "431 Request Header Fields Too Large");
+
+    /** 處理器拋出例外 */
+    static final CachedResponse INTERNAL_ERROR_RESPONSE = CachedResponse.empty("500 Internal Server Error");
+
+    // HTTP/2 等待串流內容時，每隔這麼久醒來檢查客戶端是否送來新的資料
+    private static final long READ_CHECK_NANOS = 10_000_000L;
+
+    private Socket clientSocket;
+    private final HttpServerConfig config;
+    private final Router router;
+    private final TlsContext tls;
+    // 接受連線的時間: 執行緒還沒開始執行前，請求就已經在等待
+    private final long acceptedAt = System.nanoTime();
+    // 串流內容有新資料的通知 (由其他執行緒設定)
+    private volatile boolean resumed;
+
+    /**
+     * ClientHandler 建構子
+     *
+     * @param socket 與客戶端建立的連線 Socket (須由 ServerSocketChannel 接受，才有對應的 SocketChannel)
+     * @param config 伺服器設定 (閒置逾時、每條連線的請求數上限)
+     * @param router 共用的路由表
+     * @param tls HTTPS 的設定，未開啟 TLS 時為 null
+     */
+    public ClientHandler(Socket socket, HttpServerConfig config, Router router, TlsContext tls) {
+        this.clientSocket = socket;
+        this.config = config;
+        this.router = router;
+        this.tls = tls;
+    }
+
+    /**
+     * 執行緒主要邏輯
+     * 負責讀取 HTTP Request，交給 Http1Processor 解析、路由後，把回應一次寫出。
+     * 協定切換為 HTTP/2 後改交給 Http2Processor，讀寫的方式不變。
+     * 開啟 TLS 時讀寫都經過 TlsTransport，處理器看到的仍是明文。
+     * 實作 Persistent HTTP: 連線會一直保持到客戶端要求關閉、閒置逾時或達到請求數上限為止。
+     */
+    @Override
+    public void run() {
+        Thread owner = Thread.currentThread();
+        Runnable resume = () -> {
+            resumed = true;
+            LockSupport.unpark(owner);
+        };
+        ConnectionProcessor processor = new Http1Processor(config, router);
+        processor.onResume(resume);
+        TlsTransport transport = null;
+        router.metrics().connectionOpened();
+        try {
+            InputStream in = clientSocket.getInputStream();
+            SocketChannel channel = clientSocket.getChannel();
+            if (tls != null) {
+                transport = tls.open(channel, in);
+            }
+            // 回應都是一次寫完整個，不需要 Nagle 演算法再等待合併
+            clientSocket.setTcpNoDelay(true);
+            // 閒置超過時間沒有收到資料，read 會拋出 SocketTimeoutException
+            clientSocket.setSoTimeout(config.idleTimeoutMillis);
+
+            // 整條連線重複使用同一個 Buffer
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_REQUEST_HEAD);
+            // 執行緒開始時請求已經送到，表示它從 accept 起就在排隊 (例如執行緒太多、排程不到)
+            boolean queued = in.available() > 0;
+
+            while (!processor.isClosing()) {
+                int n;
+                try {
+                    if (transport != null) {
+                        n = transport.read(buffer);
+                    } else {
+                        n = in.read(buffer.array(), buffer.position(), buffer.remaining());
+                        if (n > 0) {
+                            buffer.position(buffer.position() + n);
+                        }
+                    }
+                } catch (SocketTimeoutException e) {
+                    break; // 閒置逾時
+                }
+                // 如果讀不到東西 (客戶端關閉連線)，就跳出迴圈
+                if (n == -1) {
+                    break;
+                }
+                long arrivedAt = queued ? acceptedAt : System.nanoTime();
+                queued = false;
+
+                // 一次讀進來的資料可能包含好幾個請求 (Pipelining)，依序處理後一次送出
+                processor.process(buffer, arrivedAt);
+                // 切換協定 (HTTP/2) 時，剩下的資料交給新的處理器
+                for (ConnectionProcessor next; (next = processor.next()) != processor; ) {
+                    processor = next;
+                    processor.onResume(resume);
+                    processor.process(buffer, arrivedAt);
+                }
+                if (!flush(processor, transport != null ? transport : channel, transport, in)) {
+                    break; // 串流內容超過閒置時間沒有新資料
+                }
+            }
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            AccessLog.get().log(AccessLog.HTTP_CLOSE, processor.requestCount(), 0);
+            router.metrics().connectionClosed();
+            processor.close();
+            if (transport != null) {
+                transport.close();
+            }
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 寫出回應，直到全部送出或有新資料要讀取為止
+     * HTTP/2 的回應可能分好幾輪寫出，中間有新資料 (WINDOW_UPDATE、新的請求) 時先去讀取。
+     * 串流內容暫時沒有資料時暫停執行緒，等它通知 (resume) 再繼續，而不是一直重試；
+     * HTTP/2 在等待時仍要讀取，每隔 READ_CHECK_NANOS 醒來檢查一次。
+     *
+     * @return 超過閒置時間仍沒有新資料時為 false (呼叫端關閉連線)
+     */
+    private boolean flush(ConnectionProcessor processor, GatheringByteChannel out, TlsTransport transport,
+                          InputStream in) throws IOException {
+        long idleNanos = config.idleTimeoutMillis * 1_000_000L;
+        long waitingSince = System.nanoTime();
+        while (true) {
+            if (processor.flush(out) || (transport != null && transport.hasBufferedInput()) || in.available() > 0) {
+                return true;
+            }
+            if (!processor.isWaitingForData()) {
+                continue; // 還有下一輪要寫 (阻塞模式的 Socket 不會寫不下)
+            }
+            long now = System.nanoTime();
+            if (resumed) {
+                resumed = false;
+                waitingSince = now; // 等待中又收到新資料
+            } else if (now - waitingSince >= idleNanos) {
+                return false;
+            }
+            long wait = waitingSince + idleNanos - now;
+            LockSupport.parkNanos(this, processor.readsWhileWriting() ? Math.min(wait, READ_CHECK_NANOS) : wait);
+        }
+    }
+
+    /**
+     * 建立連線數或處理中的請求數已達上限時的回應
+     *
+     * @param retryAfterSeconds 建議客戶端等待的秒數
+     * @return 503 Service Unavailable 回應
+     */
+    static CachedResponse serviceUnavailable(int retryAfterSeconds) {
+        return CachedResponse.empty("503 Service Unavailable",
+                "Retry-After: " + retryAfterSeconds);
+    }
+
+    /**
+     * 連線數已達上限時使用
+     * 送出 503 Service Unavailable (含 Retry-After)，接著關閉連線。
+     * TLS 連線還沒交握，明文的回應對客戶端沒有意義，只關閉連線。
+     *
+     * @param socket 被拒絕的連線
+     * @param response serviceUnavailable() 建立的回應，TLS 連線為 null
+     */
+    static void reject(Socket socket, CachedResponse response) {
+        try {
+            if (response != null) {
+                OutboundQueue outbound = new OutboundQueue();
+                outbound.add(response, CachedResponse.CONNECTION_CLOSE);
+                outbound.flush(socket.getChannel());
+            }
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
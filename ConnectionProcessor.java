@@ -0,0 +1,69 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * ConnectionProcessor 類別
+ * 一條連線上的協定處理邏輯，Thread 模式 (ClientHandler) 與 NIO 模式 (NioConnection) 只透過這裡呼叫，
+ * 不需要知道連線目前使用 HTTP/1.x 還是 HTTP/2。
+ *
+ * 協定可以在連線途中切換 (HTTP/1.1 的 Upgrade: h2c，或一開始就收到 HTTP/2 的 Connection Preface):
+ * process 之後呼叫端檢查 next()，不是自己時改用新的處理器，並把 Buffer 中剩下的資料交給它。
+ */
+abstract class ConnectionProcessor {
+
+    /**
+     * 處理 Buffer 中所有已完整收到的資料
+     *
+     * @param buffer 寫入模式的 Buffer (有效資料為 0 ~ position)，處理完的資料會被移除
+     * @param arrivedAt 資料讀進來的時間 (System.nanoTime)，用來計算請求等待了多久
+     */
+    abstract void process(ByteBuffer buffer, long arrivedAt);
+
+    /**
+     * 盡量寫出待送出的資料，並更新統計
+     *
+     * @param channel 連線的 Channel
+     * @return 全部送出時為 true
+     * @throws IOException 當寫入失敗時拋出
+     */
+    abstract boolean flush(GatheringByteChannel channel) throws IOException;
+
+    /**
+     * 連線關閉時呼叫: 丟掉沒送完的資料，歸還請求佔用的資源
+     */
+    abstract void close();
+
+    /** @return 資料送完後是否要關閉連線 */
+    abstract boolean isClosing();
+
+    /** @return 已處理的請求數 */
+    abstract int requestCount();
+
+    /** @return 接手這條連線的處理器，沒有切換協定時為自己 */
+    ConnectionProcessor next() {
+        return this;
+    }
+
+    /**
+     * 設定串流內容暫時沒有資料、之後又有資料時的通知 (切換協定後要對新的處理器重新設定)
+     *
+     * @param resume 讓連線再呼叫一次 flush 的 callback，可能在其他執行緒上呼叫
+     */
+    abstract void onResume(Runnable resume);
+
+    /**
+     * @return flush 回傳 false 是因為串流內容暫時沒有資料 (而不是 Socket 寫不下):
+     *         呼叫端不必等 Socket 可寫，等 onResume 設定的通知再 flush
+     */
+    boolean isWaitingForData() {
+        return false;
+    }
+
+    /**
+     * @return 回應還沒寫完時是否仍要繼續讀取 (HTTP/2 的回應寫到一半時，需要讀取客戶端的 WINDOW_UPDATE 與新的請求)
+     */
+    boolean readsWhileWriting() {
+        return false;
+    }
+}
@@ -0,0 +1,105 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * FileRegion 類別
+ * 檔案中要送出的一段範圍，以 transferTo 送出，資料不經過 Java Heap。
+ */
+class FileRegion {
+
+    private final FileChannel file;
+    private long position;
+    private final long end;
+    private long transferred;
+    // split 切出的部分不擁有檔案，關閉時不會關閉檔案
+    private final boolean owner;
+
+    /**
+     * FileRegion 建構子
+     *
+     * @param file 已開啟的檔案，送完後由 FileRegion 關閉
+     * @param position 起始位置
+     * @param count 位元組數
+     */
+    FileRegion(FileChannel file, long position, long count) {
+        this(file, position, count, true);
+    }
+
+    /**
+     * FileRegion 建構子 (同一個檔案切成好幾段送出時使用，例如 multipart/byteranges)
+     *
+     * @param file 已開啟的檔案
+     * @param position 起始位置
+     * @param count 位元組數
+     * @param owner 是否由這一段負責關閉檔案
+     */
+    FileRegion(FileChannel file, long position, long count, boolean owner) {
+        this.file = file;
+        this.position = position;
+        this.end = position + count;
+        this.owner = owner;
+    }
+
+    /**
+     * 切出開頭的一段 (HTTP/2 每個 DATA Frame 送出一段)，這個 FileRegion 從切出的部分之後開始
+     * 切出的部分共用同一個檔案但不擁有它；檔案仍由原本的 FileRegion 在全部送出後關閉。
+     *
+     * @param count 位元組數 (不超過 remaining())
+     * @return 切出的部分
+     */
+    FileRegion split(long count) {
+        FileRegion part = new FileRegion(file, position, count, false);
+        position += count;
+        return part;
+    }
+
+    /** @return 還沒送出的位元組數 */
+    long remaining() {
+        return end - position;
+    }
+
+    /**
+     * 盡量送出剩下的範圍
+     *
+     * @param target 目標 Channel
+     * @return 全部送出時為 true；Socket 暫時寫不下時為 false
+     * @throws IOException 當讀檔或寫入失敗，或檔案在傳送途中變短時拋出
+     */
+    boolean transferTo(GatheringByteChannel target) throws IOException {
+        while (position < end) {
+            long n = file.transferTo(position, end - position, target);
+            if (n <= 0) {
+                if (position >= file.size()) {
+                    throw new EOFException("File truncated while sending");
+                }
+                return false;
+            }
+            position += n;
+            transferred += n;
+        }
+        return true;
+    }
+
+    /** @return 上次呼叫之後送出的位元組數 */
+    long takeTransferred() {
+        long bytes = transferred;
+        transferred = 0;
+        return bytes;
+    }
+
+    /**
+     * 關閉檔案 (split 切出的部分不會關閉)
+     */
+    void close() {
+        if (!owner) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,337 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Hpack 類別
+ * HTTP/2 的 Header 壓縮 (RFC 7541) 共用的部分: 靜態表、整數與字串的編碼、Huffman 編碼。
+ * 每條 HTTP/2 連線各有一個 HpackDecoder (解讀請求) 與 HpackEncoder (壓縮回應)，各自維護自己的動態表。
+ */
+final class Hpack {
+
+    /** 動態表大小的預設值，也是我們在 SETTINGS 中接受的上限 */
+    static final int DEFAULT_TABLE_SIZE = 4096;
+    /** 每個項目除了名稱與值之外額外計入的大小 */
+    static final int ENTRY_OVERHEAD = 32;
+    /** 靜態表的項目數，動態表的索引從 STATIC_COUNT + 1 開始 */
+    static final int STATIC_COUNT = 61;
+
+    private static final String[] STATIC_TABLE = {
+            ":authority", "",
+            ":method", "GET",
+            ":method", "POST",
+            ":path", "/",
+            ":path", "/index.html",
+            ":scheme", "http",
+            ":scheme", "https",
+            ":status", "200",
+            ":status", "204",
+            ":status", "206",
+            ":status", "304",
+            ":status", "400",
+            ":status", "404",
+            ":status", "500",
+            "accept-charset", "",
+            "accept-encoding", "gzip, deflate",
+            "accept-language", "",
+            "accept-ranges", "",
+            "accept", "",
+            "access-control-allow-origin", "",
+            "age", "",
+            "allow", "",
+            "authorization", "",
+            "cache-control", "",
+            "content-disposition", "",
+            "content-encoding", "",
+            "content-language", "",
+            "content-length", "",
+            "content-location", "",
+            "content-range", "",
+            "content-type", "",
+            "cookie", "",
+            "date", "",
+            "etag", "",
+            "expect", "",
+            "expires", "",
+            "from", "",
+            "host", "",
+            "if-match", "",
+            "if-modified-since", "",
+            "if-none-match", "",
+            "if-range", "",
+            "if-unmodified-since", "",
+            "last-modified", "",
+            "link", "",
+            "location", "",
+            "max-forwards", "",
+            "proxy-authenticate", "",
+            "proxy-authorization", "",
+            "range", "",
+            "referer", "",
+            "refresh", "",
+            "retry-after", "",
+            "server", "",
+            "set-cookie", "",
+            "strict-transport-security", "",
+            "transfer-encoding", "",
+            "user-agent", "",
+            "vary", "",
+            "via", "",
+            "www-authenticate", "",
+    };
+
+    // 靜態表，索引 1 ~ 61 對應陣列的 0 ~ 60
+    static final byte[][] STATIC_NAMES = new byte[STATIC_COUNT][];
+    static final byte[][] STATIC_VALUES = new byte[STATIC_COUNT][];
+
+    // RFC 7541 Appendix B: 每個符號 (0 ~ 255 與 EOS = 256) 的 Huffman 編碼與位元數
+    private static final int[] HUFFMAN_CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+            0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+            0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+            0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+            0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+            0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+            0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+            0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+            0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+            0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+            0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+            0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+            0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+            0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+            0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+            0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+            0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+            0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+            0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+            0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+            0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+            0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+            0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+            0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+            0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+            0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+            0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+            0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+            0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+            0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+            0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+            0x3fffffff,
+    };
+    private static final byte[] HUFFMAN_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+            28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+            6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+            13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+            6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+            20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+            22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+            21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+            19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+            20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+            30,
+    };
+
+    private static final int EOS = 256;
+
+    // Huffman 解碼樹: TREE[node * 2 + bit] 為子節點 (> 0)，或 ~符號 (< 0)；節點 0 為根
+    private static final int[] TREE = new int[EOS * 2 + 2];
+
+    static {
+        for (int i = 0; i < STATIC_COUNT; i++) {
+            STATIC_NAMES[i] = STATIC_TABLE[i * 2].getBytes(StandardCharsets.ISO_8859_1);
+            STATIC_VALUES[i] = STATIC_TABLE[i * 2 + 1].getBytes(StandardCharsets.ISO_8859_1);
+        }
+        int nodes = 1;
+        for (int symbol = 0; symbol <= EOS; symbol++) {
+            int code = HUFFMAN_CODES[symbol];
+            int node = 0;
+            for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit > 0; bit--) {
+                int i = node * 2 + ((code >>> bit) & 1);
+                if (TREE[i] == 0) {
+                    TREE[i] = nodes++;
+                }
+                node = TREE[i];
+            }
+            TREE[node * 2 + (code & 1)] = ~symbol;
+        }
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * 在靜態表中尋找名稱與值都相同的項目
+     *
+     * @return 索引 (1 ~ 61)，找不到時為 0
+     */
+    static int staticIndex(byte[] name, byte[] value) {
+        // 只有 2 ~ 16 號項目有值
+        for (int i = 1; i < 16; i++) {
+            if (Arrays.equals(STATIC_VALUES[i], value) && Arrays.equals(STATIC_NAMES[i], name)) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 在靜態表中尋找名稱相同的項目
+     *
+     * @return 索引 (1 ~ 61)，找不到時為 0
+     */
+    static int staticNameIndex(byte[] name) {
+        for (int i = 0; i < STATIC_COUNT; i++) {
+            if (STATIC_NAMES[i].length == name.length && Arrays.equals(STATIC_NAMES[i], name)) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 寫入有前綴的整數 (RFC 7541 5.1)
+     *
+     * @param out 輸出
+     * @param flags 第一個位元組中前綴以外的位元
+     * @param prefixBits 前綴的位元數 (1 ~ 8)
+     * @param value 非負整數
+     */
+    static void writeInt(ByteBuffer out, int flags, int prefixBits, int value) {
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            out.put((byte) (flags | value));
+            return;
+        }
+        out.put((byte) (flags | max));
+        value -= max;
+        while (value >= 0x80) {
+            out.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * 讀取有前綴的整數
+     *
+     * @param in 輸入，位置在第一個位元組之後
+     * @param first 第一個位元組
+     * @param prefixBits 前綴的位元數
+     * @return 整數；資料不完整或數值過大時為 -1
+     */
+    static int readInt(ByteBuffer in, int first, int prefixBits) {
+        int max = (1 << prefixBits) - 1;
+        int value = first & max;
+        if (value < max) {
+            return value;
+        }
+        // 最多接受 4 個延續位元組 (約 2^28)，足夠表示任何合理的長度與索引
+        for (int shift = 0; shift <= 21; shift += 7) {
+            if (!in.hasRemaining()) {
+                return -1;
+            }
+            int b = in.get() & 0xFF;
+            value += (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 寫入字串，Huffman 編碼較短時使用 Huffman 編碼
+     *
+     * @param out 輸出
+     * @param s 字串的位元組
+     */
+    static void writeString(ByteBuffer out, byte[] s) {
+        int huffman = huffmanLength(s);
+        if (huffman < s.length) {
+            writeInt(out, 0x80, 7, huffman);
+            huffmanEncode(s, out);
+        } else {
+            writeInt(out, 0, 7, s.length);
+            out.put(s);
+        }
+    }
+
+    /** @return Huffman 編碼後的位元組數 */
+    static int huffmanLength(byte[] s) {
+        long bits = 0;
+        for (byte b : s) {
+            bits += HUFFMAN_LENGTHS[b & 0xFF];
+        }
+        return (int) ((bits + 7) >>> 3);
+    }
+
+    /**
+     * Huffman 編碼，最後不足一個位元組的部分以 1 (EOS 的前綴) 補滿
+     *
+     * @param s 原始位元組
+     * @param out 輸出
+     */
+    static void huffmanEncode(byte[] s, ByteBuffer out) {
+        long bits = 0;
+        int count = 0;
+        for (byte b : s) {
+            int symbol = b & 0xFF;
+            bits = bits << HUFFMAN_LENGTHS[symbol] | HUFFMAN_CODES[symbol];
+            count += HUFFMAN_LENGTHS[symbol];
+            while (count >= 8) {
+                count -= 8;
+                out.put((byte) (bits >>> count));
+            }
+        }
+        if (count > 0) {
+            out.put((byte) (bits << (8 - count) | 0xFF >>> count));
+        }
+    }
+
+    /**
+     * Huffman 解碼
+     *
+     * @param src 來源陣列
+     * @param offset 起始位置
+     * @param length 位元組數
+     * @param out 輸出
+     * @return 成功時為 true；編碼錯誤 (含 EOS、填充不正確) 或輸出空間不足時為 false
+     */
+    static boolean huffmanDecode(byte[] src, int offset, int length, ByteBuffer out) {
+        int node = 0;
+        // 目前這個未完成的符號已讀了幾個位元、是否都是 1
+        int depth = 0;
+        boolean ones = true;
+        for (int i = offset; i < offset + length; i++) {
+            int b = src[i] & 0xFF;
+            for (int shift = 7; shift >= 0; shift--) {
+                int bit = (b >>> shift) & 1;
+                int next = TREE[node * 2 + bit];
+                if (next < 0) {
+                    if (~next == EOS || !out.hasRemaining()) {
+                        return false;
+                    }
+                    out.put((byte) ~next);
+                    node = 0;
+                    depth = 0;
+                    ones = true;
+                } else {
+                    node = next;
+                    depth++;
+                    ones &= bit == 1;
+                }
+            }
+        }
+        // 結尾的填充最多 7 個位元，而且必須都是 1
+        return depth < 8 && ones;
+    }
+}
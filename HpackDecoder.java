@@ -0,0 +1,138 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * HpackDecoder 類別
+ * 解讀請求的 Header Block。字串直接引用 Header Block 或動態表中的位元組，
+ * 只有 Huffman 編碼的字串需要解碼到暫存區，加入動態表時才複製一份。
+ */
+final class HpackDecoder {
+
+    /**
+     * Listener 介面
+     * 每解出一個 Header 呼叫一次；傳入的陣列只在呼叫期間有效。
+     */
+    interface Listener {
+        void header(byte[] name, int nameOffset, int nameLength, byte[] value, int valueOffset, int valueLength);
+    }
+
+    private final HpackTable table = new HpackTable(Hpack.DEFAULT_TABLE_SIZE);
+    // Huffman 解碼用的暫存區 (名稱與值各一個)
+    private final ByteBuffer nameScratch = ByteBuffer.allocate(ClientHandler.MAX_REQUEST_HEAD);
+    private final ByteBuffer valueScratch = ByteBuffer.allocate(ClientHandler.MAX_REQUEST_HEAD);
+
+    // readString 的結果
+    private byte[] array;
+    private int offset;
+    private int length;
+
+    /**
+     * 解碼一個完整的 Header Block
+     * 即使請求本身格式有誤，也必須把整個 Block 解完，動態表才會與客戶端保持一致。
+     *
+     * @param block 讀取模式的 Buffer (須有底層陣列)
+     * @param listener 接收解出的 Header
+     * @return 成功時為 true；編碼錯誤時為 false (連線必須以 COMPRESSION_ERROR 結束)
+     */
+    boolean decode(ByteBuffer block, Listener listener) {
+        boolean atStart = true;
+        while (block.hasRemaining()) {
+            int b = block.get() & 0xFF;
+            if ((b & 0x80) != 0) {
+                // Indexed Header Field
+                int index = Hpack.readInt(block, b, 7);
+                if (index <= 0 || index > Hpack.STATIC_COUNT + table.length()) {
+                    return false;
+                }
+                byte[] name = indexedName(index);
+                byte[] value = indexedValue(index);
+                listener.header(name, 0, name.length, value, 0, value.length);
+            } else if ((b & 0xE0) == 0x20) {
+                // Dynamic Table Size Update，只能出現在 Block 開頭
+                int size = Hpack.readInt(block, b, 5);
+                if (!atStart || size < 0 || size > Hpack.DEFAULT_TABLE_SIZE) {
+                    return false;
+                }
+                table.setMaxSize(size);
+                continue;
+            } else if (!literal(block, b, listener)) {
+                return false;
+            }
+            atStart = false;
+        }
+        return true;
+    }
+
+    // Literal Header Field: 01 為加入動態表，0000 為不加入，0001 為永不加入
+    private boolean literal(ByteBuffer block, int b, Listener listener) {
+        boolean indexing = (b & 0x40) != 0;
+        int index = Hpack.readInt(block, b, indexing ? 6 : 4);
+        if (index < 0 || index > Hpack.STATIC_COUNT + table.length()) {
+            return false;
+        }
+
+        byte[] nameArray;
+        int nameOffset;
+        int nameLength;
+        if (index > 0) {
+            nameArray = indexedName(index);
+            nameOffset = 0;
+            nameLength = nameArray.length;
+        } else {
+            if (!readString(block, nameScratch)) {
+                return false;
+            }
+            nameArray = array;
+            nameOffset = offset;
+            nameLength = length;
+        }
+        if (!readString(block, valueScratch)) {
+            return false;
+        }
+        listener.header(nameArray, nameOffset, nameLength, array, offset, length);
+
+        if (indexing) {
+            byte[] name = index > 0 ? nameArray : Arrays.copyOfRange(nameArray, nameOffset, nameOffset + nameLength);
+            table.add(name, Arrays.copyOfRange(array, offset, offset + length));
+        }
+        return true;
+    }
+
+    // 讀取字串，結果放在 array / offset / length
+    private boolean readString(ByteBuffer block, ByteBuffer scratch) {
+        if (!block.hasRemaining()) {
+            return false;
+        }
+        int b = block.get() & 0xFF;
+        int n = Hpack.readInt(block, b, 7);
+        if (n < 0 || n > block.remaining()) {
+            return false;
+        }
+        int start = block.arrayOffset() + block.position();
+        block.position(block.position() + n);
+        if ((b & 0x80) == 0) {
+            array = block.array();
+            offset = start;
+            length = n;
+            return true;
+        }
+        scratch.clear();
+        if (!Hpack.huffmanDecode(block.array(), start, n, scratch)) {
+            return false;
+        }
+        array = scratch.array();
+        offset = 0;
+        length = scratch.position();
+        return true;
+    }
+
+    private byte[] indexedName(int index) {
+        return index <= Hpack.STATIC_COUNT ? Hpack.STATIC_NAMES[index - 1]
+                : table.name(index - Hpack.STATIC_COUNT - 1);
+    }
+
+    private byte[] indexedValue(int index) {
+        return index <= Hpack.STATIC_COUNT ? Hpack.STATIC_VALUES[index - 1]
+                : table.value(index - Hpack.STATIC_COUNT - 1);
+    }
+}
@@ -0,0 +1,86 @@
+import java.nio.ByteBuffer;
+
+/**
+ * HpackEncoder 類別
+ * 壓縮回應的 Header。
+ * 同一條連線上重複出現的 Header (Content-Type、Cache-Control、Vary 等) 第一次送出時加入動態表，
+ * 之後只需要 1 ~ 2 個位元組的索引；名稱在靜態表中的直接引用索引，其他字串在較短時使用 Huffman 編碼。
+ */
+final class HpackEncoder {
+
+    private static final byte[] STATUS = Hpack.STATIC_NAMES[7];
+    private static final int STATUS_NAME_INDEX = 8;
+
+    private final HpackTable table = new HpackTable(Hpack.DEFAULT_TABLE_SIZE);
+    // 客戶端以 SETTINGS_HEADER_TABLE_SIZE 變更大小後，要在下一個 Block 開頭通知
+    private boolean sizeChanged = false;
+    private int smallestSize = Integer.MAX_VALUE;
+    private int newSize;
+
+    /**
+     * 客戶端的 SETTINGS_HEADER_TABLE_SIZE (超過預設值時仍只使用預設大小)
+     *
+     * @param size 客戶端允許的動態表大小
+     */
+    void setMaxTableSize(int size) {
+        newSize = Math.min(size, Hpack.DEFAULT_TABLE_SIZE);
+        smallestSize = Math.min(smallestSize, newSize);
+        sizeChanged = true;
+    }
+
+    /**
+     * 編碼一個回應的 Header Block
+     *
+     * @param status 狀態碼 (3 個 ASCII 數字)
+     * @param fields 名稱 (小寫) 與值交錯排列的 Header
+     * @param out 輸出
+     */
+    void encode(byte[] status, byte[][] fields, ByteBuffer out) {
+        if (sizeChanged) {
+            // 期間曾經變小過，要先通知最小值，客戶端才會移除相同的項目
+            if (smallestSize < newSize) {
+                table.setMaxSize(smallestSize);
+                Hpack.writeInt(out, 0x20, 5, smallestSize);
+            }
+            table.setMaxSize(newSize);
+            Hpack.writeInt(out, 0x20, 5, newSize);
+            sizeChanged = false;
+            smallestSize = Integer.MAX_VALUE;
+        }
+        field(STATUS, STATUS_NAME_INDEX, status, out);
+        for (int i = 0; i < fields.length; i += 2) {
+            field(fields[i], 0, fields[i + 1], out);
+        }
+    }
+
+    private void field(byte[] name, int nameIndex, byte[] value, ByteBuffer out) {
+        int index = Hpack.staticIndex(name, value);
+        if (index == 0) {
+            int dynamic = table.find(name, value);
+            if (dynamic >= 0) {
+                index = Hpack.STATIC_COUNT + 1 + dynamic;
+            }
+        }
+        if (index > 0) {
+            Hpack.writeInt(out, 0x80, 7, index);
+            return;
+        }
+
+        // Literal Header Field with Incremental Indexing
+        if (nameIndex == 0) {
+            nameIndex = Hpack.staticNameIndex(name);
+        }
+        if (nameIndex == 0) {
+            int dynamic = table.findName(name);
+            if (dynamic >= 0) {
+                nameIndex = Hpack.STATIC_COUNT + 1 + dynamic;
+            }
+        }
+        Hpack.writeInt(out, 0x40, 6, nameIndex);
+        if (nameIndex == 0) {
+            Hpack.writeString(out, name);
+        }
+        Hpack.writeString(out, value);
+        table.add(name, value);
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.Arrays;
+
+/**
+ * HpackTable 類別
+ * HPACK 的動態表: 新項目加在最前面 (索引 0)，超過大小上限時從最舊的項目開始移除。
+ * 以環狀陣列保存，加入與移除都不需要搬移其他項目。
+ */
+final class HpackTable {
+
+    private byte[][] names = new byte[16][];
+    private byte[][] values = new byte[16][];
+    // 下一個項目要放的位置；最新的項目在 head - 1
+    private int head;
+    private int count;
+    private int size;
+    private int maxSize;
+
+    HpackTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /** @return 項目數 */
+    int length() {
+        return count;
+    }
+
+    /** @return 大小上限 */
+    int maxSize() {
+        return maxSize;
+    }
+
+    /** @param index 0 為最新的項目 */
+    byte[] name(int index) {
+        return names[(head - 1 - index) & (names.length - 1)];
+    }
+
+    /** @param index 0 為最新的項目 */
+    byte[] value(int index) {
+        return values[(head - 1 - index) & (values.length - 1)];
+    }
+
+    /**
+     * 加入項目 (比大小上限還大的項目會清空整張表，本身也不加入)
+     *
+     * @param name 名稱 (之後不可再修改)
+     * @param value 值 (之後不可再修改)
+     */
+    void add(byte[] name, byte[] value) {
+        int entrySize = name.length + value.length + Hpack.ENTRY_OVERHEAD;
+        if (entrySize > maxSize) {
+            evict(0);
+            return;
+        }
+        evict(maxSize - entrySize);
+        if (count == names.length) {
+            grow();
+        }
+        names[head] = name;
+        values[head] = value;
+        head = (head + 1) & (names.length - 1);
+        count++;
+        size += entrySize;
+    }
+
+    /**
+     * 變更大小上限，並移除超出的項目
+     *
+     * @param maxSize 新的上限
+     */
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict(maxSize);
+    }
+
+    /**
+     * 尋找名稱與值都相同的項目
+     *
+     * @return 索引 (0 為最新)，找不到時為 -1
+     */
+    int find(byte[] name, byte[] value) {
+        for (int i = 0; i < count; i++) {
+            if (Arrays.equals(value(i), value) && Arrays.equals(name(i), name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 尋找名稱相同的項目
+     *
+     * @return 索引 (0 為最新)，找不到時為 -1
+     */
+    int findName(byte[] name) {
+        for (int i = 0; i < count; i++) {
+            if (Arrays.equals(name(i), name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // 移除最舊的項目，直到大小不超過 target
+    private void evict(int target) {
+        int mask = names.length - 1;
+        while (size > target) {
+            int oldest = (head - count) & mask;
+            size -= names[oldest].length + values[oldest].length + Hpack.ENTRY_OVERHEAD;
+            names[oldest] = null;
+            values[oldest] = null;
+            count--;
+        }
+    }
+
+    private void grow() {
+        byte[][] newNames = new byte[names.length * 2][];
+        byte[][] newValues = new byte[values.length * 2][];
+        // 由舊到新依序搬到新陣列的開頭
+        for (int i = 0; i < count; i++) {
+            newNames[i] = name(count - 1 - i);
+            newValues[i] = value(count - 1 - i);
+        }
+        names = newNames;
+        values = newValues;
+        head = count;
+    }
+}
@@ -0,0 +1,100 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Http1Exchange 類別
+ * HTTP/1.x 的 HttpExchange: 回應直接排入連線的 OutboundQueue，並依 Connection 模式選擇預先編碼的 Head。
+ */
+class Http1Exchange extends HttpExchange {
+
+    private OutboundQueue out;
+    private int connection;
+
+    /**
+     * 開始處理新的請求
+     *
+     * @param request 已解析完成的 Request
+     * @param out 輸出佇列
+     * @param connection CachedResponse.CONNECTION_* 其中之一
+     */
+    void reset(HttpRequestParser request, OutboundQueue out, int connection) {
+        begin(request);
+        this.out = out;
+        this.connection = connection;
+    }
+
+    /** @return 回應要使用的 CachedResponse.CONNECTION_* 模式 (CONNECTION_CLOSE 表示送完後關閉連線) */
+    int connection() {
+        return connection;
+    }
+
+    /**
+     * 送出預先編碼好的回應 (HEAD 請求只送出 Header)
+     *
+     * @param response 回應
+     */
+    @Override
+    void send(CachedResponse response) {
+        if (isHead()) {
+            out.add(response.head(connection));
+        } else {
+            out.add(response, connection);
+        }
+    }
+
+    /**
+     * 送出 Header 與一段檔案內容 (HEAD 請求只送出 Header 並關閉檔案)
+     *
+     * @param response 只有 Head 的回應 (CachedResponse.headOnly)
+     * @param body 檔案內容
+     */
+    @Override
+    void send(CachedResponse response, FileRegion body) {
+        out.add(response.head(connection));
+        if (isHead()) {
+            body.close();
+        } else {
+            out.add(body);
+        }
+    }
+
+    @Override
+    void send(CachedResponse response, ByteBuffer body) {
+        out.add(response.head(connection));
+        if (!isHead()) {
+            out.add(body);
+        }
+    }
+
+    @Override
+    void send(CachedResponse response, MultipartBody body) {
+        out.add(response.head(connection));
+        if (isHead()) {
+            body.close();
+        } else {
+            out.add(body);
+        }
+    }
+
+    /**
+     * 送出串流回應，Body 邊產生邊送出
+     * 保持連線時以 chunked 編碼分段；HTTP/1.0 不支援 chunked，改為送完後關閉連線。
+     *
+     * @param response CachedResponse.streaming 建立的 Head
+     * @param body 內容來源 (HEAD 請求只送出 Header，直接關閉)
+     */
+    @Override
+    void send(CachedResponse response, StreamingBody body) {
+        if (!response.isStreaming()) {
+            throw new IllegalArgumentException("Response head is not created by CachedResponse.streaming");
+        }
+        if (connection == CachedResponse.CONNECTION_KEEP_ALIVE) {
+            connection = CachedResponse.CONNECTION_CLOSE;
+        }
+        out.add(response.head(connection));
+        if (isHead()) {
+            body.close();
+        } else {
+            out.add(body, connection != CachedResponse.CONNECTION_CLOSE);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+/**
+ * Http1Processor 類別
+ * 一條 HTTP/1.x 連線的請求處理邏輯，Thread 模式 (ClientHandler) 與 NIO 模式 (NioConnection) 共用。
+ *
+ * 負責 Persistent Connection 的判斷: 依照 Connection Header、請求數上限決定是否保持連線；
+ * 一次讀進來的資料若包含多個 Pipelining 請求，會依序處理並把回應全部排進 OutboundQueue，
+ * 由呼叫端一次送出，而不是每個回應各 flush 一次。
+ * 回應全部寫完時，才把這批請求的延遲 (從讀到請求算起) 記進各路由的統計。
+ *
+ * 每個請求處理前先經過共用的 AdmissionControl: 處理中的請求過多、或等待太久時直接回 503，
+ * 不交給處理器；接受的請求在回應寫完 (或連線關閉) 時才歸還。
+ *
+ * 連線一開始就收到 HTTP/2 的 Connection Preface，或請求帶有 Upgrade: h2c 時，
+ * 改由 Http2Processor 接手 (next())，沿用同一個 OutboundQueue。
+ */
+class Http1Processor extends ConnectionProcessor {
+
+    private static final byte[] UPGRADE = HttpRequestParser.ascii("upgrade");
+    private static final byte[] H2C = HttpRequestParser.ascii("h2c");
+    private static final byte[] HTTP2_SETTINGS = HttpRequestParser.ascii("http2-settings");
+    private static final byte[] SWITCHING_PROTOCOLS = HttpRequestParser.ascii(
+            "HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n");
+
+    private final HttpServerConfig config;
+    private final Router router;
+    private final HttpRequestParser request = new HttpRequestParser();
+    private final OutboundQueue outbound = new OutboundQueue();
+    private final Http1Exchange exchange = new Http1Exchange();
+    private final HttpMetrics metrics;
+    private final AdmissionControl admission;
+    private final AccessLog log = AccessLog.get();
+    // 超過負荷時的 503 回應，第一次用到時才建立
+    private CachedResponse serviceUnavailable;
+
+    // 已排入回應、還沒寫完的請求所屬的路由 (被拒絕的請求為 null)，與這批請求讀進來的時間
+    private RouteMetrics[] pending = new RouteMetrics[8];
+    private int pendingCount = 0;
+    // 其中被 AdmissionControl 接受的請求數
+    private int admitted = 0;
+    private long receivedAt;
+
+    private int requestCount = 0;
+    private boolean closing = false;
+    // 切換協定後接手的處理器
+    private ConnectionProcessor next = this;
+    // 目前請求尚未略過的 Body 位元組數
+    private long bodyRemaining = 0;
+
+    /**
+     * Http1Processor 建構子
+     *
+     * @param config 伺服器設定
+     * @param router 共用的路由表
+     */
+    Http1Processor(HttpServerConfig config, Router router) {
+        this.config = config;
+        this.router = router;
+        this.metrics = router.metrics();
+        this.admission = metrics.admission();
+    }
+
+    /**
+     * 處理 Buffer 中所有已完整收到的請求
+     *
+     * @param buffer 寫入模式的 Buffer (有效資料為 0 ~ position)，處理完的資料會被移除
+     * @param arrivedAt 資料讀進來的時間 (System.nanoTime)，用來計算請求等待了多久
+     */
+    @Override
+    void process(ByteBuffer buffer, long arrivedAt) {
+        if (pendingCount == 0) {
+            receivedAt = arrivedAt;
+        }
+        if (config.h2c && requestCount == 0 && next == this && startsWithPreface(buffer)) {
+            // Prior Knowledge: 收齊 Preface 才交接，Preface 本身留給 Http2Processor 檢查
+            if (buffer.position() >= Http2Processor.PREFACE.length) {
+                next = new Http2Processor(config, router, outbound, 0);
+            }
+            return;
+        }
+        while (!closing && next == this) {
+            if (bodyRemaining > 0 && !skipBody(buffer)) {
+                return;
+            }
+
+            int result = request.parse(buffer);
+            if (result == HttpRequestParser.NEED_MORE) {
+                if (!buffer.hasRemaining()) {
+                    // Header 超過 Buffer 大小
+                    respondAndClose(ClientHandler.HEADERS_TOO_LARGE_RESPONSE);
+                }
+                return;
+            }
+            if (result == HttpRequestParser.ERROR) {
+                respondAndClose(ClientHandler.BAD_REQUEST_RESPONSE);
+                return;
+            }
+
+            log.log(AccessLog.HTTP_REQUEST, request.buffer(), request.requestLineStart(), request.requestLineEnd(), 0);
+            requestCount++;
+
+            long contentLength = request.contentLength();
+            if (contentLength == HttpRequestParser.CONFLICTING_LENGTH) {
+                respondAndClose(ClientHandler.BAD_REQUEST_RESPONSE);
+                return;
+            }
+            if (isH2cUpgrade(contentLength)) {
+                upgrade(buffer, arrivedAt);
+                return;
+            }
+            boolean keepAlive = request.keepAlive() && contentLength >= 0
+                    && (config.maxRequestsPerConnection == 0 || requestCount < config.maxRequestsPerConnection);
+
+            exchange.reset(request, outbound, connectionMode(keepAlive));
+            if (admission.tryAcquire(arrivedAt) == AdmissionControl.ADMITTED) {
+                admitted++;
+                // 根據 Method 與 URL 決定回應內容 (Routing)
+                try {
+                    router.dispatch(exchange);
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                    respondAndClose(ClientHandler.INTERNAL_ERROR_RESPONSE);
+                    return;
+                }
+            } else {
+                // 超過負荷: 不交給處理器，直接回 503 (連線照常保持)
+                if (serviceUnavailable == null) {
+                    serviceUnavailable = ClientHandler.serviceUnavailable(config.retryAfterSeconds);
+                }
+                exchange.send(serviceUnavailable);
+            }
+            if (pendingCount == pending.length) {
+                pending = Arrays.copyOf(pending, pendingCount * 2);
+            }
+            pending[pendingCount++] = exchange.route();
+            if (exchange.route() != null) {
+                outbound.end(exchange.route());
+            }
+
+            // 丟掉處理完的 Head，保留已經讀進來的下一個請求
+            request.consume(buffer);
+            // 處理器可能改為送完後關閉 (例如 HTTP/1.0 的串流回應)
+            if (!keepAlive || exchange.connection() == CachedResponse.CONNECTION_CLOSE) {
+                closing = true;
+            } else {
+                bodyRemaining = contentLength;
+            }
+        }
+    }
+
+    // 已收到的資料是否為 HTTP/2 Connection Preface 的開頭
+    private static boolean startsWithPreface(ByteBuffer buffer) {
+        int n = Math.min(buffer.position(), Http2Processor.PREFACE.length);
+        for (int i = 0; i < n; i++) {
+            if (buffer.get(i) != Http2Processor.PREFACE[i]) {
+                return false;
+            }
+        }
+        return n > 0;
+    }
+
+    // 只在沒有 Body、前面的回應都已送完時接受 Upgrade (之後的位元組都屬於 HTTP/2)
+    private boolean isH2cUpgrade(long contentLength) {
+        if (!config.h2c || contentLength != 0 || pendingCount > 0 || request.isHttp10()) {
+            return false;
+        }
+        int h = request.header(UPGRADE);
+        return h >= 0 && request.headerHasToken(h, H2C) && request.header(HTTP2_SETTINGS) >= 0;
+    }
+
+    // 回 101 後改由 Http2Processor 接手，這個請求成為 Stream 1
+    private void upgrade(ByteBuffer buffer, long arrivedAt) {
+        outbound.add(ByteBuffer.wrap(SWITCHING_PROTOCOLS).asReadOnlyBuffer());
+        Http2Processor http2 = new Http2Processor(config, router, outbound, requestCount - 1);
+        http2.upgrade(request, request.headerValue(request.header(HTTP2_SETTINGS)), arrivedAt);
+        request.consume(buffer);
+        next = http2;
+    }
+
+    // 略過 (目前沒有路由會用到的) Request Body；全部略過時回傳 true
+    private boolean skipBody(ByteBuffer buffer) {
+        int skip = (int) Math.min(bodyRemaining, buffer.position());
+        buffer.flip();
+        buffer.position(skip);
+        buffer.compact();
+        bodyRemaining -= skip;
+        return bodyRemaining == 0;
+    }
+
+    private int connectionMode(boolean keepAlive) {
+        if (!keepAlive) {
+            return CachedResponse.CONNECTION_CLOSE;
+        }
+        return request.isHttp10() ? CachedResponse.CONNECTION_KEEP_ALIVE : CachedResponse.CONNECTION_DEFAULT;
+    }
+
+    private void respondAndClose(CachedResponse response) {
+        outbound.add(response, CachedResponse.CONNECTION_CLOSE);
+        closing = true;
+    }
+
+    /**
+     * 盡量寫出已排入的回應，並更新統計
+     *
+     * @param channel 連線的 Channel
+     * @return 全部送出時為 true
+     * @throws IOException 當寫入失敗時拋出
+     */
+    @Override
+    boolean flush(GatheringByteChannel channel) throws IOException {
+        boolean done;
+        try {
+            done = outbound.flush(channel);
+        } finally {
+            metrics.bytesOut(outbound.takeBytesWritten());
+        }
+        if (done && pendingCount > 0) {
+            long elapsed = System.nanoTime() - receivedAt;
+            for (int i = 0; i < pendingCount; i++) {
+                if (pending[i] != null) {
+                    pending[i].record(elapsed);
+                    pending[i] = null;
+                }
+            }
+            pendingCount = 0;
+            releaseAdmitted();
+        }
+        return done;
+    }
+
+    /**
+     * 連線關閉時呼叫: 丟掉沒送完的回應，歸還這些請求佔用的名額
+     */
+    @Override
+    void close() {
+        outbound.clear();
+        Arrays.fill(pending, 0, pendingCount, null);
+        pendingCount = 0;
+        releaseAdmitted();
+    }
+
+    private void releaseAdmitted() {
+        if (admitted > 0) {
+            admission.release(admitted);
+            admitted = 0;
+        }
+    }
+
+    @Override
+    void onResume(Runnable resume) {
+        outbound.onResume(resume);
+    }
+
+    /** @return 串流回應暫時沒有資料，等它通知後再 flush */
+    @Override
+    boolean isWaitingForData() {
+        return outbound.isWaiting();
+    }
+
+    @Override
+    ConnectionProcessor next() {
+        return next;
+    }
+
+    /** @return 回應送完後是否要關閉連線 */
+    @Override
+    boolean isClosing() {
+        return closing;
+    }
+
+    /** @return 已處理的請求數 */
+    @Override
+    int requestCount() {
+        return requestCount;
+    }
+}
@@ -0,0 +1,1257 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Http2Processor 類別
+ * 一條 HTTP/2 明文 (h2c) 連線的處理邏輯 (RFC 7540)，Thread 模式與 NIO 模式共用。
+ *
+ * 連線由 Http1Processor 交接: 一開始就收到 Connection Preface (Prior Knowledge)，
+ * 或 HTTP/1.1 請求帶有 Upgrade: h2c (這個請求成為 Stream 1)。
+ * 收到的資料先放進自己的 Buffer，湊成完整的 Frame 才處理；HEADERS 以 HPACK 解碼後
+ * 組成 HTTP/1.1 格式的 Request Head 交給 HttpRequestParser，再由同一個 Router 分派，
+ * 所以兩種協定使用相同的路由與處理器。
+ *
+ * 處理器在 dispatch 中就把回應交給 Http2Stream；Frame 等到要寫出時才產生:
+ * 輪流從每個還有資料的 Stream 取一個 DATA Frame (受 Flow Control 的 Window 限制)，
+ * 大檔案不會擋住同一條連線上其他 Stream 的小回應。
+ * Frame Header 與控制 Frame 寫在連線共用的 Buffer 中 (佇列清空後從頭重複使用)；
+ * Body 直接引用 CachedResponse 的內容，檔案以 FileRegion 分段 transferTo，都不複製。
+ */
+class Http2Processor extends ConnectionProcessor {
+
+    /** 客戶端的 Connection Preface */
+    static final byte[] PREFACE = HttpRequestParser.ascii("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n");
+
+    private static final int FRAME_HEADER = 9;
+    // 雙方都必須接受的 Frame 大小 (SETTINGS_MAX_FRAME_SIZE 的預設值)，我們收送都不超過這個大小
+    private static final int MAX_FRAME_SIZE = 16384;
+    private static final int DEFAULT_WINDOW = 65535;
+    private static final long MAX_WINDOW = Integer.MAX_VALUE;
+    // Header Block (HEADERS + CONTINUATION) 的上限
+    private static final int MAX_HEADER_BLOCK = 64 * 1024;
+    // 每一輪最多產生的資料量；送完後才產生下一輪
+    private static final int ROUND_BYTES = 64 * 1024;
+    // 每次 flush 最多幾輪，之後先讓呼叫端讀取 (WINDOW_UPDATE、新的請求)
+    private static final int ROUNDS_PER_FLUSH = 4;
+
+    // Frame 種類
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    // Flag
+    private static final int END_STREAM = 0x1;
+    private static final int ACK = 0x1;
+    private static final int END_HEADERS = 0x4;
+    private static final int PADDED = 0x8;
+    private static final int PRIORITY_FLAG = 0x20;
+
+    // SETTINGS 參數
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    // Error Code
+    private static final int PROTOCOL_ERROR = 0x1;
+    private static final int INTERNAL_ERROR = 0x2;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+    private static final int STREAM_CLOSED = 0x5;
+    private static final int FRAME_SIZE_ERROR = 0x6;
+    private static final int REFUSED_STREAM = 0x7;
+    private static final int COMPRESSION_ERROR = 0x9;
+
+    private final HttpServerConfig config;
+    private final Router router;
+    private final HttpMetrics metrics;
+    private final AdmissionControl admission;
+    private final AccessLog log = AccessLog.get();
+    private final OutboundQueue outbound;
+    private final HpackDecoder decoder = new HpackDecoder();
+    private final HpackEncoder encoder = new HpackEncoder();
+    private final Http2RequestHead requestHead = new Http2RequestHead();
+    private final HttpRequestParser request = new HttpRequestParser();
+    private final Http2Exchange exchange = new Http2Exchange();
+    // 超過負荷時的 503 回應，第一次用到時才建立
+    private CachedResponse serviceUnavailable;
+
+    // 收到、尚未處理的資料 (寫入模式)
+    private final ByteBuffer input = ByteBuffer.allocate(2 * MAX_FRAME_SIZE);
+    // 組合中的 Header Block 與它所屬的 Stream (0 表示沒有)
+    private ByteBuffer headerBlock = ByteBuffer.allocate(4096);
+    private int headerStream = 0;
+    private boolean headerEndStream;
+    // 組合出的 HTTP/1.1 格式 Request Head
+    private final ByteBuffer head = ByteBuffer.allocate(ClientHandler.MAX_REQUEST_HEAD);
+    // Frame Header、控制 Frame 與串流內容共用的 Buffer
+    private final ByteBuffer frames = ByteBuffer.allocate(ROUND_BYTES + 2 * MAX_FRAME_SIZE);
+    // HPACK 編碼後的 Header Block
+    private final ByteBuffer encoded = ByteBuffer.allocate(MAX_FRAME_SIZE);
+
+    // 進行中的 Stream (依建立順序)，其中已結束、等待佇列送完的 Stream
+    private Http2Stream[] streams = new Http2Stream[8];
+    private int streamCount = 0;
+    private Http2Stream[] finished = new Http2Stream[8];
+    private int finishedCount = 0;
+    // 輪流產生 DATA Frame 的位置
+    private int cursor = 0;
+    private int lastStreamId = 0;
+
+    private boolean prefaceReceived = false;
+    private boolean goAwayReceived = false;
+    private boolean closing = false;
+    // 上次 flush 沒有可以送出的 Frame，且有串流內容在等待新資料
+    private boolean waitingForData = false;
+    // 串流內容有新資料時通知連線 (由連線設定，可能在其他執行緒上呼叫)
+    private volatile Runnable resume = () -> { };
+    // 連線層級的傳送 Window，與客戶端指定的 Stream 初始 Window
+    private long sendWindow = DEFAULT_WINDOW;
+    private int initialWindow = DEFAULT_WINDOW;
+    private int requestCount;
+
+    /**
+     * Http2Processor 建構子，並排入伺服器的 SETTINGS (Connection Preface)
+     *
+     * @param config 伺服器設定
+     * @param router 共用的路由表
+     * @param outbound 連線的輸出佇列 (沿用 Http1Processor 的佇列，Upgrade 的 101 回應已在其中)
+     * @param requestCount 這條連線之前以 HTTP/1.1 處理的請求數
+     */
+    Http2Processor(HttpServerConfig config, Router router, OutboundQueue outbound, int requestCount) {
+        this.config = config;
+        this.router = router;
+        this.metrics = router.metrics();
+        this.admission = metrics.admission();
+        this.outbound = outbound;
+        this.requestCount = requestCount;
+
+        ByteBuffer settings = frame(12, SETTINGS, 0, 0);
+        settings.putShort((short) SETTINGS_MAX_CONCURRENT_STREAMS).putInt(config.h2MaxConcurrentStreams);
+        settings.putShort((short) SETTINGS_MAX_HEADER_LIST_SIZE).putInt(ClientHandler.MAX_REQUEST_HEAD);
+        send(settings);
+    }
+
+    /**
+     * 以 Upgrade: h2c 切換時呼叫: 套用 HTTP2-Settings，並把這個 HTTP/1.1 請求當作 Stream 1 處理
+     *
+     * @param upgrade 已解析完成的 Upgrade 請求
+     * @param settings HTTP2-Settings Header 的值 (base64url 編碼的 SETTINGS Payload)
+     * @param arrivedAt 請求讀進來的時間
+     */
+    void upgrade(HttpRequestParser upgrade, String settings, long arrivedAt) {
+        byte[] payload;
+        try {
+            payload = Base64.getUrlDecoder().decode(settings.trim());
+        } catch (IllegalArgumentException e) {
+            payload = null;
+        }
+        // 101 回應就代表接受這些設定，不需要另外回 SETTINGS ACK
+        if (payload == null || payload.length % 6 != 0 || !applySettings(ByteBuffer.wrap(payload), 0, payload.length)) {
+            goAway(PROTOCOL_ERROR);
+            return;
+        }
+        lastStreamId = 1;
+        Http2Stream stream = open(1, arrivedAt);
+        stream.remoteClosed = true;
+        dispatch(stream, upgrade);
+    }
+
+    @Override
+    void process(ByteBuffer buffer, long arrivedAt) {
+        buffer.flip();
+        while (buffer.hasRemaining() && !closing) {
+            int n = Math.min(buffer.remaining(), input.remaining());
+            input.put(input.position(), buffer, buffer.position(), n);
+            input.position(input.position() + n);
+            buffer.position(buffer.position() + n);
+            readFrames(arrivedAt);
+        }
+        // 資料都已移到 input (準備關閉時直接丟掉)
+        buffer.clear();
+    }
+
+    // 處理 input 中所有完整的 Frame
+    private void readFrames(long arrivedAt) {
+        int pos = 0;
+        int limit = input.position();
+        if (!prefaceReceived) {
+            for (int i = 0; i < Math.min(limit, PREFACE.length); i++) {
+                if (input.get(i) != PREFACE[i]) {
+                    // 不是 HTTP/2 客戶端，直接關閉
+                    closing = true;
+                    return;
+                }
+            }
+            if (limit < PREFACE.length) {
+                return;
+            }
+            prefaceReceived = true;
+            pos = PREFACE.length;
+        }
+
+        while (!closing && limit - pos >= FRAME_HEADER) {
+            int length = (input.get(pos) & 0xFF) << 16 | (input.get(pos + 1) & 0xFF) << 8 | input.get(pos + 2) & 0xFF;
+            if (length > MAX_FRAME_SIZE) {
+                goAway(FRAME_SIZE_ERROR);
+                break;
+            }
+            if (limit - pos < FRAME_HEADER + length) {
+                break;
+            }
+            int type = input.get(pos + 3) & 0xFF;
+            int flags = input.get(pos + 4) & 0xFF;
+            int streamId = input.getInt(pos + 5) & 0x7FFFFFFF;
+            onFrame(type, flags, streamId, pos + FRAME_HEADER, length, arrivedAt);
+            pos += FRAME_HEADER + length;
+        }
+
+        // 丟掉處理完的 Frame，保留不完整的部分
+        input.flip();
+        input.position(closing ? input.limit() : pos);
+        input.compact();
+    }
+
+    private void onFrame(int type, int flags, int streamId, int offset, int length, long arrivedAt) {
+        // Header Block 必須以連續的 CONTINUATION 收完，中間不能夾其他 Frame
+        if (headerStream != 0 && type != CONTINUATION) {
+            goAway(PROTOCOL_ERROR);
+            return;
+        }
+        switch (type) {
+            case DATA:
+                onData(flags, streamId, offset, length);
+                break;
+            case HEADERS:
+                onHeaders(flags, streamId, offset, length, arrivedAt);
+                break;
+            case PRIORITY:
+                // 不依優先權排程，只檢查格式
+                if (streamId == 0) {
+                    goAway(PROTOCOL_ERROR);
+                } else if (length != 5) {
+                    resetStream(streamId, FRAME_SIZE_ERROR);
+                }
+                break;
+            case RST_STREAM:
+                onResetStream(streamId, length);
+                break;
+            case SETTINGS:
+                onSettings(flags, streamId, offset, length);
+                break;
+            case PING:
+                if (streamId != 0) {
+                    goAway(PROTOCOL_ERROR);
+                } else if (length != 8) {
+                    goAway(FRAME_SIZE_ERROR);
+                } else if ((flags & ACK) == 0) {
+                    ByteBuffer pong = frame(8, PING, ACK, 0);
+                    pong.put(input.slice(offset, 8));
+                    send(pong);
+                }
+                break;
+            case GOAWAY:
+                // 客戶端不會再建立新的 Stream，處理完進行中的 Stream 就關閉
+                goAwayReceived = true;
+                break;
+            case WINDOW_UPDATE:
+                onWindowUpdate(streamId, offset, length);
+                break;
+            case CONTINUATION:
+                if (headerStream == 0 || streamId != headerStream) {
+                    goAway(PROTOCOL_ERROR);
+                    return;
+                }
+                appendHeaderBlock(offset, length);
+                if ((flags & END_HEADERS) != 0) {
+                    endHeaders(arrivedAt);
+                }
+                break;
+            case PUSH_PROMISE:
+                // 客戶端不可以推送
+                goAway(PROTOCOL_ERROR);
+                break;
+            default:
+                // 未知的 Frame 依規定忽略
+                break;
+        }
+    }
+
+    private void onData(int flags, int streamId, int offset, int length) {
+        if (streamId == 0) {
+            goAway(PROTOCOL_ERROR);
+            return;
+        }
+        if ((flags & PADDED) != 0 && (length == 0 || (input.get(offset) & 0xFF) >= length)) {
+            goAway(PROTOCOL_ERROR);
+            return;
+        }
+        // 目前的路由都不使用 Request Body: 直接丟棄，但要歸還 Flow Control 的 Window
+        if (length > 0) {
+            windowUpdate(0, length);
+        }
+        Http2Stream stream = find(streamId);
+        if (stream == null) {
+            if (streamId > lastStreamId) {
+                goAway(PROTOCOL_ERROR);
+            }
+            // 回應已送完的 Stream 仍可能收到客戶端剩下的 Body，忽略即可
+            return;
+        }
+        if (stream.remoteClosed) {
+            resetStream(streamId, STREAM_CLOSED);
+            return;
+        }
+        if ((flags & END_STREAM) != 0) {
+            stream.remoteClosed = true;
+        } else if (length > 0) {
+            windowUpdate(streamId, length);
+        }
+    }
+
+    private void onHeaders(int flags, int streamId, int offset, int length, long arrivedAt) {
+        if (streamId == 0 || (streamId & 1) == 0) {
+            goAway(PROTOCOL_ERROR);
+            return;
+        }
+        int start = offset;
+        int end = offset + length;
+        if ((flags & PADDED) != 0) {
+            if (length == 0) {
+                goAway(PROTOCOL_ERROR);
+                return;
+            }
+            end -= input.get(start++) & 0xFF;
+        }
+        if ((flags & PRIORITY_FLAG) != 0) {
+            start += 5;
+        }
+        if (start > end) {
+            goAway(PROTOCOL_ERROR);
+            return;
+        }
+        headerBlock.clear();
+        headerStream = streamId;
+        headerEndStream = (flags & END_STREAM) != 0;
+        appendHeaderBlock(start, end - start);
+        if ((flags & END_HEADERS) != 0) {
+            endHeaders(arrivedAt);
+        }
+    }
+
+    private void appendHeaderBlock(int offset, int length) {
+        if (headerBlock.remaining() < length) {
+            if (headerBlock.position() + length > MAX_HEADER_BLOCK) {
+                goAway(PROTOCOL_ERROR);
+                return;
+            }
+            int capacity = Math.min(MAX_HEADER_BLOCK, Math.max(headerBlock.capacity() * 2, headerBlock.position() + length));
+            headerBlock = ByteBuffer.allocate(capacity).put(headerBlock.flip());
+        }
+        headerBlock.put(headerBlock.position(), input, offset, length);
+        headerBlock.position(headerBlock.position() + length);
+    }
+
+    // 收完一個 Header Block: 解碼，開始新的 Stream 並分派請求
+    private void endHeaders(long arrivedAt) {
+        if (closing) {
+            return;
+        }
+        int streamId = headerStream;
+        headerStream = 0;
+        headerBlock.flip();
+        requestHead.start();
+        // 不論請求是否會被接受，都要解完整個 Block，動態表才會與客戶端一致
+        if (!decoder.decode(headerBlock, requestHead)) {
+            goAway(COMPRESSION_ERROR);
+            return;
+        }
+
+        if (streamId <= lastStreamId) {
+            // 既有 Stream 的第二個 Header Block 只能是結束 Body 的 Trailer
+            Http2Stream stream = find(streamId);
+            if (stream == null || stream.remoteClosed || !headerEndStream) {
+                resetStream(streamId, stream == null ? STREAM_CLOSED : PROTOCOL_ERROR);
+            } else {
+                stream.remoteClosed = true;
+            }
+            return;
+        }
+        lastStreamId = streamId;
+        if (goAwayReceived) {
+            return;
+        }
+        if (streamCount >= config.h2MaxConcurrentStreams) {
+            resetStream(streamId, REFUSED_STREAM);
+            return;
+        }
+
+        int result = requestHead.finish(head);
+        if (result == Http2RequestHead.MALFORMED) {
+            resetStream(streamId, PROTOCOL_ERROR);
+            return;
+        }
+        Http2Stream stream = open(streamId, arrivedAt);
+        stream.remoteClosed = headerEndStream;
+        if (result == Http2RequestHead.TOO_LARGE) {
+            stream.respond(ClientHandler.HEADERS_TOO_LARGE_RESPONSE, null, null, null);
+            return;
+        }
+        request.reset();
+        if (request.parse(head) != HttpRequestParser.COMPLETE) {
+            stream.respond(ClientHandler.BAD_REQUEST_RESPONSE, null, null, null);
+            return;
+        }
+        log.log(AccessLog.HTTP_REQUEST, head, request.requestLineStart(), request.requestLineEnd(), 0);
+        dispatch(stream, request);
+    }
+
+    private void dispatch(Http2Stream stream, HttpRequestParser parsed) {
+        requestCount++;
+        exchange.reset(parsed, stream);
+        if (admission.tryAcquire(stream.arrivedAt) == AdmissionControl.ADMITTED) {
+            stream.admitted = true;
+            try {
+                router.dispatch(exchange);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                if (stream.hasResponse()) {
+                    resetStream(stream.id, INTERNAL_ERROR);
+                } else {
+                    stream.respond(ClientHandler.INTERNAL_ERROR_RESPONSE, null, null, null);
+                }
+                return;
+            }
+        } else {
+            // 超過負荷: 不交給處理器，這個 Stream 直接回 503 (連線照常保持)
+            if (serviceUnavailable == null) {
+                serviceUnavailable = ClientHandler.serviceUnavailable(config.retryAfterSeconds);
+            }
+            exchange.send(serviceUnavailable);
+        }
+        stream.route = exchange.route();
+        if (!stream.hasResponse()) {
+            stream.respond(ClientHandler.INTERNAL_ERROR_RESPONSE, null, null, null);
+        }
+    }
+
+    private void onResetStream(int streamId, int length) {
+        if (streamId == 0 || streamId > lastStreamId) {
+            goAway(PROTOCOL_ERROR);
+        } else if (length != 4) {
+            goAway(FRAME_SIZE_ERROR);
+        } else {
+            // 客戶端取消: 不再送出這個 Stream 的資料
+            Http2Stream stream = find(streamId);
+            if (stream != null && !stream.finished) {
+                stream.reset = true;
+                finish(stream);
+            }
+        }
+    }
+
+    private void onSettings(int flags, int streamId, int offset, int length) {
+        if (streamId != 0) {
+            goAway(PROTOCOL_ERROR);
+            return;
+        }
+        if ((flags & ACK) != 0) {
+            if (length != 0) {
+                goAway(FRAME_SIZE_ERROR);
+            }
+            return;
+        }
+        if (length % 6 != 0) {
+            goAway(FRAME_SIZE_ERROR);
+            return;
+        }
+        if (applySettings(input, offset, length)) {
+            send(frame(0, SETTINGS, ACK, 0));
+        }
+    }
+
+    // 套用客戶端的 SETTINGS；格式錯誤時送出 GOAWAY 並回傳 false
+    private boolean applySettings(ByteBuffer payload, int offset, int length) {
+        for (int i = offset; i < offset + length; i += 6) {
+            int id = payload.getShort(i) & 0xFFFF;
+            long value = payload.getInt(i + 2) & 0xFFFFFFFFL;
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    encoder.setMaxTableSize((int) Math.min(value, Integer.MAX_VALUE));
+                    break;
+                case SETTINGS_ENABLE_PUSH:
+                    if (value > 1) {
+                        goAway(PROTOCOL_ERROR);
+                        return false;
+                    }
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value > MAX_WINDOW) {
+                        goAway(FLOW_CONTROL_ERROR);
+                        return false;
+                    }
+                    // 變更會套用到所有進行中的 Stream，任何一個因此超過上限都是連線錯誤 (RFC 7540 6.9.2)
+                    int delta = (int) value - initialWindow;
+                    initialWindow = (int) value;
+                    for (int s = 0; s < streamCount; s++) {
+                        streams[s].sendWindow += delta;
+                        if (streams[s].sendWindow > MAX_WINDOW) {
+                            goAway(FLOW_CONTROL_ERROR);
+                            return false;
+                        }
+                        if (delta > 0) {
+                            streams[s].waiting = false;
+                        }
+                    }
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    // 我們送出的 Frame 一律不超過預設的 16384，只檢查範圍
+                    if (value < MAX_FRAME_SIZE || value > 0xFFFFFF) {
+                        goAway(PROTOCOL_ERROR);
+                        return false;
+                    }
+                    break;
+                default:
+                    // SETTINGS_MAX_CONCURRENT_STREAMS 等只限制伺服器推送或為建議值，其他未知參數依規定忽略
+                    break;
+            }
+        }
+        return true;
+    }
+
+    private void onWindowUpdate(int streamId, int offset, int length) {
+        if (length != 4) {
+            goAway(FRAME_SIZE_ERROR);
+            return;
+        }
+        int increment = input.getInt(offset) & 0x7FFFFFFF;
+        if (streamId == 0) {
+            sendWindow += increment;
+            if (increment == 0) {
+                goAway(PROTOCOL_ERROR);
+            } else if (sendWindow > MAX_WINDOW) {
+                goAway(FLOW_CONTROL_ERROR);
+            }
+            for (int s = 0; s < streamCount; s++) {
+                streams[s].waiting = false;
+            }
+            return;
+        }
+        if (streamId > lastStreamId) {
+            goAway(PROTOCOL_ERROR);
+            return;
+        }
+        Http2Stream stream = find(streamId);
+        if (increment == 0) {
+            resetStream(streamId, PROTOCOL_ERROR);
+        } else if (stream != null) {
+            stream.sendWindow += increment;
+            stream.waiting = false;
+            if (stream.sendWindow > MAX_WINDOW) {
+                resetStream(streamId, FLOW_CONTROL_ERROR);
+            }
+        }
+    }
+
+    private void windowUpdate(int streamId, int increment) {
+        ByteBuffer update = frame(4, WINDOW_UPDATE, 0, streamId);
+        update.putInt(increment);
+        send(update);
+    }
+
+    // 結束一個 Stream (不影響連線上的其他 Stream)
+    private void resetStream(int streamId, int errorCode) {
+        ByteBuffer reset = frame(4, RST_STREAM, 0, streamId);
+        reset.putInt(errorCode);
+        send(reset);
+        Http2Stream stream = find(streamId);
+        if (stream != null && !stream.finished) {
+            stream.reset = true;
+            finish(stream);
+        }
+    }
+
+    // 連線層級的錯誤: 送出 GOAWAY 後關閉連線
+    private void goAway(int errorCode) {
+        if (closing) {
+            return;
+        }
+        ByteBuffer goAway = frame(8, GOAWAY, 0, 0);
+        goAway.putInt(lastStreamId).putInt(errorCode);
+        send(goAway);
+        closing = true;
+    }
+
+    private Http2Stream open(int streamId, long arrivedAt) {
+        if (streamCount == streams.length) {
+            streams = Arrays.copyOf(streams, streamCount * 2);
+        }
+        Http2Stream stream = new Http2Stream(streamId, initialWindow, arrivedAt);
+        streams[streamCount++] = stream;
+        return stream;
+    }
+
+    private Http2Stream find(int streamId) {
+        for (int i = 0; i < streamCount; i++) {
+            if (streams[i].id == streamId) {
+                return streams[i];
+            }
+        }
+        return null;
+    }
+
+    // 回應已全部排入佇列 (或被重設): 等佇列送完時再結算
+    private void finish(Http2Stream stream) {
+        stream.finished = true;
+        if (finishedCount == finished.length) {
+            finished = Arrays.copyOf(finished, finishedCount * 2);
+        }
+        finished[finishedCount++] = stream;
+    }
+
+    @Override
+    boolean flush(GatheringByteChannel channel) throws IOException {
+        waitingForData = false;
+        for (int round = 0; round < ROUNDS_PER_FLUSH; round++) {
+            boolean done;
+            try {
+                done = outbound.flush(channel);
+            } finally {
+                metrics.bytesOut(outbound.takeBytesWritten());
+            }
+            if (!done) {
+                return false;
+            }
+            retireFinished();
+            // Upgrade 之後先只送出 101 與 SETTINGS，收到客戶端的 Connection Preface 才開始送 Stream 1 的回應:
+            // 有些客戶端 (例如 curl) 只能暫存緊接在 101 之後的少量資料，一次送出整個 Window 會讓它放棄連線
+            if (closing || !prefaceReceived) {
+                return true;
+            }
+            if (!generate()) {
+                // 有串流內容暫時沒有資料時不算送完，但不等 Socket 可寫: 等它通知 (resume) 或 Window 變大再向它要求
+                waitingForData = hasWaitingStream();
+                return !waitingForData;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasWaitingStream() {
+        for (int i = 0; i < streamCount; i++) {
+            if (streams[i].waiting && !streams[i].finished) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 佇列已送完: 記錄已結束的 Stream 的延遲，歸還名額並釋放資源
+    private void retireFinished() {
+        if (finishedCount == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < finishedCount; i++) {
+            Http2Stream stream = finished[i];
+            finished[i] = null;
+            if (stream.route != null && !stream.reset) {
+                stream.route.record(now - stream.arrivedAt);
+                stream.route.bytesOut(stream.bytesOut);
+            }
+            release(stream);
+            int index = 0;
+            while (streams[index] != stream) {
+                index++;
+            }
+            System.arraycopy(streams, index + 1, streams, index, streamCount - index - 1);
+            streams[--streamCount] = null;
+        }
+        finishedCount = 0;
+    }
+
+    private void release(Http2Stream stream) {
+        if (stream.admitted) {
+            admission.release(1);
+            stream.admitted = false;
+        }
+        stream.close();
+    }
+
+    /**
+     * 產生下一輪要送出的 Frame: 輪流從每個 Stream 取出 HEADERS 或一個 DATA Frame
+     *
+     * @return 有產生任何 Frame 時為 true；所有 Stream 都沒有資料或 Window 用完時為 false
+     */
+    private boolean generate() {
+        int emitted = 0;
+        int idle = 0;
+        while (emitted < ROUND_BYTES && idle < streamCount) {
+            if (cursor >= streamCount) {
+                cursor = 0;
+            }
+            Http2Stream stream = streams[cursor++];
+            int n = emit(stream);
+            if (n > 0) {
+                stream.bytesOut += n;
+                emitted += n;
+                idle = 0;
+            } else {
+                idle++;
+            }
+        }
+        return emitted > 0;
+    }
+
+    // 產生一個 Stream 的下一個 Frame，回傳產生的位元組數
+    private int emit(Http2Stream stream) {
+        if (stream.finished || !stream.hasResponse()) {
+            return 0;
+        }
+        if (!stream.headersSent) {
+            stream.headersSent = true;
+            boolean endStream = !stream.hasBody();
+            int n = writeHeaders(stream.id, stream.response, endStream);
+            if (endStream) {
+                finish(stream);
+            }
+            return n;
+        }
+
+        int max = (int) Math.min(MAX_FRAME_SIZE, Math.min(stream.sendWindow, sendWindow));
+        if (max <= 0) {
+            return 0; // 等待客戶端的 WINDOW_UPDATE
+        }
+        if (stream.parts != null && stream.partDone()) {
+            stream.nextPart();
+        }
+        // multipart 的段落之間不結束 Stream
+        boolean moreParts = stream.parts != null && stream.parts.hasNext();
+        int n;
+        boolean last;
+        if (stream.body != null) {
+            n = Math.min(max, stream.body.remaining());
+            last = n == stream.body.remaining() && !moreParts;
+            send(dataHeader(stream.id, n, last));
+            outbound.add(stream.body.slice(stream.body.position(), n));
+            stream.body.position(stream.body.position() + n);
+        } else if (stream.file != null) {
+            long remaining = stream.file.remaining();
+            n = (int) Math.min(max, remaining);
+            last = n == remaining && !moreParts;
+            send(dataHeader(stream.id, n, last));
+            outbound.add(stream.file.split(n));
+        } else {
+            if (stream.waiting && !stream.resumed) {
+                return 0; // 上次沒有資料，等它通知或 Window 變大
+            }
+            // 串流內容直接寫在 Frame Header 之後
+            int mark = outbound.isEmpty() ? 0 : frames.position(); // allocate 在佇列已空時從頭開始
+            ByteBuffer data = allocate(FRAME_HEADER + max);
+            data.position(FRAME_HEADER);
+            boolean more;
+            try {
+                more = stream.streaming.write(data);
+            } catch (IOException e) {
+                e.printStackTrace();
+                resetStream(stream.id, INTERNAL_ERROR);
+                return FRAME_HEADER;
+            }
+            n = data.position() - FRAME_HEADER;
+            stream.waiting = n == 0 && more;
+            if (stream.waiting) {
+                // 暫時沒有資料 (或剩下的 Window 不夠它寫出任何內容): 不送出空的 DATA Frame，並歸還剛才取用的空間；
+                // 之後由它通知 (resumeWhenReady) 或 WINDOW_UPDATE 讓這個 Stream 再被要求，不會一直詢問
+                if (frames.position() == mark + FRAME_HEADER + max) {
+                    frames.position(mark);
+                }
+                stream.resumed = false;
+                if (stream.resume == null) {
+                    stream.resume = () -> {
+                        stream.resumed = true;
+                        resume.run();
+                    };
+                }
+                stream.streaming.resumeWhenReady(stream.resume);
+                return 0;
+            }
+            last = !more;
+            writeFrameHeader(data, 0, n, DATA, last ? END_STREAM : 0, stream.id);
+            send(data);
+        }
+        stream.sendWindow -= n;
+        sendWindow -= n;
+        if (last) {
+            finish(stream);
+        }
+        return FRAME_HEADER + n;
+    }
+
+    // HPACK 編碼回應的 Header，超過一個 Frame 時以 CONTINUATION 接續
+    private int writeHeaders(int streamId, CachedResponse response, boolean endStream) {
+        encoded.clear();
+        encoder.encode(response.status(), response.fields(), encoded);
+        encoded.flip();
+        int total = 0;
+        int type = HEADERS;
+        do {
+            int n = Math.min(MAX_FRAME_SIZE, encoded.remaining());
+            int flags = n == encoded.remaining() ? END_HEADERS : 0;
+            if (type == HEADERS && endStream) {
+                flags |= END_STREAM;
+            }
+            ByteBuffer block = frame(n, type, flags, streamId);
+            block.put(encoded.slice(encoded.position(), n));
+            encoded.position(encoded.position() + n);
+            send(block);
+            total += FRAME_HEADER + n;
+            type = CONTINUATION;
+        } while (encoded.hasRemaining());
+        return total;
+    }
+
+    // 配置只有 Frame Header 的 DATA Frame (Payload 另外排入佇列)
+    private ByteBuffer dataHeader(int streamId, int length, boolean endStream) {
+        ByteBuffer header = allocate(FRAME_HEADER);
+        writeFrameHeader(header, 0, length, DATA, endStream ? END_STREAM : 0, streamId);
+        header.position(FRAME_HEADER);
+        return header;
+    }
+
+    // 配置一個 Frame 並寫好 Frame Header，呼叫端接著寫入 Payload 後以 send 排入佇列
+    private ByteBuffer frame(int length, int type, int flags, int streamId) {
+        ByteBuffer frame = allocate(FRAME_HEADER + length);
+        writeFrameHeader(frame, 0, length, type, flags, streamId);
+        frame.position(FRAME_HEADER);
+        return frame;
+    }
+
+    private static void writeFrameHeader(ByteBuffer frame, int index, int length, int type, int flags, int streamId) {
+        frame.put(index, (byte) (length >>> 16));
+        frame.put(index + 1, (byte) (length >>> 8));
+        frame.put(index + 2, (byte) length);
+        frame.put(index + 3, (byte) type);
+        frame.put(index + 4, (byte) flags);
+        frame.putInt(index + 5, streamId);
+    }
+
+    private void send(ByteBuffer frame) {
+        frame.flip();
+        outbound.add(frame);
+    }
+
+    // 從共用的 Buffer 切出一段；佇列清空時從頭開始，不夠時另外配置
+    private ByteBuffer allocate(int size) {
+        if (outbound.isEmpty()) {
+            frames.clear();
+        }
+        if (frames.remaining() < size) {
+            return ByteBuffer.allocate(size);
+        }
+        ByteBuffer slice = frames.slice(frames.position(), size);
+        frames.position(frames.position() + size);
+        return slice;
+    }
+
+    @Override
+    void close() {
+        outbound.clear();
+        for (int i = 0; i < streamCount; i++) {
+            release(streams[i]);
+            streams[i] = null;
+        }
+        streamCount = 0;
+        Arrays.fill(finished, 0, finishedCount, null);
+        finishedCount = 0;
+    }
+
+    @Override
+    boolean isClosing() {
+        return closing || (goAwayReceived && streamCount == 0);
+    }
+
+    @Override
+    int requestCount() {
+        return requestCount;
+    }
+
+    @Override
+    boolean readsWhileWriting() {
+        return true;
+    }
+
+    @Override
+    void onResume(Runnable resume) {
+        this.resume = resume;
+    }
+
+    /** @return 上次 flush 時只剩等待新資料的串流內容 */
+    @Override
+    boolean isWaitingForData() {
+        return waitingForData;
+    }
+}
+
+/**
+ * Http2Stream 類別
+ * HTTP/2 連線上的一個請求/回應，保存回應內容、送出進度與 Flow Control 的 Window。
+ */
+class Http2Stream {
+
+    final int id;
+    final long arrivedAt;
+    long sendWindow;
+    // 客戶端已送出 END_STREAM
+    boolean remoteClosed;
+    // 被 AdmissionControl 接受，結束時要歸還
+    boolean admitted;
+    RouteMetrics route;
+
+    // 回應: Head 與 Body (body、file、streaming 最多一個；multipart 時 body 或 file 為目前這一段)
+    CachedResponse response;
+    ByteBuffer body;
+    FileRegion file;
+    StreamingBody streaming;
+    // 串流內容上次沒有資料；resumed 在它通知後為 true (可能由其他執行緒設定)，resume 是登記給它的通知
+    boolean waiting;
+    volatile boolean resumed;
+    Runnable resume;
+    MultipartBody parts;
+    boolean headersSent;
+    // 這個 Stream 產生的 HEADERS、CONTINUATION 與 DATA Frame 的位元組數 (佇列送完時記到路由)
+    long bytesOut;
+    // 回應已全部產生，或 Stream 已被重設
+    boolean finished;
+    boolean reset;
+
+    Http2Stream(int id, long sendWindow, long arrivedAt) {
+        this.id = id;
+        this.sendWindow = sendWindow;
+        this.arrivedAt = arrivedAt;
+    }
+
+    /**
+     * 設定回應 (每個 Stream 只能一次)
+     *
+     * @param response Head
+     * @param body 記憶體中的 Body，沒有時為 null
+     * @param file 檔案內容，沒有時為 null
+     * @param streaming 串流內容，沒有時為 null
+     */
+    void respond(CachedResponse response, ByteBuffer body, FileRegion file, StreamingBody streaming) {
+        if (this.response != null) {
+            throw new IllegalStateException("Response already sent on stream " + id);
+        }
+        this.response = response;
+        this.body = body;
+        this.file = file;
+        this.streaming = streaming;
+    }
+
+    /**
+     * 設定 multipart 回應 (每個 Stream 只能一次)，各段由 nextPart 依序取出
+     *
+     * @param response Head
+     * @param parts 各段的分隔行與內容
+     */
+    void respond(CachedResponse response, MultipartBody parts) {
+        respond(response, null, null, null);
+        this.parts = parts;
+    }
+
+    boolean hasResponse() {
+        return response != null;
+    }
+
+    boolean hasBody() {
+        return body != null || file != null || streaming != null || parts != null;
+    }
+
+    /** @return multipart 目前這一段是否已經全部切成 DATA Frame */
+    boolean partDone() {
+        return (body == null || !body.hasRemaining()) && (file == null || file.remaining() == 0);
+    }
+
+    /**
+     * 換到 multipart 的下一段 (各段的 FileRegion 不擁有檔案，檔案在 close 時由 MultipartBody 關閉)
+     */
+    void nextPart() {
+        Object part = parts.next();
+        body = part instanceof ByteBuffer ? (ByteBuffer) part : null;
+        file = part instanceof FileRegion ? (FileRegion) part : null;
+    }
+
+    /**
+     * 釋放回應使用的檔案與串流來源
+     */
+    void close() {
+        if (file != null) {
+            file.close();
+            file = null;
+        }
+        if (streaming != null) {
+            streaming.close();
+            streaming = null;
+        }
+        if (parts != null) {
+            parts.close();
+            parts = null;
+        }
+    }
+}
+
+/**
+ * Http2Exchange 類別
+ * HTTP/2 的 HttpExchange: 回應交給目前的 Stream，Frame 由 Http2Processor 在寫出時產生。
+ * 沒有 Connection Header 與 chunked 編碼，串流內容以 END_STREAM 表示結束。
+ */
+class Http2Exchange extends HttpExchange {
+
+    private Http2Stream stream;
+
+    /**
+     * 開始處理新的請求
+     *
+     * @param request 已解析完成的 Request
+     * @param stream 請求所屬的 Stream
+     */
+    void reset(HttpRequestParser request, Http2Stream stream) {
+        begin(request);
+        this.stream = stream;
+    }
+
+    @Override
+    void send(CachedResponse response) {
+        boolean hasBody = !isHead() && response.bodyLength() > 0;
+        stream.respond(response, hasBody ? response.body() : null, null, null);
+    }
+
+    @Override
+    void send(CachedResponse response, FileRegion body) {
+        if (isHead()) {
+            body.close();
+            stream.respond(response, null, null, null);
+        } else {
+            stream.respond(response, null, body, null);
+        }
+    }
+
+    @Override
+    void send(CachedResponse response, ByteBuffer body) {
+        stream.respond(response, isHead() ? null : body, null, null);
+    }
+
+    @Override
+    void send(CachedResponse response, MultipartBody body) {
+        if (isHead()) {
+            body.close();
+            stream.respond(response, null, null, null);
+        } else {
+            stream.respond(response, body);
+        }
+    }
+
+    @Override
+    void send(CachedResponse response, StreamingBody body) {
+        if (!response.isStreaming()) {
+            throw new IllegalArgumentException("Response head is not created by CachedResponse.streaming");
+        }
+        if (isHead()) {
+            body.close();
+            stream.respond(response, null, null, null);
+        } else {
+            stream.respond(response, null, null, body);
+        }
+    }
+}
+
+/**
+ * Http2RequestHead 類別
+ * 把 HPACK 解出的 Header 組成 HTTP/1.1 格式的 Request Head，交給 HttpRequestParser 解析。
+ * Pseudo-header (:method、:path 等) 決定 Request Line，先暫存；一般 Header 依序寫到另一個 Buffer，
+ * 最後一次組合: "METHOD PATH HTTP/2"、(沒有 Host 時) 由 :authority 補上的 Host，再接一般 Header。
+ * 同時檢查 HTTP/2 對 Header 的限制 (RFC 7540 8.1.2)，不符合時整個請求視為格式錯誤。
+ */
+final class Http2RequestHead implements HpackDecoder.Listener {
+
+    /** 組合成功 */
+    static final int OK = 0;
+    /** 格式錯誤 (Stream 以 PROTOCOL_ERROR 重設) */
+    static final int MALFORMED = 1;
+    /** Header 超過 Request Head 的大小上限 (回 431) */
+    static final int TOO_LARGE = 2;
+
+    private static final int METHOD = 0;
+    private static final int PATH = 1;
+    private static final int SCHEME = 2;
+    private static final int AUTHORITY = 3;
+    private static final byte[][] PSEUDO_HEADERS = {
+            HttpRequestParser.ascii(":method"), HttpRequestParser.ascii(":path"),
+            HttpRequestParser.ascii(":scheme"), HttpRequestParser.ascii(":authority")};
+    private static final byte[][] CONNECTION_SPECIFIC = {
+            HttpRequestParser.ascii("connection"), HttpRequestParser.ascii("keep-alive"),
+            HttpRequestParser.ascii("proxy-connection"), HttpRequestParser.ascii("transfer-encoding"),
+            HttpRequestParser.ascii("upgrade")};
+    private static final byte[] HOST = HttpRequestParser.ascii("host");
+    private static final byte[] TE = HttpRequestParser.ascii("te");
+    private static final byte[] TRAILERS = HttpRequestParser.ascii("trailers");
+    private static final byte[] VERSION = HttpRequestParser.ascii(" HTTP/2\r\n");
+    private static final byte[] HOST_PREFIX = HttpRequestParser.ascii("host: ");
+
+    // 一般 Header ("name: value\r\n")
+    private final ByteBuffer fields = ByteBuffer.allocate(ClientHandler.MAX_REQUEST_HEAD);
+    // Pseudo-header 的值與各自的範圍 (start, end；沒有時為 -1)
+    private final ByteBuffer pseudo = ByteBuffer.allocate(ClientHandler.MAX_REQUEST_HEAD);
+    private final int[] ranges = new int[PSEUDO_HEADERS.length * 2];
+    private boolean regularSeen;
+    private boolean hasHost;
+    private boolean malformed;
+    private boolean tooLarge;
+
+    /**
+     * 開始新的 Header Block
+     */
+    void start() {
+        fields.clear();
+        pseudo.clear();
+        Arrays.fill(ranges, -1);
+        regularSeen = false;
+        hasHost = false;
+        malformed = false;
+        tooLarge = false;
+    }
+
+    @Override
+    public void header(byte[] name, int nameOffset, int nameLength, byte[] value, int valueOffset, int valueLength) {
+        if (malformed) {
+            return;
+        }
+        if (!validValue(value, valueOffset, valueLength)) {
+            malformed = true;
+            return;
+        }
+        if (nameLength > 0 && name[nameOffset] == ':') {
+            pseudoHeader(name, nameOffset, nameLength, value, valueOffset, valueLength);
+            return;
+        }
+
+        regularSeen = true;
+        if (!validName(name, nameOffset, nameLength) || indexOf(CONNECTION_SPECIFIC, name, nameOffset, nameLength) >= 0
+                || (equals(TE, name, nameOffset, nameLength) && !equals(TRAILERS, value, valueOffset, valueLength))) {
+            malformed = true;
+            return;
+        }
+        hasHost |= equals(HOST, name, nameOffset, nameLength);
+        if (fields.remaining() < nameLength + valueLength + 4) {
+            tooLarge = true;
+            return;
+        }
+        fields.put(name, nameOffset, nameLength).put((byte) ':').put((byte) ' ')
+                .put(value, valueOffset, valueLength).put((byte) '\r').put((byte) '\n');
+    }
+
+    // Pseudo-header 必須在一般 Header 之前，每個只能出現一次；值不可含空白 (會破壞 Request Line)
+    private void pseudoHeader(byte[] name, int nameOffset, int nameLength, byte[] value, int valueOffset, int valueLength) {
+        int which = indexOf(PSEUDO_HEADERS, name, nameOffset, nameLength);
+        if (which < 0 || regularSeen || ranges[which * 2] >= 0) {
+            malformed = true;
+            return;
+        }
+        for (int i = valueOffset; i < valueOffset + valueLength; i++) {
+            if (which != AUTHORITY && value[i] == ' ') {
+                malformed = true;
+                return;
+            }
+        }
+        if (pseudo.remaining() < valueLength) {
+            tooLarge = true;
+            return;
+        }
+        ranges[which * 2] = pseudo.position();
+        pseudo.put(value, valueOffset, valueLength);
+        ranges[which * 2 + 1] = pseudo.position();
+    }
+
+    /**
+     * 組合 Request Head
+     *
+     * @param head 輸出 (寫入模式，會先清空)
+     * @return OK、MALFORMED 或 TOO_LARGE
+     */
+    int finish(ByteBuffer head) {
+        // 不支援 CONNECT，所以 :method、:scheme 與非空的 :path 都必須存在
+        if (malformed || ranges[METHOD * 2] < 0 || ranges[SCHEME * 2] < 0
+                || ranges[PATH * 2] < 0 || ranges[PATH * 2] == ranges[PATH * 2 + 1]) {
+            return MALFORMED;
+        }
+        if (tooLarge) {
+            return TOO_LARGE;
+        }
+        int methodLength = ranges[METHOD * 2 + 1] - ranges[METHOD * 2];
+        int pathLength = ranges[PATH * 2 + 1] - ranges[PATH * 2];
+        int authorityLength = ranges[AUTHORITY * 2] < 0 || hasHost ? -1 : ranges[AUTHORITY * 2 + 1] - ranges[AUTHORITY * 2];
+        int length = methodLength + 1 + pathLength + VERSION.length
+                + (authorityLength < 0 ? 0 : HOST_PREFIX.length + authorityLength + 2) + fields.position() + 2;
+        if (length > head.capacity()) {
+            return TOO_LARGE;
+        }
+
+        byte[] values = pseudo.array();
+        head.clear();
+        head.put(values, ranges[METHOD * 2], methodLength).put((byte) ' ')
+                .put(values, ranges[PATH * 2], pathLength).put(VERSION);
+        if (authorityLength >= 0) {
+            head.put(HOST_PREFIX).put(values, ranges[AUTHORITY * 2], authorityLength).put((byte) '\r').put((byte) '\n');
+        }
+        head.put(fields.array(), 0, fields.position()).put((byte) '\r').put((byte) '\n');
+        return OK;
+    }
+
+    // HTTP/2 的 Header 名稱必須是小寫
+    private static boolean validName(byte[] name, int offset, int length) {
+        if (length == 0) {
+            return false;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            byte b = name[i];
+            if ((b >= 'A' && b <= 'Z') || b == ':' || b <= ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean validValue(byte[] value, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            byte b = value[i];
+            if (b == '\r' || b == '\n' || b == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[][] candidates, byte[] s, int offset, int length) {
+        for (int i = 0; i < candidates.length; i++) {
+            if (equals(candidates[i], s, offset, length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean equals(byte[] expected, byte[] s, int offset, int length) {
+        return Arrays.equals(expected, 0, expected.length, s, offset, offset + length);
+    }
+}
@@ -0,0 +1,92 @@
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * HttpDate 類別
+ * HTTP 日期 (IMF-fixdate，例如 Sun, 06 Nov 1994 08:49:37 GMT) 的格式化與解析。
+ * 解析直接讀取 Buffer 中的位元組，不建立 String，供 If-Modified-Since 等 Header 使用。
+ */
+final class HttpDate {
+
+    private static final DateTimeFormatter FORMAT =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+
+    private HttpDate() {
+    }
+
+    /**
+     * 格式化為 IMF-fixdate
+     *
+     * @param millis Epoch 毫秒
+     * @return 例如 Sun, 06 Nov 1994 08:49:37 GMT
+     */
+    static String format(long millis) {
+        return FORMAT.format(Instant.ofEpochMilli(millis));
+    }
+
+    /**
+     * 解析 Buffer 中的 IMF-fixdate
+     * 只支援 RFC 7231 建議使用的 IMF-fixdate，其他舊格式視為無法解析。
+     *
+     * @param buf 資料所在的 Buffer
+     * @param start 起始位置
+     * @param end 結束位置 (不含)
+     * @return Epoch 毫秒 (精確到秒)；無法解析時為 -1
+     */
+    static long parse(ByteBuffer buf, int start, int end) {
+        // "Sun, 06 Nov 1994 08:49:37 GMT" 固定 29 個字元
+        if (end - start != 29 || buf.get(start + 3) != ',' || buf.get(start + 26) != 'G') {
+            return -1;
+        }
+        int day = digits(buf, start + 5, 2);
+        int month = month(buf, start + 8);
+        int year = digits(buf, start + 12, 4);
+        int hour = digits(buf, start + 17, 2);
+        int minute = digits(buf, start + 20, 2);
+        int second = digits(buf, start + 23, 2);
+        if (day < 1 || month < 1 || year < 0 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return -1;
+        }
+        long days = daysFromCivil(year, month, day);
+        return ((days * 24 + hour) * 60 + minute) * 60_000L + second * 1000L;
+    }
+
+    private static int digits(ByteBuffer buf, int pos, int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            byte b = buf.get(pos + i);
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    private static int month(ByteBuffer buf, int pos) {
+        for (int m = 0; m < 12; m++) {
+            if (buf.get(pos) == MONTHS.charAt(m * 3)
+                    && buf.get(pos + 1) == MONTHS.charAt(m * 3 + 1)
+                    && buf.get(pos + 2) == MONTHS.charAt(m * 3 + 2)) {
+                return m + 1;
+            }
+        }
+        return -1;
+    }
+
+    // 公曆日期換算為 1970-01-01 起算的天數
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+}
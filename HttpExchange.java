@@ -0,0 +1,130 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * HttpExchange 類別
+ * 交給 HttpHandler 的一次請求/回應，與協定版本無關。
+ * 每條連線只建立一個，處理每個請求前重設後重複使用；
+ * 路徑參數只記錄在 Buffer 中的位置，處理器呼叫 pathParam 時才建立字串。
+ * 回應如何送出由子類別決定: Http1Exchange 排入連線的 OutboundQueue，Http2Exchange 交給所屬的 Stream。
+ */
+abstract class HttpExchange {
+
+    private HttpRequestParser request;
+    private boolean head;
+    private RouteMetrics route;
+
+    // 路徑參數: 名稱 (來自路由定義，不會重新配置) 與值在 Buffer 中的範圍
+    private String[] paramNames = new String[4];
+    private int[] paramRanges = new int[8];
+    private int paramCount;
+
+    /**
+     * 開始處理新的請求
+     *
+     * @param request 已解析完成的 Request
+     */
+    void begin(HttpRequestParser request) {
+        this.request = request;
+        this.head = false;
+        this.route = null;
+        this.paramCount = 0;
+    }
+
+    /** @return 目前的 Request */
+    HttpRequestParser request() {
+        return request;
+    }
+
+    /** @return 是否為 HEAD 請求 (只送出 Header，不送 Body) */
+    boolean isHead() {
+        return head;
+    }
+
+    void setHead(boolean head) {
+        this.head = head;
+    }
+
+    /** @return 符合的路由的統計 (由 Router 設定) */
+    RouteMetrics route() {
+        return route;
+    }
+
+    void setRoute(RouteMetrics route) {
+        this.route = route;
+    }
+
+    /**
+     * 取得路徑參數
+     *
+     * @param name 路由中 {name} 的名稱；前綴路由 /prefix/* 的其餘部分為 "*"
+     * @return 參數值 (未經 Percent-decoding)，沒有這個參數時為 null
+     */
+    String pathParam(String name) {
+        for (int i = 0; i < paramCount; i++) {
+            if (paramNames[i].equals(name)) {
+                return request.string(paramRanges[i * 2], paramRanges[i * 2 + 1]);
+            }
+        }
+        return null;
+    }
+
+    void addParam(String name, int start, int end) {
+        if (paramCount == paramNames.length) {
+            paramNames = Arrays.copyOf(paramNames, paramCount * 2);
+            paramRanges = Arrays.copyOf(paramRanges, paramCount * 4);
+        }
+        paramNames[paramCount] = name;
+        paramRanges[paramCount * 2] = start;
+        paramRanges[paramCount * 2 + 1] = end;
+        paramCount++;
+    }
+
+    int paramCount() {
+        return paramCount;
+    }
+
+    // 路由比對失敗退回前綴路由時，丟掉之後記錄的參數
+    void truncateParams(int count) {
+        paramCount = count;
+    }
+
+    /**
+     * 送出預先編碼好的回應 (HEAD 請求只送出 Header)
+     *
+     * @param response 回應
+     */
+    abstract void send(CachedResponse response);
+
+    /**
+     * 送出 Header 與一段檔案內容 (HEAD 請求只送出 Header 並關閉檔案)
+     *
+     * @param response 只有 Head 的回應 (CachedResponse.headOnly)
+     * @param body 檔案內容
+     */
+    abstract void send(CachedResponse response, FileRegion body);
+
+    /**
+     * 送出 Header 與一段記憶體中的內容 (例如快取內容的其中一個範圍，不需要複製)
+     *
+     * @param response 只有 Head 的回應 (CachedResponse.headOnly)
+     * @param body 讀取模式的 Buffer，送出期間不可修改 (HEAD 請求不送出)
+     */
+    abstract void send(CachedResponse response, ByteBuffer body);
+
+    /**
+     * 送出 multipart 回應 (HEAD 請求只送出 Header 並關閉檔案)
+     *
+     * @param response 只有 Head 的回應，Content-Length 為 body.length()
+     * @param body 各段的分隔行與內容
+     */
+    abstract void send(CachedResponse response, MultipartBody body);
+
+    /**
+     * 送出串流回應，Body 邊產生邊送出
+     *
+     * @param response CachedResponse.streaming 建立的 Head
+     * @param body 內容來源 (HEAD 請求只送出 Header，直接關閉)
+     */
+    abstract void send(CachedResponse response, StreamingBody body);
+}
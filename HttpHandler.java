@@ -0,0 +1,18 @@
+import java.io.IOException;
+
+/**
+ * HttpHandler 介面
+ * 一個路由的處理邏輯，透過 Router.add 註冊到 Method 與路徑上。
+ * 處理器只透過 HttpExchange 讀取請求、送出回應，不直接接觸連線。
+ */
+@FunctionalInterface
+interface HttpHandler {
+
+    /**
+     * 處理一個請求
+     *
+     * @param exchange 目前的請求與回應
+     * @throws IOException 當處理失敗時拋出 (連線會回 500 並關閉)
+     */
+    void handle(HttpExchange exchange) throws IOException;
+}
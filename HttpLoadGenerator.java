@@ -0,0 +1,331 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * HttpLoadGenerator 類別
+ * HttpServer 的壓力測試工具，在本機對伺服器送出請求，統計吞吐量與延遲百分位數，
+ * 用來比較 thread / virtual / nio / sharded 等模式，或檢查修改後是否變慢。
+ *
+ * 兩種模式:
+ * closed (預設): N 條連線各自「送出 → 等回應 → 再送下一個」，量測伺服器最多能處理多少請求。
+ * open: 以固定速率送出請求 (wrk2 的做法)，延遲從「預定送出的時間」開始算，
+ * 伺服器卡住時排在後面、沒能準時送出的請求也會被算進延遲，避免 Coordinated Omission 讓延遲看起來比實際好。
+ *
+ * 設定由 System Property 讀入，例如:
+ * java -Dload.connections=64 -Dload.duration=30 HttpLoadGenerator
+ * java -Dload.mode=open -Dload.rate=20000 -Dload.keepAlive=false HttpLoadGenerator
+ */
+public class HttpLoadGenerator {
+
+    private static final String MODE_CLOSED = "closed";
+    private static final String MODE_OPEN = "open";
+
+    // 預設輪流請求的路徑: 小檔案、CSS、301 轉址、404
+    private static final String DEFAULT_PATHS = "/good.html,/style.css,/redirect.html,/notfound.html,/missing.html";
+
+    private static final double[] PERCENTILES = {0.5, 0.75, 0.9, 0.99, 0.999, 0.9999};
+
+    private final String host = System.getProperty("load.host", "127.0.0.1");
+    private final int port = Integer.getInteger("load.port", 8868);
+    private final String mode = System.getProperty("load.mode", MODE_CLOSED);
+    private final int connections = Math.max(1, Integer.getInteger("load.connections", 16));
+    private final int durationSeconds = Math.max(1, Integer.getInteger("load.duration", 10));
+    private final int warmupSeconds = Math.max(0, Integer.getInteger("load.warmup", 2));
+    /** open 模式的總請求速率 (每秒) */
+    private final int rate = Math.max(1, Integer.getInteger("load.rate", 10_000));
+    private final boolean keepAlive = Boolean.parseBoolean(System.getProperty("load.keepAlive", "true"));
+    private final String[] paths = System.getProperty("load.paths", DEFAULT_PATHS).split(",");
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    // 依狀態碼類別 (1xx ~ 5xx) 計數
+    private final LongAdder[] statusClasses = new LongAdder[6];
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+
+    private volatile long measureStart;
+    private volatile long end;
+
+    /**
+     * 程式進入點
+     *
+     * @param args 命令列參數 (本程式未使用，設定請見類別說明)
+     * @throws InterruptedException 當等待工作執行緒時被中斷
+     */
+    public static void main(String[] args) throws InterruptedException {
+        new HttpLoadGenerator().run();
+    }
+
+    private HttpLoadGenerator() {
+        for (int i = 0; i < statusClasses.length; i++) {
+            statusClasses[i] = new LongAdder();
+        }
+        if (!mode.equals(MODE_CLOSED) && !mode.equals(MODE_OPEN)) {
+            throw new IllegalArgumentException("Unknown load.mode: " + mode);
+        }
+    }
+
+    private void run() throws InterruptedException {
+        System.out.printf("%s-loop load on %s:%d, %d connections, keep-alive %s, %ds (+%ds warm-up)%s%n",
+                mode, host, port, connections, keepAlive, durationSeconds, warmupSeconds,
+                mode.equals(MODE_OPEN) ? ", " + rate + " req/s" : "");
+        System.out.println("Paths: " + String.join(" ", paths));
+
+        long start = System.nanoTime();
+        measureStart = start + warmupSeconds * 1_000_000_000L;
+        end = measureStart + durationSeconds * 1_000_000_000L;
+
+        CountDownLatch done = new CountDownLatch(connections);
+        for (int i = 0; i < connections; i++) {
+            Worker worker = new Worker(i, start);
+            Thread thread = new Thread(() -> {
+                try {
+                    worker.run();
+                } finally {
+                    done.countDown();
+                }
+            }, "load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        report();
+    }
+
+    private void report() {
+        long requests = latency.count();
+        double seconds = durationSeconds;
+        System.out.println();
+        System.out.printf("Requests:    %d (%.1f req/s)%n", requests, requests / seconds);
+        System.out.printf("Transfer:    %.2f MB (%.2f MB/s)%n", bytesIn.sum() / 1e6, bytesIn.sum() / 1e6 / seconds);
+        System.out.printf("Status:      2xx=%d 3xx=%d 4xx=%d 5xx=%d, errors=%d%n",
+                statusClasses[2].sum(), statusClasses[3].sum(), statusClasses[4].sum(), statusClasses[5].sum(),
+                errors.sum());
+        if (requests == 0) {
+            return;
+        }
+        System.out.println("Latency (ms):");
+        // 百分位數是格子的上限，不會超過實際的最大值
+        double max = maxLatencyNanos.get() / 1e6;
+        double[] values = latency.quantiles(PERCENTILES);
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            System.out.printf("  p%-7s %10.3f%n", trim(PERCENTILES[i] * 100), Math.min(values[i] * 1000, max));
+        }
+        System.out.printf("  %-8s %10.3f%n", "max", max);
+        System.out.printf("  %-8s %10.3f%n", "mean", latency.sumSeconds() / requests * 1000);
+    }
+
+    private static String trim(double percent) {
+        String s = Double.toString(percent);
+        return s.endsWith(".0") ? s.substring(0, s.length() - 2) : s;
+    }
+
+    private void record(long startNanos, long finishNanos, int status, long bytes) {
+        if (finishNanos < measureStart || finishNanos > end) {
+            return; // 暖機期間或結束後完成的請求不列入統計
+        }
+        long nanos = finishNanos - startNanos;
+        latency.record(nanos);
+        maxLatencyNanos.accumulateAndGet(nanos, Math::max);
+        statusClasses[Math.min(5, Math.max(0, status / 100))].increment();
+        bytesIn.add(bytes);
+    }
+
+    /**
+     * Worker 類別
+     * 一條連線的請求迴圈。open 模式下每條連線負責總速率的 1/N，各自依時間表送出。
+     */
+    private final class Worker {
+
+        private final int id;
+        private final long start;
+        private final byte[][] requests = new byte[paths.length][];
+        private final ResponseReader reader = new ResponseReader();
+
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        Worker(int id, long start) {
+            this.id = id;
+            this.start = start;
+            String connection = keepAlive ? "" : "Connection: close\r\n";
+            for (int i = 0; i < paths.length; i++) {
+                requests[i] = ("GET " + paths[i] + " HTTP/1.1\r\nHost: " + host + ":" + port + "\r\n"
+                        + "User-Agent: HttpLoadGenerator\r\n" + connection + "\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1);
+            }
+        }
+
+        void run() {
+            // 各連線錯開起點，避免同時送出
+            long interval = 1_000_000_000L * connections / rate;
+            long intended = start + interval * id / connections;
+            int next = id % paths.length;
+
+            while (true) {
+                long sendAt;
+                if (mode.equals(MODE_OPEN)) {
+                    // 落後時不等待、也不跳過: 延遲從預定時間算起
+                    long wait = intended - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    sendAt = intended;
+                    intended += interval;
+                } else {
+                    sendAt = System.nanoTime();
+                }
+                if (sendAt > end) {
+                    break;
+                }
+
+                try {
+                    if (socket == null) {
+                        connect();
+                    }
+                    out.write(requests[next]);
+                    out.flush();
+                    int status = reader.read(in);
+                    record(sendAt, System.nanoTime(), status, reader.bytes);
+                    if (!keepAlive || reader.close) {
+                        disconnect();
+                    }
+                } catch (IOException e) {
+                    errors.increment();
+                    disconnect();
+                }
+                next = (next + 1) % paths.length;
+            }
+            disconnect();
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), 5000);
+            socket.setSoTimeout(10_000);
+            in = new BufferedInputStream(socket.getInputStream(), 16 * 1024);
+            out = socket.getOutputStream();
+        }
+
+        private void disconnect() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // 已經關閉
+                }
+                socket = null;
+            }
+        }
+    }
+
+    /**
+     * ResponseReader 類別
+     * 讀取一個完整的 HTTP/1.1 回應 (Content-Length 或 chunked)，只保留統計需要的欄位。
+     */
+    private static final class ResponseReader {
+
+        private final StringBuilder line = new StringBuilder(128);
+        private final byte[] skip = new byte[16 * 1024];
+
+        long bytes;
+        boolean close;
+
+        /**
+         * @param in 連線的輸入串流
+         * @return 狀態碼
+         * @throws IOException 當連線中斷或回應格式錯誤時拋出
+         */
+        int read(InputStream in) throws IOException {
+            bytes = 0;
+            close = false;
+            String statusLine = readLine(in);
+            if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12) {
+                throw new IOException("Bad status line: " + statusLine);
+            }
+            int status = Integer.parseInt(statusLine.substring(9, 12));
+
+            long contentLength = -1;
+            boolean chunked = false;
+            String header;
+            while (!(header = readLine(in)).isEmpty()) {
+                int colon = header.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String name = header.substring(0, colon).trim();
+                String value = header.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    contentLength = Long.parseLong(value);
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = value.equalsIgnoreCase("chunked");
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    close = value.equalsIgnoreCase("close");
+                }
+            }
+
+            if (status == 204 || status == 304 || status < 200) {
+                return status;
+            }
+            if (chunked) {
+                long size;
+                while ((size = Long.parseLong(readLine(in).split(";")[0].trim(), 16)) > 0) {
+                    skip(in, size);
+                    readLine(in);
+                }
+                while (!readLine(in).isEmpty()) {
+                    // Trailer
+                }
+            } else if (contentLength >= 0) {
+                skip(in, contentLength);
+            } else {
+                // 沒有長度: 讀到連線關閉
+                close = true;
+                int n;
+                while ((n = in.read(skip)) > 0) {
+                    bytes += n;
+                }
+            }
+            return status;
+        }
+
+        private String readLine(InputStream in) throws IOException {
+            line.setLength(0);
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    throw new EOFException("Connection closed by server");
+                }
+                if (b != '\r') {
+                    line.append((char) b);
+                }
+                bytes++;
+            }
+            bytes++;
+            return line.toString();
+        }
+
+        private void skip(InputStream in, long count) throws IOException {
+            while (count > 0) {
+                int n = in.read(skip, 0, (int) Math.min(skip.length, count));
+                if (n < 0) {
+                    throw new EOFException("Connection closed by server");
+                }
+                count -= n;
+                bytes += n;
+            }
+        }
+    }
+}
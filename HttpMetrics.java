@@ -0,0 +1,169 @@
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HttpMetrics 類別
+ * 伺服器的統計資料: 每個路由的請求數、延遲分布與回應的位元組數、全部送出的位元組數、連線數。
+ *
+ * 所有計數器都是 LongAdder，各執行緒 (或事件迴圈) 更新時分散在不同的 Cell，不會搶同一個快取行；
+ * 每條連線送出的位元組先累積在自己的 OutboundQueue，flush 後才加進總數一次；
+ * 每個回應的位元組數在它送完時 (HTTP/1.x 由 OutboundQueue 的結束標記，HTTP/2 由 Stream 結束時) 記到所屬的路由。
+ * TLS 的交握次數與時間、加解密花費的時間與位元組數記在 TlsMetrics，兩者相除即每個位元組的加密成本。
+ * 本身註冊為 GET /metrics，以 Prometheus Text Format 輸出。
+ */
+class HttpMetrics implements HttpHandler {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    private final AdmissionControl admission;
+    private final List<RouteMetrics> routes = new CopyOnWriteArrayList<>();
+    private final RouteMetrics unmatched = route(null, null);
+
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final TlsMetrics tls = new TlsMetrics();
+
+    /**
+     * HttpMetrics 建構子
+     *
+     * @param admission 請求的 Admission Control (統計中輸出處理中與被拒絕的請求數)
+     */
+    HttpMetrics(AdmissionControl admission) {
+        this.admission = admission;
+    }
+
+    /**
+     * 建立一個路由的統計 (註冊路由時呼叫)
+     *
+     * @param method Method
+     * @param pattern 路由的路徑寫法 (不是實際的網址，避免標籤數量無限增加)
+     * @return 路由的統計
+     */
+    RouteMetrics route(String method, String pattern) {
+        String labels = method == null ? "route=\"unmatched\""
+                : "method=\"" + escape(method) + "\",route=\"" + escape(pattern) + "\"";
+        RouteMetrics route = new RouteMetrics(labels);
+        routes.add(route);
+        return route;
+    }
+
+    /** @return 沒有符合任何路由的請求 (404、405、501) 的統計 */
+    RouteMetrics unmatched() {
+        return unmatched;
+    }
+
+    /** @return 所有連線共用的 Admission Control */
+    AdmissionControl admission() {
+        return admission;
+    }
+
+    /** @return TLS 的統計 */
+    TlsMetrics tls() {
+        return tls;
+    }
+
+    /** @param bytes 送出的位元組數 */
+    void bytesOut(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    /** 連線建立 */
+    void connectionOpened() {
+        connections.increment();
+        activeConnections.increment();
+    }
+
+    /** 連線關閉 */
+    void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    /** 連線數已達上限，以 503 拒絕 */
+    void connectionRejected() {
+        rejectedConnections.increment();
+    }
+
+    /**
+     * 以 Prometheus Text Format 回應目前的統計
+     *
+     * @param exchange 目前的請求
+     */
+    @Override
+    public void handle(HttpExchange exchange) {
+        byte[] body = render().getBytes(StandardCharsets.UTF_8);
+        exchange.send(CachedResponse.of("200 OK", CONTENT_TYPE, body, "Cache-Control: no-store"));
+    }
+
+    /** @return Prometheus Text Format 的統計內容 */
+    String render() {
+        StringBuilder sb = new StringBuilder(1024);
+
+        sb.append("# HELP http_requests_total Requests answered, by route.\n");
+        sb.append("# TYPE http_requests_total counter\n");
+        for (RouteMetrics route : routes) {
+            sb.append("http_requests_total{").append(route.labels).append("} ")
+                    .append(route.latency.count()).append('\n');
+        }
+
+        sb.append("# HELP http_request_duration_seconds Time from receiving a request to writing its response.\n");
+        sb.append("# TYPE http_request_duration_seconds summary\n");
+        for (RouteMetrics route : routes) {
+            long count = route.latency.count();
+            if (count == 0) {
+                continue;
+            }
+            double[] values = route.latency.quantiles(QUANTILES);
+            for (int i = 0; i < QUANTILES.length; i++) {
+                sb.append("http_request_duration_seconds{").append(route.labels)
+                        .append(",quantile=\"").append(QUANTILES[i]).append("\"} ").append(values[i]).append('\n');
+            }
+            sb.append("http_request_duration_seconds_sum{").append(route.labels).append("} ")
+                    .append(route.latency.sumSeconds()).append('\n');
+            sb.append("http_request_duration_seconds_count{").append(route.labels).append("} ")
+                    .append(count).append('\n');
+        }
+
+        sb.append("# HELP http_response_bytes_total Response bytes written to clients, by route.\n");
+        sb.append("# TYPE http_response_bytes_total counter\n");
+        for (RouteMetrics route : routes) {
+            sb.append("http_response_bytes_total{").append(route.labels).append("} ")
+                    .append(route.bytes.sum()).append('\n');
+        }
+        counter(sb, "http_bytes_written_total",
+                "All bytes written to clients, including responses without a route and HTTP/2 connection frames.",
+                bytesOut.sum());
+        counter(sb, "http_connections_total", "Connections accepted.", connections.sum());
+        counter(sb, "http_connections_rejected_total", "Connections refused with 503.", rejectedConnections.sum());
+        sb.append("# HELP http_requests_shed_total Requests refused with 503 because the server was overloaded.\n");
+        sb.append("# TYPE http_requests_shed_total counter\n");
+        for (int reason : new int[] {AdmissionControl.SHED_IN_FLIGHT, AdmissionControl.SHED_QUEUE_TIME}) {
+            sb.append("http_requests_shed_total{reason=\"").append(AdmissionControl.reason(reason)).append("\"} ")
+                    .append(admission.shed(reason)).append('\n');
+        }
+        counter(sb, "access_log_dropped_total", "Log records dropped because the log buffer was full.",
+                AccessLog.get().dropped());
+        tls.render(sb);
+        sb.append("# HELP http_connections_active Connections currently open.\n");
+        sb.append("# TYPE http_connections_active gauge\n");
+        sb.append("http_connections_active ").append(activeConnections.sum()).append('\n');
+        sb.append("# HELP http_requests_in_flight Requests received whose response is not fully written yet.\n");
+        sb.append("# TYPE http_requests_in_flight gauge\n");
+        sb.append("http_requests_in_flight ").append(admission.inFlight()).append('\n');
+        return sb.toString();
+    }
+
+    static void counter(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
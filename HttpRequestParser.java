@@ -0,0 +1,746 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HttpRequestParser 類別
+ * 以位元組為單位、可分段餵入的 HTTP Request Head 解析器。
+ *
+ * 資料放在呼叫端重複使用的 ByteBuffer 中 (寫入模式: 有效資料為 0 ~ position)，
+ * 解析結果只記錄 Method、Target、Version 與每個 Header 在 Buffer 中的位置，
+ * 不建立任何 String；資料被切成好幾段送達時，下一次呼叫會從上次掃描到的位置繼續。
+ */
+class HttpRequestParser {
+
+    /** 還需要更多資料 */
+    static final int NEED_MORE = 0;
+    /** 已讀到完整的 Request Head */
+    static final int COMPLETE = 1;
+    /** 格式錯誤 */
+    static final int ERROR = 2;
+
+    /** contentLength(): 多個 Content-Length 的值不一致，必須回 400 並關閉連線 (RFC 9112 6.3)，避免 Request Smuggling */
+    static final long CONFLICTING_LENGTH = -2;
+
+    /** Accept-Encoding 接受 gzip */
+    static final int ENCODING_GZIP = 1;
+    /** Accept-Encoding 接受 deflate */
+    static final int ENCODING_DEFLATE = 2;
+
+    /** 最多記錄的 Header 數量 */
+    static final int MAX_HEADERS = 64;
+
+    /** Range Header 最多接受的範圍數，超過時忽略整個 Header (避免以大量小範圍放大回應) */
+    static final int MAX_RANGES = 16;
+
+    private static final byte[] HTTP_PREFIX = ascii("HTTP/");
+    private static final byte[] HTTP_1_0 = ascii("HTTP/1.0");
+    private static final byte[] CONNECTION = ascii("connection");
+    private static final byte[] CLOSE = ascii("close");
+    private static final byte[] KEEP_ALIVE = ascii("keep-alive");
+    private static final byte[] CONTENT_LENGTH = ascii("content-length");
+    private static final byte[] TRANSFER_ENCODING = ascii("transfer-encoding");
+    private static final byte[] ACCEPT_ENCODING = ascii("accept-encoding");
+    private static final byte[] GZIP = ascii("gzip");
+    private static final byte[] X_GZIP = ascii("x-gzip");
+    private static final byte[] DEFLATE = ascii("deflate");
+    private static final byte[] ANY = ascii("*");
+    private static final byte[] IF_NONE_MATCH = ascii("if-none-match");
+    private static final byte[] IF_MODIFIED_SINCE = ascii("if-modified-since");
+    private static final byte[] RANGE = ascii("range");
+    private static final byte[] IF_RANGE = ascii("if-range");
+    private static final byte[] BYTES_UNIT = ascii("bytes=");
+
+    private ByteBuffer buf;
+
+    // 掃描狀態
+    private int scanPos;
+    private int lineStart;
+    private boolean inHeaders;
+
+    // Request Line 的位置
+    private int methodStart, methodEnd;
+    private int targetStart, targetEnd, pathEnd;
+    private int versionStart, versionEnd;
+
+    // 每個 Header 佔 4 格: nameStart, nameEnd, valueStart, valueEnd
+    private final int[] headers = new int[MAX_HEADERS * 4];
+    private int headerCount;
+
+    // Request Head 結束 (空行之後) 的位置
+    private int headEnd;
+
+    // ranges() 的結果，每個範圍佔 2 格: start, end (不含)
+    private final long[] ranges = new long[MAX_RANGES * 2];
+
+    /**
+     * 解析 Buffer 中目前已有的資料
+     *
+     * @param buffer 寫入模式的 Buffer，有效資料為 0 ~ position
+     * @return NEED_MORE、COMPLETE 或 ERROR
+     */
+    int parse(ByteBuffer buffer) {
+        this.buf = buffer;
+        int limit = buffer.position();
+
+        while (scanPos < limit) {
+            if (buffer.get(scanPos++) != '\n') {
+                continue;
+            }
+            int start = lineStart;
+            int end = scanPos - 1;
+            if (end > start && buffer.get(end - 1) == '\r') {
+                end--; // 去掉行尾的 \r
+            }
+            lineStart = scanPos;
+
+            if (!inHeaders) {
+                if (end == start) {
+                    continue; // 略過請求前多餘的空行
+                }
+                if (!parseRequestLine(start, end)) {
+                    return ERROR;
+                }
+                inHeaders = true;
+            } else if (end == start) {
+                headEnd = scanPos; // 空行代表 Header 結束
+                return COMPLETE;
+            } else if (!parseHeader(start, end)) {
+                return ERROR;
+            }
+        }
+        return NEED_MORE;
+    }
+
+    /**
+     * 丟掉已處理完的 Request Head，把後面 (例如下一個請求) 的資料搬到 Buffer 開頭，並重設解析狀態
+     *
+     * @param buffer 與 parse 相同的 Buffer
+     */
+    void consume(ByteBuffer buffer) {
+        buffer.flip();
+        buffer.position(headEnd);
+        buffer.compact();
+        reset();
+    }
+
+    /**
+     * 重設解析狀態 (不改動 Buffer)
+     */
+    void reset() {
+        scanPos = 0;
+        lineStart = 0;
+        inHeaders = false;
+        headerCount = 0;
+        headEnd = 0;
+    }
+
+    // 格式: METHOD SP TARGET SP VERSION
+    private boolean parseRequestLine(int start, int end) {
+        int sp1 = indexOf((byte) ' ', start, end);
+        if (sp1 <= start) {
+            return false;
+        }
+        int sp2 = indexOf((byte) ' ', sp1 + 1, end);
+        if (sp2 <= sp1 + 1) {
+            return false;
+        }
+        methodStart = start;
+        methodEnd = sp1;
+        targetStart = sp1 + 1;
+        targetEnd = sp2;
+        versionStart = sp2 + 1;
+        versionEnd = end;
+
+        int query = indexOf((byte) '?', targetStart, targetEnd);
+        pathEnd = query < 0 ? targetEnd : query;
+
+        return versionEnd - versionStart >= 5 && regionEquals(versionStart, 5, HTTP_PREFIX);
+    }
+
+    // 格式: NAME ":" OWS VALUE OWS
+    private boolean parseHeader(int start, int end) {
+        int colon = indexOf((byte) ':', start, end);
+        if (colon <= start || headerCount == MAX_HEADERS) {
+            return false;
+        }
+        int valueStart = colon + 1;
+        int valueEnd = end;
+        while (valueStart < valueEnd && isSpace(buf.get(valueStart))) {
+            valueStart++;
+        }
+        while (valueEnd > valueStart && isSpace(buf.get(valueEnd - 1))) {
+            valueEnd--;
+        }
+        int i = headerCount++ * 4;
+        headers[i] = start;
+        headers[i + 1] = colon;
+        headers[i + 2] = valueStart;
+        headers[i + 3] = valueEnd;
+        return true;
+    }
+
+    /**
+     * Method 是否為指定值 (區分大小寫)
+     *
+     * @param method ASCII 位元組，例如 ascii("GET")
+     * @return 相同時為 true
+     */
+    boolean methodIs(byte[] method) {
+        return regionEquals(methodStart, methodEnd - methodStart, method);
+    }
+
+    /**
+     * 路徑 (Target 去掉 ? 之後的 Query) 是否為指定值
+     *
+     * @param path ASCII 位元組，例如 ascii("/good.html")
+     * @return 相同時為 true
+     */
+    boolean pathIs(byte[] path) {
+        return regionEquals(targetStart, pathEnd - targetStart, path);
+    }
+
+    /**
+     * 尋找 Header (名稱不分大小寫)
+     *
+     * @param lowerCaseName 小寫的 Header 名稱，例如 ascii("connection")
+     * @return Header 索引，找不到時為 -1
+     */
+    int header(byte[] lowerCaseName) {
+        for (int h = 0; h < headerCount; h++) {
+            if (nameIs(h, lowerCaseName)) {
+                return h;
+            }
+        }
+        return -1;
+    }
+
+    // 第 h 個 Header 的名稱是否為指定值 (不分大小寫)
+    private boolean nameIs(int h, byte[] lowerCaseName) {
+        int nameStart = headers[h * 4];
+        return headers[h * 4 + 1] - nameStart == lowerCaseName.length
+                && regionEqualsIgnoreCase(nameStart, lowerCaseName);
+    }
+
+    /**
+     * Header 值是否等於指定值 (不分大小寫)
+     *
+     * @param h header() 回傳的索引
+     * @param lowerCaseValue 小寫的值
+     * @return 相同時為 true
+     */
+    boolean headerValueIs(int h, byte[] lowerCaseValue) {
+        int start = headers[h * 4 + 2];
+        int end = headers[h * 4 + 3];
+        return end - start == lowerCaseValue.length && regionEqualsIgnoreCase(start, lowerCaseValue);
+    }
+
+    /**
+     * Header 值 (以逗號分隔的清單) 中是否包含指定的 Token (不分大小寫)
+     * 例如 Connection: keep-alive, Upgrade 包含 upgrade。
+     *
+     * @param h header() 回傳的索引
+     * @param lowerCaseToken 小寫的 Token
+     * @return 包含時為 true
+     */
+    boolean headerHasToken(int h, byte[] lowerCaseToken) {
+        int pos = headers[h * 4 + 2];
+        int end = headers[h * 4 + 3];
+        while (pos < end) {
+            int comma = indexOf((byte) ',', pos, end);
+            int tokenEnd = comma < 0 ? end : comma;
+            int start = pos;
+            int stop = tokenEnd;
+            while (start < stop && isSpace(buf.get(start))) {
+                start++;
+            }
+            while (stop > start && isSpace(buf.get(stop - 1))) {
+                stop--;
+            }
+            if (stop - start == lowerCaseToken.length && regionEqualsIgnoreCase(start, lowerCaseToken)) {
+                return true;
+            }
+            pos = tokenEnd + 1;
+        }
+        return false;
+    }
+
+    /**
+     * 解析 Accept-Encoding，回傳客戶端接受的壓縮格式
+     * q=0 代表明確拒絕該格式；* 代表接受所有格式。
+     *
+     * @return ENCODING_GZIP、ENCODING_DEFLATE 的組合，沒有 Header 時為 0
+     */
+    int acceptEncoding() {
+        int h = header(ACCEPT_ENCODING);
+        if (h < 0) {
+            return 0;
+        }
+        int accepted = 0;
+        int rejected = 0;
+        int pos = headers[h * 4 + 2];
+        int end = headers[h * 4 + 3];
+        while (pos < end) {
+            int comma = indexOf((byte) ',', pos, end);
+            int tokenEnd = comma < 0 ? end : comma;
+            int semicolon = indexOf((byte) ';', pos, tokenEnd);
+            int start = pos;
+            int stop = semicolon < 0 ? tokenEnd : semicolon;
+            while (start < stop && isSpace(buf.get(start))) {
+                start++;
+            }
+            while (stop > start && isSpace(buf.get(stop - 1))) {
+                stop--;
+            }
+
+            int encoding = 0;
+            int length = stop - start;
+            if ((length == GZIP.length && regionEqualsIgnoreCase(start, GZIP))
+                    || (length == X_GZIP.length && regionEqualsIgnoreCase(start, X_GZIP))) {
+                encoding = ENCODING_GZIP;
+            } else if (length == DEFLATE.length && regionEqualsIgnoreCase(start, DEFLATE)) {
+                encoding = ENCODING_DEFLATE;
+            } else if (length == ANY.length && regionEqualsIgnoreCase(start, ANY)) {
+                encoding = ENCODING_GZIP | ENCODING_DEFLATE;
+            }
+
+            if (semicolon >= 0 && isZeroQuality(semicolon + 1, tokenEnd)) {
+                rejected |= encoding;
+            } else {
+                accepted |= encoding;
+            }
+            pos = tokenEnd + 1;
+        }
+        return accepted & ~rejected;
+    }
+
+    // 參數中是否為 q=0 (q=0、q=0.0、q=0.000)
+    private boolean isZeroQuality(int start, int end) {
+        int q = indexOf((byte) '=', start, end);
+        if (q < 0) {
+            return false;
+        }
+        int name = start;
+        while (name < q && isSpace(buf.get(name))) {
+            name++;
+        }
+        byte b = buf.get(name);
+        if (b != 'q' && b != 'Q') {
+            return false;
+        }
+        for (int i = q + 1; i < end; i++) {
+            b = buf.get(i);
+            if (b != '0' && b != '.' && !isSpace(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 判斷條件式 GET 是否可以回 304 Not Modified
+     * 有 If-None-Match 時只比對 ETag (弱比較，忽略 W/)；沒有時才看 If-Modified-Since。
+     *
+     * @param etag 資源目前的 ETag (含雙引號)
+     * @param lastModifiedMillis 資源的最後修改時間 (Epoch 毫秒)
+     * @return 客戶端的版本仍然有效時為 true
+     */
+    boolean isNotModified(byte[] etag, long lastModifiedMillis) {
+        int h = header(IF_NONE_MATCH);
+        if (h >= 0) {
+            return etagListMatches(headers[h * 4 + 2], headers[h * 4 + 3], etag);
+        }
+        h = header(IF_MODIFIED_SINCE);
+        if (h >= 0) {
+            long since = HttpDate.parse(buf, headers[h * 4 + 2], headers[h * 4 + 3]);
+            // HTTP 日期只精確到秒
+            return since >= 0 && lastModifiedMillis / 1000 <= since / 1000;
+        }
+        return false;
+    }
+
+    private boolean etagListMatches(int pos, int end, byte[] etag) {
+        while (pos < end) {
+            int comma = indexOf((byte) ',', pos, end);
+            int tokenEnd = comma < 0 ? end : comma;
+            int start = pos;
+            int stop = tokenEnd;
+            while (start < stop && isSpace(buf.get(start))) {
+                start++;
+            }
+            while (stop > start && isSpace(buf.get(stop - 1))) {
+                stop--;
+            }
+            if (stop - start == 1 && buf.get(start) == '*') {
+                return true;
+            }
+            if (stop - start > 2 && buf.get(start) == 'W' && buf.get(start + 1) == '/') {
+                start += 2;
+            }
+            if (regionEquals(start, stop - start, etag)) {
+                return true;
+            }
+            pos = tokenEnd + 1;
+        }
+        return false;
+    }
+
+    /**
+     * 解析 Range Header (RFC 7233)，結果以 rangeStart / rangeEnd 取得
+     * 結尾超出內容的範圍會被截短，起點超出內容的範圍無法滿足而略過；
+     * 重疊或相鄰的範圍合併為一個 (依起點排序)，同一段資料不會送出兩次。
+     *
+     * @param size 內容長度
+     * @return 可滿足的範圍數；沒有 Range Header、單位不是 bytes、格式錯誤或範圍太多時為 -1 (忽略 Header，回應整個內容)；
+     *         所有範圍都無法滿足時為 0 (回 416)
+     */
+    int ranges(long size) {
+        int h = header(RANGE);
+        if (h < 0) {
+            return -1;
+        }
+        int pos = headers[h * 4 + 2];
+        int end = headers[h * 4 + 3];
+        if (end - pos < BYTES_UNIT.length || !regionEqualsIgnoreCase(pos, BYTES_UNIT)) {
+            return -1;
+        }
+        pos += BYTES_UNIT.length;
+
+        int specs = 0;
+        int count = 0;
+        while (pos < end) {
+            int comma = indexOf((byte) ',', pos, end);
+            int tokenEnd = comma < 0 ? end : comma;
+            int start = pos;
+            int stop = tokenEnd;
+            while (start < stop && isSpace(buf.get(start))) {
+                start++;
+            }
+            while (stop > start && isSpace(buf.get(stop - 1))) {
+                stop--;
+            }
+            pos = tokenEnd + 1;
+            if (start == stop) {
+                continue; // 清單中的空項目
+            }
+            if (++specs > MAX_RANGES) {
+                return -1;
+            }
+
+            int dash = indexOf((byte) '-', start, stop);
+            if (dash < 0) {
+                return -1;
+            }
+            long first = digits(start, dash);
+            long last = digits(dash + 1, stop);
+            if (dash == start) {
+                // -N: 最後 N 個位元組
+                if (last < 0) {
+                    return -1;
+                }
+                if (last == 0 || size == 0) {
+                    continue;
+                }
+                first = Math.max(0, size - last);
+                last = size - 1;
+            } else {
+                // N- 或 N-M
+                if (first < 0 || (dash + 1 < stop && (last < 0 || last < first))) {
+                    return -1;
+                }
+                if (first >= size) {
+                    continue;
+                }
+                last = dash + 1 == stop ? size - 1 : Math.min(last, size - 1);
+            }
+            count = addRange(count, first, last + 1);
+        }
+        return specs == 0 ? -1 : count;
+    }
+
+    // 依起點插入範圍，與前後重疊或相鄰的範圍合併，回傳新的範圍數
+    private int addRange(int count, long start, long end) {
+        int i = count;
+        while (i > 0 && ranges[(i - 1) * 2] > start) {
+            i--;
+        }
+        System.arraycopy(ranges, i * 2, ranges, i * 2 + 2, (count - i) * 2);
+        ranges[i * 2] = start;
+        ranges[i * 2 + 1] = end;
+        count++;
+
+        // 只有新範圍附近可能需要合併
+        int j = Math.max(0, i - 1);
+        while (j + 1 < count) {
+            if (ranges[(j + 1) * 2] <= ranges[j * 2 + 1]) {
+                ranges[j * 2 + 1] = Math.max(ranges[j * 2 + 1], ranges[(j + 1) * 2 + 1]);
+                System.arraycopy(ranges, (j + 2) * 2, ranges, (j + 1) * 2, (count - j - 2) * 2);
+                count--;
+            } else if (j > i) {
+                break;
+            } else {
+                j++;
+            }
+        }
+        return count;
+    }
+
+    // 解析十進位數字，空白、非數字或超過 18 位時回傳 -1
+    private long digits(int start, int end) {
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buf.get(i);
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @param i 範圍索引 (0 ~ ranges() - 1)
+     * @return 範圍的起點
+     */
+    long rangeStart(int i) {
+        return ranges[i * 2];
+    }
+
+    /**
+     * @param i 範圍索引 (0 ~ ranges() - 1)
+     * @return 範圍的結尾 (不含)
+     */
+    long rangeEnd(int i) {
+        return ranges[i * 2 + 1];
+    }
+
+    /**
+     * 判斷 If-Range 是否允許使用 Range (沒有 If-Range 時允許)
+     * 值為 ETag 時必須與目前的 ETag 強比較相同 (弱 ETag 一律不符)；為日期時必須與 Last-Modified 相同。
+     * 不符合表示客戶端手上的部分內容已經過期，應回應整個新的內容。
+     *
+     * @param etag 資源目前的強 ETag (含雙引號)
+     * @param lastModifiedMillis 資源的最後修改時間 (Epoch 毫秒)
+     * @return 可以只送出要求的範圍時為 true
+     */
+    boolean ifRangeMatches(byte[] etag, long lastModifiedMillis) {
+        int h = header(IF_RANGE);
+        if (h < 0) {
+            return true;
+        }
+        int start = headers[h * 4 + 2];
+        int end = headers[h * 4 + 3];
+        byte first = start < end ? buf.get(start) : 0;
+        if (first == '"' || (first == 'W' && end - start > 1 && buf.get(start + 1) == '/')) {
+            return regionEquals(start, end - start, etag);
+        }
+        long date = HttpDate.parse(buf, start, end);
+        // HTTP 日期只精確到秒
+        return date >= 0 && date / 1000 == lastModifiedMillis / 1000;
+    }
+
+    /**
+     * 依照版本與 Connection Header 判斷客戶端是否希望保持連線
+     * HTTP/1.1 預設保持連線，除非帶有 Connection: close；
+     * HTTP/1.0 預設關閉，除非帶有 Connection: keep-alive。
+     *
+     * @return 希望保持連線時為 true
+     */
+    boolean keepAlive() {
+        int h = header(CONNECTION);
+        if (isHttp10()) {
+            return h >= 0 && headerHasToken(h, KEEP_ALIVE);
+        }
+        return h < 0 || !headerHasToken(h, CLOSE);
+    }
+
+    /** @return 是否為 HTTP/1.0 的請求 */
+    boolean isHttp10() {
+        return regionEquals(versionStart, versionEnd - versionStart, HTTP_1_0);
+    }
+
+    /**
+     * 取得 Request Body 的長度
+     *
+     * @return Content-Length 的值；沒有 Body 時為 0；
+     *         無法判斷長度 (格式錯誤或使用 Transfer-Encoding) 時為 -1；
+     *         多個 Content-Length 的值不一致時為 CONFLICTING_LENGTH
+     */
+    long contentLength() {
+        if (header(TRANSFER_ENCODING) >= 0) {
+            return -1;
+        }
+        // 每個 Content-Length 都要檢查: 只取第一個時，使用另一個值的前端 Proxy 會切出不同的 Body 邊界
+        long length = 0;
+        boolean found = false;
+        for (int h = 0; h < headerCount; h++) {
+            if (nameIs(h, CONTENT_LENGTH)) {
+                long value = lengthValue(h);
+                if (found && value != length) {
+                    return CONFLICTING_LENGTH;
+                }
+                length = value;
+                found = true;
+            }
+        }
+        return length;
+    }
+
+    // 解析一個 Content-Length 的值，格式錯誤時為 -1
+    private long lengthValue(int h) {
+        int start = headers[h * 4 + 2];
+        int end = headers[h * 4 + 3];
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buf.get(i);
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    /** @return Header 值的起始位置 */
+    int headerValueStart(int h) {
+        return headers[h * 4 + 2];
+    }
+
+    /** @return Header 值的結束位置 (不含) */
+    int headerValueEnd(int h) {
+        return headers[h * 4 + 3];
+    }
+
+    /** @return 已解析的 Header 數量 */
+    int headerCount() {
+        return headerCount;
+    }
+
+    /** @return Request Head 的總長度 (含結尾空行) */
+    int headLength() {
+        return headEnd;
+    }
+
+    /** @return Request Line 在 Buffer 中的起始位置 */
+    int requestLineStart() {
+        return methodStart;
+    }
+
+    /** @return Request Line 在 Buffer 中的結束位置 (不含 CRLF) */
+    int requestLineEnd() {
+        return versionEnd;
+    }
+
+    /** @return 路徑在 Buffer 中的起始位置 */
+    int pathStart() {
+        return targetStart;
+    }
+
+    /** @return 路徑在 Buffer 中的結束位置 (不含，Query 之前) */
+    int pathEnd() {
+        return pathEnd;
+    }
+
+    /** @return 目前解析的 Buffer */
+    ByteBuffer buffer() {
+        return buf;
+    }
+
+    /** @return Method 字串 (會建立新的 String，僅供記錄使用) */
+    String method() {
+        return string(methodStart, methodEnd);
+    }
+
+    /** @return Target 字串 (會建立新的 String，僅供記錄使用) */
+    String target() {
+        return string(targetStart, targetEnd);
+    }
+
+    /** @return 路徑字串 (不含 Query，會建立新的 String) */
+    String path() {
+        return string(targetStart, pathEnd);
+    }
+
+    /** @return 完整的 Request Line (會建立新的 String，僅供記錄使用) */
+    String requestLine() {
+        return string(methodStart, versionEnd);
+    }
+
+    /**
+     * 取出 Header 值 (會建立新的 String，只在少見的情況使用)
+     *
+     * @param h header() 回傳的索引
+     * @return Header 值
+     */
+    String headerValue(int h) {
+        return string(headers[h * 4 + 2], headers[h * 4 + 3]);
+    }
+
+    /**
+     * 取出 Buffer 中的一段文字 (會建立新的 String)
+     *
+     * @param start 起始位置
+     * @param end 結束位置 (不含)
+     * @return ISO-8859-1 解碼的字串
+     */
+    String string(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private int indexOf(byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean regionEquals(int start, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buf.get(start + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean regionEqualsIgnoreCase(int start, byte[] lowerCase) {
+        for (int i = 0; i < lowerCase.length; i++) {
+            byte b = buf.get(start + i);
+            if (b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != lowerCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * 將常數字串轉為比較用的 ASCII 位元組
+     *
+     * @param s 字串
+     * @return ASCII 位元組
+     */
+    static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -1,8 +1,12 @@
 //陳昱綸, 112306069, 資管三甲
 import java.io.*;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 /**
  * HTTP Server 類別
@@ -14,198 +18,103 @@ public class HttpServer {
 
     /**
      * 程式進入點
-     * 啟動 ServerSocket 並進入無窮迴圈等待客戶端連線。
+     * 依照 http.mode 設定選擇執行模式:
+     * thread (預設) 為每條連線建立一個執行緒；virtual 為每條連線建立一個 Virtual Thread；
+     * nio 則使用固定數量的事件迴圈執行緒；sharded 再讓每個事件迴圈以 SO_REUSEPORT 各自 accept。
+     * http.tls 開啟時，所有模式都改以 HTTPS 提供服務。
      *
-     * @param args 命令列參數 (本程式未使用)
+     * @param args 命令列參數 (本程式未使用，設定請見 HttpServerConfig)
      */
     public static void main(String[] args) {
-        // 1. 修改 Port 為 8868
-        String myHostName = "127.0.0.1";
-        int myPortNumber = 8868;
+        HttpServerConfig config = HttpServerConfig.fromSystemProperties();
+        AdmissionControl admission = new AdmissionControl(config.maxInFlight, config.maxQueueMillis);
+        Router router = createRouter(config, new HttpMetrics(admission));
 
         try {
-            ServerSocket serverSocket = new ServerSocket();
-            serverSocket.bind(new InetSocketAddress(myHostName, myPortNumber));
-            System.out.println("HTTP Server started on " + myHostName + ":" + myPortNumber);
-
-            // 2. 實作 Multi-thread (多執行緒)
-            // 使用無窮迴圈持續等待新的連線
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                // 當有新的連線時，建立一個新的 Thread 去處理它
-                ClientHandler handler = new ClientHandler(clientSocket);
-                Thread thread = new Thread(handler);
-                thread.start();
+            TlsContext tls = config.tls ? new TlsContext(config, router.metrics().tls()) : null;
+            AccessLog.start(config.accessLog, config.accessLogMaxBytes);
+            if (config.mode.equals(HttpServerConfig.MODE_NIO) || config.mode.equals(HttpServerConfig.MODE_SHARDED)) {
+                new NioHttpServer(config, router, tls).start();
+            } else if (config.mode.equals(HttpServerConfig.MODE_VIRTUAL)) {
+                startThreadPerConnection(config, router, tls, Executors.newVirtualThreadPerTaskExecutor());
+            } else {
+                startThreadPerConnection(config, router, tls, task -> new Thread(task).start());
             }
-
-        } catch (IOException e) {
+        } catch (IOException | GeneralSecurityException e) {
             e.printStackTrace();
         }
     }
-}
-
-/**
- * ClientHandler 類別
- * 專門用來處理單一客戶端連線的執行緒邏輯。
- * 實作了 Persistent HTTP (持續連線) 與基本的 Request Routing。
- */
-class ClientHandler implements Runnable {
-
-    private Socket clientSocket;
-    // 定義學號變數
-    private String studentID = "112306069";
 
     /**
-     * ClientHandler 建構子
+     * 註冊所有路由
+     * 固定內容的網址直接送出預先編碼好的回應，/metrics 輸出統計，/stream/{lines} 以串流回應送出指定行數，
+     * 其餘網址交給 StaticFileHandler 從 Document Root 提供。
      *
-     * @param socket 與客戶端建立的連線 Socket
+     * @param config 伺服器設定
+     * @param metrics 統計
+     * @return 路由表
      */
-    public ClientHandler(Socket socket) {
-        this.clientSocket = socket;
+    static Router createRouter(HttpServerConfig config, HttpMetrics metrics) {
+        Router router = new Router(metrics);
+        // /redirect.html: 導向至 /good.html
+        router.get("/redirect.html", exchange -> exchange.send(ClientHandler.REDIRECT_RESPONSE));
+        router.get("/notfound.html", exchange -> exchange.send(Router.NOT_FOUND_RESPONSE));
+        router.get("/metrics", metrics);
+        router.get("/stream/{lines}", new LineStreamHandler());
+        router.get("/*", new StaticFileHandler(config));
+        return router;
     }
 
     /**
-     * 執行緒主要邏輯
-     * 負責讀取 HTTP Request、解析 URL 並分派給對應的處理方法。
-     * 包含 Persistent HTTP 的實作 (限制處理 2 個請求)。
+     * Thread-per-connection 模式 (thread 與 virtual 共用)
+     * 啟動 ServerSocket 並進入無窮迴圈等待客戶端連線，
+     * 兩種模式只差在 executor 建立的是 Platform Thread 還是 Virtual Thread，方便互相比較。
+     *
+     * @param config 伺服器設定
+     * @param router 共用的路由表
+     * @param tls HTTPS 的設定，未開啟 TLS 時為 null
+     * @param executor 執行 ClientHandler 的 Executor
+     * @throws IOException 當綁定或接受連線失敗時拋出
      */
-    @Override
-    public void run() {
-        BufferedReader in = null;
-        PrintWriter out = null;
-        BufferedOutputStream dataOut = null;
-
-        try {
-            in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            out = new PrintWriter(clientSocket.getOutputStream(), true);
-            dataOut = new BufferedOutputStream(clientSocket.getOutputStream());
-
-            // 3. 實作 Persistent HTTP (傳輸 1 或 2 個物件)
-            // 設定一個計數器，允許在同一個連線中處理最多 2 個請求
-            int requestLimit = 2;
-            int requestCount = 0;
-
-            while (requestCount < requestLimit) {
-
-                // 讀取 Request 的第一行 (例如: GET /good.html HTTP/1.1)
-                String requestLine = in.readLine();
-
-                // 如果讀不到東西 (客戶端關閉連線)，就跳出迴圈
-                if (requestLine == null || requestLine.isEmpty()) {
-                    break;
-                }
-
-                System.out.println("Request received: " + requestLine);
-
-                // 簡單解析字串，取得 URL 部分 (GET /good.html HTTP/1.1 -> 分割後 index 1 是 /good.html)
-                String[] tokens = requestLine.split(" ");
-                String method = tokens[0];
-                String url = tokens.length > 1 ? tokens[1] : "";
-
-                // 略過剩下的 Header 內容
-                while (in.ready()) {
-                    String headerLine = in.readLine();
-                    if (headerLine.isEmpty()) break;
-                }
+    private static void startThreadPerConnection(HttpServerConfig config, Router router, TlsContext tls,
+                                                 Executor executor) throws IOException {
+        // 1. 修改 Port 為 8868
+        String myHostName = config.host;
+        int myPortNumber = config.port;
+
+        // 使用阻塞模式的 ServerSocketChannel，讓每條連線都有 SocketChannel 可以做 Gathering Write
+        ServerSocketChannel serverSocket = ServerSocketChannel.open();
+        serverSocket.bind(new InetSocketAddress(myHostName, myPortNumber));
+        System.out.println("HTTP Server (" + config.mode + (tls != null ? ", tls" : "") + ") started on "
+                + myHostName + ":" + myPortNumber);
+
+        // 同時處理的連線數上限，0 表示不限制
+        Semaphore permits = config.maxConcurrent > 0 ? new Semaphore(config.maxConcurrent) : null;
+        CachedResponse serviceUnavailable = ClientHandler.serviceUnavailable(config.retryAfterSeconds);
+
+        // 2. 實作 Multi-thread (多執行緒)
+        // 使用無窮迴圈持續等待新的連線
+        while (true) {
+            Socket clientSocket = serverSocket.accept().socket();
+
+            // 已達上限: 直接回 503，不再為它建立新的工作
+            if (permits != null && !permits.tryAcquire()) {
+                router.metrics().connectionRejected();
+                ClientHandler.reject(clientSocket, tls == null ? serviceUnavailable : null);
+                continue;
+            }
 
-                // 4. 根據 URL 決定回應內容 (Routing)
-                if (method.equals("GET")) {
-                    if (url.equals("/good.html")) {
-                        sendGoodHtml(out, dataOut);
-                    } else if (url.equals("/style.css")) {
-                        sendStyleCss(out, dataOut);
-                    } else if (url.equals("/redirect.html")) {
-                        sendRedirect(out);
-                    } else if (url.equals("/notfound.html")) {
-                        send404(out);
-                    } else {
-                        // 其他網址也視為 404
-                        send404(out);
+            // 當有新的連線時，交給 executor 建立執行緒去處理它
+            ClientHandler handler = new ClientHandler(clientSocket, config, router, tls);
+            executor.execute(() -> {
+                try {
+                    handler.run();
+                } finally {
+                    if (permits != null) {
+                        permits.release();
                     }
                 }
-
-                requestCount++;
-                // 瀏覽器如果不需讀取 style.css，可能會保持連線但不送資料，此時 loop 會在上面的 readLine 等待
-            }
-
-            System.out.println("Closing connection after " + requestCount + " requests.");
-            clientSocket.close();
-
-        } catch (IOException e) {
-            e.printStackTrace();
+            });
         }
     }
-
-    /**
-     * 處理 /good.html 請求
-     * 回應 200 OK 及 HTML 內容。
-     *
-     * @param out 用於發送 Header 的 PrintWriter
-     * @param dataOut 用於發送 Body 的 BufferedOutputStream
-     * @throws IOException 當輸出發生錯誤時拋出
-     */
-    private void sendGoodHtml(PrintWriter out, BufferedOutputStream dataOut) throws IOException {
-        String content = "<html><head><link href=\"style.css\" rel=\"stylesheet\" type=\"text/css\"></head>" +
-                         "<body>good: My student ID is " + studentID + "</body></html>";
-
-        byte[] contentBytes = content.getBytes();
-
-        out.println("HTTP/1.1 200 OK");
-        out.println("Content-Type: text/html");
-        out.println("Content-Length: " + contentBytes.length); // Persistent connection 需要知道這個長度
-        out.println(); // Header 結束的空行
-        out.flush(); //確保Header 在 Body 之前送達
-
-        dataOut.write(contentBytes);
-        dataOut.flush(); //確保瀏覽器收到完整的網頁
-    }
-
-    /**
-     * 處理 /style.css 請求
-     * 回應 200 OK 及 CSS 內容。
-     *
-     * @param out 用於發送 Header 的 PrintWriter
-     * @param dataOut 用於發送 Body 的 BufferedOutputStream
-     * @throws IOException 當輸出發生錯誤時拋出
-     */
-    private void sendStyleCss(PrintWriter out, BufferedOutputStream dataOut) throws IOException {
-        String content = "Body {color: orange;}";
-        byte[] contentBytes = content.getBytes();
-
-        out.println("HTTP/1.1 200 OK");
-        out.println("Content-Type: text/css");
-        out.println("Content-Length: " + contentBytes.length);
-        out.println();
-        out.flush(); //確保Header 在 Body 之前送達
-
-        dataOut.write(contentBytes);
-        dataOut.flush(); //確保瀏覽器收到完整的網頁
-    }
-
-    /** 
-     * 處理 /redirect.html 請求
-     * 回應 301 Moved Permanently 並導向至 /good.html。
-     *
-     * @param out 用於發送 Header 的 PrintWriter
-     */
-    private void sendRedirect(PrintWriter out) {
-        out.println("HTTP/1.1 301 Moved Permanently");
-        out.println("Location: /good.html"); // 告訴瀏覽器去哪裡
-        out.println("Content-Length: 0");
-        out.println();
-        out.flush();
-    }
-
-    /**
-     * 處理 /notfound.html 或其他未定義請求
-     * 回應 404 Not Found。
-     *
-     * @param out 用於發送 Header 的 PrintWriter
-     */
-    private void send404(PrintWriter out) {
-        out.println("HTTP/1.1 404 Not Found");
-        out.println("Content-Length: 0");
-        out.println();
-        out.flush();
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,104 @@
+/**
+ * HttpServerConfig 類別
+ * 集中管理 HTTP Server 啟動時的設定，由 System Property 讀入，
+ * 例如: java -Dhttp.mode=nio -Dhttp.eventLoops=4 HttpServer
+ * 或: java -Dhttp.mode=virtual -Dhttp.maxConcurrent=10000 HttpServer
+ */
+class HttpServerConfig {
+
+    /** 每條連線一個 Platform Thread (原本的做法) */
+    static final String MODE_THREAD = "thread";
+    /** 每條連線一個 Virtual Thread，程式寫法與 thread 模式相同 */
+    static final String MODE_VIRTUAL = "virtual";
+    /** Selector 事件迴圈 (非阻塞 I/O) */
+    static final String MODE_NIO = "nio";
+    /** 每個事件迴圈以 SO_REUSEPORT 綁定自己的 Listen Socket 並自行 accept */
+    static final String MODE_SHARDED = "sharded";
+
+    final String host;
+    final int port;
+    final String mode;
+    final int eventLoops;
+    /** thread / virtual 模式同時處理的連線上限，0 表示不限制 */
+    final int maxConcurrent;
+    /** 同時處理中 (已收到、回應還沒寫完) 的請求上限，超過時回 503，0 表示不限制 */
+    final int maxInFlight;
+    /** 請求從讀進來到開始處理最多等待的時間 (毫秒)，超過時回 503，0 表示不限制 */
+    final long maxQueueMillis;
+    /** 超過上限時 503 回應中 Retry-After 的秒數 */
+    final int retryAfterSeconds;
+    /** 連線閒置多久 (毫秒) 沒有新請求就關閉 */
+    final int idleTimeoutMillis;
+    /** 同一條連線最多處理的請求數，0 表示不限制 */
+    final int maxRequestsPerConnection;
+    /** 是否接受 HTTP/2 (明文連線的 Prior Knowledge 與 Upgrade: h2c；TLS 連線以 ALPN 協商 h2) */
+    final boolean h2c;
+    /** 每條 HTTP/2 連線同時進行的 Stream 上限 (SETTINGS_MAX_CONCURRENT_STREAMS) */
+    final int h2MaxConcurrentStreams;
+    /** 是否以 TLS (HTTPS) 提供服務 */
+    final boolean tls;
+    /** TLS 憑證與私鑰所在的 PKCS12 KeyStore 路徑 */
+    final String tlsKeyStore;
+    /** KeyStore 與私鑰的密碼 */
+    final String tlsKeyStorePassword;
+    /** Server 端 TLS Session Cache 保存的 Session 數上限 */
+    final int tlsSessionCacheSize;
+    /** TLS Session 可以被重用的期限 (秒) */
+    final int tlsSessionTimeoutSeconds;
+    /** 保留在 Buffer 池中、供 TLS 加解密重複使用的 Buffer 數上限 */
+    final int tlsBufferPoolSize;
+    /** 靜態檔案的根目錄 */
+    final String docRoot;
+    /** 靜態檔案記憶體快取的總大小上限 (bytes) */
+    final long fileCacheBytes;
+    /** 超過這個大小的檔案不放進記憶體，改用 transferTo 送出 (bytes) */
+    final long fileCacheMaxFileBytes;
+    /** 存取紀錄檔的路徑，"-" 表示標準輸出 */
+    final String accessLog;
+    /** 存取紀錄檔超過這個大小就輪替 (bytes) */
+    final long accessLogMaxBytes;
+
+    /**
+     * 從 System Property 讀取設定，未指定時使用預設值
+     */
+    private HttpServerConfig() {
+        host = System.getProperty("http.host", "127.0.0.1");
+        port = Integer.getInteger("http.port", 8868);
+        mode = System.getProperty("http.mode", MODE_THREAD);
+        eventLoops = Math.max(1, Integer.getInteger("http.eventLoops", Runtime.getRuntime().availableProcessors()));
+        maxConcurrent = Math.max(0, Integer.getInteger("http.maxConcurrent", 0));
+        maxInFlight = Math.max(0, Integer.getInteger("http.maxInFlight", 0));
+        maxQueueMillis = Math.max(0, Long.getLong("http.maxQueueTime", 0));
+        retryAfterSeconds = Math.max(0, Integer.getInteger("http.retryAfter", 1));
+        idleTimeoutMillis = Math.max(1, Integer.getInteger("http.idleTimeout", 5000));
+        maxRequestsPerConnection = Math.max(0, Integer.getInteger("http.maxRequests", 100));
+        h2c = Boolean.parseBoolean(System.getProperty("http.h2c", "true"));
+        h2MaxConcurrentStreams = Math.max(1, Integer.getInteger("http.h2MaxStreams", 100));
+        tls = Boolean.parseBoolean(System.getProperty("http.tls", "false"));
+        tlsKeyStore = System.getProperty("http.tlsKeyStore", "keystore.p12");
+        tlsKeyStorePassword = System.getProperty("http.tlsKeyStorePassword", "changeit");
+        tlsSessionCacheSize = Math.max(0, Integer.getInteger("http.tlsSessionCacheSize", 10000));
+        tlsSessionTimeoutSeconds = Math.max(0, Integer.getInteger("http.tlsSessionTimeout", 3600));
+        tlsBufferPoolSize = Math.max(0, Integer.getInteger("http.tlsBufferPool", 256));
+        docRoot = System.getProperty("http.docRoot", "www");
+        fileCacheBytes = Math.max(0, Long.getLong("http.fileCacheSize", 32L * 1024 * 1024));
+        fileCacheMaxFileBytes = Math.max(0, Long.getLong("http.fileCacheMaxFile", 256L * 1024));
+        accessLog = System.getProperty("http.accessLog", "logs/access.log");
+        accessLogMaxBytes = Math.max(1, Long.getLong("http.accessLogMaxBytes", 16L * 1024 * 1024));
+    }
+
+    /**
+     * 讀取並檢查設定
+     *
+     * @return 設定物件
+     * @throws IllegalArgumentException 當 http.mode 不是支援的模式時拋出
+     */
+    static HttpServerConfig fromSystemProperties() {
+        HttpServerConfig config = new HttpServerConfig();
+        if (!config.mode.equals(MODE_THREAD) && !config.mode.equals(MODE_VIRTUAL)
+                && !config.mode.equals(MODE_NIO) && !config.mode.equals(MODE_SHARDED)) {
+            throw new IllegalArgumentException("Unknown http.mode: " + config.mode);
+        }
+        return config;
+    }
+}
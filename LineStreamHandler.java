@@ -0,0 +1,105 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * LineStreamHandler 類別
+ * GET /stream/{lines}: 以串流回應送出指定行數的文字 ("line 1" 到 "line N")，內容邊產生邊送出，
+ * 事先不計算長度。HTTP/1.1 以 chunked 編碼分段，HTTP/1.0 送完後關閉連線，HTTP/2 則是一連串的 DATA Frame。
+ */
+class LineStreamHandler implements HttpHandler {
+
+    /** 行數上限 */
+    static final int MAX_LINES = 1_000_000;
+
+    private static final CachedResponse HEAD = CachedResponse.streaming("200 OK", "text/plain; charset=utf-8");
+
+    /**
+     * 送出串流回應；行數不是 1 到 MAX_LINES 的整數時回應 404
+     *
+     * @param exchange 目前的請求 (使用路徑參數 lines)
+     */
+    @Override
+    public void handle(HttpExchange exchange) {
+        int lines = parse(exchange.pathParam("lines"));
+        if (lines < 1) {
+            exchange.send(Router.NOT_FOUND_RESPONSE);
+            return;
+        }
+        exchange.send(HEAD, new Lines(lines));
+    }
+
+    // 解析十進位的行數，格式錯誤或超過上限時回傳 -1
+    private static int parse(String value) {
+        if (value == null || value.isEmpty() || value.length() > 7) {
+            return -1;
+        }
+        int n = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            n = n * 10 + (c - '0');
+        }
+        return n <= MAX_LINES ? n : -1;
+    }
+
+    /**
+     * Lines 類別
+     * 每次呼叫盡量把完整的行寫進 Buffer；剩下的空間放不下一整行時 (例如 HTTP/2 的 Window 只剩幾個位元組)，
+     * 先在自己的小 Buffer 中產生這一行，寫出放得下的部分，其餘留到下一次。
+     */
+    static final class Lines implements StreamingBody {
+
+        private static final byte[] PREFIX = HttpRequestParser.ascii("line ");
+        // 最長的一行: "line " + 7 位數字 + 換行
+        private static final int MAX_LINE = PREFIX.length + 7 + 1;
+
+        private final int count;
+        private int next = 1;
+        // 只寫出一部分的行 (讀取模式)，沒有時為空
+        private final ByteBuffer partial = ByteBuffer.allocate(MAX_LINE).limit(0);
+
+        Lines(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public boolean write(ByteBuffer buffer) throws IOException {
+            putPartial(buffer);
+            while (!partial.hasRemaining() && next <= count && buffer.hasRemaining()) {
+                if (buffer.remaining() >= MAX_LINE) {
+                    line(buffer);
+                } else {
+                    partial.clear();
+                    line(partial);
+                    partial.flip();
+                    putPartial(buffer);
+                }
+            }
+            return next <= count || partial.hasRemaining();
+        }
+
+        private void putPartial(ByteBuffer buffer) {
+            while (partial.hasRemaining() && buffer.hasRemaining()) {
+                buffer.put(partial.get());
+            }
+        }
+
+        // 寫入下一行 (Buffer 至少要有 MAX_LINE 的空間)
+        private void line(ByteBuffer buffer) {
+            buffer.put(PREFIX);
+            int digits = 1;
+            for (int n = next; n >= 10; n /= 10) {
+                digits++;
+            }
+            int end = buffer.position() + digits;
+            for (int n = next, i = end - 1; i >= buffer.position(); n /= 10, i--) {
+                buffer.put(i, (byte) ('0' + n % 10));
+            }
+            buffer.position(end);
+            buffer.put((byte) '\n');
+            next++;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MultipartBody 類別
+ * multipart/byteranges 的 Body: 每一段的分隔行與 Header (ByteBuffer)、該段的內容 (ByteBuffer 或 FileRegion)，
+ * 最後是結尾的分隔行。長度在建立時就算好，回應可以帶 Content-Length；
+ * HTTP/1.x 一次全部排入 OutboundQueue，HTTP/2 的 Stream 則一段一段切成 DATA Frame。
+ * 各段的 FileRegion 共用同一個檔案且不擁有它，檔案由 MultipartBody 負責關閉。
+ */
+final class MultipartBody {
+
+    // 元素為 ByteBuffer 或 FileRegion，依送出順序排列
+    private final Object[] parts;
+    private final FileChannel file;
+    private final long length;
+    private int next;
+
+    /**
+     * MultipartBody 建構子
+     *
+     * @param parts 依序送出的 ByteBuffer (讀取模式) 或不擁有檔案的 FileRegion
+     * @param file 各段 FileRegion 共用的檔案，內容都在記憶體中時為 null
+     */
+    MultipartBody(Object[] parts, FileChannel file) {
+        this.parts = parts;
+        this.file = file;
+        long total = 0;
+        for (Object part : parts) {
+            total += part instanceof FileRegion ? ((FileRegion) part).remaining() : ((ByteBuffer) part).remaining();
+        }
+        this.length = total;
+    }
+
+    /** @return 全部內容的位元組數 (Content-Length) */
+    long length() {
+        return length;
+    }
+
+    /** @return 是否還有沒取出的段落 */
+    boolean hasNext() {
+        return next < parts.length;
+    }
+
+    /** @return 下一段 (ByteBuffer 或 FileRegion) */
+    Object next() {
+        Object part = parts[next];
+        parts[next++] = null;
+        return part;
+    }
+
+    /** @return 各段共用的檔案，沒有時為 null */
+    FileChannel file() {
+        return file;
+    }
+
+    /**
+     * 關閉檔案 (全部送出、HEAD 請求或 Stream 中途被重設時)
+     */
+    void close() {
+        if (file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,505 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * NioHttpServer 類別
+ * 非阻塞模式的 HTTP Server。
+ * 主執行緒只負責 accept，接受到的連線以 Round-robin 分派給固定數量的 EventLoop，
+ * 每個 EventLoop 以一個 Selector 管理數千條連線，不需要一條連線一個執行緒。
+ *
+ * sharded 模式: 每個 EventLoop (預設一個 CPU 核心一個) 各自以 SO_REUSEPORT 綁定同一個 Port，
+ * 由 Kernel 把新連線分散到各個 Listen Socket，accept 也在各自的迴圈中進行，
+ * 不再受限於單一 accept 執行緒；平台不支援 SO_REUSEPORT 時退回共用 accept 執行緒的做法。
+ * 開啟 TLS 時每條連線多一層 TlsTransport，加解密同樣在 EventLoop 上進行。
+ */
+class NioHttpServer {
+
+    private final HttpServerConfig config;
+    private final EventLoop[] loops;
+
+    /**
+     * NioHttpServer 建構子
+     *
+     * @param config 伺服器設定
+     * @param router 共用的路由表
+     * @param tls HTTPS 的設定，未開啟 TLS 時為 null
+     * @throws IOException 當 Selector 無法開啟時拋出
+     */
+    NioHttpServer(HttpServerConfig config, Router router, TlsContext tls) throws IOException {
+        this.config = config;
+        this.loops = new EventLoop[config.eventLoops];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i, config, router, tls);
+        }
+    }
+
+    /**
+     * 啟動事件迴圈並進入 accept 迴圈
+     *
+     * @throws IOException 當綁定或接受連線失敗時拋出
+     */
+    void start() throws IOException {
+        if (config.mode.equals(HttpServerConfig.MODE_SHARDED)) {
+            if (startShards()) {
+                return;
+            }
+            System.out.println("SO_REUSEPORT is not supported, falling back to a shared acceptor");
+        }
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(config.host, config.port), 1024);
+        System.out.println("HTTP Server (nio, " + loops.length + " event loops" + (config.tls ? ", tls" : "")
+                + ") started on " + config.host + ":" + config.port);
+
+        for (EventLoop loop : loops) {
+            Thread thread = new Thread(loop, "http-event-loop-" + loop.id);
+            thread.start();
+        }
+
+        // accept 保持阻塞，只有 EventLoop 使用非阻塞 I/O
+        int next = 0;
+        while (true) {
+            SocketChannel channel = serverChannel.accept();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            loops[next].register(channel);
+            next = (next + 1) % loops.length;
+        }
+    }
+
+    // 每個迴圈綁定自己的 Listen Socket；不支援 SO_REUSEPORT 時回傳 false
+    private boolean startShards() throws IOException {
+        ServerSocketChannel[] channels = new ServerSocketChannel[loops.length];
+        for (int i = 0; i < loops.length; i++) {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            if (!channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                channel.close();
+                return false;
+            }
+            channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            channel.bind(new InetSocketAddress(config.host, config.port), 1024);
+            channels[i] = channel;
+        }
+        for (int i = 0; i < loops.length; i++) {
+            loops[i].listen(channels[i]);
+        }
+        System.out.println("HTTP Server (sharded, " + loops.length + " SO_REUSEPORT shards"
+                + (config.tls ? ", tls" : "") + ") started on " + config.host + ":" + config.port);
+
+        for (EventLoop loop : loops) {
+            Thread thread = new Thread(loop, "http-shard-" + loop.id);
+            thread.start();
+        }
+        return true;
+    }
+}
+
+/**
+ * EventLoop 類別
+ * 一個執行緒配一個 Selector，輪流處理所有註冊連線的讀寫事件。
+ * 讀取用的 Buffer 由整個迴圈共用，只有請求收到一半的連線才會借用 bufferPool 中的 Buffer，
+ * 因此閒置連線幾乎不佔記憶體。
+ *
+ * 閒置逾時: 所有連線依最後活動時間串成一條雙向串列 (最舊的在前)，
+ * 每次有活動就移到尾端，檢查時只需從頭關閉已逾時的連線，不必掃描全部連線。
+ */
+class EventLoop implements Runnable {
+
+    final int id;
+    private final HttpServerConfig config;
+    private final Router router;
+    private final TlsContext tls;
+    private final Selector selector;
+    private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+    // 串流內容有新資料、要繼續送出的連線
+    private final Queue<NioConnection> resumed = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(ClientHandler.MAX_REQUEST_HEAD);
+    // 借給「請求只收到一半」的連線使用的 Buffer
+    private final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<>();
+
+    // 依最後活動時間排序的連線串列
+    private NioConnection idleHead;
+    private NioConnection idleTail;
+    private final long idleTimeoutNanos;
+    private long now;
+
+    /**
+     * EventLoop 建構子
+     *
+     * @param id 迴圈編號 (用於執行緒名稱)
+     * @param config 伺服器設定
+     * @param router 共用的路由表
+     * @param tls HTTPS 的設定，未開啟 TLS 時為 null
+     * @throws IOException 當 Selector 無法開啟時拋出
+     */
+    EventLoop(int id, HttpServerConfig config, Router router, TlsContext tls) throws IOException {
+        this.id = id;
+        this.config = config;
+        this.router = router;
+        this.tls = tls;
+        this.selector = Selector.open();
+        this.idleTimeoutNanos = config.idleTimeoutMillis * 1_000_000L;
+    }
+
+    /**
+     * sharded 模式: 由此迴圈自己 accept 這個 Listen Socket 上的連線 (須在迴圈啟動前呼叫)
+     *
+     * @param serverChannel 以 SO_REUSEPORT 綁定的 Listen Socket
+     * @throws IOException 當註冊失敗時拋出
+     */
+    void listen(ServerSocketChannel serverChannel) throws IOException {
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * 由 accept 執行緒呼叫，把新連線交給此迴圈
+     * 真正的註冊在迴圈執行緒上進行，避免與 select() 互相阻塞。
+     *
+     * @param channel 已設為非阻塞的連線
+     */
+    void register(SocketChannel channel) {
+        pending.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * 串流內容有新資料時呼叫 (可以在任何執行緒上)，由迴圈執行緒繼續送出這條連線的回應
+     *
+     * @param connection 要繼續送出的連線
+     */
+    void resume(NioConnection connection) {
+        resumed.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * 事件迴圈主體
+     */
+    @Override
+    public void run() {
+        // 最多等待這麼久就醒來檢查閒置連線
+        long selectTimeout = Math.max(10, Math.min(1000, config.idleTimeoutMillis / 2));
+        while (true) {
+            try {
+                selector.select(selectTimeout);
+                now = System.nanoTime();
+                registerPending();
+                resumePending();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid() && key.isAcceptable()) {
+                        accept((ServerSocketChannel) key.channel());
+                        continue;
+                    }
+                    NioConnection connection = (NioConnection) key.attachment();
+                    connection.handle(key);
+                }
+
+                closeIdleConnections();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void closeIdleConnections() {
+        while (idleHead != null && now - idleHead.lastActive >= idleTimeoutNanos) {
+            idleHead.closeIdle();
+        }
+    }
+
+    /** @return 這一輪 select 醒來的時間，也就是這一輪讀到的請求到達的時間 */
+    long now() {
+        return now;
+    }
+
+    /**
+     * 記錄連線有活動，把它移到閒置串列的尾端
+     *
+     * @param connection 有活動的連線
+     */
+    void touch(NioConnection connection) {
+        unlink(connection);
+        connection.lastActive = now;
+        connection.idlePrev = idleTail;
+        if (idleTail != null) {
+            idleTail.idleNext = connection;
+        } else {
+            idleHead = connection;
+        }
+        idleTail = connection;
+    }
+
+    /**
+     * 連線關閉時從閒置串列移除
+     *
+     * @param connection 已關閉的連線
+     */
+    void unlink(NioConnection connection) {
+        NioConnection prev = connection.idlePrev;
+        NioConnection next = connection.idleNext;
+        if (prev != null) {
+            prev.idleNext = next;
+        } else if (idleHead == connection) {
+            idleHead = next;
+        }
+        if (next != null) {
+            next.idlePrev = prev;
+        } else if (idleTail == connection) {
+            idleTail = prev;
+        }
+        connection.idlePrev = null;
+        connection.idleNext = null;
+    }
+
+    /** @return 整個迴圈共用的讀取 Buffer，只能在迴圈執行緒上使用 */
+    ByteBuffer sharedBuffer() {
+        return readBuffer;
+    }
+
+    /** @return 一個空的 Buffer，用來保存未完成的請求 */
+    ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocate(ClientHandler.MAX_REQUEST_HEAD);
+    }
+
+    /** @param buffer 歸還的 Buffer */
+    void releaseBuffer(ByteBuffer buffer) {
+        if (bufferPool.size() < 64) {
+            buffer.clear();
+            bufferPool.push(buffer);
+        }
+    }
+
+    private void registerPending() {
+        SocketChannel channel;
+        while ((channel = pending.poll()) != null) {
+            add(channel);
+        }
+    }
+
+    private void resumePending() {
+        NioConnection connection;
+        while ((connection = resumed.poll()) != null) {
+            connection.resume();
+        }
+    }
+
+    // 一次最多接受 64 條連線，避免連線風暴時其他連線的事件等太久
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        for (int i = 0; i < 64; i++) {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            add(channel);
+        }
+    }
+
+    private void add(SocketChannel channel) {
+        try {
+            NioConnection connection = new NioConnection(channel, this, config, router,
+                    tls != null ? tls.open(channel, null) : null);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            touch(connection);
+        } catch (ClosedChannelException e) {
+            // 連線在註冊前就被關閉，直接略過
+        }
+    }
+}
+
+/**
+ * NioConnection 類別
+ * 單一連線的狀態機: 讀取並解析請求 → 寫出回應，重複直到客戶端要求關閉、閒置逾時或達到請求數上限。
+ * 請求處理 (解析、路由、Keep-Alive 判斷) 與 Thread 模式共用 Http1Processor (切換為 HTTP/2 後為 Http2Processor)。
+ *
+ * 讀取時先使用 EventLoop 共用的 Buffer，只有在請求被切成好幾段、還有未完成的資料時，
+ * 才向 EventLoop 借一個 Buffer 保存，處理完就歸還。
+ * TLS 連線的讀寫改經過 TlsTransport，解密後的資料一樣放進上述的 Buffer。
+ */
+class NioConnection {
+
+    private final SocketChannel channel;
+    // TLS 層，未開啟 TLS 時為 null
+    private final TlsTransport tls;
+    private final EventLoop loop;
+    private ConnectionProcessor processor;
+    private final HttpMetrics metrics;
+    SelectionKey key;
+
+    // 閒置串列 (由 EventLoop 維護)
+    NioConnection idlePrev;
+    NioConnection idleNext;
+    long lastActive;
+
+    // 保存未完成請求的 Buffer，沒有殘留資料時為 null
+    private ByteBuffer inBuffer;
+    private boolean inputClosed = false;
+    // 交給處理器的通知: 串流內容有新資料時，請 EventLoop 繼續送出
+    private final Runnable resume;
+
+    /**
+     * NioConnection 建構子
+     *
+     * @param channel 與客戶端建立的連線
+     * @param loop 負責此連線的 EventLoop
+     * @param config 伺服器設定
+     * @param router 共用的路由表
+     * @param tls 連線的 TLS 層，未開啟 TLS 時為 null
+     */
+    NioConnection(SocketChannel channel, EventLoop loop, HttpServerConfig config, Router router,
+                  TlsTransport tls) {
+        this.channel = channel;
+        this.tls = tls;
+        this.loop = loop;
+        this.resume = () -> loop.resume(this);
+        this.processor = new Http1Processor(config, router);
+        processor.onResume(resume);
+        this.metrics = router.metrics();
+        metrics.connectionOpened();
+    }
+
+    /**
+     * 處理 Selector 通知的事件
+     *
+     * @param key 此連線的 SelectionKey
+     */
+    void handle(SelectionKey key) {
+        try {
+            loop.touch(this);
+            if (key.isValid() && key.isReadable()) {
+                onReadable();
+            }
+            if (key.isValid()) {
+                flush(key);
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * 串流內容有新資料，由 EventLoop 在迴圈執行緒上呼叫
+     */
+    void resume() {
+        if (!key.isValid()) {
+            return; // 連線已關閉
+        }
+        try {
+            loop.touch(this);
+            flush(key);
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private void onReadable() throws IOException {
+        int n;
+        do {
+            ByteBuffer buffer = inBuffer;
+            if (buffer == null) {
+                buffer = loop.sharedBuffer();
+                buffer.clear();
+            }
+
+            n = tls != null ? tls.read(buffer) : channel.read(buffer);
+            if (n == -1) {
+                inputClosed = true;
+                return;
+            }
+
+            // 一次讀進來的資料可能包含好幾個請求 (Pipelining)，回應全部排進佇列後一次送出
+            long now = loop.now();
+            processor.process(buffer, now);
+            // 切換協定 (HTTP/2) 時，剩下的資料交給新的處理器
+            for (ConnectionProcessor next; (next = processor.next()) != processor; ) {
+                processor = next;
+                processor.onResume(resume);
+                processor.process(buffer, now);
+            }
+            keepRemainder(buffer);
+            // TLS: 一個 Record 解密後可能放不進 Buffer，剩下的資料不會再觸發可讀事件，要繼續讀完
+        } while (tls != null && n > 0 && tls.hasBufferedInput() && !processor.isClosing());
+    }
+
+    // 共用 Buffer 中若還有未完成的請求，搬到自己的 Buffer；Buffer 空了就歸還
+    private void keepRemainder(ByteBuffer buffer) {
+        if (processor.isClosing() || buffer.position() == 0) {
+            releaseBuffer();
+            return;
+        }
+        if (inBuffer == null) {
+            inBuffer = loop.acquireBuffer();
+            buffer.flip();
+            inBuffer.put(buffer);
+        }
+    }
+
+    private void releaseBuffer() {
+        if (inBuffer != null) {
+            loop.releaseBuffer(inBuffer);
+            inBuffer = null;
+        }
+    }
+
+    private void flush(SelectionKey key) throws IOException {
+        boolean done = tls != null ? processor.flush(tls) && tls.flush() : processor.flush(channel);
+        if (!done) {
+            if (processor.isWaitingForData() && (tls == null || tls.flush())) {
+                // 串流內容暫時沒有資料: Socket 一直都可寫，不能等 OP_WRITE，改等它通知 (resume)
+                key.interestOps(processor.readsWhileWriting() ? SelectionKey.OP_READ : 0);
+                return;
+            }
+            // Socket 暫時寫不下，等可寫時再繼續 (HTTP/2 同時繼續讀取 WINDOW_UPDATE 與新的請求)
+            key.interestOps(processor.readsWhileWriting()
+                    ? SelectionKey.OP_WRITE | SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+            return;
+        }
+        if (processor.isClosing() || inputClosed) {
+            close();
+        } else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * 閒置逾時，由 EventLoop 呼叫
+     */
+    void closeIdle() {
+        close();
+    }
+
+    private void close() {
+        AccessLog.get().log(AccessLog.HTTP_CLOSE, processor.requestCount(), 0);
+        metrics.connectionClosed();
+        loop.unlink(this);
+        key.cancel();
+        releaseBuffer();
+        processor.close();
+        if (tls != null) {
+            tls.close();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
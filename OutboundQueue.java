@@ -0,0 +1,351 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * OutboundQueue 類別
+ * 一條連線待送出的資料佇列。
+ * 回應先排入佇列，flush 時把連續的 Buffer 一次交給 Gathering Write (writev)，
+ * 讓 Header 與 Body 在同一個系統呼叫、通常也在同一個 TCP Segment 中送出；
+ * 檔案內容 (FileRegion) 則以 FileChannel.transferTo (sendfile) 直接從 Page Cache 送到 Socket；
+ * 串流內容 (ChunkedBody) 在 Socket 可以寫入時才產生下一段，放進這條連線重複使用的 Chunk Buffer。
+ * multipart/byteranges (MultipartBody) 拆成各段的分隔行 Buffer 與 FileRegion 依序排入，同樣不複製檔案內容。
+ * 每個回應最後可以排入一個 RouteMetrics 作為結束標記，前面的項目都送出後把這個回應實際寫出的位元組數記到該路由。
+ * Thread 模式 (阻塞) 與 NIO 模式 (非阻塞) 共用。
+ */
+class OutboundQueue {
+
+    // 元素為 ByteBuffer、FileRegion、ChunkedBody 或 RouteMetrics (回應結束的標記)
+    private final ArrayDeque<Object> items = new ArrayDeque<>();
+    // 重複使用的陣列，避免每次 flush 都配置新的 ByteBuffer[]；gatherRemaining 為寫出前各 Buffer 的剩餘長度
+    private ByteBuffer[] gather = new ByteBuffer[8];
+    private int[] gatherRemaining = new int[8];
+    // 串流回應共用的 Buffer，第一次用到時才配置；同一時間只有佇列最前面的 ChunkedBody 會使用
+    private ByteBuffer chunkBuffer;
+    // 上次 takeBytesWritten 之後寫出的位元組數
+    private long bytesWritten;
+    // 目前 (最前面的) 回應已寫出的位元組數，遇到結束標記時記到它的路由
+    private long responseBytes;
+    // 串流內容有新資料時通知連線繼續送出 (可能在其他執行緒上呼叫)
+    private volatile Runnable resume = () -> { };
+
+    /**
+     * 設定串流內容暫時沒有資料、之後又有資料時的通知
+     *
+     * @param resume 讓連線再呼叫一次 flush 的 callback (可能在其他執行緒上呼叫)
+     */
+    void onResume(Runnable resume) {
+        this.resume = resume;
+    }
+
+    /**
+     * 排入一個預先編碼好的回應
+     *
+     * @param response 回應
+     * @param connection CachedResponse.CONNECTION_* 其中之一
+     */
+    void add(CachedResponse response, int connection) {
+        items.add(response.head(connection));
+        items.add(response.body());
+    }
+
+    /**
+     * 排入一段資料
+     *
+     * @param buffer 讀取模式的 Buffer
+     */
+    void add(ByteBuffer buffer) {
+        items.add(buffer);
+    }
+
+    /**
+     * 排入一段檔案內容，送完後會關閉檔案
+     *
+     * @param region 檔案區段
+     */
+    void add(FileRegion region) {
+        items.add(region);
+    }
+
+    /**
+     * 依序排入 multipart 的每一段 (分隔行與內容)，檔案在最後一段送完後關閉
+     *
+     * @param body 內容
+     */
+    void add(MultipartBody body) {
+        while (body.hasNext()) {
+            items.add(body.next());
+        }
+        if (body.file() != null) {
+            // 長度為 0 並擁有檔案的 FileRegion: 送到這裡時關閉檔案
+            items.add(new FileRegion(body.file(), 0, 0));
+        }
+    }
+
+    /**
+     * 排入串流內容，送完後會呼叫 StreamingBody.close
+     *
+     * @param body 內容來源
+     * @param chunked 是否以 chunked 編碼分段 (否則直接送出，由關閉連線表示結束)
+     */
+    void add(StreamingBody body, boolean chunked) {
+        if (chunkBuffer == null) {
+            chunkBuffer = ByteBuffer.allocate(ChunkedBody.BUFFER_SIZE);
+        }
+        items.add(new ChunkedBody(body, chunked, chunkBuffer, () -> resume.run()));
+    }
+
+    /**
+     * 標記一個回應的結尾: 之前排入的項目都送出後，把這個回應寫出的位元組數記到路由的統計
+     *
+     * @param route 回應所屬的路由
+     */
+    void end(RouteMetrics route) {
+        items.add(route);
+    }
+
+    /** @return 佇列中是否沒有待送出的資料 */
+    boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    /**
+     * @return 前面的資料都已送出，最前面的串流內容暫時沒有資料 (flush 因此回傳 false，不是 Socket 寫不下)
+     */
+    boolean isWaiting() {
+        Object first = items.peek();
+        return first instanceof ChunkedBody && ((ChunkedBody) first).isWaiting();
+    }
+
+    /**
+     * 盡量寫出佇列中的資料
+     * 阻塞模式的 Channel 會寫到全部送出為止；非阻塞模式在 Socket 寫不下時提早返回。
+     * 串流內容暫時沒有資料時也會提早返回 (isWaiting 為 true)，等它通知後再呼叫。
+     *
+     * @param channel 目標 Channel
+     * @return 全部送出時為 true
+     * @throws IOException 當寫入失敗時拋出
+     */
+    boolean flush(GatheringByteChannel channel) throws IOException {
+        while (!items.isEmpty()) {
+            Object first = items.peek();
+            if (first instanceof RouteMetrics) {
+                endResponse((RouteMetrics) first);
+                continue;
+            }
+            if (first instanceof FileRegion) {
+                FileRegion region = (FileRegion) first;
+                boolean done = region.transferTo(channel);
+                long transferred = region.takeTransferred();
+                bytesWritten += transferred;
+                responseBytes += transferred;
+                if (!done) {
+                    return false; // Socket 暫時寫不下
+                }
+                region.close();
+                items.poll();
+                continue;
+            }
+
+            // 收集開頭連續的 Buffer (串流內容的目前這一段也算在內)，一次寫出
+            int count = 0;
+            for (Object item : items) {
+                if (count == 64 || item instanceof FileRegion) {
+                    break;
+                }
+                if (item instanceof RouteMetrics) {
+                    continue; // 標記不佔空間
+                }
+                if (gather.length == count) {
+                    gather = Arrays.copyOf(gather, gather.length * 2);
+                    gatherRemaining = Arrays.copyOf(gatherRemaining, gather.length);
+                }
+                ByteBuffer buffer = item instanceof ChunkedBody ? ((ChunkedBody) item).next() : (ByteBuffer) item;
+                gather[count] = buffer;
+                gatherRemaining[count++] = buffer.remaining();
+                if (item instanceof ChunkedBody) {
+                    break;
+                }
+            }
+
+            long written = channel.write(gather, 0, count);
+            bytesWritten += written;
+
+            // 依序移除已完整送出的項目，寫出的位元組數記到各自的回應 (一次寫出可能跨過好幾個回應)
+            int i = 0;
+            while (true) {
+                Object head = items.peek();
+                if (head instanceof RouteMetrics) {
+                    endResponse((RouteMetrics) head);
+                    continue;
+                }
+                if (i == count) {
+                    break;
+                }
+                ByteBuffer buffer = gather[i];
+                responseBytes += gatherRemaining[i] - buffer.remaining();
+                if (buffer.hasRemaining()) {
+                    break;
+                }
+                i++;
+                if (head instanceof ByteBuffer) {
+                    items.poll();
+                } else if (((ChunkedBody) head).isFinished()) {
+                    ((ChunkedBody) head).close();
+                    items.poll();
+                } else {
+                    break;
+                }
+            }
+            Arrays.fill(gather, 0, count, null);
+            if (written == 0 && !items.isEmpty() && !(items.peek() instanceof FileRegion)) {
+                return false; // Socket 暫時寫不下
+            }
+        }
+        return true;
+    }
+
+    // 結束標記之前的項目都已送出: 結算這個回應
+    private void endResponse(RouteMetrics route) {
+        route.bytesOut(responseBytes);
+        responseBytes = 0;
+        items.poll();
+    }
+
+    /**
+     * 取出並歸零寫出的位元組數 (給統計使用)
+     *
+     * @return 上次呼叫之後寫出的位元組數
+     */
+    long takeBytesWritten() {
+        long bytes = bytesWritten;
+        bytesWritten = 0;
+        return bytes;
+    }
+
+    /**
+     * 清空佇列並關閉尚未送出的檔案 (連線關閉時使用)
+     */
+    void clear() {
+        for (Object item : items) {
+            if (item instanceof FileRegion) {
+                ((FileRegion) item).close();
+            } else if (item instanceof ChunkedBody) {
+                ((ChunkedBody) item).close();
+            }
+        }
+        items.clear();
+        responseBytes = 0;
+    }
+}
+
+/**
+ * ChunkedBody 類別
+ * 佇列中的一個串流回應。每次送完目前這一段，才向 StreamingBody 要下一段，
+ * 直接寫在 Buffer 中預留的位置後面，再往前補上 Chunk 長度，資料不需要另外複製。
+ * 要求時沒有資料就登記 resumeWhenReady，收到通知前不再要求。
+ */
+class ChunkedBody {
+
+    /** 每個 Chunk 最多的資料量 */
+    static final int CHUNK_SIZE = 16 * 1024;
+    // 資料前面預留的空間: 最多 4 個十六進位數字 + CRLF
+    private static final int PREFIX = 6;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+    private static final byte[] HEX = HttpRequestParser.ascii("0123456789abcdef");
+
+    /** 需要的 Buffer 大小: 長度、資料、CRLF，加上最後一段可能緊接著的結尾 */
+    static final int BUFFER_SIZE = PREFIX + CHUNK_SIZE + CRLF.length + LAST_CHUNK.length;
+
+    private final StreamingBody body;
+    private final boolean chunked;
+    private final ByteBuffer buffer;
+    private final Runnable resume;
+    private boolean started = false;
+    private boolean more = true;
+    // 上一次要求時沒有資料；resumed 在 StreamingBody 通知後為 true (可能由其他執行緒設定)
+    private boolean waiting = false;
+    private volatile boolean resumed = false;
+
+    /**
+     * ChunkedBody 建構子
+     *
+     * @param body 內容來源
+     * @param chunked 是否加上 chunked 編碼
+     * @param buffer 連線共用的 Buffer (大小為 BUFFER_SIZE)
+     * @param resume 暫時沒有資料、之後又有資料時通知連線
+     */
+    ChunkedBody(StreamingBody body, boolean chunked, ByteBuffer buffer, Runnable resume) {
+        this.body = body;
+        this.chunked = chunked;
+        this.buffer = buffer;
+        this.resume = () -> {
+            resumed = true;
+            resume.run();
+        };
+    }
+
+    /**
+     * @return 目前要送出的這一段 (上一段已送完時先產生下一段)
+     * @throws IOException 當 StreamingBody 產生內容失敗時拋出
+     */
+    ByteBuffer next() throws IOException {
+        if (!started || (!buffer.hasRemaining() && more && (!waiting || resumed))) {
+            started = true;
+            fill();
+        }
+        return buffer;
+    }
+
+    private void fill() throws IOException {
+        buffer.clear();
+        buffer.position(PREFIX);
+        buffer.limit(PREFIX + CHUNK_SIZE);
+        // 每次只要求一次: 暫時沒有資料時這一段是空的，flush 寫不出任何東西而返回，等 StreamingBody 通知後再要求
+        more = body.write(buffer);
+        int length = buffer.position() - PREFIX;
+        buffer.limit(buffer.capacity());
+        waiting = length == 0 && more;
+        if (waiting) {
+            resumed = false;
+            body.resumeWhenReady(resume);
+        }
+
+        int start = PREFIX;
+        if (chunked) {
+            if (length > 0) {
+                buffer.put(CRLF);
+                start = PREFIX - CRLF.length;
+                buffer.put(start, CRLF);
+                for (int n = length; n > 0; n >>>= 4) {
+                    buffer.put(--start, HEX[n & 0xF]);
+                }
+            }
+            if (!more) {
+                buffer.put(LAST_CHUNK);
+            }
+        }
+        buffer.limit(buffer.position());
+        buffer.position(start);
+    }
+
+    /** @return 上一次要求時沒有資料，已登記通知 (通知到了之後，下一次 next 才會再要求) */
+    boolean isWaiting() {
+        return waiting;
+    }
+
+    /** @return 內容已全部產生且送出 */
+    boolean isFinished() {
+        return started && !more && !buffer.hasRemaining();
+    }
+
+    /**
+     * 結束時釋放內容來源
+     */
+    void close() {
+        body.close();
+    }
+}
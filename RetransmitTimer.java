@@ -0,0 +1,102 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RetransmitTimer
+ * 
+ * Retransmission timeout of one transfer, computed from measured round-trip times (RFC 6298):
+ * a smoothed RTT and its variance give the timeout, bounded by a minimum and a maximum,
+ * and every timeout doubles it until a new measurement arrives.
+ * Only blocks sent once are measured (Karn's rule); one block is timed at a time.
+ * When the client asked for a fixed timeout (RFC 2349), that timeout is used unchanged.
+ */
+final class RetransmitTimer {
+
+	/** Timeout before the first measurement (RFC 6298) */
+	private static final long INITIAL_RTO_MILLIS = 1000;
+
+	private final long minNanos;
+	private final long maxNanos;
+	private final boolean fixed;
+
+	private long srtt = -1;    // 還沒有量測時為 -1
+	private long rttvar;
+	private long rto;
+	private long timedSeq = -1; // 正在量測的 Block，沒有時為 -1
+	private long timedAt;
+
+	/**
+	 * @param minMillis      smallest timeout
+	 * @param maxMillis      largest timeout, also the limit of the backoff
+	 * @param fixedSeconds   timeout requested by the client, 0 to adapt to the measured RTT
+	 */
+	RetransmitTimer(long minMillis, long maxMillis, int fixedSeconds) {
+		this.fixed = fixedSeconds > 0;
+		this.minNanos = TimeUnit.MILLISECONDS.toNanos(minMillis);
+		this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+		this.rto = fixed ? TimeUnit.SECONDS.toNanos(fixedSeconds)
+				: Math.max(minNanos, Math.min(maxNanos, TimeUnit.MILLISECONDS.toNanos(INITIAL_RTO_MILLIS)));
+	}
+
+	/**
+	 * @return the current timeout
+	 */
+	long timeoutNanos() {
+		return rto;
+	}
+
+	/**
+	 * Starts timing a block sent for the first time, unless another block is being timed.
+	 * 
+	 * @param seq sequence number of the block
+	 */
+	void start(long seq) {
+		if (timedSeq < 0) {
+			timedSeq = seq;
+			timedAt = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Records a cumulative acknowledgment; takes a sample if it covers the timed block.
+	 * 
+	 * @param seq sequence number of the last acknowledged block
+	 */
+	void acked(long seq) {
+		if (timedSeq >= 0 && seq >= timedSeq) {
+			sample(System.nanoTime() - timedAt);
+			timedSeq = -1;
+		}
+	}
+
+	/**
+	 * Stops timing because the timed block is retransmitted (Karn's rule).
+	 */
+	void cancel() {
+		timedSeq = -1;
+	}
+
+	/**
+	 * Doubles the timeout after a retransmission timeout.
+	 */
+	void backoff() {
+		timedSeq = -1;
+		if (!fixed) {
+			rto = Math.min(maxNanos, rto * 2);
+		}
+	}
+
+	private void sample(long rtt) {
+		if (fixed) {
+			return;
+		}
+		if (srtt < 0) {
+			srtt = rtt;
+			rttvar = rtt / 2;
+		} else {
+			// RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R|、SRTT = 7/8 SRTT + 1/8 R
+			rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+			srtt = (7 * srtt + rtt) / 8;
+		}
+		rto = Math.max(minNanos, Math.min(maxNanos, srtt + 4 * rttvar));
+	}
+}
@@ -0,0 +1,30 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * RouteMetrics 類別
+ * 一個路由的請求數、延遲分布與回應的位元組數，標籤在建立時就組好。
+ */
+final class RouteMetrics {
+
+    final String labels;
+    final LatencyHistogram latency = new LatencyHistogram();
+    final LongAdder bytes = new LongAdder();
+
+    RouteMetrics(String labels) {
+        this.labels = labels;
+    }
+
+    /**
+     * 記錄一個已送出回應的請求
+     *
+     * @param nanos 從收到請求到回應寫完的時間
+     */
+    void record(long nanos) {
+        latency.record(nanos);
+    }
+
+    /** @param bytes 一個回應寫出的位元組數 (Header 與 Body；HTTP/2 包含 Frame Header) */
+    void bytesOut(long bytes) {
+        this.bytes.add(bytes);
+    }
+}
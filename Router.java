@@ -0,0 +1,334 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Router 類別
+ * 依 Method 與路徑把請求分派給 HttpHandler，取代原本逐一比對網址的 if/else。
+ *
+ * 路由以路徑片段 (以 / 分隔) 組成 Trie，每個節點的子節點放在以片段位元組雜湊的表中，
+ * 比對時直接讀取 Request Buffer，成本只和路徑的片段數有關，與註冊了多少路由無關，也不建立字串。
+ * 每個節點再以 Method 編號索引處理器陣列，因此 404 (沒有節點) 與 405 (節點沒有這個 Method)
+ * 都不需要掃描路由表；405 回應 (含 Allow Header) 在註冊時就預先編碼好。
+ *
+ * 支援的路徑寫法:
+ * /good.html 完全相同；/users/{id} 片段參數；/static/* 前綴 (其餘部分可用 pathParam("*") 取得)。
+ * 同一位置的固定片段優先於參數，參數優先於前綴；固定片段比對失敗時只會退回最近的前綴路由。
+ * HEAD 沒有另外註冊時交給 GET 的處理器，只送出 Header。
+ * 每個路由註冊時建立自己的 RouteMetrics，分派時記在 HttpExchange 上，回應送完後由連線記錄延遲。
+ */
+class Router {
+
+    /** 支援的 Method，索引即為 Method 編號 */
+    static final String[] METHODS = {"GET", "HEAD", "POST", "PUT", "DELETE", "PATCH", "OPTIONS"};
+    private static final int GET = 0;
+    private static final int HEAD = 1;
+
+    private static final byte[][] METHOD_BYTES = new byte[METHODS.length][];
+
+    static {
+        for (int i = 0; i < METHODS.length; i++) {
+            METHOD_BYTES[i] = HttpRequestParser.ascii(METHODS[i]);
+        }
+    }
+
+    /** 沒有符合的路由 */
+    static final CachedResponse NOT_FOUND_RESPONSE = CachedResponse.empty("404 Not Found");
+
+    /** 不認得的 Method */
+    static final CachedResponse NOT_IMPLEMENTED_RESPONSE = CachedResponse.empty("501 Not Implemented");
+
+    private final Node root = new Node();
+    private final HttpMetrics metrics;
+
+    /**
+     * Router 建構子
+     *
+     * @param metrics 記錄各路由統計的 HttpMetrics
+     */
+    Router(HttpMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /** @return 各路由與連線共用的統計 */
+    HttpMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * 註冊路由
+     *
+     * @param method METHODS 其中之一
+     * @param pattern 路徑，例如 /good.html、/users/{id}、/static/*
+     * @param handler 處理器
+     * @return this，方便連續註冊
+     * @throws IllegalArgumentException 當 Method 不支援、路徑格式錯誤或與既有路由衝突時拋出
+     */
+    Router add(String method, String pattern, HttpHandler handler) {
+        int m = methodIndex(method);
+        if (m < 0) {
+            throw new IllegalArgumentException("Unsupported method: " + method);
+        }
+        if (!pattern.startsWith("/")) {
+            throw new IllegalArgumentException("Route must start with '/': " + pattern);
+        }
+
+        Node node = root;
+        String[] segments = pattern.substring(1).split("/", -1);
+        if (pattern.equals("/")) {
+            segments = new String[0];
+        }
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (segment.equals("*")) {
+                if (i != segments.length - 1) {
+                    throw new IllegalArgumentException("'*' must be the last segment: " + pattern);
+                }
+                if (node.wildcard == null) {
+                    node.wildcard = new Node();
+                }
+                node = node.wildcard;
+            } else if (segment.startsWith("{") && segment.endsWith("}")) {
+                String name = segment.substring(1, segment.length() - 1);
+                if (node.param == null) {
+                    node.param = new Node();
+                    node.paramName = name;
+                } else if (!node.paramName.equals(name)) {
+                    throw new IllegalArgumentException("Conflicting parameter {" + name + "} and {"
+                            + node.paramName + "}: " + pattern);
+                }
+                node = node.param;
+            } else {
+                node = node.childOrCreate(segment.getBytes(StandardCharsets.ISO_8859_1));
+            }
+        }
+
+        if (node.handlers[m] != null) {
+            throw new IllegalArgumentException("Duplicate route: " + method + " " + pattern);
+        }
+        node.handlers[m] = handler;
+        node.metrics[m] = metrics.route(method, pattern);
+        node.methodNotAllowed = CachedResponse.empty("405 Method Not Allowed", "Allow: " + node.allow());
+        return this;
+    }
+
+    /**
+     * 註冊 GET 路由 (HEAD 也會使用)
+     *
+     * @param pattern 路徑
+     * @param handler 處理器
+     * @return this
+     */
+    Router get(String pattern, HttpHandler handler) {
+        return add("GET", pattern, handler);
+    }
+
+    /**
+     * 分派請求
+     *
+     * @param exchange 已重設為目前請求的 HttpExchange
+     * @throws IOException 處理器拋出的例外
+     */
+    void dispatch(HttpExchange exchange) throws IOException {
+        HttpRequestParser request = exchange.request();
+        int method = methodIndex(request);
+        exchange.setHead(method == HEAD);
+        exchange.setRoute(metrics.unmatched());
+        if (method < 0) {
+            exchange.send(NOT_IMPLEMENTED_RESPONSE);
+            return;
+        }
+
+        Node node = match(request, exchange);
+        if (node == null) {
+            exchange.send(NOT_FOUND_RESPONSE);
+            return;
+        }
+        if (node.handlers[method] == null && method == HEAD) {
+            method = GET;
+        }
+        HttpHandler handler = node.handlers[method];
+        if (handler == null) {
+            exchange.send(node.methodNotAllowed);
+            return;
+        }
+        exchange.setRoute(node.metrics[method]);
+        handler.handle(exchange);
+    }
+
+    // 沿著路徑片段走 Trie，回傳有處理器的節點；同時把路徑參數記錄到 exchange
+    private Node match(HttpRequestParser request, HttpExchange exchange) {
+        ByteBuffer buf = request.buffer();
+        int end = request.pathEnd();
+        if (buf.get(request.pathStart()) != '/') {
+            return null; // 例如 OPTIONS * 或 absolute-form
+        }
+        int pos = request.pathStart() + 1; // 略過開頭的 /
+
+        // 最近經過的前綴路由，後面比對失敗時退回這裡
+        Node fallback = null;
+        int fallbackStart = 0;
+        int fallbackParams = 0;
+
+        Node node = root;
+        boolean done = pos >= end; // 路徑 "/" 沒有任何片段
+        while (!done) {
+            if (node.wildcard != null) {
+                fallback = node.wildcard;
+                fallbackStart = pos;
+                fallbackParams = exchange.paramCount();
+            }
+            int segmentEnd = pos;
+            while (segmentEnd < end && buf.get(segmentEnd) != '/') {
+                segmentEnd++;
+            }
+
+            Node next = node.child(buf, pos, segmentEnd);
+            if (next == null && node.param != null && segmentEnd > pos) {
+                exchange.addParam(node.paramName, pos, segmentEnd);
+                next = node.param;
+            }
+            if (next == null) {
+                node = null;
+                break;
+            }
+            node = next;
+            done = segmentEnd >= end;
+            pos = segmentEnd + 1;
+        }
+
+        if (node != null) {
+            if (node.hasHandlers()) {
+                return node;
+            }
+            // /static/* 也符合 /static 與 /static/
+            if (node.wildcard != null && node.wildcard.hasHandlers()) {
+                exchange.addParam("*", end, end);
+                return node.wildcard;
+            }
+        }
+        if (fallback == null || !fallback.hasHandlers()) {
+            return null;
+        }
+        exchange.truncateParams(fallbackParams);
+        exchange.addParam("*", fallbackStart, end);
+        return fallback;
+    }
+
+    private static int methodIndex(String method) {
+        for (int i = 0; i < METHODS.length; i++) {
+            if (METHODS[i].equals(method)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int methodIndex(HttpRequestParser request) {
+        for (int i = 0; i < METHOD_BYTES.length; i++) {
+            if (request.methodIs(METHOD_BYTES[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Node 類別
+     * Trie 的一個節點: 固定片段的子節點表 (開放定址雜湊)、參數子節點、前綴子節點與各 Method 的處理器。
+     */
+    private static final class Node {
+
+        private byte[][] keys = new byte[4][];
+        private Node[] children = new Node[4];
+        private int childCount;
+
+        private Node param;
+        private String paramName;
+        private Node wildcard;
+
+        private final HttpHandler[] handlers = new HttpHandler[METHODS.length];
+        private final RouteMetrics[] metrics = new RouteMetrics[METHODS.length];
+        private CachedResponse methodNotAllowed;
+
+        Node child(ByteBuffer buf, int start, int end) {
+            int mask = keys.length - 1;
+            for (int i = hash(buf, start, end) & mask; keys[i] != null; i = (i + 1) & mask) {
+                if (matches(keys[i], buf, start, end)) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node childOrCreate(byte[] key) {
+            ByteBuffer wrapped = ByteBuffer.wrap(key);
+            Node existing = child(wrapped, 0, key.length);
+            if (existing != null) {
+                return existing;
+            }
+            // 維持負載率在 1/2 以下，查詢時的探測次數很少
+            if ((childCount + 1) * 2 > keys.length) {
+                byte[][] oldKeys = keys;
+                Node[] oldChildren = children;
+                keys = new byte[oldKeys.length * 2][];
+                children = new Node[oldKeys.length * 2];
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != null) {
+                        insert(oldKeys[i], oldChildren[i]);
+                    }
+                }
+            }
+            Node node = new Node();
+            insert(key, node);
+            childCount++;
+            return node;
+        }
+
+        private void insert(byte[] key, Node node) {
+            int mask = keys.length - 1;
+            int i = hash(ByteBuffer.wrap(key), 0, key.length) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            children[i] = node;
+        }
+
+        boolean hasHandlers() {
+            return methodNotAllowed != null;
+        }
+
+        String allow() {
+            List<String> allowed = new ArrayList<>();
+            for (int i = 0; i < handlers.length; i++) {
+                if (handlers[i] != null || (i == HEAD && handlers[GET] != null)) {
+                    allowed.add(METHODS[i]);
+                }
+            }
+            return String.join(", ", allowed);
+        }
+
+        private static int hash(ByteBuffer buf, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + buf.get(i);
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean matches(byte[] key, ByteBuffer buf, int start, int end) {
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buf.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,683 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * StaticFileHandler 類別
+ * 從 Document Root 提供靜態檔案，取代原本寫死在程式中的 sendGoodHtml / sendStyleCss。
+ * 在 Router 中註冊為 GET /*，處理其他路由沒有涵蓋的網址。
+ *
+ * 小檔案第一次被請求時整個讀進記憶體，連同 Header 預先編碼成 CachedResponse 放進快取，
+ * 之後直接以一次 Gathering Write 送出；快取總大小有上限，超過時以 CLOCK (Second Chance) 淘汰最近沒用到的檔案。
+ * 大檔案只快取 Header，內容以 FileChannel.transferTo (sendfile) 送出，資料不經過 Java Heap。
+ * 快取項目每秒最多檢查一次檔案的修改時間與大小，檔案變更後會重新載入。
+ *
+ * 壓縮: 文字類的小檔案在第一次有客戶端接受某種編碼時，才交給背景的壓縮執行緒以預設等級壓縮一次，
+ * 壓縮完成前先送出原始內容；之後依照 Accept-Encoding 直接選擇要送出的版本，每個請求不需要再花 CPU 壓縮，
+ * 事件迴圈也不會因為壓縮而停頓。gzip 優先，只有接受 deflate 但不接受 gzip 的客戶端才會建立 deflate 版本。
+ * 大檔案則使用旁邊預先壓縮好的 .gz 檔 (例如 app.js.gz)。
+ *
+ * 條件式 GET: 每個版本載入時就算好強 ETag 與 Last-Modified，並預先編碼 304 回應；
+ * If-None-Match / If-Modified-Since 直接在請求的 Buffer 中比對，符合時只送出 304。
+ *
+ * Range: GET 請求只要求部分內容時 (續傳、分段平行下載、影片跳轉) 回 206 Partial Content，
+ * 一個範圍直接送出該段，多個範圍以 multipart/byteranges 送出；If-Range 不符 (內容已變更) 時改送整個內容。
+ * 檔案的範圍以 FileRegion 從檔案位置直接 transferTo，記憶體中的內容則送出原本 Buffer 的一段，都不複製。
+ */
+class StaticFileHandler implements HttpHandler {
+
+    // 快取項目距離上次檢查超過這個時間才重新讀取檔案屬性
+    private static final long REVALIDATE_NANOS = 1_000_000_000L;
+    // 快取項目數上限 (包含只快取 Header 的大檔案)
+    private static final int MAX_ENTRIES = 10_000;
+
+    private static final Map<String, String> CONTENT_TYPES = Map.ofEntries(
+            Map.entry("html", "text/html"),
+            Map.entry("htm", "text/html"),
+            Map.entry("css", "text/css"),
+            Map.entry("js", "application/javascript"),
+            Map.entry("json", "application/json"),
+            Map.entry("txt", "text/plain"),
+            Map.entry("xml", "application/xml"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("png", "image/png"),
+            Map.entry("jpg", "image/jpeg"),
+            Map.entry("jpeg", "image/jpeg"),
+            Map.entry("gif", "image/gif"),
+            Map.entry("ico", "image/x-icon"),
+            Map.entry("mp4", "video/mp4"),
+            Map.entry("pdf", "application/pdf"));
+
+    private static final Set<String> COMPRESSIBLE_TYPES = Set.of(
+            "application/javascript", "application/json", "application/xml", "image/svg+xml");
+
+    private static final String VARY = "Vary: Accept-Encoding";
+    private static final String ACCEPT_RANGES = "Accept-Ranges: bytes";
+
+    private final Path root;
+    private final long cacheCapacity;
+    private final long maxCachedFileSize;
+
+    private final ConcurrentHashMap<String, StaticResource> cache = new ConcurrentHashMap<>();
+    private final AtomicLong cachedBytes = new AtomicLong();
+    // 壓縮在這條執行緒上進行，不佔用處理請求的執行緒或事件迴圈
+    private final Executor compressor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "static-compressor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // CLOCK 的環: 依放入順序排列的快取項目 (可能含已被取代或移除的項目，輪到時略過)，以自身為鎖
+    private final ArrayDeque<StaticResource> clock = new ArrayDeque<>();
+
+    /**
+     * StaticFileHandler 建構子
+     *
+     * @param config 伺服器設定 (Document Root 與快取大小)
+     */
+    StaticFileHandler(HttpServerConfig config) {
+        this.root = Paths.get(config.docRoot).toAbsolutePath().normalize();
+        this.cacheCapacity = config.fileCacheBytes;
+        this.maxCachedFileSize = config.fileCacheMaxFileBytes;
+    }
+
+    /**
+     * 把請求路徑對應的檔案排入輸出佇列，找不到檔案時回應 404
+     *
+     * @param exchange 目前的請求 (使用路徑、Accept-Encoding 與條件式 Header)
+     */
+    @Override
+    public void handle(HttpExchange exchange) {
+        HttpRequestParser request = exchange.request();
+        String path = request.path();
+        StaticResource resource = lookup(path);
+        if (resource == null) {
+            exchange.send(Router.NOT_FOUND_RESPONSE);
+            return;
+        }
+
+        int acceptEncoding = request.acceptEncoding();
+        StaticVariant variant = resource.select(acceptEncoding);
+        int encoding = resource.claimCompression(acceptEncoding);
+        if (encoding != 0) {
+            compressLater(resource, encoding); // 這次先送出原始內容
+        }
+
+        // 條件式 GET: 客戶端的版本仍然有效，只送出 Header，完全不碰 Body
+        if (request.isNotModified(variant.etag, resource.lastModified)) {
+            exchange.send(variant.notModified);
+            return;
+        }
+
+        // Range 只適用於 GET (RFC 7233)；If-Range 不符時忽略 Range，送出整個內容
+        if (!exchange.isHead()) {
+            int ranges = request.ranges(variant.size);
+            if (ranges >= 0 && request.ifRangeMatches(variant.etag, resource.lastModified)) {
+                sendRanges(exchange, path, resource, variant, ranges);
+                return;
+            }
+        }
+
+        // 記憶體中的版本，或 HEAD 請求 (大檔案的 response 只有 Head，不需要開檔)
+        if (variant.file == null || exchange.isHead()) {
+            exchange.send(variant.response);
+            return;
+        }
+        try {
+            FileChannel file = FileChannel.open(variant.file, StandardOpenOption.READ);
+            exchange.send(variant.response, new FileRegion(file, 0, variant.size));
+        } catch (IOException e) {
+            remove(path, resource);
+            exchange.send(Router.NOT_FOUND_RESPONSE);
+        }
+    }
+
+    // 在背景壓縮出 encoding 版本 (HttpRequestParser.ENCODING_*)，完成後加入資源並計入快取大小
+    private void compressLater(StaticResource resource, int encoding) {
+        compressor.execute(() -> {
+            StaticVariant variant;
+            try {
+                variant = encoding == HttpRequestParser.ENCODING_GZIP
+                        ? compressed(resource.contentType, resource.body, "gzip", gzip(resource.body), resource.lastModifiedHeader)
+                        : compressed(resource.contentType, resource.body, "deflate", deflate(resource.body), resource.lastModifiedHeader);
+            } catch (IOException e) {
+                return; // 記憶體中的壓縮不會失敗；失敗時繼續送出原始內容
+            }
+            if (variant != null && resource.install(encoding, variant)
+                    && cachedBytes.addAndGet(variant.memoryBytes()) > cacheCapacity) {
+                evict();
+            }
+        });
+    }
+
+    // 送出 Range 要求的部分: 416 (沒有可滿足的範圍)、單一範圍，或 multipart/byteranges
+    private void sendRanges(HttpExchange exchange, String path, StaticResource resource,
+                            StaticVariant variant, int count) {
+        if (count == 0) {
+            exchange.send(variant.rangeNotSatisfiable);
+            return;
+        }
+        HttpRequestParser request = exchange.request();
+        FileChannel file = null;
+        try {
+            if (variant.file != null) {
+                file = FileChannel.open(variant.file, StandardOpenOption.READ);
+            }
+        } catch (IOException e) {
+            remove(path, resource);
+            exchange.send(Router.NOT_FOUND_RESPONSE);
+            return;
+        }
+
+        if (count == 1) {
+            long start = request.rangeStart(0);
+            long length = request.rangeEnd(0) - start;
+            CachedResponse head = variant.partial(start, length);
+            if (file != null) {
+                exchange.send(head, new FileRegion(file, start, length));
+            } else {
+                exchange.send(head, variant.response.body().slice((int) start, (int) length));
+            }
+            return;
+        }
+
+        // 每一段: 分隔行、Content-Type、Content-Range、空行，接著是內容；最後是結尾的分隔行
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+        String delimiter = "\r\n--" + boundary + "\r\nContent-Type: " + variant.contentType + "\r\nContent-Range: ";
+        Object[] parts = new Object[count * 2 + 1];
+        for (int i = 0; i < count; i++) {
+            long start = request.rangeStart(i);
+            long length = request.rangeEnd(i) - start;
+            parts[i * 2] = ByteBuffer.wrap(HttpRequestParser.ascii(
+                    delimiter + variant.contentRange(start, length) + "\r\n\r\n"));
+            parts[i * 2 + 1] = file != null
+                    ? new FileRegion(file, start, length, false)
+                    : variant.response.body().slice((int) start, (int) length);
+        }
+        parts[count * 2] = ByteBuffer.wrap(HttpRequestParser.ascii("\r\n--" + boundary + "--\r\n"));
+        MultipartBody body = new MultipartBody(parts, file);
+        exchange.send(CachedResponse.headOnly("206 Partial Content", "multipart/byteranges; boundary=" + boundary,
+                body.length(), variant.headers), body);
+    }
+
+    private StaticResource lookup(String path) {
+        long now = System.nanoTime();
+        StaticResource resource = cache.get(path);
+        if (resource != null) {
+            if (!resource.referenced) {
+                resource.referenced = true; // 已經設定過就不再寫入，避免多個執行緒搶同一條 Cache Line
+            }
+            if (now - resource.checkedAt < REVALIDATE_NANOS) {
+                return resource;
+            }
+            if (resource.isCurrent()) {
+                resource.checkedAt = now;
+                return resource;
+            }
+            remove(path, resource);
+        }
+
+        Path file = resolve(path);
+        if (file == null) {
+            return null;
+        }
+        try {
+            resource = load(path, file, now);
+        } catch (IOException e) {
+            return null;
+        }
+        if (resource == null) {
+            return null;
+        }
+
+        // 放入之前先算好大小：放入之後其他執行緒可能立刻要求壓縮，壓縮版本由 compressLater 自行計入
+        long bytes = resource.memoryBytes();
+        StaticResource previous = cache.put(path, resource);
+        if (previous != null) {
+            cachedBytes.addAndGet(-previous.release());
+        }
+        synchronized (clock) {
+            clock.add(resource);
+            // 被取代或移除的項目只在輪到時才離開環；累積太多時一次清掉 (攤還後每次放入仍是 O(1))
+            if (clock.size() > 2 * cache.size() + 64) {
+                clock.removeIf(stale -> cache.get(stale.path) != stale);
+            }
+        }
+        if (cachedBytes.addAndGet(bytes) > cacheCapacity || cache.size() > MAX_ENTRIES) {
+            evict();
+        }
+        return resource;
+    }
+
+    private void remove(String path, StaticResource resource) {
+        if (cache.remove(path, resource)) {
+            cachedBytes.addAndGet(-resource.release());
+        }
+    }
+
+    // CLOCK 淘汰直到回到上限以內 (只在新增項目超過上限時執行): 從環的開頭取出項目，
+    // 上次經過後被用過的清除標記、放回環尾 (再給一次機會)，沒被用過的淘汰。每個淘汰的項目攤還 O(1)
+    private void evict() {
+        synchronized (clock) {
+            while (cachedBytes.get() > cacheCapacity || cache.size() > MAX_ENTRIES) {
+                StaticResource resource = clock.poll();
+                if (resource == null) {
+                    return;
+                }
+                if (cache.get(resource.path) != resource) {
+                    continue; // 已被取代或移除
+                }
+                if (resource.referenced) {
+                    resource.referenced = false;
+                    clock.add(resource);
+                } else {
+                    remove(resource.path, resource);
+                }
+            }
+        }
+    }
+
+    // 將 URL 路徑轉為 Document Root 底下的檔案，不允許跳出 Document Root
+    private Path resolve(String path) {
+        String decoded = percentDecode(path);
+        if (decoded == null || !decoded.startsWith("/") || decoded.indexOf('\0') >= 0) {
+            return null;
+        }
+        Path file;
+        try {
+            file = root.resolve(decoded.substring(1)).normalize();
+        } catch (RuntimeException e) {
+            return null; // 不合法的路徑字元
+        }
+        if (!file.startsWith(root)) {
+            return null;
+        }
+        if (Files.isDirectory(file)) {
+            file = file.resolve("index.html");
+        }
+        return file;
+    }
+
+    private StaticResource load(String path, Path file, long now) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        if (!attrs.isRegularFile()) {
+            return null;
+        }
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().toMillis();
+        String contentType = contentType(file);
+
+        // 有壓縮版本的資源，每個版本都要加上 Vary，讓中間的快取依 Accept-Encoding 分開存放
+        boolean compressible = isCompressible(contentType);
+        String lastModified = HttpDate.format(modified);
+
+        if (size <= maxCachedFileSize) {
+            byte[] body = Files.readAllBytes(file);
+            StaticVariant identity = inMemory(contentType, body, null, lastModified, compressible);
+            // 壓縮版本等到有客戶端接受時才建立 (compressLater)
+            return new StaticResource(path, file, size, modified, contentType, lastModified,
+                    compressible ? body : null, identity, null, now);
+        }
+
+        StaticVariant identity = onDisk(contentType, file, size, modified, null, lastModified, compressible);
+        StaticVariant gzip = compressible ? precompressed(file, modified, contentType, lastModified) : null;
+        return new StaticResource(path, file, size, modified, contentType, lastModified, null, identity, gzip, now);
+    }
+
+    // 內容在記憶體中的版本，強 ETag 由內容的 CRC32C 與長度組成
+    private static StaticVariant inMemory(String contentType, byte[] body, String encoding,
+                                          String lastModified, boolean vary) {
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        String etag = etag(Long.toHexString(body.length) + "-" + Long.toHexString(crc.getValue()), encoding);
+        String[] validators = validators(etag, lastModified, vary);
+        String[] headers = withEncoding(encoding, validators);
+        return StaticVariant.inMemory(etag, contentType, headers,
+                CachedResponse.of("200 OK", contentType, body, headers),
+                CachedResponse.notModified(validators), body.length);
+    }
+
+    // 內容以 transferTo 送出的版本，強 ETag 由檔案大小與修改時間組成
+    private static StaticVariant onDisk(String contentType, Path file, long size, long modified,
+                                        String encoding, String lastModified, boolean vary) {
+        String etag = etag(Long.toHexString(size) + "-" + Long.toHexString(modified), encoding);
+        String[] validators = validators(etag, lastModified, vary);
+        String[] headers = withEncoding(encoding, validators);
+        return StaticVariant.onDisk(etag, contentType, headers, file, size, modified,
+                CachedResponse.headOnly("200 OK", contentType, size, headers),
+                CachedResponse.notModified(validators));
+    }
+
+    // 不同編碼的內容不同，強 ETag 也必須不同
+    private static String etag(String value, String encoding) {
+        return "\"" + value + (encoding != null ? "-" + encoding : "") + "\"";
+    }
+
+    // 200 與 304 回應共用的驗證 Header
+    private static String[] validators(String etag, String lastModified, boolean vary) {
+        return vary
+                ? new String[] {"ETag: " + etag, "Last-Modified: " + lastModified, VARY}
+                : new String[] {"ETag: " + etag, "Last-Modified: " + lastModified};
+    }
+
+    // 200 與 206 回應的 Header: 驗證 Header，加上 Content-Encoding (有壓縮時) 與 Accept-Ranges
+    private static String[] withEncoding(String encoding, String[] headers) {
+        int offset = encoding != null ? 1 : 0;
+        String[] lines = new String[headers.length + offset + 1];
+        if (encoding != null) {
+            lines[0] = "Content-Encoding: " + encoding;
+        }
+        System.arraycopy(headers, 0, lines, offset, headers.length);
+        lines[lines.length - 1] = ACCEPT_RANGES;
+        return lines;
+    }
+
+    // 壓縮後沒有變小就不保留
+    private static StaticVariant compressed(String contentType, byte[] body, String encoding,
+                                            byte[] compressed, String lastModified) {
+        if (compressed.length >= body.length) {
+            return null;
+        }
+        return inMemory(contentType, compressed, encoding, lastModified, true);
+    }
+
+    // 大檔案旁邊預先壓縮好、且不比原檔舊的 .gz 檔
+    private static StaticVariant precompressed(Path file, long modified, String contentType, String lastModified) {
+        Path gz = file.resolveSibling(file.getFileName() + ".gz");
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(gz, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            long gzModified = attrs.lastModifiedTime().toMillis();
+            if (!attrs.isRegularFile() || gzModified < modified) {
+                return null;
+            }
+            return onDisk(contentType, gz, attrs.size(), gzModified, "gzip", lastModified, true);
+        } catch (IOException e) {
+            return null; // 沒有 .gz 檔
+        }
+    }
+
+    // 預設等級 (6) 的壓縮率與最高等級相差不多，速度快得多
+    private static byte[] gzip(byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 2 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(body);
+        }
+        return bytes.toByteArray();
+    }
+
+    // HTTP 的 deflate 指的是 zlib 格式 (RFC 1950)，即 Deflater 的預設輸出
+    private static byte[] deflate(byte[] body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 2 + 64);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+            out.write(body);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/") || COMPRESSIBLE_TYPES.contains(contentType);
+    }
+
+    private static String contentType(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String type = dot < 0 ? null : CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase());
+        return type != null ? type : "application/octet-stream";
+    }
+
+    // 解碼 %XX，格式錯誤時回傳 null
+    private static String percentDecode(String path) {
+        if (path.indexOf('%') < 0) {
+            return path;
+        }
+        byte[] out = new byte[path.length()];
+        int length = 0;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            if (c == '%') {
+                if (i + 2 >= path.length()) {
+                    return null;
+                }
+                int hi = Character.digit(path.charAt(i + 1), 16);
+                int lo = Character.digit(path.charAt(i + 2), 16);
+                if (hi < 0 || lo < 0) {
+                    return null;
+                }
+                out[length++] = (byte) (hi * 16 + lo);
+                i += 2;
+            } else {
+                out[length++] = (byte) c;
+            }
+        }
+        return new String(out, 0, length, StandardCharsets.UTF_8);
+    }
+}
+
+/**
+ * StaticResource 類別
+ * StaticFileHandler 的快取項目: 檔案屬性與各種編碼版本的回應。
+ * 記憶體中的壓縮版本在第一次有客戶端接受時才建立，之後才出現在 select 的結果中。
+ */
+class StaticResource {
+
+    /** 快取的 Key (請求路徑) */
+    final String path;
+    final Path file;
+    final long size;
+    final long lastModified;
+    final String contentType;
+    /** 格式化後的 Last-Modified，建立壓縮版本時使用 */
+    final String lastModifiedHeader;
+    /** 可壓縮的記憶體中內容 (與原始版本共用)；不需壓縮或是大檔案時為 null */
+    final byte[] body;
+    private final StaticVariant identity;
+    private volatile StaticVariant gzip;
+    private volatile StaticVariant deflate;
+    // 已開始建立 (或確定不需要) 的壓縮版本 (HttpRequestParser.ENCODING_* 的組合)
+    private final AtomicInteger claimed = new AtomicInteger();
+    // 已離開快取：之後建立的壓縮版本不再計入快取大小
+    private boolean released;
+
+    volatile long checkedAt;
+    /** CLOCK 的參考標記: 上次被 CLOCK 經過之後是否被用過 */
+    volatile boolean referenced;
+
+    StaticResource(String path, Path file, long size, long lastModified, String contentType,
+                   String lastModifiedHeader, byte[] body, StaticVariant identity, StaticVariant gzip, long now) {
+        this.path = path;
+        this.file = file;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.contentType = contentType;
+        this.lastModifiedHeader = lastModifiedHeader;
+        this.body = body;
+        this.identity = identity;
+        this.gzip = gzip;
+        this.checkedAt = now;
+    }
+
+    /**
+     * 依照客戶端接受的壓縮格式選擇版本 (gzip 優先)
+     *
+     * @param acceptEncoding HttpRequestParser.acceptEncoding() 的結果
+     * @return 要送出的版本
+     */
+    StaticVariant select(int acceptEncoding) {
+        if (gzip != null && (acceptEncoding & HttpRequestParser.ENCODING_GZIP) != 0) {
+            return gzip;
+        }
+        if (deflate != null && (acceptEncoding & HttpRequestParser.ENCODING_DEFLATE) != 0) {
+            return deflate;
+        }
+        return identity;
+    }
+
+    /**
+     * 客戶端接受、但還沒有的壓縮版本 (gzip 優先)；每種編碼只會回傳一次，由呼叫端負責建立
+     *
+     * @param acceptEncoding HttpRequestParser.acceptEncoding() 的結果
+     * @return 要建立的編碼 (HttpRequestParser.ENCODING_*)，不需要時為 0
+     */
+    int claimCompression(int acceptEncoding) {
+        if (body == null) {
+            return 0;
+        }
+        int wanted = (acceptEncoding & HttpRequestParser.ENCODING_GZIP) != 0 ? HttpRequestParser.ENCODING_GZIP
+                : acceptEncoding & HttpRequestParser.ENCODING_DEFLATE;
+        while (wanted != 0) {
+            int current = claimed.get();
+            if ((current & wanted) != 0) {
+                return 0;
+            }
+            if (claimed.compareAndSet(current, current | wanted)) {
+                return wanted;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 加入建立好的壓縮版本
+     *
+     * @param encoding HttpRequestParser.ENCODING_GZIP 或 ENCODING_DEFLATE
+     * @param variant 壓縮版本
+     * @return 資源仍在快取中 (呼叫端要把 variant 計入快取大小) 時為 true
+     */
+    synchronized boolean install(int encoding, StaticVariant variant) {
+        if (encoding == HttpRequestParser.ENCODING_GZIP) {
+            gzip = variant;
+        } else {
+            deflate = variant;
+        }
+        return !released;
+    }
+
+    /**
+     * 資源離開快取
+     *
+     * @return 要從快取大小扣除的記憶體 (包含之前加入的壓縮版本)
+     */
+    synchronized long release() {
+        released = true;
+        return memoryBytes();
+    }
+
+    /** @return 佔用的記憶體 (只計算放在記憶體中的 Body) */
+    long memoryBytes() {
+        return identity.memoryBytes()
+                + (gzip != null ? gzip.memoryBytes() : 0)
+                + (deflate != null ? deflate.memoryBytes() : 0);
+    }
+
+    /** @return 檔案 (以及預先壓縮的 .gz 檔) 自載入後是否沒有變更 */
+    boolean isCurrent() {
+        return StaticVariant.unchanged(file, size, lastModified)
+                && (gzip == null || gzip.file == null || StaticVariant.unchanged(gzip.file, gzip.size, gzip.lastModified));
+    }
+}
+
+/**
+ * StaticVariant 類別
+ * 資源的一種編碼版本 (原始、gzip 或 deflate)。
+ * 內容在記憶體中時 file 為 null，直接送出 response；否則送出 response 的 Head 後以 transferTo 送出 file。
+ * 206 回應的 Head 依範圍而不同，每次以 contentType 與 headers 組成；416 回應則預先建立。
+ */
+class StaticVariant {
+
+    /** 強 ETag (含雙引號) 的 ASCII 位元組，用於直接比對 If-None-Match 與 If-Range */
+    final byte[] etag;
+    final String contentType;
+    /** 200 與 206 回應共用的 Header (驗證 Header、Content-Encoding、Accept-Ranges) */
+    final String[] headers;
+    final CachedResponse response;
+    final CachedResponse notModified;
+    final CachedResponse rangeNotSatisfiable;
+    final Path file;
+    final long size;
+    final long lastModified;
+
+    private StaticVariant(String etag, String contentType, String[] headers, CachedResponse response,
+                          CachedResponse notModified, Path file, long size, long lastModified) {
+        this.etag = HttpRequestParser.ascii(etag);
+        this.contentType = contentType;
+        this.headers = headers;
+        this.response = response;
+        this.notModified = notModified;
+        this.rangeNotSatisfiable = CachedResponse.empty("416 Range Not Satisfiable",
+                "Content-Range: bytes */" + size);
+        this.file = file;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    static StaticVariant inMemory(String etag, String contentType, String[] headers,
+                                  CachedResponse response, CachedResponse notModified, long size) {
+        return new StaticVariant(etag, contentType, headers, response, notModified, null, size, 0);
+    }
+
+    static StaticVariant onDisk(String etag, String contentType, String[] headers, Path file, long size,
+                                long lastModified, CachedResponse head, CachedResponse notModified) {
+        return new StaticVariant(etag, contentType, headers, head, notModified, file, size, lastModified);
+    }
+
+    /**
+     * 單一範圍的 206 回應 Head (與 200 相同的 Header 再加上 Content-Range)
+     *
+     * @param start 範圍的起點
+     * @param length 範圍的長度
+     * @return 只有 Head 的回應
+     */
+    CachedResponse partial(long start, long length) {
+        String[] lines = Arrays.copyOf(headers, headers.length + 1);
+        lines[headers.length] = "Content-Range: " + contentRange(start, length);
+        return CachedResponse.headOnly("206 Partial Content", contentType, length, lines);
+    }
+
+    /**
+     * @param start 範圍的起點
+     * @param length 範圍的長度
+     * @return Content-Range 的值，例如 "bytes 0-499/1234"
+     */
+    String contentRange(long start, long length) {
+        return "bytes " + start + "-" + (start + length - 1) + "/" + size;
+    }
+
+    long memoryBytes() {
+        return file == null ? size : 0;
+    }
+
+    static boolean unchanged(Path file, long size, long lastModified) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS);
+            return attrs.isRegularFile() && attrs.size() == size
+                    && attrs.lastModifiedTime().toMillis() == lastModified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * StreamingBody 介面
+ * 事先不知道長度的回應內容，以 Transfer-Encoding: chunked 邊產生邊送出。
+ *
+ * 內容由 OutboundQueue 在 Socket 可以寫入時才向 StreamingBody 要求，
+ * 每次寫進同一個固定大小的 Buffer，不論回應多大，每條連線只占用一個 Buffer 的記憶體。
+ * NIO 模式下 write 在事件迴圈執行緒上呼叫，不可以阻塞: 暫時沒有資料時不寫入任何內容並回傳 true，
+ * 連線接著呼叫 resumeWhenReady 並停止要求，直到收到通知才再呼叫 write (不會一直詢問)。
+ * 有資料時只要 Buffer 還有空間就必須寫入 (即使只放得下一部分)，HTTP/2 的 Window 可能只剩幾個位元組。
+ */
+@FunctionalInterface
+interface StreamingBody {
+
+    /**
+     * 把接下來的內容寫進 Buffer
+     *
+     * @param buffer 寫入模式的 Buffer，最多寫到 limit (可以不寫入，表示暫時沒有資料)；至少有 1 個位元組的空間
+     * @return 之後還有內容時為 true；內容全部寫完時為 false
+     * @throws IOException 當產生內容失敗時拋出 (已送出的回應會被截斷並關閉連線)
+     */
+    boolean write(ByteBuffer buffer) throws IOException;
+
+    /**
+     * write 沒有寫入任何內容後呼叫: 之後有資料時呼叫一次 resume (可以在任何執行緒上)，連線才會再呼叫 write。
+     * 登記時已經有資料的話可以直接呼叫 resume。預設不登記，只適用於不會暫時沒有資料的來源。
+     *
+     * @param resume 通知連線繼續送出的 callback
+     */
+    default void resumeWhenReady(Runnable resume) {
+    }
+
+    /**
+     * 回應結束或連線關閉時呼叫，釋放產生內容使用的資源
+     */
+    default void close() {
+    }
+}
@@ -1,34 +1,63 @@
 // Name: 陳昱綸, ID: 112306069, Department: 資管三甲
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
-import java.util.concurrent.ThreadLocalRandom;
+import java.nio.channels.DatagramChannel;
 
 /**
  * A simple TFTP Server implementation based on UDP.
  * Supports RRQ (Download) and WRQ (Upload) with block ID roll-over and timeout retransmission.
+ * Negotiates the block size with the blksize option (RFC 2347 / RFC 2348)
+ * and sliding-window transfers with the windowsize option (RFC 7440).
+ * The retransmission timeout adapts to the measured round-trip time, or follows the timeout option (RFC 2349).
+ * Transfers run as non-blocking state machines on a few event loops (tftp.eventLoops, default 1)
+ * instead of one thread per transfer.
  * Listens on port 6699.
  */
 public class TFTPServer {
 
-	private static final int BUFFERSIZE = 512;
+	static final int BUFFERSIZE = 512;
 
-	private static final short RRQ = 1;
-	private static final short WRQ = 2;
-	private static final short DATA = 3;
-	private static final short ACK = 4;
-	private static final short ERRO = 5;
+	static final short RRQ = 1;
+	static final short WRQ = 2;
+	static final short DATA = 3;
+	static final short ACK = 4;
+	static final short ERRO = 5;
 
 	public static String mode;
 
+	private static final String BUSY_MESSAGE = "Server busy, try again later.";
+	private static final String ILLEGAL_MESSAGE = "Illegal TFTP operation.";
+
+	// 超過負荷時提早拒絕新的傳輸 (0 表示不限制)：同時進行的傳輸數上限、請求等待事件迴圈開始處理的時間上限 (毫秒)
+	private final AdmissionControl admission = new AdmissionControl(Integer.getInteger("tftp.maxTransfers", 0),
+			Long.getLong("tftp.maxQueueTime", 0));
+
+	// 客戶端以 blksize 選項要求的 Block 大小上限 (例如 1468 可避免乙太網路上的 IP 分段)
+	private final int maxBlockSize = Math.max(TftpOptions.MIN_BLKSIZE,
+			Math.min(TftpOptions.MAX_BLKSIZE, Integer.getInteger("tftp.maxBlksize", TftpOptions.MAX_BLKSIZE)));
+	// 客戶端以 windowsize 選項要求的視窗大小上限：一個視窗的 Block 會一次送進 Socket Buffer，太大容易溢出而遺失
+	private final int maxWindowSize = Math.max(1,
+			Math.min(TftpOptions.MAX_WINDOWSIZE, Integer.getInteger("tftp.maxWindowsize", 64)));
+
+	// 重送逾時依量測到的 RTT 調整，限制在上下限之間 (毫秒)；連續逾時超過 maxRetries 次即放棄傳輸
+	private final long minRto = Math.max(1, Long.getLong("tftp.minRto", 20));
+	private final long maxRto = Math.max(minRto, Long.getLong("tftp.maxRto", 4000));
+	private final int maxRetries = Math.max(1, Integer.getInteger("tftp.maxRetries", 8));
+
+	// 執行所有傳輸的事件迴圈，每個迴圈一條執行緒
+	private final TftpEventLoop[] loops = new TftpEventLoop[Math.max(1, Integer.getInteger("tftp.eventLoops", 1))];
+	// 下一個傳輸交給哪個事件迴圈 (輪流)
+	private int nextLoop = 0;
+
+	// 所有下載共用的區塊快取上限 (bytes)，許多客戶端同時下載同一個開機映像時從記憶體送出；0 表示停用
+	private final long blockCacheBytes = Math.max(0, Long.getLong("tftp.blockCache", 256L * 1024 * 1024));
+	private final TftpBlockCache blockCache = blockCacheBytes > 0 ? new TftpBlockCache(blockCacheBytes) : null;
+
+	private DatagramSocket serverSocket;
+
 	/**
      * Main entry point of the TFTP Server.
      * @param args Command line arguments (not used).
@@ -36,6 +65,9 @@ public class TFTPServer {
 	public static void main(String[] args) {
 
 		try {
+			// 紀錄改由背景執行緒寫入檔案，-Dtftp.log=- 可改為輸出到標準輸出
+			AccessLog.start(System.getProperty("tftp.log", "logs/tftp.log"),
+					Long.getLong("tftp.logMaxBytes", 16L * 1024 * 1024));
 			TFTPServer tftpServer = new TFTPServer();
 			tftpServer.start();
 		} catch (Exception e) {
@@ -45,20 +77,25 @@ public class TFTPServer {
 
 	/**
      * Starts the TFTP server, binds to port 6699, and listens for incoming requests.
-     * Handles concurrency by spawning a new thread for each client connection.
-     * * @throws SocketException If the socket could not be opened, or the socket could not bind to the specified local port.
+     * Each accepted request gets its own channel and is handed to an event loop in round-robin order.
+     * * @throws IOException If the socket could not be opened, or the socket could not bind to the specified local port.
      */
-	private void start() throws SocketException {
+	private void start() throws IOException {
 
 		byte[] buffer = new byte[BUFFERSIZE];
 
 		/* Create socket */
-		DatagramSocket serverSocket = new DatagramSocket(null);
+		serverSocket = new DatagramSocket(null);
 
 		/* Create local bind point, set at IP 127.0.0.1 and port 6699 */
 		serverSocket.bind(new InetSocketAddress("127.0.0.1", 6699));
 
-		System.out.printf("Listening at port %d for new requests\n", 6699);
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new TftpEventLoop(i, this, admission);
+			new Thread(loops[i], "tftp-event-loop-" + i).start();
+		}
+
+		System.out.printf("Listening at port %d for new requests (%d event loops)\n", 6699, loops.length);
 
 		while (true) {
 			/*
@@ -78,332 +115,146 @@ public class TFTPServer {
 				break;
 			}
 
-			final InetSocketAddress clientSocketAddress = new InetSocketAddress(packet.getAddress(), packet.getPort());
-
-			// parse the file header, retrieve opcode and file name.
-			final ByteBuffer bufwrap = ByteBuffer.wrap(buffer);
-			final short opcode = bufwrap.getShort(0);
-			final String fileName = get(bufwrap, 2, (byte)0);
-			final String mode = get(bufwrap, 2 + fileName.length() + 1, (byte) 0);
-	
-			System.out.printf("Receive connection from %s:%d\n", packet.getAddress(), packet.getPort());
-			System.out.printf("opcode=%h, mode=%s, file_name=%s\n", opcode, mode, fileName);
-			if (mode.compareTo("octet") == 0) {
-
-				// create new thread to handle connection
-				new Thread() {
-						public void run() {
-							try {
-								DatagramSocket clientUDPSocket = new DatagramSocket(null);
-								int randomPortNum = ThreadLocalRandom.current().nextInt(49152, 65535 + 1);
-								clientUDPSocket.bind(new InetSocketAddress("127.0.0.1", randomPortNum));
-								clientUDPSocket.connect(clientSocketAddress);
-								switch(opcode) {
-									case RRQ:
-										download(clientUDPSocket, fileName.toString(), RRQ);
-									break;
-									case WRQ:
-										upload(clientUDPSocket, fileName.toString(), WRQ);
-									break;
-								}
-								clientUDPSocket.close();
-							} catch (SocketException e) {
-								e.printStackTrace();
-							}
-						}
-				}.start();
-			} else {
-				continue;
+			// 一個封包的錯誤 (格式不符、無法建立傳輸) 只影響這個請求，不可以結束接收迴圈
+			try {
+				accept(packet, System.nanoTime());
+			} catch (RuntimeException e) {
+				e.printStackTrace();
 			}
 		}
 		serverSocket.close();
 	}
 
 	/**
-     * Extracts a string from the ByteBuffer starting at the specified index until the delimiter byte.
-     * * @param buf The ByteBuffer containing the data.
-     * @param current The starting index.
-     * @param del The delimiter byte (usually 0).
-     * @return The extracted String.
-     */
-	private String get(ByteBuffer buf, int current, byte del) {
-		StringBuffer sb = new StringBuffer();
-		while (buf.get(current) != del) {
-			sb.append((char) buf.get(current));
-			current++;
+	 * Parses one request received on port 6699 and starts its transfer.
+	 * Only the first packet.getLength() bytes are read: the receive buffer is reused,
+	 * and anything after that belongs to an earlier request.
+	 * A request without the zero bytes ending the file name and the mode is answered with error 4.
+	 * 
+	 * @param packet    the received request
+	 * @param arrivedAt when the request was received (System.nanoTime)
+	 */
+	private void accept(DatagramPacket packet, long arrivedAt) {
+		final InetSocketAddress clientSocketAddress = new InetSocketAddress(packet.getAddress(), packet.getPort());
+		final int length = packet.getLength();
+
+		// parse the file header, retrieve opcode and file name.
+		final ByteBuffer bufwrap = ByteBuffer.wrap(packet.getData(), 0, length);
+		final short opcode = length >= 2 ? bufwrap.getShort(0) : 0;
+		final String fileName = length >= 2 ? get(bufwrap, 2, length) : null;
+		final String mode = fileName != null ? get(bufwrap, 2 + fileName.length() + 1, length) : null;
+		if ((opcode != RRQ && opcode != WRQ) || mode == null) {
+			sendError(clientSocketAddress, (short) 4, ILLEGAL_MESSAGE);
+			return;
 		}
-		return sb.toString();
-	}
-
-	/**
-     * Checks if the received packet is a valid ACK for the specified block number.
-     * * @param buf The ByteBuffer containing the packet data.
-     * @param blocknum The expected block number.
-     * @return true if it is a valid ACK, false otherwise.
-     */
-	private boolean isAck(ByteBuffer buf, short blocknum) {
-		short op = buf.getShort();
-		short block = buf.getShort(2);
-		return (op == (short) ACK && block == blocknum);
-	}
-
-	/**
-     * Handles the Read Request (RRQ) - Sends a file to the client.
-     * Implements Stop-and-Wait protocol with timeout retransmission and block ID roll-over.
-     * * @param sendSocket The socket used for communication.
-     * @param fileName The name of the file to download.
-     * @param opcode The operation code (RRQ).
-     */
-	private void download(DatagramSocket sendSocket, String fileName, int opcode) {
-		File file = new File(fileName);
-		byte[] buffer = new byte[BUFFERSIZE];
-		FileInputStream in = null;
-		try {
-			in = new FileInputStream(file);
-		} catch (FileNotFoundException e) {
-			System.err.println("File not found.");
-			sendError(sendSocket, (short) 1, "File not found.");
+		// mode 之後的選項 (RFC 2347)，同樣只解析到封包的實際長度
+		final TftpOptions options = TftpOptions.parse(bufwrap, 2 + fileName.length() + 1 + mode.length() + 1,
+				length, maxBlockSize, maxWindowSize);
+
+		AccessLog log = AccessLog.get();
+		log.log(AccessLog.TFTP_CONNECTION, packet.getAddress().getHostAddress(), null, packet.getPort(), 0);
+		log.log(AccessLog.TFTP_REQUEST, fileName, mode, opcode, 0);
+		if (options.acknowledged) {
+			log.log(AccessLog.TFTP_OPTIONS, fileName, null, options.blockSize, options.windowSize);
+		}
+		if (mode.compareTo("octet") != 0) {
 			return;
 		}
 
-		int blockNum = 1; //short數值範圍為 -32768 到 32767，改用 int 型態以避免溢位方便計算
-		int length;
+		// 傳輸數已達上限：回 Error 封包，不再為它建立傳輸
+		int admitted = admission.tryAcquire(arrivedAt);
+		if (admitted != AdmissionControl.ADMITTED) {
+			sendBusy(clientSocketAddress, admitted);
+			return;
+		}
 
+		TftpTransfer transfer;
+		DatagramChannel channel = null;
 		try {
-       		sendSocket.setSoTimeout(2000); // 設定 timeout 2 秒
-		} catch (SocketException e) {
+			// 每個傳輸使用自己的 Port (TID)：綁定 Port 0，由作業系統分配沒有被使用的暫時 Port
+			channel = DatagramChannel.open();
+			channel.bind(new InetSocketAddress("127.0.0.1", 0));
+			channel.connect(clientSocketAddress);
+			channel.configureBlocking(false);
+			RetransmitTimer timer = new RetransmitTimer(minRto, maxRto, options.timeoutSeconds);
+			transfer = opcode == RRQ
+					? new TftpDownload(channel, clientSocketAddress, fileName, options, arrivedAt, timer, maxRetries,
+							blockCache)
+					: new TftpUpload(channel, clientSocketAddress, fileName, options, arrivedAt, timer, maxRetries);
+		} catch (IOException | RuntimeException e) {
 			e.printStackTrace();
-		}
-
-		while (true) {
-
-			try {
-				// 從檔案讀取最多 512 bytes 到 buffer 中
-        		// length 會回傳實際讀取到的 byte 數量
-				length = in.read(buffer);
-			} catch (IOException e) {
-				e.printStackTrace();
-				break;
-			}
-
-			if (length == -1) {
-				length = 0; // 如果讀到檔尾 (EOF)，長度設為 0
-			}
-
-			// 1. 封裝並發送資料
-			/*
-			*Create packet for send data 
-			*建構一個資料封包，用於將長度為 length 的封包發送到指定主機的指定連接埠號
-			*在 socket connect 後可省略 address 與 port
-			*Constructor： DatagramPacket(byte[] buf, int length, InetAddress address, int port)
-			*buf: the packet data to be sent
-			*length: the packet length
-			*address: the destination IP address
-			*port: the destination port number
-			*/
-			DatagramPacket packet = toData((short)blockNum, buffer, length);
-			try {
-				sendSocket.send(packet);
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-			int retries = 0;
-       		boolean ackReceived = false;
-			while (!ackReceived && retries < 5) {  // 最多重試 5 次
-				try {
-					// 2. 準備接收 ACK
-					byte[] recvbuf = new byte[BUFFERSIZE];
-					DatagramPacket recv = new DatagramPacket(recvbuf, BUFFERSIZE);
-					sendSocket.receive(recv); // lockstep，直到收到客戶端的回應 //throws IOException
-					// 3. 檢查 ACK 是否正確
-					ByteBuffer recvbytebuf = ByteBuffer.wrap(recvbuf);
-					if (isAck(recvbytebuf, (short)blockNum)) { 
-						ackReceived = true; // 收到正確的 ACK															
-					}else { // 收到非預期封包：忽略
-						System.err.println("Unexpected packet, retrying...");
-					}
-				} catch (SocketTimeoutException e) {
-					retries++;
-					System.err.printf("Timeout waiting for ACK #%d, retry %d/5...\n", blockNum, retries);
-					try {
-						sendSocket.send(packet); // 超時重送資料封包
-					} catch (IOException ioException) {
-						ioException.printStackTrace();
-					}
-				} catch (IOException e) {
-					e.printStackTrace();
-					break;
-				} 
-			}
-			
-			if (!ackReceived) {
-				System.err.println("Transfer failed after retries.");
-				sendError(sendSocket, (short) 0, "Transfer failed.");
-				break;
-        	}
-
-			blockNum += 1; // 確認無誤，準備發送下一個 Block (編號 +1)
-			if(blockNum > 65535) { // Block 編號超過 65535 後，回到 0 開始
-				blockNum = 0;
-			}
-			if (length < 512) { // 如資料長度小於 512，代表這是最後一塊
+			admission.release(1);
+			if (channel != null) {
 				try {
-					in.close();
-				} catch (IOException e) {
-					e.printStackTrace();
+					channel.close();
+				} catch (IOException closeError) {
+					closeError.printStackTrace();
 				}
-				break;
-			}			
+			}
+			return;
 		}
+		loops[nextLoop].register(transfer);
+		nextLoop = (nextLoop + 1) % loops.length;
 	}
 
 	/**
-     * Handles the Write Request (WRQ) - Receives a file from the client.
-     * Implements Stop-and-Wait protocol with timeout retransmission and block ID roll-over.
-     * * @param sendSocket The socket used for communication.
-     * @param fileName The name of the file to upload.
-     * @param opcode The operation code (WRQ).
+     * Extracts a zero-terminated string from the ByteBuffer starting at the specified index.
+     * * @param buf The ByteBuffer containing the data.
+     * @param current The starting index.
+     * @param end The length of the packet; the zero byte must come before it.
+     * @return The extracted String, or null if the packet ends before the zero byte.
      */
-	private void upload(DatagramSocket sendSocket, String fileName, int opcode) {
-		File file = new File(fileName);
-		if (file.exists()) {
-			System.out.println("File already exists.");
-			sendError(sendSocket, (short) 6, "File already exists.");
-			return;
-		} else {
-			FileOutputStream output = null; 
-			try {
-				output = new FileOutputStream(file); // 建立檔案輸出串流，準備寫入硬碟
-			} catch (FileNotFoundException e) {
-				e.printStackTrace();
-				sendError(sendSocket, (short) 1, "File not found.");
-				return;
-			}
-
-			int expectedBlockNum = 1; // 剛發送了 ACK 0，所以預期收到 Block 1
-			try {
-				sendSocket.setSoTimeout(2000); // 設定 timeout 2 秒
-				sendSocket.send(toAck((short) 0)); // 傳送 ACK 0 給客戶端，準備接收資料
-				
-				while (true) {
-					byte[] recvbuf = new byte[BUFFERSIZE + 4]; // 4 bytes for header(OpCode + BlockNum)
-					DatagramPacket recv = new DatagramPacket(recvbuf, BUFFERSIZE + 4);
-					
-					int retries = 0;
-            		boolean packetReceived = false;
-
-					while (!packetReceived && retries < 5) { // 最多重試 5 次
-						try {
-							// 1. 等待接收客戶端的 DATA 封包
-							sendSocket.receive(recv);
-							packetReceived = true;
-						} catch (SocketTimeoutException e) { // 超時重試
-							retries++;
-							System.err.printf("Timeout waiting for DATA #%d, retry %d/5...\n", expectedBlockNum, retries);
-							 sendSocket.send(toAck((short) (expectedBlockNum - 1))); // 重送上一個 ACK
-						} catch (IOException e) {
-							e.printStackTrace();
-							break;
-						}
-					}
-					
-					if (!packetReceived) { 
-						System.err.println("Upload failed after retries.");
-						sendError(sendSocket, (short) 0, "Upload failed.");
-						break;
-            		}
-
-					ByteBuffer recvbytebuffer = ByteBuffer.wrap(recvbuf);
-					// 2. 驗證是否為 DATA 封包 (OpCode = 3)
-					if (recvbytebuffer.getShort() == (short) 3) {
-						short receivedBlockShort = recvbytebuffer.getShort();
-						//-32768 ~ 32767 的 short 轉為 0-65535 的 int
-                        int receivedBlock = receivedBlockShort & 0xFFFF;
-						
-						// 檢查是否為預期的 Block 編號
-						// 如果收到重複或錯誤的 Block，則忽略不處理
-						if (receivedBlock == expectedBlockNum) {
-							// 3. 寫入檔案
-							// 參數說明：從 recvbuf 寫入，跳過前 4 bytes (標頭)，寫入剩下的長度
-							output.write(recvbuf, 4, recv.getLength() - 4);
-							sendSocket.send(toAck((short) receivedBlock)); // 發送 ACK (轉回 short)
-							expectedBlockNum++;
-                            if (expectedBlockNum > 65535) {
-                                expectedBlockNum = 0; // Wrap to zero
-                            }
-							if (recv.getLength() - 4 < 512) {
-								output.close();
-								break; // 如果資料長度小於 512，代表這是最後一塊
-							}
-						}
-					}
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+	private String get(ByteBuffer buf, int current, int end) {
+		int terminator = TftpOptions.terminator(buf, current, end);
+		if (terminator < 0) {
+			return null;
 		}
-	}
-
-	/**
-	 * sendError
-	 * 
-	 * Sends an error packet to sendSocket
-	 * 
-	 * @param sendSocket
-	 * @param errorCode
-	 * @param errMsg
-	 */
-	private void sendError(DatagramSocket sendSocket, short errorCode, String errMsg) {
-
-		ByteBuffer wrap = ByteBuffer.allocate(BUFFERSIZE);
-		wrap.putShort(ERRO);
-		wrap.putShort(errorCode);
-		wrap.put(errMsg.getBytes());
-		wrap.put((byte) 0);
-
-		DatagramPacket receivePacket = new DatagramPacket(wrap.array(), wrap.array().length);
-		try {
-			sendSocket.send(receivePacket);
-		} catch (IOException e) {
-			System.err.println("Problem sending error packet.");
-			e.printStackTrace();
+		StringBuffer sb = new StringBuffer();
+		while (current < terminator) {
+			sb.append((char) buf.get(current));
+			current++;
 		}
+		return sb.toString();
 	}
 
 	/**
-	 * ackPacket
+	 * sendBusy
 	 * 
-	 * Constructs an ACK packet for the given block number.
+	 * Rejects a request while the server is overloaded: sends an error packet (code 0)
+	 * from the listening socket to the client, without starting a transfer.
 	 * 
-	 * @param block the current block number
-	 * @return ackPacket
+	 * @param client       address of the client that sent the request
+	 * @param reason       AdmissionControl.SHED_IN_FLIGHT or AdmissionControl.SHED_QUEUE_TIME
 	 */
-	private DatagramPacket toAck(short block) {
-
-		ByteBuffer buffer = ByteBuffer.allocate(4);
-		buffer.putShort(ACK);
-		buffer.putShort(block);
+	void sendBusy(InetSocketAddress client, int reason) {
 
-		return new DatagramPacket(buffer.array(), 4);
+		AccessLog.get().log(AccessLog.TFTP_SHED, client.getAddress().getHostAddress(),
+				AdmissionControl.reason(reason), admission.shedTotal(), 0);
+		sendError(client, (short) 0, BUSY_MESSAGE);
 	}
 
 	/**
-	 * dataPacket
+	 * sendError
 	 * 
-	 * Constructs an DATA packet
+	 * Sends an error packet from the listening socket, for requests that do not get a transfer.
 	 * 
-	 * @param block  current block number
-	 * @param data   data to be sent
-	 * @param length length of data
-	 * @return DatagramPacket to be sent
+	 * @param client       address of the client that sent the request
+	 * @param errorCode    TFTP error code
+	 * @param errMsg       error message
 	 */
-	private DatagramPacket toData(short block, byte[] data, int length) {
+	private void sendError(InetSocketAddress client, short errorCode, String errMsg) {
 
-		ByteBuffer buffer = ByteBuffer.allocate(BUFFERSIZE + 4);
-		buffer.putShort(DATA);
-		buffer.putShort(block);
-		buffer.put(data, 0, length);
+		byte[] message = errMsg.getBytes();
+		ByteBuffer wrap = ByteBuffer.allocate(4 + message.length + 1);
+		wrap.putShort(ERRO);
+		wrap.putShort(errorCode);
+		wrap.put(message);
+		wrap.put((byte) 0);
 
-		return new DatagramPacket(buffer.array(), 4 + length);
+		try {
+			serverSocket.send(new DatagramPacket(wrap.array(), wrap.position(), client)); // 只送出實際長度
+		} catch (IOException e) {
+			AccessLog.get().log(AccessLog.TFTP_ERROR_NOT_SENT, 0, 0);
+		}
 	}
 }
@@ -0,0 +1,297 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * TftpBlockCache
+ *
+ * Blocks of recently downloaded files, shared by all transfers of all event loops, so that many
+ * clients fetching the same boot image at once read it from memory instead of from the disk.
+ *
+ * Blocks are keyed by (file, blockIndex, blksize): every file gets one CachedFile per blksize,
+ * holding its blocks in off-heap chunks of about CHUNK_BYTES. A transfer looks up its CachedFile
+ * once when it starts (validated against the file's size and mtime, so a changed file is read again)
+ * and then copies each block from a chunk without locking or allocating; a missing chunk is read from
+ * the transfer's own FileChannel and shared with the others.
+ * When the cache is over its capacity, chunks are dropped with CLOCK (second chance), like the
+ * StaticFileHandler cache: a chunk used since the hand last passed it is kept for one more round,
+ * so each dropped chunk costs O(1) amortized instead of a scan of every chunk. Files beyond MAX_FILES
+ * are dropped the same way.
+ */
+final class TftpBlockCache {
+
+	/** Target size of one chunk (a chunk holds at least one block) */
+	static final int CHUNK_BYTES = 64 * 1024;
+	// 最多記錄的 CachedFile 數 (每個檔案與 blksize 的組合一個)
+	private static final int MAX_FILES = 1024;
+
+	private final long capacity;
+	private final ConcurrentHashMap<String, CachedFile> files = new ConcurrentHashMap<>();
+	private final AtomicLong cachedBytes = new AtomicLong();
+	private final AtomicInteger cachedChunks = new AtomicInteger();
+	// CLOCK 的環: 依放入順序排列的 Chunk 與 CachedFile (可能含已被移除的項目，輪到時略過)，各以自身為鎖
+	private final ArrayDeque<Chunk> clock = new ArrayDeque<>();
+	private final ArrayDeque<CachedFile> fileClock = new ArrayDeque<>();
+
+	/**
+	 * @param capacity maximum bytes of block data kept in memory
+	 */
+	TftpBlockCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Looks up the blocks of a file for a new download.
+	 *
+	 * @param file      the file being downloaded
+	 * @param blockSize blksize of the transfer
+	 * @return the cached blocks, or null if the file cannot be cached (larger than the cache, or unreadable)
+	 */
+	CachedFile open(Path file, int blockSize) {
+		BasicFileAttributes attrs;
+		String key;
+		try {
+			Path real = file.toRealPath(); // 同一個檔案的不同路徑 (例如符號連結) 共用快取
+			attrs = Files.readAttributes(real, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			key = real + "|" + blockSize;
+		} catch (IOException e) {
+			return null;
+		}
+		if (!attrs.isRegularFile() || attrs.size() > capacity) {
+			return null; // 比整個快取還大的檔案只會不斷淘汰其他區塊
+		}
+		long size = attrs.size();
+		long modified = attrs.lastModifiedTime().toMillis();
+
+		CachedFile cached = files.get(key);
+		if (cached != null && cached.size == size && cached.lastModified == modified) {
+			if (!cached.referenced) {
+				cached.referenced = true; // 已經設定過就不再寫入，避免多個執行緒搶同一條 Cache Line
+			}
+			return cached;
+		}
+		CachedFile created = new CachedFile(this, key, size, modified, blockSize);
+		cached = files.compute(key, (k, current) -> {
+			if (current != null && current.size == size && current.lastModified == modified) {
+				return current;
+			}
+			if (current != null) {
+				current.clear(); // 檔案已變更：舊版本的區塊立即釋放
+			}
+			return created;
+		});
+		if (cached == created) {
+			synchronized (fileClock) {
+				fileClock.add(created);
+				// 被取代或移除的項目只在輪到時才離開環；累積太多時一次清掉 (攤還後每次放入仍是 O(1))
+				if (fileClock.size() > 2 * files.size() + 64) {
+					fileClock.removeIf(stale -> files.get(stale.key) != stale);
+				}
+			}
+			if (files.size() > MAX_FILES) {
+				evictFiles();
+			}
+		}
+		return cached;
+	}
+
+	// 新的 Chunk 放入快取後加入 CLOCK 的環並計入大小，超過上限時淘汰
+	void added(Chunk chunk) {
+		int count = cachedChunks.incrementAndGet();
+		synchronized (clock) {
+			clock.add(chunk);
+			if (clock.size() > 2 * count + 64) {
+				clock.removeIf(stale -> !stale.isCached());
+			}
+		}
+		if (cachedBytes.addAndGet(chunk.data.capacity()) > capacity) {
+			evict();
+		}
+	}
+
+	void removed(Chunk chunk) {
+		cachedChunks.decrementAndGet();
+		cachedBytes.addAndGet(-chunk.data.capacity());
+	}
+
+	// CLOCK 淘汰 Chunk 直到回到上限以內: 從環的開頭取出，上次經過後被用過的清除標記、放回環尾，
+	// 沒被用過的移除。被取代的 CachedFile 的 Chunk 在取代時或放入時就已移除，輪到時略過
+	private void evict() {
+		synchronized (clock) {
+			while (cachedBytes.get() > capacity) {
+				Chunk chunk = clock.poll();
+				if (chunk == null) {
+					return;
+				}
+				if (!chunk.isCached()) {
+					continue;
+				}
+				if (chunk.referenced) {
+					chunk.referenced = false;
+					clock.add(chunk);
+				} else {
+					chunk.file.drop(chunk);
+				}
+			}
+		}
+	}
+
+	// CachedFile 太多時以同樣的 CLOCK 移除最近沒用到的檔案，連同它的 Chunk
+	private void evictFiles() {
+		synchronized (fileClock) {
+			while (files.size() > MAX_FILES) {
+				CachedFile file = fileClock.poll();
+				if (file == null) {
+					return;
+				}
+				if (files.get(file.key) != file) {
+					continue; // 已被取代或移除
+				}
+				if (file.referenced) {
+					file.referenced = false;
+					fileClock.add(file);
+				} else if (files.remove(file.key, file)) {
+					file.clear();
+				}
+			}
+		}
+	}
+
+	/**
+	 * CachedFile
+	 *
+	 * The blocks of one version (size and mtime) of a file for one blksize.
+	 * Transfers that started before the file changed keep using it; once it is replaced in the cache
+	 * its chunks are released and blocks are read from the transfer's FileChannel again.
+	 */
+	static final class CachedFile {
+
+		private final TftpBlockCache cache;
+		// 在 files 中的鍵 (實際路徑與 blksize)
+		final String key;
+		final long size;
+		final long lastModified;
+		private final int blockSize;
+		private final int blocksPerChunk;
+		private final AtomicReferenceArray<Chunk> chunks;
+		/** CLOCK 的參考標記: 上次被 CLOCK 經過之後是否被開啟過 */
+		volatile boolean referenced;
+		// 已被取代或移除：之後讀入的區塊不再放入快取
+		private volatile boolean retired;
+
+		CachedFile(TftpBlockCache cache, String key, long size, long lastModified, int blockSize) {
+			this.cache = cache;
+			this.key = key;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.blockSize = blockSize;
+			this.blocksPerChunk = Math.max(1, CHUNK_BYTES / blockSize);
+			long chunkBytes = (long) blocksPerChunk * blockSize;
+			this.chunks = new AtomicReferenceArray<>((int) ((size + chunkBytes - 1) / chunkBytes));
+		}
+
+		/**
+		 * Copies one block into the packet, right after the 4-byte header.
+		 *
+		 * @param in     the transfer's file, used to read the chunk when it is not cached
+		 * @param block  index of the block in the file (block number - 1, without rollover)
+		 * @param packet the packet buffer, with room for blksize bytes after the header
+		 * @return number of bytes copied, less than blksize only for the last block;
+		 *         -1 if the file changed and the block must be read from the file directly
+		 * @throws IOException If the chunk cannot be read from the file.
+		 */
+		int read(FileChannel in, long block, ByteBuffer packet) throws IOException {
+			long offset = block * blockSize;
+			if (offset >= size) {
+				return 0; // 檔案大小剛好是 blksize 的倍數時，最後一塊沒有資料
+			}
+			int index = (int) (block / blocksPerChunk);
+			Chunk chunk = chunks.get(index);
+			if (chunk == null && (retired || (chunk = load(in, index)) == null)) {
+				return -1;
+			}
+			if (!chunk.referenced) {
+				chunk.referenced = true;
+			}
+			int start = (int) (block % blocksPerChunk) * blockSize;
+			int length = Math.max(0, Math.min(blockSize, chunk.data.limit() - start));
+			packet.put(4, chunk.data, start, length); // 以絕對位置複製，不改變共用 Chunk 的 position
+			return length;
+		}
+
+		// 從檔案讀入一個 Chunk 並放入快取；同時有其他傳輸讀入同一個 Chunk 時使用先放入的那一個。
+		// 讀取期間被取代時回傳 null
+		private Chunk load(FileChannel in, int index) throws IOException {
+			long position = (long) index * blocksPerChunk * blockSize;
+			int length = (int) Math.min((long) blocksPerChunk * blockSize, size - position);
+			ByteBuffer data = ByteBuffer.allocateDirect(length);
+			while (data.hasRemaining() && in.read(data, position + data.position()) >= 0) {
+				continue;
+			}
+			Chunk chunk = new Chunk(this, index, data.flip());
+			if (!chunks.compareAndSet(index, null, chunk)) {
+				Chunk current = chunks.get(index);
+				return current != null ? current : chunk;
+			}
+			cache.added(chunk);
+			if (retired) { // 放入的同時被取代：由這裡移除，避免佔用空間
+				drop(index);
+				return null;
+			}
+			return chunk;
+		}
+
+		void drop(int index) {
+			Chunk chunk = chunks.getAndSet(index, null);
+			if (chunk != null) {
+				cache.removed(chunk);
+			}
+		}
+
+		// 只移除指定的 Chunk：同一個位置已經換成別的 Chunk 時不動它
+		void drop(Chunk chunk) {
+			if (chunks.compareAndSet(chunk.index, chunk, null)) {
+				cache.removed(chunk);
+			}
+		}
+
+		void clear() {
+			retired = true;
+			for (int i = 0; i < chunks.length(); i++) {
+				drop(i);
+			}
+		}
+	}
+
+	/** One chunk of consecutive blocks, stored off-heap. */
+	static final class Chunk {
+
+		final CachedFile file;
+		final int index;
+		final ByteBuffer data;
+		/** CLOCK 的參考標記: 上次被 CLOCK 經過之後是否被讀取過 */
+		volatile boolean referenced;
+
+		Chunk(CachedFile file, int index, ByteBuffer data) {
+			this.file = file;
+			this.index = index;
+			this.data = data;
+		}
+
+		/**
+		 * @return true while the chunk is still held by its file (not dropped or replaced)
+		 */
+		boolean isCached() {
+			return file.chunks.get(index) == this;
+		}
+	}
+}
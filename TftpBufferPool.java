@@ -0,0 +1,48 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * TftpBufferPool
+ *
+ * Direct buffers of one event loop, lent to its transfers for their whole lifetime.
+ * Buffers are grouped by power-of-two capacity (a 1468-byte block uses a 2048-byte buffer),
+ * so transfers with different blksize values can reuse each other's buffers.
+ * Only used on the loop thread, so it needs no synchronization.
+ */
+final class TftpBufferPool {
+
+	// 每種大小最多保留的 Buffer 數，多出來的交給 GC
+	private static final int MAX_POOLED = 64;
+
+	// 索引為容量的 log2，最大 2^16 可放下 blksize 65464 的 DATA 封包
+	private final ArrayDeque<ByteBuffer>[] free = newClasses(17);
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static ArrayDeque<ByteBuffer>[] newClasses(int count) {
+		ArrayDeque<ByteBuffer>[] classes = new ArrayDeque[count];
+		for (int i = 0; i < count; i++) {
+			classes[i] = new ArrayDeque<>();
+		}
+		return classes;
+	}
+
+	/**
+	 * @param size bytes needed
+	 * @return a cleared direct buffer with at least size bytes of capacity
+	 */
+	ByteBuffer acquire(int size) {
+		int sizeClass = 32 - Integer.numberOfLeadingZeros(size - 1); // 無條件進位到 2 的次方
+		ByteBuffer buffer = free[sizeClass].poll();
+		return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(1 << sizeClass);
+	}
+
+	/**
+	 * @param buffer a buffer from acquire, no longer used by its transfer
+	 */
+	void release(ByteBuffer buffer) {
+		ArrayDeque<ByteBuffer> pooled = free[Integer.numberOfTrailingZeros(buffer.capacity())];
+		if (pooled.size() < MAX_POOLED) {
+			pooled.push(buffer);
+		}
+	}
+}
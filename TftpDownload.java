@@ -0,0 +1,202 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+
+/**
+ * TftpDownload
+ *
+ * Handles the Read Request (RRQ) - Sends a file to the client.
+ * Sends a window of windowsize blocks before waiting (RFC 7440; windowsize 1 is Stop-and-Wait),
+ * with cumulative ACKs, timeout retransmission from the last acknowledged block and block ID roll-over.
+ * When options were accepted, an OACK is sent first and acknowledged by the client with ACK 0.
+ * Blocks are taken from the shared TftpBlockCache when it is enabled and the file fits in it.
+ */
+final class TftpDownload extends TftpTransfer {
+
+	// 送出 DATA 用的 Buffer：標頭 4 bytes 之後直接從檔案讀入 blksize bytes
+	private ByteBuffer packet;
+	private ByteBuffer oack;
+	private FileChannel in;
+	// 共用的區塊快取 (停用時為 null)，以及這個檔案在快取中的區塊 (無法快取時為 null)
+	private final TftpBlockCache cache;
+	private TftpBlockCache.CachedFile cached;
+	// 送出 OACK 後等待客戶端的 ACK 0
+	private boolean oackPending;
+
+	// 視窗以不回捲的序號計算 (從 1 開始，用 long 避免溢位)，送出時才取低 16 位元當作 Block 編號
+	private long acked;      // 客戶端已確認的最後一塊
+	private long next = 1;   // 下一個要送出的 Block
+	private long sent;       // 送出過的最後一塊
+	private long last = -1;  // 最後一塊 (資料長度小於 blksize) 的序號，還沒讀到時為 -1
+	private long rewound;    // 上一次因客戶端回報遺失而重送的起點，同一個缺口只重送一次
+
+	TftpDownload(DatagramChannel channel, InetSocketAddress client, String fileName, TftpOptions options,
+			long arrivedAt, RetransmitTimer timer, int maxRetries, TftpBlockCache cache) {
+		super(channel, client, fileName, options, arrivedAt, timer, maxRetries);
+		this.cache = cache;
+	}
+
+	@Override
+	void start() throws IOException {
+		try {
+			// 重送時要回頭讀取已送出的 Block，以 FileChannel 依位置讀取
+			in = new FileInputStream(new File(fileName)).getChannel();
+		} catch (FileNotFoundException e) {
+			AccessLog.get().log(AccessLog.TFTP_FILE_NOT_FOUND, fileName, null, 0, 0);
+			sendError((short) 1, "File not found.");
+			finish();
+			return;
+		}
+		packet = pool.acquire(4 + options.blockSize);
+		if (cache != null) {
+			cached = cache.open(new File(fileName).toPath(), options.blockSize);
+		}
+
+		// 有接受的選項時先送 OACK，客戶端以 ACK 0 確認後才開始送 Block 1
+		if (options.acknowledged) {
+			oackPending = true;
+			oack = options.toOack();
+			send(oack);
+			timer.start(0);
+		} else {
+			sendWindow();
+		}
+	}
+
+	@Override
+	void receive(ByteBuffer packet) throws IOException {
+		if (packet.limit() < 4) {
+			AccessLog.get().log(AccessLog.TFTP_UNEXPECTED_PACKET, acked + 1 & 0xFFFF, 0);
+			return;
+		}
+		short op = packet.getShort(0);
+		if (op == TFTPServer.ERRO) { // 客戶端中止傳輸 (例如不接受 OACK 的選項)：不需回覆
+			finish();
+			return;
+		}
+		if (oackPending) {
+			if (isAck(packet, (short) 0)) {
+				oackPending = false;
+				timer.acked(0);
+				retries = 0;
+				sendWindow();
+			} else { // 收到非預期封包：忽略
+				AccessLog.get().log(AccessLog.TFTP_UNEXPECTED_PACKET, 0, 0);
+			}
+			return;
+		}
+
+		// 檢查 ACK：累積確認，確認的 Block 之前全部都已收到
+		// ACK 的 Block 編號比最後確認的多幾塊 (以 16 位元相減處理回捲)
+		int advance = (packet.getShort(2) - (short) acked) & 0xFFFF;
+		if (op == TFTPServer.ACK && advance > 0 && advance <= sent - acked) {
+			// 確認的不是送出的最後一塊，表示客戶端發現之後有 Block 遺失：從確認的下一塊開始送
+			acked += advance;
+			next = acked + 1;
+			timer.acked(acked);
+			retries = 0;
+			if (last >= 0 && acked >= last) {
+				closeFile();
+				finish(); // 最後一塊已被確認
+				return;
+			}
+			sendWindow();
+		} else if (op == TFTPServer.ACK && advance == 0 && options.windowSize > 1 && rewound != acked) {
+			// 客戶端發現視窗中有 Block 遺失，確認的是按順序收到的最後一塊：從遺失的 Block 重送
+			rewound = acked;
+			next = acked + 1;
+			sendWindow();
+		} else { // 收到非預期封包 (例如重複的 ACK)：忽略
+			AccessLog.get().log(AccessLog.TFTP_UNEXPECTED_PACKET, acked + 1 & 0xFFFF, 0);
+		}
+	}
+
+	@Override
+	void timeout() throws IOException {
+		long blockNum = oackPending ? 0 : acked + 1 & 0xFFFF;
+		if (retry(AccessLog.TFTP_ACK_TIMEOUT, blockNum)) {
+			AccessLog.get().log(AccessLog.TFTP_TRANSFER_FAILED, blockNum, 0);
+			sendError((short) 0, "Transfer failed.");
+			finish();
+			return;
+		}
+		timer.backoff(); // 逾時加倍，直到收到新的確認
+		if (oackPending) {
+			send(oack);
+		} else {
+			next = acked + 1; // 超時：從最後確認的下一塊開始重送整個視窗
+			sendWindow();
+		}
+	}
+
+	@Override
+	void writable() throws IOException {
+		super.writable();
+		if (!oackPending) {
+			sendWindow();
+		}
+	}
+
+	/**
+	 * 封裝並發送資料：送出視窗內還沒送出的 Block，Socket Buffer 滿時停下，等可寫時再繼續
+	 */
+	private void sendWindow() throws IOException {
+		while (next <= acked + options.windowSize && (last < 0 || next <= last)) {
+			// 從檔案讀取這個 Block 的 blksize bytes，length 為實際讀取到的 byte 數量 (檔尾為 0)
+			int length = cached != null ? cached.read(in, next - 1, packet) : -1;
+			if (length < 0) {
+				length = read(in, packet, (next - 1) * options.blockSize);
+			}
+			if (length < options.blockSize) { // 如資料長度小於 blksize，代表這是最後一塊
+				last = next;
+			}
+			if (!send(toData(packet, (short) next, length))) { // 只取低 16 位元：65535 之後回到 0
+				return;
+			}
+			if (next > sent) {
+				timer.start(next); // 第一次送出：量測到它被確認為止的 RTT
+				sent = next;
+			} else {
+				timer.cancel(); // 重送的 Block 無法分辨 ACK 是回應哪一次 (Karn)：不量測
+			}
+			next++;
+		}
+	}
+
+	/**
+	 * Reads one block of the file at the given position into the packet, right after the header.
+	 *
+	 * @param in The file being downloaded.
+	 * @param packet The packet buffer receiving the block.
+	 * @param position Offset of the block in the file.
+	 * @return Number of bytes read, less than blksize only for the last block.
+	 * @throws IOException If the file cannot be read.
+	 */
+	private int read(FileChannel in, ByteBuffer packet, long position) throws IOException {
+		packet.limit(4 + options.blockSize).position(4);
+		while (packet.hasRemaining() && in.read(packet, position + packet.position() - 4) >= 0) {
+			continue;
+		}
+		return packet.position() - 4;
+	}
+
+	@Override
+	protected void closeFile() {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (packet != null) {
+			pool.release(packet);
+			packet = null;
+		}
+	}
+}
@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * TftpEventLoop
+ *
+ * One thread with one Selector drives many transfers: every transfer registers its own channel,
+ * received packets and write readiness are passed to the transfer's state machine,
+ * and retransmission timeouts come from a TimerWheel instead of a blocking receive per thread.
+ * The direct receive buffer is shared by all transfers of the loop, and the packet buffers of
+ * the transfers come from the loop's TftpBufferPool: a steady-state transfer allocates nothing per block.
+ * Any failure of a transfer, including an Error such as running out of direct memory, closes only that
+ * transfer and returns its admission permit; the loop keeps serving the others.
+ */
+final class TftpEventLoop implements Runnable {
+
+	// 一次事件最多讀取的封包數，避免一個很忙的傳輸讓其他傳輸等太久
+	private static final int READS_PER_EVENT = 16;
+
+	final int id;
+	private final TFTPServer server;
+	private final AdmissionControl admission;
+	private final Selector selector;
+	private final Queue<TftpTransfer> pending = new ConcurrentLinkedQueue<>();
+	private final TimerWheel wheel = new TimerWheel();
+	private final TftpBufferPool pool = new TftpBufferPool();
+	// 最大的封包為 blksize 65464 的 DATA 加上 4 bytes 標頭；Direct Buffer 讓收到的資料直接寫入檔案，不必再複製
+	private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(TftpOptions.MAX_BLKSIZE + 4);
+	// 以 select(Consumer) 處理事件，不必每次 select 都建立 selectedKeys 的 Iterator
+	private final Consumer<SelectionKey> handler = key -> handle(key, (TftpTransfer) key.attachment());
+	private long now;
+
+	/**
+	 * @param id        loop number (used in the thread name)
+	 * @param server    the server, to reject transfers that waited too long
+	 * @param admission limits of in-flight transfers and queue time
+	 * @throws IOException If the Selector cannot be opened.
+	 */
+	TftpEventLoop(int id, TFTPServer server, AdmissionControl admission) throws IOException {
+		this.id = id;
+		this.server = server;
+		this.admission = admission;
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Hands a new transfer to this loop. Called by the thread receiving requests;
+	 * the channel is registered and the transfer started on the loop thread.
+	 *
+	 * @param transfer a transfer whose channel is non-blocking
+	 */
+	void register(TftpTransfer transfer) {
+		pending.add(transfer);
+		selector.wakeup();
+	}
+
+	/**
+	 * Main loop: waits for packets, at most until the next tick of the timer wheel.
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				selector.select(handler, wheel.isEmpty() ? 0 : TimerWheel.TICK_MILLIS);
+				now = System.nanoTime();
+				registerPending();
+
+				TftpTransfer expired;
+				while ((expired = wheel.poll(now)) != null) {
+					try {
+						expired.timeout();
+						update(expired);
+					} catch (IOException | RuntimeException | Error e) {
+						e.printStackTrace();
+						close(expired);
+					}
+				}
+			} catch (IOException | RuntimeException e) {
+				e.printStackTrace(); // 迴圈本身的錯誤：繼續服務其他傳輸
+			}
+		}
+	}
+
+	private void registerPending() {
+		TftpTransfer transfer;
+		while ((transfer = pending.poll()) != null) {
+			try {
+				// 交給迴圈之前等太久，客戶端多半已經逾時重送，直接拒絕
+				if (admission.expired(transfer.arrivedAt)) {
+					server.sendBusy(transfer.client, AdmissionControl.SHED_QUEUE_TIME);
+					close(transfer);
+					continue;
+				}
+				transfer.pool = pool;
+				transfer.key = transfer.channel.register(selector, SelectionKey.OP_READ, transfer);
+				transfer.start();
+				update(transfer);
+			} catch (ClosedChannelException e) {
+				close(transfer); // Channel 在註冊前就被關閉，直接略過
+			} catch (IOException | RuntimeException | Error e) {
+				e.printStackTrace(); // 例如 Direct Buffer 用盡 (OutOfMemoryError)：只結束這個傳輸
+				close(transfer);
+			}
+		}
+	}
+
+	// 在 select 之中被呼叫，先更新時間供 update 排程
+	private void handle(SelectionKey key, TftpTransfer transfer) {
+		now = System.nanoTime();
+		try {
+			if (key.isValid() && key.isWritable()) {
+				transfer.writable();
+			}
+			if (key.isValid() && key.isReadable()) {
+				for (int i = 0; i < READS_PER_EVENT && !transfer.isDone(); i++) {
+					receiveBuffer.clear();
+					// Channel 已連線到客戶端，只會收到來自客戶端的封包；沒有封包時回傳 0
+					if (transfer.channel.read(receiveBuffer) <= 0) {
+						break;
+					}
+					transfer.receive(receiveBuffer.flip());
+				}
+			}
+			update(transfer);
+		} catch (IOException | RuntimeException | Error e) {
+			e.printStackTrace(); // 例如客戶端已關閉 (ICMP Port Unreachable)；狀態機的錯誤也只結束這個傳輸
+			close(transfer);
+		}
+	}
+
+	// 傳輸完成就關閉；否則重新計時，Socket Buffer 滿時等待可寫
+	private void update(TftpTransfer transfer) {
+		if (transfer.isDone()) {
+			close(transfer);
+			return;
+		}
+		wheel.schedule(transfer, now + transfer.timeoutNanos());
+		transfer.key.interestOps(transfer.isWriteBlocked()
+				? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+	}
+
+	// 每個傳輸只關閉一次：關閉時再出錯也一定歸還名額，之後的 catch 不會重複歸還
+	private void close(TftpTransfer transfer) {
+		if (transfer.closed) {
+			return;
+		}
+		transfer.closed = true;
+		try {
+			wheel.cancel(transfer);
+			transfer.close();
+		} finally {
+			admission.release(1);
+		}
+	}
+}
+
+/**
+ * TimerWheel
+ *
+ * Hashed timer wheel of retransmission deadlines: each slot covers one tick and holds a doubly linked
+ * list of the transfers due in it (later rotations included), so scheduling, rescheduling after
+ * every ACK and cancelling are O(1), and each tick only looks at one slot.
+ */
+final class TimerWheel {
+
+	/** Length of one slot */
+	static final long TICK_MILLIS = 5;
+	private static final long TICK_NANOS = TICK_MILLIS * 1_000_000L;
+	// 1024 格 x 5 毫秒，一圈約 5 秒，更遠的期限在之後的圈數才到期
+	private static final int SLOTS = 1024;
+
+	private final TftpTransfer[] slots = new TftpTransfer[SLOTS];
+	private long tick = System.nanoTime() / TICK_NANOS; // 已處理到的格子
+	private int size;
+	// poll 正在處理的格子中，還沒檢查的傳輸
+	private TftpTransfer cursor;
+
+	/**
+	 * @return true if no transfer is scheduled
+	 */
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Schedules (or reschedules) a transfer.
+	 *
+	 * @param transfer the transfer
+	 * @param deadline System.nanoTime() when its timeout expires
+	 */
+	void schedule(TftpTransfer transfer, long deadline) {
+		cancel(transfer);
+		transfer.deadline = deadline;
+		// 無條件進位到下一格，不會早於期限到期；已經過期的放到下一格
+		long due = Math.max(tick + 1, (deadline + TICK_NANOS - 1) / TICK_NANOS);
+		int slot = (int) (due & (SLOTS - 1));
+		transfer.timerSlot = slot;
+		transfer.timerPrev = null;
+		transfer.timerNext = slots[slot];
+		if (slots[slot] != null) {
+			slots[slot].timerPrev = transfer;
+		}
+		slots[slot] = transfer;
+		size++;
+	}
+
+	/**
+	 * Removes a transfer from the wheel, if scheduled.
+	 *
+	 * @param transfer the transfer
+	 */
+	void cancel(TftpTransfer transfer) {
+		if (transfer.timerSlot < 0) {
+			return;
+		}
+		if (cursor == transfer) {
+			cursor = transfer.timerNext;
+		}
+		if (transfer.timerPrev != null) {
+			transfer.timerPrev.timerNext = transfer.timerNext;
+		} else {
+			slots[transfer.timerSlot] = transfer.timerNext;
+		}
+		if (transfer.timerNext != null) {
+			transfer.timerNext.timerPrev = transfer.timerPrev;
+		}
+		transfer.timerSlot = -1;
+		transfer.timerPrev = null;
+		transfer.timerNext = null;
+		size--;
+	}
+
+	/**
+	 * Removes and returns the next transfer whose deadline has passed.
+	 *
+	 * @param now System.nanoTime()
+	 * @return an expired transfer, or null when there are no more
+	 */
+	TftpTransfer poll(long now) {
+		long target = now / TICK_NANOS;
+		while (true) {
+			// 檢查目前格子中剩下的傳輸 (其他圈的期限還沒到，留在原地)
+			while (cursor != null) {
+				TftpTransfer transfer = cursor;
+				cursor = transfer.timerNext;
+				if (transfer.deadline <= now) {
+					cancel(transfer);
+					return transfer;
+				}
+			}
+			if (tick >= target || size == 0) {
+				tick = Math.max(tick, target);
+				return null;
+			}
+			// 前進一格；停頓超過一圈時，每一格也只需要看一次
+			tick = target - tick > SLOTS ? target - SLOTS + 1 : tick + 1;
+			cursor = slots[(int) (tick & (SLOTS - 1))];
+		}
+	}
+}
@@ -0,0 +1,147 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * TftpOptions
+ * 
+ * Options appended to a RRQ / WRQ after the mode string (RFC 2347).
+ * Unknown options and invalid values are ignored; when any option is accepted,
+ * the server answers with an OACK listing the accepted options.
+ */
+final class TftpOptions {
+
+	/** Opcode of the option acknowledgment */
+	static final short OACK = 6;
+
+	/** Block size of RFC 1350, used when the client does not ask for blksize */
+	static final int DEFAULT_BLKSIZE = 512;
+	/** Smallest block size allowed by RFC 2348 */
+	static final int MIN_BLKSIZE = 8;
+	/** Largest block size allowed by RFC 2348 (a 65535-byte UDP payload minus the IP, UDP and TFTP headers) */
+	static final int MAX_BLKSIZE = 65464;
+	/** Largest window size allowed by RFC 7440 */
+	static final int MAX_WINDOWSIZE = 65535;
+
+	private static final byte[] BLKSIZE = "blksize".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] WINDOWSIZE = "windowsize".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] TIMEOUT = "timeout".getBytes(StandardCharsets.US_ASCII);
+
+	/** Negotiated block size */
+	int blockSize = DEFAULT_BLKSIZE;
+	/** Negotiated number of blocks sent before waiting for an ACK (1 without the windowsize option) */
+	int windowSize = 1;
+	/** Retransmission timeout in seconds requested with the timeout option, 0 to adapt it to the measured RTT */
+	int timeoutSeconds;
+	/** true if any option was accepted and an OACK must be sent */
+	boolean acknowledged;
+
+	// 要列在 OACK 中的選項
+	private boolean blockSizeAccepted;
+	private boolean windowSizeAccepted;
+	private boolean timeoutAccepted;
+
+	/**
+	 * Parses the option name / value pairs of a request.
+	 * 
+	 * @param buf          the request packet
+	 * @param current      index of the first option (right after the mode string)
+	 * @param end          length of the request packet
+	 * @param maxBlockSize largest block size the server accepts
+	 * @param maxWindowSize largest window size the server accepts
+	 * @return the accepted options (defaults when the request has none)
+	 */
+	static TftpOptions parse(ByteBuffer buf, int current, int end, int maxBlockSize, int maxWindowSize) {
+		TftpOptions options = new TftpOptions();
+		while (current < end) {
+			int nameEnd = terminator(buf, current, end);
+			int valueEnd = nameEnd < 0 ? -1 : terminator(buf, nameEnd + 1, end);
+			if (valueEnd < 0) {
+				break; // 選項不完整：忽略剩下的部分
+			}
+			String name = new String(buf.array(), current, nameEnd - current, StandardCharsets.US_ASCII);
+			String value = new String(buf.array(), nameEnd + 1, valueEnd - nameEnd - 1, StandardCharsets.US_ASCII);
+			current = valueEnd + 1;
+
+			// 選項名稱不分大小寫
+			if (name.equalsIgnoreCase("blksize")) {
+				int size = number(value);
+				if (size >= MIN_BLKSIZE) {
+					// 客戶端要求的比上限大時，回覆伺服器能接受的大小
+					options.blockSize = Math.min(size, maxBlockSize);
+					options.blockSizeAccepted = true;
+					options.acknowledged = true;
+				}
+			} else if (name.equalsIgnoreCase("windowsize")) {
+				int size = number(value);
+				if (size >= 1) {
+					options.windowSize = Math.min(size, maxWindowSize);
+					options.windowSizeAccepted = true;
+					options.acknowledged = true;
+				}
+			} else if (name.equalsIgnoreCase("timeout")) {
+				int seconds = number(value);
+				if (seconds >= 1 && seconds <= 255) { // RFC 2349 允許 1 到 255 秒，超出範圍則不接受
+					options.timeoutSeconds = seconds;
+					options.timeoutAccepted = true;
+					options.acknowledged = true;
+				}
+			}
+		}
+		return options;
+	}
+
+	/**
+	 * Constructs the OACK packet listing the accepted options.
+	 * 
+	 * @return OACK packet
+	 */
+	ByteBuffer toOack() {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		buffer.putShort(OACK);
+		if (blockSizeAccepted) {
+			put(buffer, BLKSIZE, blockSize);
+		}
+		if (windowSizeAccepted) {
+			put(buffer, WINDOWSIZE, windowSize);
+		}
+		if (timeoutAccepted) {
+			put(buffer, TIMEOUT, timeoutSeconds);
+		}
+		return buffer.flip();
+	}
+
+	/**
+	 * Appends one option name / value pair to an OACK.
+	 */
+	private static void put(ByteBuffer buffer, byte[] name, int value) {
+		buffer.put(name).put((byte) 0);
+		buffer.put(Integer.toString(value).getBytes(StandardCharsets.US_ASCII)).put((byte) 0);
+	}
+
+	/**
+	 * Finds the zero byte ending a string.
+	 * 
+	 * @return index of the zero byte, or -1 if the packet ends first
+	 */
+	static int terminator(ByteBuffer buf, int current, int end) {
+		for (; current < end; current++) {
+			if (buf.get(current) == 0) {
+				return current;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Parses a decimal option value.
+	 * 
+	 * @return the value, or -1 if it is not a valid number
+	 */
+	private static int number(String value) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
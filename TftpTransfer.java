@@ -0,0 +1,232 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+
+/**
+ * TftpTransfer
+ *
+ * One RRQ or WRQ transfer as a non-blocking state machine, driven by a TftpEventLoop:
+ * the loop delivers received packets, retransmission timeouts and write readiness,
+ * and the transfer answers by writing packets to its own channel.
+ * The channel is bound to an ephemeral port chosen by the OS (the server's TID) and connected
+ * to the client, so packets from any other address never reach the transfer.
+ *
+ * Packets are built in place in direct buffers borrowed from the loop's TftpBufferPool for the whole
+ * transfer, so sending and receiving a block allocates nothing.
+ */
+abstract class TftpTransfer {
+
+	/** Channel of the transfer, non-blocking and connected to the client */
+	final DatagramChannel channel;
+	/** Address the request came from */
+	final InetSocketAddress client;
+	final String fileName;
+	final TftpOptions options;
+	/** Time the request arrived, for the queue-time limit of AdmissionControl */
+	final long arrivedAt;
+
+	protected final RetransmitTimer timer;
+	private final int maxRetries;
+	protected int retries;
+	private boolean done;
+	private boolean writeBlocked;
+
+	// 以下由 TftpEventLoop 使用：Buffer 池、Selector 的註冊、是否已關閉，以及在 TimerWheel 中的位置
+	TftpBufferPool pool;
+	SelectionKey key;
+	boolean closed;
+	long deadline;
+	int timerSlot = -1;
+	TftpTransfer timerPrev;
+	TftpTransfer timerNext;
+
+	/**
+	 * @param channel    channel bound to an ephemeral port and connected to the client
+	 * @param client     address the request came from
+	 * @param fileName   file to send or receive
+	 * @param options    options negotiated from the request
+	 * @param arrivedAt  System.nanoTime() when the request arrived
+	 * @param timer      retransmission timer of the transfer
+	 * @param maxRetries consecutive timeouts before the transfer is abandoned
+	 */
+	TftpTransfer(DatagramChannel channel, InetSocketAddress client, String fileName, TftpOptions options,
+			long arrivedAt, RetransmitTimer timer, int maxRetries) {
+		this.channel = channel;
+		this.client = client;
+		this.fileName = fileName;
+		this.options = options;
+		this.arrivedAt = arrivedAt;
+		this.timer = timer;
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * Opens the file, borrows the packet buffers and sends the first packet (OACK, ACK 0 or the first window).
+	 *
+	 * @throws IOException If the file or the channel fails.
+	 */
+	abstract void start() throws IOException;
+
+	/**
+	 * Handles one packet from the client.
+	 *
+	 * @param packet The packet, from position 0 to its length.
+	 * @throws IOException If the file or the channel fails.
+	 */
+	abstract void receive(ByteBuffer packet) throws IOException;
+
+	/**
+	 * Handles a retransmission timeout.
+	 *
+	 * @throws IOException If the file or the channel fails.
+	 */
+	abstract void timeout() throws IOException;
+
+	/**
+	 * Continues sending once the socket buffer has room again.
+	 *
+	 * @throws IOException If the file or the channel fails.
+	 */
+	void writable() throws IOException {
+		writeBlocked = false;
+	}
+
+	/** Releases the file and the packet buffers of the transfer. */
+	protected abstract void closeFile();
+
+	/**
+	 * @return true once the transfer completed or was abandoned
+	 */
+	boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return true if a packet could not be sent because the socket buffer was full
+	 */
+	boolean isWriteBlocked() {
+		return writeBlocked;
+	}
+
+	/**
+	 * @return the time to wait for the next packet before timeout() is called
+	 */
+	long timeoutNanos() {
+		return timer.timeoutNanos();
+	}
+
+	/**
+	 * @return true if the timeouts are exhausted, after logging the retry
+	 */
+	protected boolean retry(int event, long blockNum) {
+		retries++;
+		AccessLog.get().log(event, blockNum, retries);
+		return retries >= maxRetries; // 最多重試 maxRetries 次
+	}
+
+	protected void finish() {
+		done = true;
+	}
+
+	/**
+	 * Releases the file and the channel.
+	 */
+	void close() {
+		closeFile();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes a packet to the client.
+	 *
+	 * @param packet The packet, from position 0 to its length.
+	 * @return false if the socket buffer is full and the packet was not sent.
+	 * @throws IOException If the channel fails.
+	 */
+	protected boolean send(ByteBuffer packet) throws IOException {
+		packet.rewind();
+		if (channel.write(packet) == 0) {
+			writeBlocked = true; // 非阻塞的 Channel 在 Socket Buffer 滿時不送出：等可寫時再繼續
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * sendError
+	 *
+	 * Sends an error packet to the client
+	 *
+	 * @param errorCode
+	 * @param errMsg
+	 */
+	protected void sendError(short errorCode, String errMsg) {
+
+		byte[] message = errMsg.getBytes();
+		ByteBuffer wrap = ByteBuffer.allocate(4 + message.length + 1);
+		wrap.putShort(TFTPServer.ERRO);
+		wrap.putShort(errorCode);
+		wrap.put(message);
+		wrap.put((byte) 0);
+
+		try {
+			send(wrap.flip()); // 只送出實際長度
+		} catch (IOException e) {
+			AccessLog.get().log(AccessLog.TFTP_ERROR_NOT_SENT, errorCode, 0);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Checks if the received packet is a valid ACK for the specified block number.
+	 * * @param buf The ByteBuffer containing the packet data.
+	 * @param blocknum The expected block number.
+	 * @return true if it is a valid ACK, false otherwise.
+	 */
+	static boolean isAck(ByteBuffer buf, short blocknum) {
+		short op = buf.getShort(0);
+		short block = buf.getShort(2);
+		return (op == TFTPServer.ACK && block == blocknum);
+	}
+
+	/**
+	 * ackPacket
+	 *
+	 * Writes an ACK packet for the given block number in place.
+	 *
+	 * @param buffer a buffer of at least 4 bytes, reused for every ACK
+	 * @param block the current block number
+	 * @return the buffer, ready to be sent
+	 */
+	static ByteBuffer toAck(ByteBuffer buffer, short block) {
+
+		buffer.putShort(0, TFTPServer.ACK);
+		buffer.putShort(2, block);
+
+		return buffer.limit(4).position(0);
+	}
+
+	/**
+	 * dataPacket
+	 *
+	 * Writes the DATA header in front of data already read into the packet buffer.
+	 *
+	 * @param packet the packet buffer, holding length bytes of data after the 4-byte header
+	 * @param block  current block number
+	 * @param length length of data
+	 * @return the packet, ready to be sent
+	 */
+	static ByteBuffer toData(ByteBuffer packet, short block, int length) {
+
+		packet.putShort(0, TFTPServer.DATA);
+		packet.putShort(2, block);
+
+		return packet.limit(4 + length).position(0);
+	}
+}
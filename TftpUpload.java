@@ -0,0 +1,167 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+
+/**
+ * TftpUpload
+ *
+ * Handles the Write Request (WRQ) - Receives a file from the client.
+ * Acknowledges every windowsize blocks received in order (RFC 7440; windowsize 1 is Stop-and-Wait),
+ * or the last in-order block as soon as a gap is seen, with timeout retransmission and block ID roll-over.
+ * When options were accepted, an OACK replaces ACK 0.
+ * After the last block the transfer dallies for one timeout (RFC 1350), acknowledging the last block again
+ * if the client retransmits it because the final ACK was lost.
+ */
+final class TftpUpload extends TftpTransfer {
+
+	private FileChannel output;
+	private int expectedBlockNum = 1; // 剛發送了 ACK 0，所以預期收到 Block 1
+	private int inWindow; // 這個視窗中已按順序收到、還沒確認的 Block 數
+	private boolean gapAcked; // 已為目前的缺口 (遺失或重複的 Block) 回過 ACK，等客戶端重送
+	private long received; // 按順序收到的 Block 數 (不回捲)，用來對應 RTT 的量測
+	private boolean dallying; // 已收到並確認最後一塊，等待一個逾時時間再結束
+	// 每個 ACK 都寫在同一個 Buffer 中；lastAck 為最後送出的 ACK (或 OACK)，逾時重送它
+	private ByteBuffer ack;
+	private ByteBuffer lastAck;
+
+	TftpUpload(DatagramChannel channel, InetSocketAddress client, String fileName, TftpOptions options,
+			long arrivedAt, RetransmitTimer timer, int maxRetries) {
+		super(channel, client, fileName, options, arrivedAt, timer, maxRetries);
+	}
+
+	@Override
+	void start() throws IOException {
+		File file = new File(fileName);
+		if (file.exists()) {
+			AccessLog.get().log(AccessLog.TFTP_FILE_EXISTS, fileName, null, 0, 0);
+			sendError((short) 6, "File already exists.");
+			finish();
+			return;
+		}
+		try {
+			output = new FileOutputStream(file).getChannel(); // 建立檔案輸出串流，準備寫入硬碟
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+			sendError((short) 1, "File not found.");
+			finish();
+			return;
+		}
+
+		// 傳送 ACK 0 (有接受的選項時改送 OACK) 給客戶端，準備接收資料
+		// RTT 為送出 ACK 到收到下一個視窗第一塊的時間
+		ack = pool.acquire(4);
+		lastAck = options.acknowledged ? options.toOack() : toAck(ack, (short) 0);
+		send(lastAck);
+		timer.start(1);
+	}
+
+	@Override
+	void receive(ByteBuffer packet) throws IOException {
+		// 驗證是否為 DATA 封包 (OpCode = 3)，其他封包忽略不處理
+		if (packet.limit() < 4 || packet.getShort(0) != TFTPServer.DATA) {
+			return;
+		}
+		//-32768 ~ 32767 的 short 轉為 0-65535 的 int
+		int receivedBlock = packet.getShort(2) & 0xFFFF;
+
+		if (dallying) {
+			// 客戶端重送最後一塊：最後的 ACK 遺失了，再確認一次
+			if (receivedBlock == ((expectedBlockNum - 1) & 0xFFFF)) {
+				send(lastAck);
+			}
+			return;
+		}
+
+		// 檢查是否為預期的 Block 編號
+		if (receivedBlock == expectedBlockNum) {
+			retries = 0; // 有新的 Block 按順序到達才重新計算連續逾時，重複或無效的封包不算
+			// 寫入檔案：跳過前 4 bytes (標頭)，寫入剩下的長度
+			boolean lastBlock = packet.limit() - 4 < options.blockSize; // 如果資料長度小於 blksize，代表這是最後一塊
+			packet.position(4);
+			while (packet.hasRemaining()) {
+				output.write(packet);
+			}
+			inWindow++;
+			gapAcked = false;
+			timer.acked(++received);
+			// 收滿一個視窗或最後一塊時才確認 (累積確認)
+			if (inWindow == options.windowSize || lastBlock) {
+				lastAck = toAck(ack, (short) receivedBlock);
+				send(lastAck); // 發送 ACK (轉回 short)
+				timer.start(received + 1);
+				inWindow = 0;
+			}
+			expectedBlockNum++;
+			if (expectedBlockNum > 65535) {
+				expectedBlockNum = 0; // Wrap to zero
+			}
+			if (lastBlock) {
+				// 檔案已完整，先關閉；最後的 ACK 可能遺失 (或 Socket Buffer 滿而還沒送出)，等一個逾時時間再結束
+				closeOutput();
+				timer.cancel();
+				dallying = true;
+			}
+		} else if (!gapAcked) {
+			// 收到重複或跳號的 Block：確認按順序收到的最後一塊，讓客戶端從下一塊重送，
+			// 同一個缺口之後的封包則忽略不處理
+			if (inWindow > 0) {
+				lastAck = toAck(ack, (short) (expectedBlockNum - 1));
+				inWindow = 0;
+			}
+			send(lastAck);
+			timer.cancel(); // 接下來收到的是重送的 Block，不量測 (Karn)
+			gapAcked = true;
+		}
+	}
+
+	@Override
+	void timeout() throws IOException {
+		if (dallying) {
+			finish(); // 客戶端沒有重送最後一塊：已收到最後的 ACK
+			return;
+		}
+		if (retry(AccessLog.TFTP_DATA_TIMEOUT, expectedBlockNum)) {
+			AccessLog.get().log(AccessLog.TFTP_UPLOAD_FAILED, expectedBlockNum, 0);
+			sendError((short) 0, "Upload failed.");
+			finish();
+			return;
+		}
+		if (inWindow > 0) { // 視窗收到一半：確認已收到的部分，客戶端從下一塊重送
+			lastAck = toAck(ack, (short) (expectedBlockNum - 1));
+			inWindow = 0;
+		}
+		send(lastAck); // 重送上一個 ACK (或 OACK)
+		timer.backoff();
+	}
+
+	@Override
+	void writable() throws IOException {
+		super.writable();
+		send(lastAck); // Socket Buffer 滿時沒送出的 ACK (例如最後一塊的 ACK)
+	}
+
+	@Override
+	protected void closeFile() {
+		closeOutput();
+		if (ack != null) {
+			pool.release(ack);
+			ack = null;
+		}
+	}
+
+	private void closeOutput() {
+		if (output != null) {
+			try {
+				output.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			output = null;
+		}
+	}
+}
@@ -0,0 +1,36 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * TlsBufferPool 類別
+ * TLS 加解密使用的 Buffer 池，所有連線 (與執行緒) 共用。
+ * 連線只在有資料收到一半或還沒寫出時才持有 Buffer，用完立即歸還，閒置連線不佔記憶體；
+ * 池以固定大小的陣列保存，借用與歸還都不會配置新物件。
+ */
+final class TlsBufferPool {
+
+    private final int bufferSize;
+    private final ArrayBlockingQueue<ByteBuffer> buffers;
+
+    /**
+     * TlsBufferPool 建構子
+     *
+     * @param bufferSize 每個 Buffer 的大小
+     * @param maxPooled 池中最多保留的 Buffer 數
+     */
+    TlsBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(Math.max(1, maxPooled));
+    }
+
+    /** @return 一個清空的 Buffer，池中沒有時新配置一個 */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        return buffer != null ? buffer.clear() : ByteBuffer.allocate(bufferSize);
+    }
+
+    /** @param buffer 歸還的 Buffer，池已滿時直接丟棄 */
+    void release(ByteBuffer buffer) {
+        buffers.offer(buffer);
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * TlsContext 類別
+ * HTTPS 的設定: 從 KeyStore 載入憑證與私鑰，建立整個伺服器共用的 SSLContext，並為每條連線建立 TlsTransport。
+ *
+ * Session 重用: SSLContext 的 Server Session Cache 保存最近完成交握的 Session (http.tlsSessionCacheSize、
+ * http.tlsSessionTimeout)；TLS 1.3 則由 JDK 預設以 Session Ticket 把 Session 交給客戶端保存
+ * (jdk.tls.server.enableSessionTicketExtension)。重新連線的客戶端帶著 Session 回來時，
+ * 不需要再做憑證簽章與完整的金鑰交換。
+ *
+ * 應用層協定以 ALPN 協商: 開啟 HTTP/2 (http.h2c) 時優先選 h2，客戶端接著送出 Connection Preface，
+ * 由 Http1Processor 原本的 Prior Knowledge 判斷切換為 HTTP/2。
+ */
+final class TlsContext {
+
+    private final SSLContext context;
+    private final String[] applicationProtocols;
+    private final TlsBufferPool pool;
+    private final TlsMetrics metrics;
+
+    /**
+     * TlsContext 建構子
+     *
+     * @param config 伺服器設定 (KeyStore、Session Cache、Buffer 池)
+     * @param metrics TLS 的統計
+     * @throws IOException 當 KeyStore 無法讀取時拋出
+     * @throws GeneralSecurityException 當 KeyStore 或 SSLContext 無法初始化時拋出
+     */
+    TlsContext(HttpServerConfig config, TlsMetrics metrics) throws IOException, GeneralSecurityException {
+        char[] password = config.tlsKeyStorePassword.toCharArray();
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(Path.of(config.tlsKeyStore))) {
+            keyStore.load(in, password);
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, password);
+
+        context = SSLContext.getInstance("TLS");
+        context.init(keyManagers.getKeyManagers(), null, null);
+        SSLSessionContext sessions = context.getServerSessionContext();
+        sessions.setSessionCacheSize(config.tlsSessionCacheSize);
+        sessions.setSessionTimeout(config.tlsSessionTimeoutSeconds);
+
+        applicationProtocols = config.h2c ? new String[] {"h2", "http/1.1"} : new String[] {"http/1.1"};
+
+        // 一個 Buffer 要放得下一整個 Record (密文) 或它解密後的明文
+        SSLSession session = context.createSSLEngine().getSession();
+        pool = new TlsBufferPool(Math.max(session.getPacketBufferSize(), session.getApplicationBufferSize()),
+                config.tlsBufferPoolSize);
+        this.metrics = metrics;
+    }
+
+    /**
+     * 為新連線建立 TLS 層 (還沒開始交握，交握在第一次 read 時進行)
+     *
+     * @param channel 連線的 Channel，用來寫出密文 (NIO 模式也用來讀取)
+     * @param in 阻塞模式時讀取密文的 InputStream (才能套用 SO_TIMEOUT)，NIO 模式為 null
+     * @return 連線的 TLS 層
+     */
+    TlsTransport open(SocketChannel channel, InputStream in) {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setApplicationProtocols(applicationProtocols);
+        engine.setSSLParameters(parameters);
+        return new TlsTransport(engine, channel, in, pool, metrics);
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TlsMetrics 類別
+ * TLS 的成本: 完整交握與 Session 重用的次數、交握花費的時間，以及加密 (wrap)、解密 (unwrap) 的時間與位元組數。
+ */
+final class TlsMetrics {
+
+    private final LongAdder fullHandshakes = new LongAdder();
+    private final LongAdder resumedHandshakes = new LongAdder();
+    private final LongAdder failedHandshakes = new LongAdder();
+    private final LatencyHistogram handshakeTime = new LatencyHistogram();
+    private final LongAdder encryptNanos = new LongAdder();
+    private final LongAdder encryptBytes = new LongAdder();
+    private final LongAdder decryptNanos = new LongAdder();
+    private final LongAdder decryptBytes = new LongAdder();
+
+    /**
+     * 記錄完成的交握
+     *
+     * @param resumed 是否重用了之前的 Session (不需要憑證簽章與完整的金鑰交換)
+     * @param nanos 從收到 ClientHello 到交握完成的時間
+     */
+    void handshake(boolean resumed, long nanos) {
+        (resumed ? resumedHandshakes : fullHandshakes).increment();
+        handshakeTime.record(nanos);
+    }
+
+    /** 交握失敗 (協定錯誤、客戶端中斷) */
+    void handshakeFailed() {
+        failedHandshakes.increment();
+    }
+
+    /**
+     * @param nanos 加密花費的時間
+     * @param bytes 加密的明文位元組數
+     */
+    void encrypted(long nanos, long bytes) {
+        encryptNanos.add(nanos);
+        encryptBytes.add(bytes);
+    }
+
+    /**
+     * @param nanos 解密花費的時間
+     * @param bytes 解密出的明文位元組數
+     */
+    void decrypted(long nanos, long bytes) {
+        decryptNanos.add(nanos);
+        decryptBytes.add(bytes);
+    }
+
+    void render(StringBuilder sb) {
+        sb.append("# HELP tls_handshakes_total Completed TLS handshakes, by whether the session was resumed.\n");
+        sb.append("# TYPE tls_handshakes_total counter\n");
+        sb.append("tls_handshakes_total{type=\"full\"} ").append(fullHandshakes.sum()).append('\n');
+        sb.append("tls_handshakes_total{type=\"resumed\"} ").append(resumedHandshakes.sum()).append('\n');
+        HttpMetrics.counter(sb, "tls_handshake_failures_total", "TLS handshakes that did not complete.",
+                failedHandshakes.sum());
+        sb.append("# HELP tls_handshake_seconds Time from ClientHello to a finished handshake.\n");
+        sb.append("# TYPE tls_handshake_seconds summary\n");
+        long count = handshakeTime.count();
+        if (count > 0) {
+            double[] quantiles = {0.5, 0.99};
+            double[] values = handshakeTime.quantiles(quantiles);
+            for (int i = 0; i < quantiles.length; i++) {
+                sb.append("tls_handshake_seconds{quantile=\"").append(quantiles[i]).append("\"} ")
+                        .append(values[i]).append('\n');
+            }
+        }
+        sb.append("tls_handshake_seconds_sum ").append(handshakeTime.sumSeconds()).append('\n');
+        sb.append("tls_handshake_seconds_count ").append(count).append('\n');
+        sb.append("# HELP tls_crypto_seconds_total Time spent encrypting and decrypting records.\n");
+        sb.append("# TYPE tls_crypto_seconds_total counter\n");
+        sb.append("tls_crypto_seconds_total{op=\"encrypt\"} ").append(encryptNanos.sum() / 1e9).append('\n');
+        sb.append("tls_crypto_seconds_total{op=\"decrypt\"} ").append(decryptNanos.sum() / 1e9).append('\n');
+        sb.append("# HELP tls_crypto_bytes_total Plaintext bytes encrypted and decrypted.\n");
+        sb.append("# TYPE tls_crypto_bytes_total counter\n");
+        sb.append("tls_crypto_bytes_total{op=\"encrypt\"} ").append(encryptBytes.sum()).append('\n');
+        sb.append("tls_crypto_bytes_total{op=\"decrypt\"} ").append(decryptBytes.sum()).append('\n');
+    }
+}
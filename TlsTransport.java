@@ -0,0 +1,394 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+/**
+ * TlsTransport 類別
+ * 一條 HTTPS 連線的 TLS 層，以 SSLEngine 實作，Thread 模式 (ClientHandler) 與 NIO 模式 (NioConnection) 共用。
+ *
+ * 讀取: read 把收到的 Record 解密後放進呼叫端的 Buffer，交握訊息也在這裡處理，
+ * 所以 Http1Processor / Http2Processor 看到的仍然是明文。
+ * 寫出: 本身是 GatheringByteChannel，OutboundQueue 的 Gathering Write 直接交給 SSLEngine.wrap，
+ * Header 與 Body 一起加密成同一個 Record；FileRegion 的 transferTo 遇到非 Socket 的目標時，
+ * JDK 會先讀進暫存 Buffer 再呼叫 write，因此大檔案照樣可以送出，只是無法零複製。
+ *
+ * netIn (收到還沒解密的密文)、appIn (解密後還沒交出去的明文)、netOut (加密後還沒寫出的密文)
+ * 都向 TlsBufferPool 借用，清空後立即歸還。非阻塞模式下 Socket 寫不下時 netOut 保留到可寫時再送，
+ * 呼叫端以 flush() 判斷是否還要等待 OP_WRITE。
+ */
+final class TlsTransport implements GatheringByteChannel {
+
+    private static final ByteBuffer[] EMPTY = {ByteBuffer.allocate(0)};
+
+    private final SSLEngine engine;
+    private final SocketChannel channel;
+    private final InputStream in;
+    private final TlsBufferPool pool;
+    private final TlsMetrics metrics;
+    // write(ByteBuffer) 重複使用，不必每次建立陣列
+    private final ByteBuffer[] single = new ByteBuffer[1];
+
+    // 寫入模式，沒有資料時為 null
+    private ByteBuffer netIn;
+    // 寫入模式 (有效資料為 0 ~ position)，沒有資料時為 null
+    private ByteBuffer appIn;
+    // 讀取模式 (待寫出的密文)，沒有資料時為 null
+    private ByteBuffer netOut;
+
+    // 收到第一個交握訊息的時間 (System.nanoTime)，0 表示還沒開始
+    private long handshakeStart;
+    // 收到第一個交握訊息的時間 (System.currentTimeMillis)，用來判斷 Session 是否為重用
+    private long handshakeStartMillis;
+    private boolean handshakeDone = false;
+    private boolean inputClosed = false;
+    private boolean closed = false;
+
+    /**
+     * TlsTransport 建構子 (由 TlsContext.open 建立)
+     *
+     * @param engine Server 模式的 SSLEngine
+     * @param channel 連線的 Channel
+     * @param in 阻塞模式時讀取密文的 InputStream，NIO 模式為 null
+     * @param pool 共用的 Buffer 池
+     * @param metrics TLS 的統計
+     */
+    TlsTransport(SSLEngine engine, SocketChannel channel, InputStream in, TlsBufferPool pool, TlsMetrics metrics) {
+        this.engine = engine;
+        this.channel = channel;
+        this.in = in;
+        this.pool = pool;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 讀取解密後的資料
+     * 阻塞模式會一直等到有明文 (交握過程中收到的資料不算)；非阻塞模式沒有資料時回傳 0。
+     *
+     * @param dst 寫入模式的 Buffer
+     * @return 讀到的位元組數，連線已關閉時為 -1
+     * @throws IOException 當讀取失敗或 TLS 協定錯誤時拋出 (阻塞模式閒置逾時為 SocketTimeoutException)
+     */
+    int read(ByteBuffer dst) throws IOException {
+        try {
+            while (true) {
+                if (appIn != null) {
+                    return drain(dst);
+                }
+                if (inputClosed) {
+                    return -1;
+                }
+                if (netIn != null && unwrap()) {
+                    continue;
+                }
+                int n = readNet();
+                if (n == -1) {
+                    closeInbound();
+                    return -1;
+                }
+                if (n == 0) {
+                    return 0;
+                }
+            }
+        } catch (SSLException e) {
+            handshakeFailed();
+            throw e;
+        }
+    }
+
+    /**
+     * @return 是否還有已收到、但還沒交給呼叫端的資料 (明文或還沒解密的 Record)，
+     *         這些資料不會再觸發 Socket 的可讀事件，呼叫端應繼續 read 直到回傳 0
+     */
+    boolean hasBufferedInput() {
+        return appIn != null || netIn != null;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        single[0] = src;
+        try {
+            return (int) write(single, 0, 1);
+        } finally {
+            single[0] = null;
+        }
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    /**
+     * 加密並寫出
+     * 每加密一個 Record 就先寫出，Socket 寫不下時停止 (非阻塞模式)，回傳已經加密的明文位元組數。
+     */
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        long consumed = 0;
+        try {
+            while (flush() && hasRemaining(srcs, offset, length)) {
+                SSLEngineResult result = wrap(srcs, offset, length);
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new ClosedChannelException();
+                }
+                consumed += result.bytesConsumed();
+                if (!handshake(result.getHandshakeStatus()) && result.bytesConsumed() == 0) {
+                    break; // 交握進行中 (等待客戶端)，資料留到之後再送
+                }
+            }
+        } catch (SSLException e) {
+            handshakeFailed();
+            throw e;
+        }
+        return consumed;
+    }
+
+    /**
+     * 寫出之前沒送完的密文 (包含交握訊息)
+     *
+     * @return 全部送出時為 true；非阻塞模式 Socket 寫不下時為 false，需等待 OP_WRITE
+     * @throws IOException 當寫入失敗時拋出
+     */
+    boolean flush() throws IOException {
+        if (!flushNet()) {
+            return false;
+        }
+        if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+            handshake(SSLEngineResult.HandshakeStatus.NEED_WRAP);
+        }
+        return netOut == null;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * 送出 close_notify (盡力而為，寫不下就放棄) 並歸還所有 Buffer；不會關閉底層的 Channel
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            engine.closeOutbound();
+            if (flushNet()) {
+                wrap(EMPTY, 0, 1);
+                flushNet();
+            }
+        } catch (IOException e) {
+            // 連線多半已經中斷，不需要 close_notify
+        }
+        closed = true;
+        netIn = release(netIn);
+        appIn = release(appIn);
+        netOut = release(netOut);
+    }
+
+    // 把 appIn 中的明文交給呼叫端，交完就歸還
+    private int drain(ByteBuffer dst) {
+        appIn.flip();
+        int n = Math.min(appIn.remaining(), dst.remaining());
+        int limit = appIn.limit();
+        appIn.limit(appIn.position() + n);
+        dst.put(appIn);
+        appIn.limit(limit);
+        appIn.compact();
+        if (appIn.position() == 0) {
+            appIn = release(appIn);
+        }
+        return n;
+    }
+
+    // 從 Socket 讀取密文到 netIn
+    private int readNet() throws IOException {
+        if (netIn == null) {
+            netIn = pool.acquire();
+        }
+        int n;
+        if (in != null) {
+            n = in.read(netIn.array(), netIn.arrayOffset() + netIn.position(), netIn.remaining());
+            if (n > 0) {
+                netIn.position(netIn.position() + n);
+            }
+        } else {
+            n = channel.read(netIn);
+        }
+        if (n > 0 && handshakeStart == 0) {
+            handshakeStart = System.nanoTime();
+            handshakeStartMillis = System.currentTimeMillis();
+        }
+        if (netIn.position() == 0) {
+            netIn = release(netIn);
+        }
+        return n;
+    }
+
+    // 解密 netIn 中的 Record；有進展 (消耗了密文、產生了明文或處理了交握) 時回傳 true
+    private boolean unwrap() throws IOException {
+        if (appIn == null) {
+            appIn = pool.acquire();
+        }
+        netIn.flip();
+        long start = System.nanoTime();
+        SSLEngineResult result;
+        try {
+            result = engine.unwrap(netIn, appIn);
+        } finally {
+            netIn.compact();
+        }
+        if (result.bytesProduced() > 0) {
+            metrics.decrypted(System.nanoTime() - start, result.bytesProduced());
+        }
+        if (netIn.position() == 0) {
+            netIn = release(netIn);
+        }
+        if (appIn.position() == 0) {
+            appIn = release(appIn);
+        }
+
+        switch (result.getStatus()) {
+            case BUFFER_UNDERFLOW:
+                // Record 還沒收完整
+                return false;
+            case BUFFER_OVERFLOW:
+                // appIn 在 unwrap 前是空的，一定放得下一個 Record 的明文
+                throw new SSLException("TLS record larger than the application buffer");
+            case CLOSED:
+                // 客戶端送出 close_notify: 回覆自己的 close_notify 後，讀完剩下的明文就結束
+                inputClosed = true;
+                handshake(result.getHandshakeStatus());
+                return true;
+            default:
+                break;
+        }
+        boolean progress = handshake(result.getHandshakeStatus());
+        return progress || result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+    }
+
+    // 加密並放進 netOut (呼叫前 netOut 必須已經送完)
+    private SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        ByteBuffer out = pool.acquire();
+        long start = System.nanoTime();
+        SSLEngineResult result;
+        try {
+            result = engine.wrap(srcs, offset, length, out);
+        } catch (SSLException e) {
+            pool.release(out);
+            throw e;
+        }
+        if (result.bytesConsumed() > 0) {
+            metrics.encrypted(System.nanoTime() - start, result.bytesConsumed());
+        }
+        out.flip();
+        if (out.hasRemaining()) {
+            netOut = out;
+            flushNet();
+        } else {
+            pool.release(out);
+        }
+        return result;
+    }
+
+    // 寫出 netOut；非阻塞模式寫不下時回傳 false
+    private boolean flushNet() throws IOException {
+        if (netOut == null) {
+            return true;
+        }
+        channel.write(netOut);
+        if (netOut.hasRemaining()) {
+            return false;
+        }
+        netOut = release(netOut);
+        return true;
+    }
+
+    // 執行交握需要的動作 (Delegated Task、送出交握訊息)，完成時記錄統計；有進展時回傳 true
+    private boolean handshake(SSLEngineResult.HandshakeStatus status) throws IOException {
+        boolean progress = false;
+        while (true) {
+            switch (status) {
+                case NEED_TASK:
+                    // 憑證簽章等耗時的工作，直接在目前的執行緒上執行
+                    for (Runnable task; (task = engine.getDelegatedTask()) != null; ) {
+                        task.run();
+                    }
+                    status = engine.getHandshakeStatus();
+                    break;
+                case NEED_WRAP:
+                    if (!flushNet()) {
+                        return progress; // 等可寫時由 flush() 繼續
+                    }
+                    SSLEngineResult result = wrap(EMPTY, 0, 1);
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED && result.bytesProduced() == 0) {
+                        return progress; // 引擎已關閉 (例如交握途中連線中斷)，沒有東西可送
+                    }
+                    status = result.getHandshakeStatus();
+                    break;
+                case FINISHED:
+                    handshakeFinished();
+                    status = engine.getHandshakeStatus();
+                    break;
+                default:
+                    // NEED_UNWRAP 等待客戶端的資料；NOT_HANDSHAKING 交握已結束
+                    return progress;
+            }
+            progress = true;
+        }
+    }
+
+    private void handshakeFinished() {
+        if (handshakeDone) {
+            return;
+        }
+        handshakeDone = true;
+        // 重用的 Session 是之前的連線建立的，建立時間早於這次交握開始
+        boolean resumed = engine.getSession().getCreationTime() < handshakeStartMillis;
+        metrics.handshake(resumed, System.nanoTime() - handshakeStart);
+    }
+
+    private void handshakeFailed() {
+        if (!handshakeDone && handshakeStart != 0) {
+            handshakeDone = true;
+            metrics.handshakeFailed();
+        }
+    }
+
+    // 客戶端直接關閉 TCP 連線
+    private void closeInbound() {
+        inputClosed = true;
+        handshakeFailed();
+        try {
+            engine.closeInbound();
+        } catch (SSLException e) {
+            // 沒有收到 close_notify (Truncation)，回應都已完整送出，不影響結果
+        }
+    }
+
+    private ByteBuffer release(ByteBuffer buffer) {
+        if (buffer != null) {
+            pool.release(buffer);
+        }
+        return null;
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] srcs, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (srcs[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,35 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * BenchmarkMain 類別
+ * benchmarks.jar 的進入點，接受與 org.openjdk.jmh.Main 相同的參數，但一律加上 GC Profiler，
+ * 每個結果都附帶 gc.alloc.rate.norm (每次操作配置的位元組數)，最佳化前後可以直接比較。
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {
+    }
+
+    /**
+     * 程式進入點
+     *
+     * @param args JMH 命令列參數，例如 "Http -f 1 -wi 3 -i 5"
+     * @throws RunnerException 當基準測試執行失敗時拋出
+     * @throws CommandLineOptionException 當參數格式錯誤時拋出
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
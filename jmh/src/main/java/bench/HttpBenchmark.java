@@ -0,0 +1,201 @@
+package bench;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * HttpBenchmark 類別
+ * HTTP 請求的熱點路徑，不經過 Socket:
+ * parse (解析 Request Head)、parseAndRoute (解析後經 Router 交給處理器並排入回應，即連線迴圈對每個請求做的事)、
+ * process (Http1Processor 的完整流程，含存取紀錄與寫出回應)、
+ * encodeResponse (建立一個 CachedResponse)、sendResponse (送出預先編碼好的回應)。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpBenchmark {
+
+    private static final Class<?> CONFIG = Internals.type("HttpServerConfig");
+    private static final Class<?> METRICS = Internals.type("HttpMetrics");
+    private static final Class<?> ROUTER = Internals.type("Router");
+    private static final Class<?> PARSER = Internals.type("HttpRequestParser");
+    private static final Class<?> EXCHANGE = Internals.type("HttpExchange");
+    private static final Class<?> HTTP1_EXCHANGE = Internals.type("Http1Exchange");
+    private static final Class<?> OUTBOUND = Internals.type("OutboundQueue");
+    private static final Class<?> PROCESSOR = Internals.type("Http1Processor");
+    private static final Class<?> RESPONSE = Internals.type("CachedResponse");
+    private static final Class<?> ACCESS_LOG = Internals.type("AccessLog");
+    private static final Class<?> ADMISSION = Internals.type("AdmissionControl");
+    private static final Class<?> CHANNEL = GatheringByteChannel.class;
+
+    private static final MethodHandle PARSE = Internals.method(PARSER, "parse", int.class, ByteBuffer.class);
+    private static final MethodHandle RESET_PARSER = Internals.method(PARSER, "reset", void.class);
+    private static final MethodHandle RESET_EXCHANGE = Internals.method(HTTP1_EXCHANGE, "reset", void.class,
+            PARSER, OUTBOUND, int.class);
+    private static final MethodHandle DISPATCH = Internals.method(ROUTER, "dispatch", void.class, EXCHANGE);
+    private static final MethodHandle CLEAR = Internals.method(OUTBOUND, "clear", void.class);
+    private static final MethodHandle ADD_RESPONSE = Internals.method(OUTBOUND, "add", void.class, RESPONSE, int.class);
+    private static final MethodHandle FLUSH_OUTBOUND = Internals.method(OUTBOUND, "flush", boolean.class, CHANNEL);
+    private static final MethodHandle PROCESS = Internals.method(PROCESSOR, "process", void.class,
+            ByteBuffer.class, long.class);
+    private static final MethodHandle FLUSH_PROCESSOR = Internals.method(PROCESSOR, "flush", boolean.class, CHANNEL);
+    private static final MethodHandle CACHED_RESPONSE = Internals.staticMethod(RESPONSE, "of", RESPONSE,
+            String.class, String.class, byte[].class, String[].class);
+
+    private static final String[] NO_HEADERS = {};
+    // CachedResponse.CONNECTION_DEFAULT
+    private static final int CONNECTION_DEFAULT = 0;
+
+    @Param({"/good.html", "/style.css", "/redirect.html", "/missing.html"})
+    public String path;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(8192);
+    private final DiscardChannel sink = new DiscardChannel();
+    private byte[] request;
+    private byte[] goodHtml;
+
+    private Object router;
+    private Object parser;
+    private Object exchange;
+    private Object outbound;
+    private Object processor;
+    private Object response;
+
+    @Setup
+    public void setup() throws Throwable {
+        // 從專案根目錄或 jmh/ 執行都找得到靜態檔案；不限制每條連線的請求數
+        if (System.getProperty("http.docRoot") == null) {
+            System.setProperty("http.docRoot", Files.isDirectory(Path.of("www")) ? "www" : "../www");
+        }
+        System.setProperty("http.maxRequests", "0");
+        Path log = Files.createTempDirectory("http-bench").resolve("access.log");
+        Internals.staticMethod(ACCESS_LOG, "start", ACCESS_LOG, String.class, long.class)
+                .invoke(log.toString(), 16L * 1024 * 1024);
+
+        Object config = Internals.staticMethod(CONFIG, "fromSystemProperties", CONFIG).invoke();
+        // 不限制處理中的請求數與等待時間，但仍經過 Admission Control 的計數
+        Object admission = Internals.constructor(ADMISSION, int.class, long.class).invoke(0, 0L);
+        Object metrics = Internals.constructor(METRICS, ADMISSION).invoke(admission);
+        router = Internals.staticMethod(Internals.type("HttpServer"), "createRouter", ROUTER, CONFIG, METRICS)
+                .invoke(config, metrics);
+        parser = Internals.constructor(PARSER).invoke();
+        exchange = Internals.constructor(HTTP1_EXCHANGE).invoke();
+        outbound = Internals.constructor(OUTBOUND).invoke();
+        processor = Internals.constructor(PROCESSOR, CONFIG, ROUTER).invoke(config, router);
+
+        request = ("GET " + path + " HTTP/1.1\r\n"
+                + "Host: localhost:8868\r\n"
+                + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:128.0) Gecko/20100101 Firefox/128.0\r\n"
+                + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+                + "Accept-Language: en-US,en;q=0.5\r\n"
+                + "Accept-Encoding: gzip, deflate, br\r\n"
+                + "Connection: keep-alive\r\n"
+                + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+        goodHtml = Files.readAllBytes(Path.of(System.getProperty("http.docRoot"), "good.html"));
+        response = (Object) CACHED_RESPONSE.invokeExact("200 OK", "text/html", goodHtml, NO_HEADERS);
+    }
+
+    private void fill() {
+        buffer.clear();
+        buffer.put(request);
+    }
+
+    @Benchmark
+    public int parse() throws Throwable {
+        fill();
+        RESET_PARSER.invokeExact(parser);
+        return (int) PARSE.invokeExact(parser, buffer);
+    }
+
+    @Benchmark
+    public void parseAndRoute() throws Throwable {
+        fill();
+        RESET_PARSER.invokeExact(parser);
+        int result = (int) PARSE.invokeExact(parser, buffer);
+        if (result != 1) {
+            throw new IllegalStateException("Request not parsed: " + result);
+        }
+        RESET_EXCHANGE.invokeExact(exchange, parser, outbound, CONNECTION_DEFAULT);
+        DISPATCH.invokeExact(router, exchange);
+        CLEAR.invokeExact(outbound);
+    }
+
+    @Benchmark
+    public boolean process() throws Throwable {
+        fill();
+        PROCESS.invokeExact(processor, buffer, System.nanoTime());
+        return (boolean) FLUSH_PROCESSOR.invokeExact(processor, (GatheringByteChannel) sink);
+    }
+
+    @Benchmark
+    public Object encodeResponse() throws Throwable {
+        return (Object) CACHED_RESPONSE.invokeExact("200 OK", "text/html", goodHtml, NO_HEADERS);
+    }
+
+    @Benchmark
+    public boolean sendResponse() throws Throwable {
+        ADD_RESPONSE.invokeExact(outbound, response, CONNECTION_DEFAULT);
+        return (boolean) FLUSH_OUTBOUND.invokeExact(outbound, (GatheringByteChannel) sink);
+    }
+
+    /**
+     * DiscardChannel 類別
+     * 取代 Socket 的 Channel，收下所有資料後丟棄，只計算位元組數。
+     */
+    static final class DiscardChannel implements GatheringByteChannel {
+
+        long bytes;
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long written = 0;
+            for (int i = offset; i < offset + length; i++) {
+                written += write(srcs[i]);
+            }
+            return written;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            bytes += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
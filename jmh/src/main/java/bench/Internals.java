@@ -0,0 +1,120 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Internals 類別
+ * 伺服器的類別都在 Default Package，而且大多是 package-private，具名套件的程式無法直接引用；
+ * JMH 又要求基準測試放在具名套件。這裡以 MethodHandles.privateLookupIn 取得私有存取權
+ * (兩者都在 Unnamed Module，不需要 --add-opens)，
+ * 並把參數、回傳值中無法寫出名稱的型別轉成 Object，讓基準測試可以用 invokeExact 呼叫。
+ *
+ * 取得的 MethodHandle 應存在 static final 欄位，JIT 會把它當作常數內聯，量到的就是方法本身的成本。
+ */
+final class Internals {
+
+    private Internals() {
+    }
+
+    /**
+     * 載入 Default Package 的類別
+     *
+     * @param name 類別名稱
+     * @return 類別
+     */
+    static Class<?> type(String name) {
+        try {
+            return Class.forName(name, true, Internals.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 取得實例方法 (可以是 private)，第一個參數為接收者
+     *
+     * @param owner 宣告方法的類別
+     * @param name 方法名稱
+     * @param returnType 回傳型別
+     * @param parameterTypes 參數型別
+     * @return 接收者、非 public 型別都轉成 Object 的 MethodHandle
+     */
+    static MethodHandle method(Class<?> owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            MethodHandle handle = lookup(owner).findVirtual(owner, name, MethodType.methodType(returnType, parameterTypes));
+            return erase(handle);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 取得靜態方法 (可以是 private)
+     *
+     * @param owner 宣告方法的類別
+     * @param name 方法名稱
+     * @param returnType 回傳型別
+     * @param parameterTypes 參數型別
+     * @return 非 public 型別都轉成 Object 的 MethodHandle
+     */
+    static MethodHandle staticMethod(Class<?> owner, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            MethodHandle handle = lookup(owner).findStatic(owner, name, MethodType.methodType(returnType, parameterTypes));
+            return erase(handle);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 取得建構子 (可以是 private)
+     *
+     * @param owner 類別
+     * @param parameterTypes 參數型別
+     * @return 回傳型別與非 public 參數型別都轉成 Object 的 MethodHandle
+     */
+    static MethodHandle constructor(Class<?> owner, Class<?>... parameterTypes) {
+        try {
+            MethodHandle handle = lookup(owner).findConstructor(owner, MethodType.methodType(void.class, parameterTypes));
+            return erase(handle);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 讀取靜態欄位 (可以是 private)
+     *
+     * @param owner 宣告欄位的類別
+     * @param name 欄位名稱
+     * @param fieldType 欄位型別
+     * @return 欄位的值
+     */
+    static Object staticField(Class<?> owner, String name, Class<?> fieldType) {
+        try {
+            return lookup(owner).findStaticVarHandle(owner, name, fieldType).get();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandles.Lookup lookup(Class<?> owner) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(owner, MethodHandles.lookup());
+    }
+
+    // Default Package 的型別在這裡寫不出名稱，一律當作 Object 傳遞
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (type.parameterType(i).getPackageName().isEmpty() && !type.parameterType(i).isPrimitive()) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (type.returnType().getPackageName().isEmpty() && !type.returnType().isPrimitive()) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+}
@@ -0,0 +1,106 @@
+package bench;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * TftpBenchmark 類別
+ * TFTP 每個封包都會經過的方法:
+ * parseRequest (以 TFTPServer.get 取出 RRQ/WRQ 的檔名與模式，與 start 的做法相同)、
+ * TftpTransfer 的 toData / toAck (在重複使用的 Direct Buffer 中寫入送出的封包)、isAck (檢查收到的 ACK)。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TftpBenchmark {
+
+    private static final Class<?> SERVER = Internals.type("TFTPServer");
+    private static final Class<?> TRANSFER = Internals.type("TftpTransfer");
+
+    private static final MethodHandle GET = Internals.method(SERVER, "get", String.class,
+            ByteBuffer.class, int.class, int.class);
+    private static final MethodHandle TO_DATA = Internals.staticMethod(TRANSFER, "toData", ByteBuffer.class,
+            ByteBuffer.class, short.class, int.class);
+    private static final MethodHandle TO_ACK = Internals.staticMethod(TRANSFER, "toAck", ByteBuffer.class,
+            ByteBuffer.class, short.class);
+    private static final MethodHandle IS_ACK = Internals.staticMethod(TRANSFER, "isAck", boolean.class,
+            ByteBuffer.class, short.class);
+
+    @Param({"good.html", "www/a-somewhat-longer-directory/and-a-longer-file-name.tar.gz"})
+    public String fileName;
+
+    /** DATA 封包的資料長度 (512 為完整的一塊，小於 512 為最後一塊) */
+    @Param({"512"})
+    public int length;
+
+    private Object server;
+    private ByteBuffer request;
+    private int requestLength;
+    private ByteBuffer ack;
+    // 與 TftpDownload / TftpUpload 相同: 每個傳輸借用一個封包 Buffer 與一個 ACK Buffer
+    private final ByteBuffer packet = ByteBuffer.allocateDirect(4 + 512);
+    private final ByteBuffer ackOut = ByteBuffer.allocateDirect(4);
+    private short block;
+
+    @Setup
+    public void setup() throws Throwable {
+        server = Internals.constructor(SERVER).invoke();
+
+        ByteArrayOutputStream rrq = new ByteArrayOutputStream();
+        rrq.write(0);
+        rrq.write(1);
+        rrq.writeBytes(fileName.getBytes(StandardCharsets.US_ASCII));
+        rrq.write(0);
+        rrq.writeBytes("octet".getBytes(StandardCharsets.US_ASCII));
+        rrq.write(0);
+        // 與 start 相同: 封包放在 512 位元組的接收 Buffer 中
+        byte[] buffer = new byte[512];
+        System.arraycopy(rrq.toByteArray(), 0, buffer, 0, rrq.size());
+        request = ByteBuffer.wrap(buffer);
+        requestLength = rrq.size();
+
+        ack = ByteBuffer.wrap(new byte[] {0, 4, 0, 1});
+    }
+
+    @Benchmark
+    public void parseRequest(Blackhole bh) throws Throwable {
+        String name = (String) GET.invokeExact(server, request, 2, requestLength);
+        String mode = (String) GET.invokeExact(server, request, 2 + name.length() + 1, requestLength);
+        bh.consume(name);
+        bh.consume(mode);
+    }
+
+    @Benchmark
+    public ByteBuffer toData() throws Throwable {
+        return (ByteBuffer) TO_DATA.invokeExact(packet, block++, length);
+    }
+
+    @Benchmark
+    public ByteBuffer toAck() throws Throwable {
+        return (ByteBuffer) TO_ACK.invokeExact(ackOut, block++);
+    }
+
+    @Benchmark
+    public boolean isAck() throws Throwable {
+        return (boolean) IS_ACK.invokeExact(ack, (short) 1);
+    }
+}
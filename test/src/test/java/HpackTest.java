@@ -0,0 +1,309 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * HpackTest 類別
+ * 以 RFC 7541 Appendix C 的範例檢查 HPACK: 整數與 Huffman 編碼、請求與回應的 Header Block、
+ * 動態表的淘汰與大小更新。
+ */
+class HpackTest {
+
+    // Dynamic Table Size Update 為 256 (C.5、C.6 的範例使用 256 位元組的動態表)
+    private static final String SIZE_256 = "3fe101";
+
+    // C.3 / C.4: 同一條連線上的三個請求
+    private static final String[][] REQUESTS = {
+            {":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com"},
+            {":method: GET", ":scheme: http", ":path: /", ":authority: www.example.com", "cache-control: no-cache"},
+            {":method: GET", ":scheme: https", ":path: /index.html", ":authority: www.example.com",
+                    "custom-key: custom-value"},
+    };
+
+    // C.5 / C.6: 同一條連線上的三個回應
+    private static final String[][] RESPONSES = {
+            {":status: 302", "cache-control: private", "date: Mon, 21 Oct 2013 20:13:21 GMT",
+                    "location: https://www.example.com"},
+            {":status: 307", "cache-control: private", "date: Mon, 21 Oct 2013 20:13:21 GMT",
+                    "location: https://www.example.com"},
+            {":status: 200", "cache-control: private", "date: Mon, 21 Oct 2013 20:13:22 GMT",
+                    "location: https://www.example.com", "content-encoding: gzip",
+                    "set-cookie: foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1"},
+    };
+
+    private static final String[] C3 = {
+            "828684410f7777772e6578616d706c652e636f6d",
+            "828684be58086e6f2d6361636865",
+            "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565",
+    };
+
+    private static final String[] C4 = {
+            "828684418cf1e3c2e5f23a6ba0ab90f4ff",
+            "828684be5886a8eb10649cbf",
+            "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf",
+    };
+
+    private static final String[] C5 = {
+            "4803333032580770726976617465611d4d6f6e2c203231204f637420323031332032303a31333a323120474d54"
+                    + "6e1768747470733a2f2f7777772e6578616d706c652e636f6d",
+            "4803333037c1c0bf",
+            "88c1611d4d6f6e2c203231204f637420323031332032303a31333a323220474d54c05a04677a69707738666f6f"
+                    + "3d4153444a4b48514b425a584f5157454f50495541585157454f49553b206d61782d6167653d333630303b"
+                    + "2076657273696f6e3d31",
+    };
+
+    private static final String[] C6 = {
+            "488264025885aec3771a4b6196d07abe941054d444a8200595040b8166e082a62d1bff6e919d29ad171863c78f"
+                    + "0b97c8e9ae82ae43d3",
+            "4883640effc1c0bf",
+            "88c16196d07abe941054d444a8200595040b8166e084a62d1bffc05a839bd9ab77ad94e7821dd7f2e6c7b335df"
+                    + "dfcd5b3960d5af27087f3672c1ab270fb5291f9587316065c003ed4ee5b1063d5007",
+    };
+
+    @Test
+    void integerEncoding() {
+        // C.1.1 ~ C.1.3
+        assertEquals("0a", writeInt(5, 10));
+        assertEquals("1f9a0a", writeInt(5, 1337));
+        assertEquals("2a", writeInt(8, 42));
+
+        assertEquals(10, readInt("0a", 5));
+        assertEquals(1337, readInt("1f9a0a", 5));
+        assertEquals(42, readInt("2a", 8));
+        // 延續位元組不完整
+        assertEquals(-1, readInt("1f9a", 5));
+    }
+
+    @Test
+    void huffmanEncoding() {
+        assertHuffman("www.example.com", "f1e3c2e5f23a6ba0ab90f4ff");
+        assertHuffman("no-cache", "a8eb10649cbf");
+        assertHuffman("custom-key", "25a849e95ba97d7f");
+        assertHuffman("custom-value", "25a849e95bb8e8b4bf");
+        assertHuffman("302", "6402");
+        assertHuffman("Mon, 21 Oct 2013 20:13:21 GMT", "d07abe941054d444a8200595040b8166e082a62d1bff");
+    }
+
+    @Test
+    void huffmanRejectsBadPadding() {
+        ByteBuffer out = ByteBuffer.allocate(64);
+        // 多出一整個位元組的填充
+        assertFalse(Hpack.huffmanDecode(hex("f1e3c2e5f23a6ba0ab90f4ffff"), 0, 13, out));
+        // 填充不是全部為 1 ('0' 的編碼為 00000，後面 3 個 0 位元)
+        out.clear();
+        assertFalse(Hpack.huffmanDecode(hex("00"), 0, 1, out));
+        // 30 個 1 位元 (EOS) 不可以出現在字串中
+        out.clear();
+        assertFalse(Hpack.huffmanDecode(hex("fffffffc"), 0, 4, out));
+    }
+
+    @Test
+    void decodeRequestsWithoutHuffman() {
+        HpackDecoder decoder = new HpackDecoder();
+        for (int i = 0; i < C3.length; i++) {
+            assertEquals(List.of(REQUESTS[i]), decode(decoder, C3[i]));
+        }
+    }
+
+    @Test
+    void decodeRequestsWithHuffman() {
+        HpackDecoder decoder = new HpackDecoder();
+        for (int i = 0; i < C4.length; i++) {
+            assertEquals(List.of(REQUESTS[i]), decode(decoder, C4[i]));
+        }
+    }
+
+    @Test
+    void decodeResponsesWithEviction() {
+        HpackDecoder decoder = new HpackDecoder();
+        for (int i = 0; i < C5.length; i++) {
+            assertEquals(List.of(RESPONSES[i]), decode(decoder, (i == 0 ? SIZE_256 : "") + C5[i]));
+        }
+        assertDynamicTableAfterC5(decoder);
+    }
+
+    @Test
+    void decodeResponsesWithHuffmanAndEviction() {
+        HpackDecoder decoder = new HpackDecoder();
+        for (int i = 0; i < C6.length; i++) {
+            assertEquals(List.of(RESPONSES[i]), decode(decoder, (i == 0 ? SIZE_256 : "") + C6[i]));
+        }
+        assertDynamicTableAfterC5(decoder);
+    }
+
+    @Test
+    void encodeResponsesWithHuffmanAndEviction() {
+        // 伺服器一律以 Incremental Indexing 加入動態表，與 C.6 相同；
+        // 但只在 Huffman 編碼較短時使用，"307" 兩種編碼都是 3 個位元組，因此第二個回應與 C.5.2 相同
+        HpackEncoder encoder = new HpackEncoder();
+        encoder.setMaxTableSize(256);
+        assertEquals(SIZE_256 + C6[0], encode(encoder, RESPONSES[0]));
+        assertEquals(C5[1], encode(encoder, RESPONSES[1]));
+        assertEquals(C6[2], encode(encoder, RESPONSES[2]));
+    }
+
+    @Test
+    void encoderOutputDecodes() {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+        for (int round = 0; round < 3; round++) {
+            for (String[] response : RESPONSES) {
+                assertEquals(List.of(response), decode(decoder, encode(encoder, response)));
+            }
+        }
+    }
+
+    @Test
+    void dynamicTableEvictsOldestEntries() {
+        // C.5 的動態表: 每個項目的大小為名稱 + 值 + 32
+        HpackTable table = new HpackTable(256);
+        table.add(bytes(":status"), bytes("302"));
+        table.add(bytes("cache-control"), bytes("private"));
+        table.add(bytes("date"), bytes("Mon, 21 Oct 2013 20:13:21 GMT"));
+        table.add(bytes("location"), bytes("https://www.example.com"));
+        assertEquals(4, table.length()); // 222 位元組
+
+        table.add(bytes(":status"), bytes("307")); // 超過 256，移除最舊的 :status: 302
+        assertEquals(4, table.length());
+        assertEquals(":status", string(table.name(0)));
+        assertEquals("307", string(table.value(0)));
+        assertEquals("cache-control", string(table.name(3)));
+        assertEquals(-1, table.find(bytes(":status"), bytes("302")));
+
+        table.add(bytes("date"), bytes("Mon, 21 Oct 2013 20:13:22 GMT"));
+        table.add(bytes("content-encoding"), bytes("gzip"));
+        table.add(bytes("set-cookie"), bytes("foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1"));
+        assertEquals(3, table.length()); // 215 位元組
+        assertEquals("set-cookie", string(table.name(0)));
+        assertEquals("content-encoding", string(table.name(1)));
+        assertEquals("date", string(table.name(2)));
+
+        // 比大小上限還大的項目清空整張表
+        table.add(new byte[300], new byte[0]);
+        assertEquals(0, table.length());
+    }
+
+    @Test
+    void dynamicTableGrowsPastInitialCapacity() {
+        HpackTable table = new HpackTable(Hpack.DEFAULT_TABLE_SIZE);
+        for (int i = 0; i < 40; i++) {
+            table.add(bytes("k" + i), bytes("v" + i));
+        }
+        assertEquals(40, table.length());
+        assertEquals("k39", string(table.name(0)));
+        assertEquals("v0", string(table.value(39)));
+        assertEquals(39, table.findName(bytes("k0")));
+    }
+
+    @Test
+    void decoderSizeUpdates() {
+        HpackDecoder decoder = new HpackDecoder();
+        decode(decoder, C3[0]);
+        // 大小更新為 0 會清空動態表，之後不能再引用 62 號
+        assertEquals(List.of(), decode(decoder, "20"));
+        assertEquals(null, decode(decoder, "be"));
+
+        // 最多接受我們的 SETTINGS_HEADER_TABLE_SIZE (預設 4096)
+        assertEquals(List.of(), decode(new HpackDecoder(), "3fe11f"));
+        assertEquals(null, decode(new HpackDecoder(), "3fe21f"));
+        // 大小更新只能出現在 Block 開頭
+        assertEquals(null, decode(new HpackDecoder(), "8220"));
+        // Block 開頭可以連續有兩個大小更新
+        assertEquals(List.of(":method: GET"), decode(new HpackDecoder(), "203fe11f82"));
+    }
+
+    @Test
+    void encoderSignalsSizeChanges() {
+        HpackEncoder encoder = new HpackEncoder();
+        String[] response = {":status: 200", "content-type: text/html"};
+        String first = encode(encoder, response);
+        assertEquals("88be", encode(encoder, response)); // 第二次直接引用動態表
+
+        // 期間曾經變小為 0: 先通知 0 (清空)，再通知新的大小，項目要重新加入
+        encoder.setMaxTableSize(0);
+        encoder.setMaxTableSize(8192); // 超過預設值時仍只使用 4096
+        assertEquals("20" + "3fe11f" + first, encode(encoder, response));
+        assertEquals("88be", encode(encoder, response));
+
+        HpackDecoder decoder = new HpackDecoder();
+        HpackEncoder shrinking = new HpackEncoder();
+        assertEquals(List.of(response), decode(decoder, encode(shrinking, response)));
+        shrinking.setMaxTableSize(0);
+        assertEquals(List.of(response), decode(decoder, encode(shrinking, response)));
+        assertEquals(List.of(response), decode(decoder, encode(shrinking, response)));
+    }
+
+    // C.5 / C.6 結束時的動態表: [62] set-cookie、[63] content-encoding: gzip、[64] date (20:13:22)
+    private static void assertDynamicTableAfterC5(HpackDecoder decoder) {
+        assertEquals(List.of(RESPONSES[2][5], RESPONSES[2][4], RESPONSES[2][2]), decode(decoder, "bebfc0"));
+        assertEquals(null, decode(decoder, "c1"));
+    }
+
+    private static String writeInt(int prefixBits, int value) {
+        ByteBuffer out = ByteBuffer.allocate(8);
+        Hpack.writeInt(out, 0, prefixBits, value);
+        return HexFormat.of().formatHex(out.array(), 0, out.position());
+    }
+
+    private static int readInt(String hex, int prefixBits) {
+        ByteBuffer in = ByteBuffer.wrap(hex(hex));
+        return Hpack.readInt(in, in.get() & 0xFF, prefixBits);
+    }
+
+    private static void assertHuffman(String text, String hex) {
+        ByteBuffer out = ByteBuffer.allocate(64);
+        Hpack.huffmanEncode(bytes(text), out);
+        assertEquals(hex, HexFormat.of().formatHex(out.array(), 0, out.position()));
+        assertEquals(hex.length() / 2, Hpack.huffmanLength(bytes(text)));
+
+        byte[] encoded = hex(hex);
+        out.clear();
+        assertTrue(Hpack.huffmanDecode(encoded, 0, encoded.length, out));
+        assertArrayEquals(bytes(text), Arrays.copyOf(out.array(), out.position()));
+    }
+
+    // 解碼一個 Header Block，回傳 "name: value" 的清單；編碼錯誤時為 null
+    private static List<String> decode(HpackDecoder decoder, String hex) {
+        List<String> headers = new ArrayList<>();
+        boolean ok = decoder.decode(ByteBuffer.wrap(hex(hex)),
+                (name, nameOffset, nameLength, value, valueOffset, valueLength) -> headers.add(
+                        new String(name, nameOffset, nameLength, StandardCharsets.ISO_8859_1) + ": "
+                                + new String(value, valueOffset, valueLength, StandardCharsets.ISO_8859_1)));
+        return ok ? headers : null;
+    }
+
+    // 編碼一個回應 (第一個 Header 為 :status)
+    private static String encode(HpackEncoder encoder, String[] response) {
+        byte[][] fields = new byte[(response.length - 1) * 2][];
+        for (int i = 1; i < response.length; i++) {
+            int colon = response[i].indexOf(": ");
+            fields[(i - 1) * 2] = bytes(response[i].substring(0, colon));
+            fields[(i - 1) * 2 + 1] = bytes(response[i].substring(colon + 2));
+        }
+        ByteBuffer out = ByteBuffer.allocate(1024);
+        encoder.encode(bytes(response[0].substring(":status: ".length())), fields, out);
+        return HexFormat.of().formatHex(out.array(), 0, out.position());
+    }
+
+    private static byte[] hex(String hex) {
+        return HexFormat.of().parseHex(hex);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static String string(byte[] b) {
+        return new String(b, StandardCharsets.ISO_8859_1);
+    }
+}
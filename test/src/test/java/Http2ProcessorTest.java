@@ -0,0 +1,483 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Http2ProcessorTest 類別
+ * 直接對 Http2Processor 送入客戶端的 Frame，解析它寫出的 Frame:
+ * Frame 的切割與重組、SETTINGS / PING、HPACK 編碼的回應，以及 Stream 與連線層級的 Flow Control。
+ */
+class Http2ProcessorTest {
+
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+
+    private static final int END_STREAM = 0x1;
+    private static final int ACK = 0x1;
+    private static final int END_HEADERS = 0x4;
+
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+    private static final int FRAME_SIZE_ERROR = 0x6;
+
+    private static final byte[] SMALL = body(100);
+    private static final byte[] BIG = body(100_000);
+
+    private Http2Processor processor;
+    private SlowBody slow;
+    private final Channel channel = new Channel();
+    private final HpackDecoder decoder = new HpackDecoder();
+
+    @BeforeAll
+    static void startLog() throws IOException {
+        // 請求記錄寫到檔案，不要混進測試的輸出
+        AccessLog.start("target/access.log", 1024 * 1024);
+    }
+
+    @BeforeEach
+    void setUp() {
+        HttpServerConfig config = HttpServerConfig.fromSystemProperties();
+        Router router = new Router(new HttpMetrics(new AdmissionControl(0, 0)));
+        router.get("/small", exchange -> exchange.send(CachedResponse.of("200 OK", "text/plain", SMALL)));
+        router.get("/big", exchange -> exchange.send(CachedResponse.of("200 OK", "application/octet-stream", BIG)));
+        router.get("/stream/{lines}", new LineStreamHandler());
+        slow = new SlowBody();
+        router.get("/slow", exchange -> exchange.send(CachedResponse.streaming("200 OK", "text/plain"), slow));
+        processor = new Http2Processor(config, router, new OutboundQueue(), 0);
+    }
+
+    @Test
+    void prefaceAndSettings() throws IOException {
+        send(PREFACE, frame(SETTINGS, 0, 0, new byte[0]));
+        List<Frame> frames = flush();
+        assertEquals(2, frames.size());
+        assertEquals(SETTINGS, frames.get(0).type);
+        assertEquals(0, frames.get(0).flags);
+        assertEquals(0, frames.get(0).payload.length % 6);
+        assertEquals(SETTINGS, frames.get(1).type);
+        assertEquals(ACK, frames.get(1).flags);
+        assertEquals(0, frames.get(1).payload.length);
+    }
+
+    @Test
+    void framesSplitAcrossReads() throws IOException {
+        byte[] input = concat(PREFACE, frame(SETTINGS, 0, 0, new byte[0]), request(1, "/small"),
+                frame(PING, 0, 0, new byte[] {1, 2, 3, 4, 5, 6, 7, 8}));
+        // 一次只收到一個位元組: 不完整的 Frame 要留到下一次
+        for (byte b : input) {
+            send(new byte[] {b});
+        }
+        List<Frame> frames = flush();
+
+        Frame pong = only(frames, PING);
+        assertEquals(ACK, pong.flags);
+        assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}, pong.payload);
+
+        assertEquals(List.of(":status: 200", "content-type: text/plain", "content-length: 100"), headers(frames, 1));
+        assertArrayEquals(SMALL, data(frames, 1));
+        assertTrue(endsStream(frames, 1));
+    }
+
+    @Test
+    void concurrentStreamsShareTheConnection() throws IOException {
+        send(PREFACE, frame(SETTINGS, 0, 0, new byte[0]), request(1, "/big"), request(3, "/small"));
+        List<Frame> frames = flush();
+        // 大檔案不會擋住小回應: /small 在 /big 送完之前就結束
+        int smallEnd = lastIndex(frames, 3);
+        int bigEnd = lastIndex(frames, 1);
+        assertTrue(smallEnd < bigEnd);
+        assertArrayEquals(SMALL, data(frames, 3));
+        assertTrue(endsStream(frames, 3));
+        // 連線的 Window 只有 65535
+        assertEquals(65535 - SMALL.length, data(frames, 1).length);
+        assertFalse(endsStream(frames, 1));
+    }
+
+    @Test
+    void streamWindowLimitsData() throws IOException {
+        send(PREFACE, frame(SETTINGS, 0, 0, setting(SETTINGS_INITIAL_WINDOW_SIZE, 10)), request(1, "/small"));
+        List<Frame> frames = flush();
+        assertEquals(10, data(frames, 1).length);
+        assertFalse(endsStream(frames, 1));
+
+        // Window 用完後不再送出，直到收到 WINDOW_UPDATE
+        assertEquals(List.of(), flush());
+
+        send(windowUpdate(1, 50));
+        frames = flush();
+        assertEquals(50, data(frames, 1).length);
+        assertFalse(endsStream(frames, 1));
+
+        send(windowUpdate(1, 1000));
+        frames = flush();
+        assertArrayEquals(Arrays.copyOfRange(SMALL, 60, 100), data(frames, 1));
+        assertTrue(endsStream(frames, 1));
+    }
+
+    @Test
+    void initialWindowChangeAppliesToOpenStreams() throws IOException {
+        send(PREFACE, frame(SETTINGS, 0, 0, setting(SETTINGS_INITIAL_WINDOW_SIZE, 0)), request(1, "/small"));
+        List<Frame> frames = flush();
+        assertEquals(List.of(":status: 200", "content-type: text/plain", "content-length: 100"), headers(frames, 1));
+        assertEquals(0, data(frames, 1).length);
+
+        // 新的初始 Window 也套用到進行中的 Stream
+        send(frame(SETTINGS, 0, 0, setting(SETTINGS_INITIAL_WINDOW_SIZE, 30)));
+        frames = flush();
+        assertEquals(30, data(frames, 1).length);
+    }
+
+    @Test
+    void streamingUnderTinyWindow() throws IOException {
+        // Window 比一行還小: 每次只送出 Window 允許的部分，用完就算送完 (等待 WINDOW_UPDATE)，不會一直重試
+        send(PREFACE, frame(SETTINGS, 0, 0, setting(SETTINGS_INITIAL_WINDOW_SIZE, 5)), request(1, "/stream/20"));
+        assertTrue(processor.flush(channel));
+        assertFalse(processor.isWaitingForData());
+        List<Frame> frames = channel.take();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes(data(frames, 1));
+        assertEquals(5, body.size());
+
+        for (int i = 0; i < 100 && !endsStream(frames, 1); i++) {
+            send(windowUpdate(1, 5));
+            assertTrue(processor.flush(channel));
+            frames = channel.take();
+            for (Frame frame : frames) {
+                assertTrue(frame.type != DATA || frame.payload.length <= 5);
+            }
+            body.writeBytes(data(frames, 1));
+        }
+        assertTrue(endsStream(frames, 1));
+        StringBuilder expected = new StringBuilder();
+        for (int i = 1; i <= 20; i++) {
+            expected.append("line ").append(i).append('\n');
+        }
+        assertEquals(expected.toString(), body.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void streamingWaitsForResume() throws IOException {
+        int[] resumes = new int[1];
+        processor.onResume(() -> resumes[0]++);
+        send(PREFACE, frame(SETTINGS, 0, 0, new byte[0]), request(1, "/slow"));
+        for (int i = 0; i < 10; i++) {
+            assertFalse(processor.flush(channel));
+            assertTrue(processor.isWaitingForData());
+        }
+        // 沒有資料時只詢問一次，之後等它通知
+        assertEquals(1, slow.writes);
+        List<Frame> frames = channel.take();
+        assertEquals(List.of(":status: 200", "content-type: text/plain"), headers(frames, 1));
+        assertEquals(0, data(frames, 1).length);
+
+        slow.ready = true;
+        slow.resume.run();
+        assertEquals(1, resumes[0]);
+        assertTrue(processor.flush(channel));
+        frames = channel.take();
+        assertEquals("done", new String(data(frames, 1), StandardCharsets.US_ASCII));
+        assertTrue(endsStream(frames, 1));
+    }
+
+    @Test
+    void connectionWindowLimitsData() throws IOException {
+        send(PREFACE, frame(SETTINGS, 0, 0, setting(SETTINGS_INITIAL_WINDOW_SIZE, 1_000_000)), request(1, "/big"));
+        List<Frame> frames = flush();
+        assertEquals(65535, data(frames, 1).length);
+        for (Frame frame : frames) {
+            assertTrue(frame.payload.length <= 16384);
+        }
+
+        // 只更新 Stream 的 Window 不夠，還要更新連線的 Window
+        send(windowUpdate(1, 100_000));
+        assertEquals(List.of(), flush());
+
+        send(windowUpdate(0, 100_000));
+        frames = flush();
+        assertArrayEquals(Arrays.copyOfRange(BIG, 65535, BIG.length), data(frames, 1));
+        assertTrue(endsStream(frames, 1));
+    }
+
+    @Test
+    void requestBodyReturnsWindow() throws IOException {
+        send(PREFACE, frame(SETTINGS, 0, 0, new byte[0]));
+        flush();
+        // 沒有 END_STREAM 的 HEADERS，接著 Body
+        send(frame(HEADERS, END_HEADERS, 1, requestBlock("/small")), frame(DATA, 0, 1, new byte[5]));
+        List<Frame> frames = flush();
+        List<String> updates = new ArrayList<>();
+        for (Frame frame : frames) {
+            if (frame.type == WINDOW_UPDATE) {
+                updates.add(frame.stream + ":" + ByteBuffer.wrap(frame.payload).getInt());
+            }
+        }
+        assertEquals(List.of("0:5", "1:5"), updates);
+    }
+
+    @Test
+    void streamWindowOverflowResetsStream() throws IOException {
+        send(PREFACE, frame(SETTINGS, 0, 0, setting(SETTINGS_INITIAL_WINDOW_SIZE, 0)), request(1, "/small"));
+        flush();
+        send(windowUpdate(1, Integer.MAX_VALUE), windowUpdate(1, 1));
+        Frame reset = only(flush(), RST_STREAM);
+        assertEquals(1, reset.stream);
+        assertEquals(FLOW_CONTROL_ERROR, ByteBuffer.wrap(reset.payload).getInt());
+        assertFalse(processor.isClosing());
+    }
+
+    @Test
+    void initialWindowOverflowClosesConnection() throws IOException {
+        send(PREFACE, frame(SETTINGS, 0, 0, setting(SETTINGS_INITIAL_WINDOW_SIZE, 0)), request(1, "/big"));
+        flush();
+        // 連線的 Window 用完，Stream 還開著且 Window 剩 2^31-1 - 10 - 65535
+        send(windowUpdate(1, Integer.MAX_VALUE - 10));
+        assertEquals(65535, data(flush(), 1).length);
+
+        // 新的初始 Window 加上差額後超過 2^31-1
+        send(frame(SETTINGS, 0, 0, setting(SETTINGS_INITIAL_WINDOW_SIZE, 65535 + 11)));
+        Frame goAway = only(flush(), GOAWAY);
+        assertEquals(FLOW_CONTROL_ERROR, ByteBuffer.wrap(goAway.payload).getInt(4));
+        assertTrue(processor.isClosing());
+    }
+
+    @Test
+    void connectionWindowOverflowClosesConnection() throws IOException {
+        send(PREFACE, frame(SETTINGS, 0, 0, new byte[0]), windowUpdate(0, Integer.MAX_VALUE));
+        Frame goAway = only(flush(), GOAWAY);
+        assertEquals(FLOW_CONTROL_ERROR, ByteBuffer.wrap(goAway.payload).getInt(4));
+        assertTrue(processor.isClosing());
+    }
+
+    @Test
+    void oversizedFrameClosesConnection() throws IOException {
+        send(PREFACE, frame(SETTINGS, 0, 0, new byte[0]), frame(PING, 0, 0, new byte[16385]));
+        Frame goAway = only(flush(), GOAWAY);
+        assertEquals(FRAME_SIZE_ERROR, ByteBuffer.wrap(goAway.payload).getInt(4));
+        assertTrue(processor.isClosing());
+    }
+
+    // 把資料交給 processor (與連線讀進來的 Buffer 相同: 寫入模式)
+    private void send(byte[]... chunks) {
+        byte[] input = concat(chunks);
+        ByteBuffer buffer = ByteBuffer.allocate(input.length);
+        buffer.put(input);
+        processor.process(buffer, System.nanoTime());
+    }
+
+    // 寫出所有可以送出的資料，回傳上次之後寫出的 Frame
+    private List<Frame> flush() throws IOException {
+        for (int i = 0; i < 100 && !processor.flush(channel); i++) {
+            continue;
+        }
+        return channel.take();
+    }
+
+    private List<String> headers(List<Frame> frames, int stream) {
+        List<String> headers = new ArrayList<>();
+        for (Frame frame : frames) {
+            if (frame.type == HEADERS && frame.stream == stream) {
+                assertTrue(decoder.decode(ByteBuffer.wrap(frame.payload),
+                        (name, nameOffset, nameLength, value, valueOffset, valueLength) -> headers.add(
+                                new String(name, nameOffset, nameLength, StandardCharsets.ISO_8859_1) + ": "
+                                        + new String(value, valueOffset, valueLength, StandardCharsets.ISO_8859_1))));
+            }
+        }
+        return headers;
+    }
+
+    private static byte[] data(List<Frame> frames, int stream) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Frame frame : frames) {
+            if (frame.type == DATA && frame.stream == stream) {
+                out.writeBytes(frame.payload);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static boolean endsStream(List<Frame> frames, int stream) {
+        for (Frame frame : frames) {
+            if ((frame.type == DATA || frame.type == HEADERS) && frame.stream == stream && (frame.flags & END_STREAM) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int lastIndex(List<Frame> frames, int stream) {
+        int last = -1;
+        for (int i = 0; i < frames.size(); i++) {
+            if (frames.get(i).stream == stream) {
+                last = i;
+            }
+        }
+        return last;
+    }
+
+    private static Frame only(List<Frame> frames, int type) {
+        Frame found = null;
+        for (Frame frame : frames) {
+            if (frame.type == type) {
+                assertEquals(null, found, "more than one frame of type " + type);
+                found = frame;
+            }
+        }
+        assertTrue(found != null, "no frame of type " + type);
+        return found;
+    }
+
+    // GET 請求的 HEADERS (END_STREAM | END_HEADERS)
+    private static byte[] request(int stream, String path) {
+        return frame(HEADERS, END_STREAM | END_HEADERS, stream, requestBlock(path));
+    }
+
+    // :method GET、:scheme http 使用靜態表；:path 與 :authority 為不加入動態表的 Literal
+    private static byte[] requestBlock(String path) {
+        byte[] p = path.getBytes(StandardCharsets.US_ASCII);
+        return concat(new byte[] {(byte) 0x82, (byte) 0x86, 0x04, (byte) p.length}, p,
+                new byte[] {0x01, 9}, "localhost".getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] setting(int id, int value) {
+        return ByteBuffer.allocate(6).putShort((short) id).putInt(value).array();
+    }
+
+    private static byte[] windowUpdate(int stream, int increment) {
+        return frame(WINDOW_UPDATE, 0, stream, ByteBuffer.allocate(4).putInt(increment).array());
+    }
+
+    private static byte[] frame(int type, int flags, int stream, byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(9 + payload.length);
+        frame.put((byte) (payload.length >>> 16)).put((byte) (payload.length >>> 8)).put((byte) payload.length);
+        frame.put((byte) type).put((byte) flags).putInt(stream).put(payload);
+        return frame.array();
+    }
+
+    private static byte[] concat(byte[]... chunks) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] chunk : chunks) {
+            out.writeBytes(chunk);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] body(int length) {
+        byte[] body = new byte[length];
+        for (int i = 0; i < length; i++) {
+            body[i] = (byte) ('a' + i % 26);
+        }
+        return body;
+    }
+
+    /** 第一次詢問時沒有資料，收到 ready 後才寫出內容的串流來源 */
+    private static final class SlowBody implements StreamingBody {
+
+        boolean ready;
+        int writes;
+        Runnable resume;
+
+        @Override
+        public boolean write(ByteBuffer buffer) {
+            writes++;
+            if (!ready) {
+                return true;
+            }
+            buffer.put("done".getBytes(StandardCharsets.US_ASCII));
+            return false;
+        }
+
+        @Override
+        public void resumeWhenReady(Runnable resume) {
+            this.resume = resume;
+        }
+    }
+
+    /** 一個解析出來的 Frame */
+    private record Frame(int type, int flags, int stream, byte[] payload) {
+    }
+
+    /**
+     * Channel 類別
+     * 接收 processor 寫出的資料，並切成 Frame；每次都全部接受 (不會發生寫不下的情況)。
+     */
+    private static final class Channel implements GatheringByteChannel {
+
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private int consumed = 0;
+
+        List<Frame> take() {
+            byte[] bytes = written.toByteArray();
+            List<Frame> frames = new ArrayList<>();
+            ByteBuffer in = ByteBuffer.wrap(bytes, consumed, bytes.length - consumed);
+            while (in.remaining() >= 9) {
+                int length = (in.get(in.position()) & 0xFF) << 16 | (in.get(in.position() + 1) & 0xFF) << 8
+                        | in.get(in.position() + 2) & 0xFF;
+                if (in.remaining() < 9 + length) {
+                    break;
+                }
+                in.position(in.position() + 3);
+                int type = in.get() & 0xFF;
+                int flags = in.get() & 0xFF;
+                int stream = in.getInt() & 0x7FFFFFFF;
+                byte[] payload = new byte[length];
+                in.get(payload);
+                frames.add(new Frame(type, flags, stream, payload));
+            }
+            consumed = in.position();
+            return frames;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                total += write(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            byte[] bytes = new byte[n];
+            src.get(bytes);
+            written.writeBytes(bytes);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
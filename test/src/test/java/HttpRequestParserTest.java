@@ -0,0 +1,53 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * HttpRequestParserTest 類別
+ * Request Body 長度的判斷: Content-Length 的格式、重複的 Content-Length 與 Transfer-Encoding。
+ */
+class HttpRequestParserTest {
+
+    @Test
+    void noBody() {
+        assertEquals(0, contentLength("GET / HTTP/1.1\r\nHost: x\r\n\r\n"));
+    }
+
+    @Test
+    void singleContentLength() {
+        assertEquals(42, contentLength("POST / HTTP/1.1\r\nContent-Length: 42\r\n\r\n"));
+        assertEquals(-1, contentLength("POST / HTTP/1.1\r\nContent-Length: 4x\r\n\r\n"));
+        assertEquals(-1, contentLength("POST / HTTP/1.1\r\nContent-Length:\r\n\r\n"));
+    }
+
+    @Test
+    void repeatedContentLengthWithTheSameValue() {
+        assertEquals(5, contentLength("POST / HTTP/1.1\r\nContent-Length: 5\r\ncontent-length: 5\r\n\r\n"));
+    }
+
+    @Test
+    void conflictingContentLength() {
+        // 值不一致: 不論哪一個在前，都不可以只取其中一個
+        assertEquals(HttpRequestParser.CONFLICTING_LENGTH,
+                contentLength("POST / HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 40\r\n\r\n"));
+        assertEquals(HttpRequestParser.CONFLICTING_LENGTH,
+                contentLength("POST / HTTP/1.1\r\nContent-Length: 5\r\nHost: x\r\nCONTENT-LENGTH: 0\r\n\r\n"));
+        assertEquals(HttpRequestParser.CONFLICTING_LENGTH,
+                contentLength("POST / HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 5x\r\n\r\n"));
+    }
+
+    @Test
+    void transferEncodingHasNoKnownLength() {
+        assertEquals(-1, contentLength("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\nContent-Length: 5\r\n\r\n"));
+    }
+
+    private static long contentLength(String head) {
+        ByteBuffer buffer = ByteBuffer.allocate(1024).put(head.getBytes(StandardCharsets.US_ASCII));
+        HttpRequestParser parser = new HttpRequestParser();
+        assertEquals(HttpRequestParser.COMPLETE, parser.parse(buffer));
+        return parser.contentLength();
+    }
+}
@@ -0,0 +1,535 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * TftpTransferTest
+ *
+ * Drives the TftpDownload and TftpUpload state machines with scripted ACK and DATA packets,
+ * the way TftpEventLoop would, and checks the packets they send to a client channel on loopback:
+ * windows and cumulative ACKs, block number roll-over, retransmission after a gap or a timeout,
+ * and the RTT samples of RetransmitTimer (Karn's rule).
+ */
+class TftpTransferTest {
+
+	private static final int BLKSIZE = 8;
+	private static final long MIN_RTO_MILLIS = 100;
+	private static final long MAX_RTO_MILLIS = 60_000;
+	private static final int MAX_RETRIES = 3;
+
+	@TempDir
+	Path dir;
+
+	private DatagramChannel server;
+	private DatagramChannel client;
+	private final TftpBufferPool pool = new TftpBufferPool();
+
+	@BeforeAll
+	static void startLog() throws IOException {
+		// 傳輸的紀錄寫到檔案，不要混進測試的輸出
+		AccessLog.start("target/tftp-access.log", 1024 * 1024);
+	}
+
+	@BeforeEach
+	void connect() throws IOException {
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		client = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+		client.setOption(StandardSocketOptions.SO_RCVBUF, 1 << 20);
+		client.configureBlocking(false);
+		server = DatagramChannel.open().bind(new InetSocketAddress(loopback, 0));
+		server.configureBlocking(false);
+		server.connect(client.getLocalAddress());
+		client.connect(server.getLocalAddress());
+	}
+
+	@AfterEach
+	void close() throws IOException {
+		server.close();
+		client.close();
+	}
+
+	@Test
+	void downloadSlidesTheWindowOnCumulativeAcks() throws IOException {
+		byte[] content = content(10 * BLKSIZE + 3); // 11 塊，最後一塊 3 bytes
+		TftpDownload download = download(content, 4);
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+
+		assertEquals(List.of(1, 2, 3, 4), dataBlocks(file));
+		download.receive(ack(4));
+		assertEquals(List.of(5, 6, 7, 8), dataBlocks(file));
+		download.receive(ack(8));
+		assertEquals(List.of(9, 10, 11), dataBlocks(file)); // 最後一塊之後不再送出
+		assertFalse(download.isDone());
+		download.receive(ack(11));
+		assertTrue(download.isDone());
+		assertArrayEquals(content, file.toByteArray());
+	}
+
+	@Test
+	void downloadStartsWithOackWhenOptionsAreAccepted() throws IOException {
+		Path path = file(content(2 * BLKSIZE + 1));
+		TftpOptions options = options("blksize", BLKSIZE, "windowsize", 4);
+		TftpDownload download = new TftpDownload(server, null, path.toString(), options, System.nanoTime(),
+				timer(), MAX_RETRIES, null);
+		download.pool = pool;
+		download.start();
+
+		List<ByteBuffer> packets = packets();
+		assertEquals(1, packets.size());
+		assertEquals(TftpOptions.OACK, packets.get(0).getShort(0));
+		assertEquals("blksize\u00008\u0000windowsize\u00004\u0000", StandardCharsets.US_ASCII
+				.decode(packets.get(0).position(2)).toString());
+		download.receive(ack(1)); // 不是 ACK 0：忽略
+		assertEquals(List.of(), dataBlocks(null));
+		download.receive(ack(0));
+		assertEquals(List.of(1, 2, 3), dataBlocks(null));
+	}
+
+	@Test
+	void downloadResendsFromTheBlockAfterAPartialAck() throws IOException {
+		TftpDownload download = download(content(20 * BLKSIZE), 4);
+		assertEquals(List.of(1, 2, 3, 4), dataBlocks(null));
+
+		// 客戶端收到 1、2，Block 3 遺失：確認 2，從 3 開始送出下一個視窗
+		download.receive(ack(2));
+		assertEquals(List.of(3, 4, 5, 6), dataBlocks(null));
+		download.receive(ack(6));
+		assertEquals(List.of(7, 8, 9, 10), dataBlocks(null));
+	}
+
+	@Test
+	void downloadRewindsOncePerGap() throws IOException {
+		TftpDownload download = download(content(20 * BLKSIZE), 4);
+		assertEquals(List.of(1, 2, 3, 4), dataBlocks(null));
+		download.receive(ack(2));
+		assertEquals(List.of(3, 4, 5, 6), dataBlocks(null));
+
+		// 重複的 ACK 2：客戶端又發現同一個缺口，只重送一次
+		download.receive(ack(2));
+		assertEquals(List.of(3, 4, 5, 6), dataBlocks(null));
+		download.receive(ack(2));
+		download.receive(ack(2));
+		assertEquals(List.of(), dataBlocks(null));
+
+		// 前進之後的新缺口可以再重送一次
+		download.receive(ack(4));
+		assertEquals(List.of(5, 6, 7, 8), dataBlocks(null));
+		download.receive(ack(4));
+		assertEquals(List.of(5, 6, 7, 8), dataBlocks(null));
+		download.receive(ack(4));
+		assertEquals(List.of(), dataBlocks(null));
+	}
+
+	@Test
+	void downloadIgnoresDuplicateAcksWithoutWindow() throws IOException {
+		TftpDownload download = download(content(5 * BLKSIZE), 1);
+		assertEquals(List.of(1), dataBlocks(null));
+		download.receive(ack(1));
+		assertEquals(List.of(2), dataBlocks(null));
+
+		// Stop-and-Wait 不因重複的 ACK 重送 (Sorcerer's Apprentice)，也不接受還沒送出的 Block
+		download.receive(ack(1));
+		download.receive(ack(3));
+		assertEquals(List.of(), dataBlocks(null));
+		download.receive(ack(2));
+		assertEquals(List.of(3), dataBlocks(null));
+	}
+
+	@Test
+	void downloadGoesBackNOnTimeout() throws IOException {
+		TftpDownload download = download(content(20 * BLKSIZE), 4);
+		assertEquals(List.of(1, 2, 3, 4), dataBlocks(null));
+		download.receive(ack(2));
+		assertEquals(List.of(3, 4, 5, 6), dataBlocks(null));
+
+		// 逾時：從最後確認的下一塊重送整個視窗，並且逾時加倍
+		long rto = download.timeoutNanos();
+		download.timeout();
+		assertEquals(List.of(3, 4, 5, 6), dataBlocks(null));
+		assertEquals(2 * rto, download.timeoutNanos());
+		download.timeout();
+		assertEquals(List.of(3, 4, 5, 6), dataBlocks(null));
+
+		// 重試次數用完：送出錯誤並結束
+		download.timeout();
+		List<ByteBuffer> packets = packets();
+		assertEquals(1, packets.size());
+		assertEquals(TFTPServer.ERRO, packets.get(0).getShort(0));
+		assertTrue(download.isDone());
+	}
+
+	@Test
+	void downloadRollsOverPast65535() throws IOException {
+		int blocks = 65536 + 70;
+		byte[] content = content((blocks - 1) * BLKSIZE + 5);
+		TftpDownload download = download(content, 64);
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+
+		long acked = 0;
+		boolean lostAtRollover = false;
+		while (!download.isDone()) {
+			List<Integer> window = dataBlocks(file);
+			for (int i = 0; i < window.size(); i++) {
+				assertEquals((int) (acked + 1 + i & 0xFFFF), window.get(i).intValue());
+			}
+			long end = acked + window.size();
+			if (!lostAtRollover && end > 65536) {
+				// 視窗跨過 65535：Block 1 (序號 65537) 之後遺失，確認回捲後的編號
+				lostAtRollover = true;
+				acked = 65537;
+				file.reset();
+				file.write(content, 0, 65537 * BLKSIZE);
+			} else {
+				acked = end;
+			}
+			download.receive(ack((int) (acked & 0xFFFF)));
+		}
+		assertEquals(blocks, acked);
+		assertTrue(lostAtRollover);
+		assertArrayEquals(content, file.toByteArray());
+	}
+
+	@Test
+	void uploadAcksEveryWindow() throws IOException {
+		byte[] content = content(4 * BLKSIZE + 2);
+		Path path = dir.resolve("up.bin");
+		TftpUpload upload = upload(path, 4);
+		assertEquals(List.of(0), acks());
+
+		for (int block = 1; block <= 3; block++) {
+			upload.receive(data(block, content));
+			assertEquals(List.of(), acks());
+		}
+		upload.receive(data(4, content));
+		assertEquals(List.of(4), acks());
+		upload.receive(data(5, content)); // 最後一塊：視窗沒滿也立刻確認
+		assertEquals(List.of(5), acks());
+		assertArrayEquals(content, Files.readAllBytes(path));
+		assertFalse(upload.isDone());
+		upload.timeout(); // 等待一個逾時時間，客戶端沒有重送才結束
+		assertEquals(List.of(), packets());
+		assertTrue(upload.isDone());
+	}
+
+	@Test
+	void uploadAcksTheLastInOrderBlockAtAGap() throws IOException {
+		byte[] content = content(8 * BLKSIZE + 1);
+		Path path = dir.resolve("up.bin");
+		TftpUpload upload = upload(path, 4);
+		assertEquals(List.of(0), acks());
+
+		// Block 3 遺失：收到 4 時立刻確認 2，同一個缺口之後的封包不再回覆
+		upload.receive(data(1, content));
+		upload.receive(data(2, content));
+		upload.receive(data(4, content));
+		assertEquals(List.of(2), acks());
+		upload.receive(data(5, content));
+		assertEquals(List.of(), acks());
+
+		// 客戶端從 3 重送：重新計算視窗
+		for (int block = 3; block <= 6; block++) {
+			upload.receive(data(block, content));
+		}
+		assertEquals(List.of(6), acks());
+
+		// 重複的 Block：再送一次最後的 ACK
+		upload.receive(data(6, content));
+		assertEquals(List.of(6), acks());
+		upload.receive(data(6, content));
+		assertEquals(List.of(), acks());
+
+		for (int block = 7; block <= 9; block++) {
+			upload.receive(data(block, content));
+		}
+		assertEquals(List.of(9), acks());
+		upload.timeout();
+		assertTrue(upload.isDone());
+		assertArrayEquals(content, Files.readAllBytes(path));
+	}
+
+	@Test
+	void uploadTimeoutAcksThePartialWindow() throws IOException {
+		byte[] content = content(8 * BLKSIZE);
+		TftpUpload upload = upload(dir.resolve("up.bin"), 4);
+		assertEquals(List.of(0), acks());
+
+		upload.timeout(); // 還沒收到資料：重送 ACK 0
+		assertEquals(List.of(0), acks());
+		upload.receive(data(1, content));
+		upload.receive(data(2, content));
+		upload.timeout();
+		assertEquals(List.of(2), acks());
+		upload.timeout();
+		assertEquals(List.of(2), acks());
+
+		upload.receive(data(3, content)); // 收到資料時重試次數歸零
+		upload.timeout();
+		upload.timeout();
+		assertEquals(List.of(3, 3), acks());
+		assertFalse(upload.isDone());
+		upload.timeout();
+		List<ByteBuffer> packets = packets();
+		assertEquals(1, packets.size());
+		assertEquals(TFTPServer.ERRO, packets.get(0).getShort(0));
+		assertTrue(upload.isDone());
+	}
+
+	@Test
+	void uploadDalliesAfterTheLastBlock() throws IOException {
+		byte[] content = content(2 * BLKSIZE + 3);
+		Path path = dir.resolve("up.bin");
+		TftpUpload upload = upload(path, 1);
+		assertEquals(List.of(0), acks());
+		for (int block = 1; block <= 3; block++) {
+			upload.receive(data(block, content));
+		}
+		assertEquals(List.of(1, 2, 3), acks());
+		assertArrayEquals(content, Files.readAllBytes(path));
+
+		// 最後的 ACK 遺失：客戶端重送最後一塊時再確認一次，其他封包不回覆
+		upload.receive(data(3, content));
+		assertEquals(List.of(3), acks());
+		upload.receive(data(2, content));
+		upload.receive(ack(3));
+		assertEquals(List.of(), acks());
+
+		// 最後的 ACK 因 Socket Buffer 滿而沒送出：可寫時補送
+		upload.writable();
+		assertEquals(List.of(3), acks());
+		assertFalse(upload.isDone());
+
+		upload.timeout();
+		assertEquals(List.of(), packets());
+		assertTrue(upload.isDone());
+		upload.close();
+	}
+
+	@Test
+	void uploadRetriesAreResetOnlyByNewBlocks() throws IOException {
+		byte[] content = content(8 * BLKSIZE);
+		TftpUpload upload = upload(dir.resolve("up.bin"), 4);
+		assertEquals(List.of(0), acks());
+		upload.receive(data(1, content));
+		upload.timeout();
+		upload.timeout();
+		assertEquals(List.of(1, 1), acks());
+
+		// 重複的 Block、跳號的 Block 與不是 DATA 的封包都不算進展
+		upload.receive(data(1, content));
+		upload.receive(data(3, content));
+		upload.receive(ack(1));
+		assertEquals(List.of(1), acks());
+		assertFalse(upload.isDone());
+		upload.timeout();
+		List<ByteBuffer> packets = packets();
+		assertEquals(1, packets.size());
+		assertEquals(TFTPServer.ERRO, packets.get(0).getShort(0));
+		assertTrue(upload.isDone());
+	}
+
+	@Test
+	void uploadRollsOverPast65535() throws IOException {
+		int blocks = 65536 + 70;
+		byte[] content = content((blocks - 1) * BLKSIZE + 5);
+		Path path = dir.resolve("up.bin");
+		TftpUpload upload = upload(path, 64);
+		assertEquals(List.of(0), acks());
+
+		List<Integer> acks = new ArrayList<>();
+		for (int seq = 1; seq <= blocks; seq++) {
+			upload.receive(data(seq, content));
+			acks.addAll(acks());
+		}
+		upload.timeout();
+		assertTrue(upload.isDone());
+		assertEquals(blocks / 64 + 1, acks.size());
+		assertEquals(65536 & 0xFFFF, acks.get(65536 / 64 - 1).intValue()); // 序號 65536 的 Block 編號為 0
+		assertEquals(blocks & 0xFFFF, acks.get(acks.size() - 1).intValue());
+		assertArrayEquals(content, Files.readAllBytes(path));
+	}
+
+	@Test
+	void timerSamplesOnlyFirstTransmissions() {
+		RetransmitTimer timer = timer();
+		long initial = timer.timeoutNanos();
+
+		// 重送的 Block 不量測 (Karn)
+		timer.start(1);
+		timer.cancel();
+		timer.acked(1);
+		assertEquals(initial, timer.timeoutNanos());
+
+		// 逾時加倍，加倍時也停止量測，直到上限
+		timer.start(2);
+		timer.backoff();
+		timer.acked(2);
+		assertEquals(2 * initial, timer.timeoutNanos());
+
+		// 只有第一次送出的 Block 被確認時才更新：迴路的 RTT 很短，逾時降到下限
+		timer.start(3);
+		timer.acked(2);
+		assertEquals(2 * initial, timer.timeoutNanos());
+		timer.acked(3);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(MIN_RTO_MILLIS), timer.timeoutNanos());
+
+		for (int i = 0; i < 30; i++) {
+			timer.backoff();
+		}
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(MAX_RTO_MILLIS), timer.timeoutNanos());
+	}
+
+	@Test
+	void timerKeepsTheTimeoutRequestedByTheClient() {
+		RetransmitTimer timer = new RetransmitTimer(MIN_RTO_MILLIS, MAX_RTO_MILLIS, 5);
+		timer.start(1);
+		timer.acked(1);
+		timer.backoff();
+		assertEquals(TimeUnit.SECONDS.toNanos(5), timer.timeoutNanos());
+	}
+
+	@Test
+	void downloadDoesNotSampleRetransmittedBlocks() throws IOException {
+		TftpDownload download = download(content(5 * BLKSIZE), 1);
+		long initial = download.timeoutNanos();
+		assertEquals(List.of(1), dataBlocks(null));
+
+		// Block 1 逾時重送：它的 ACK 不量測，逾時維持加倍後的值
+		download.timeout();
+		assertEquals(List.of(1), dataBlocks(null));
+		download.receive(ack(1));
+		assertEquals(List.of(2), dataBlocks(null));
+		assertEquals(2 * initial, download.timeoutNanos());
+
+		// Block 2 是第一次送出：它的 ACK 更新 RTT
+		download.receive(ack(2));
+		assertEquals(List.of(3), dataBlocks(null));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(MIN_RTO_MILLIS), download.timeoutNanos());
+	}
+
+	private TftpDownload download(byte[] content, int windowSize) throws IOException {
+		TftpOptions options = new TftpOptions();
+		options.blockSize = BLKSIZE;
+		options.windowSize = windowSize;
+		TftpDownload download = new TftpDownload(server, null, file(content).toString(), options,
+				System.nanoTime(), timer(), MAX_RETRIES, null);
+		download.pool = pool;
+		download.start();
+		return download;
+	}
+
+	private TftpUpload upload(Path path, int windowSize) throws IOException {
+		TftpOptions options = new TftpOptions();
+		options.blockSize = BLKSIZE;
+		options.windowSize = windowSize;
+		TftpUpload upload = new TftpUpload(server, null, path.toString(), options, System.nanoTime(), timer(),
+				MAX_RETRIES);
+		upload.pool = pool;
+		upload.start();
+		return upload;
+	}
+
+	private static RetransmitTimer timer() {
+		return new RetransmitTimer(MIN_RTO_MILLIS, MAX_RTO_MILLIS, 0);
+	}
+
+	private static TftpOptions options(Object... pairs) {
+		ByteBuffer request = ByteBuffer.allocate(128);
+		for (Object value : pairs) {
+			request.put(value.toString().getBytes(StandardCharsets.US_ASCII)).put((byte) 0);
+		}
+		return TftpOptions.parse(request, 0, request.position(), TftpOptions.MAX_BLKSIZE,
+				TftpOptions.MAX_WINDOWSIZE);
+	}
+
+	private Path file(byte[] content) throws IOException {
+		return Files.write(dir.resolve("down.bin"), content);
+	}
+
+	private static byte[] content(int length) {
+		byte[] content = new byte[length];
+		for (int i = 0; i < length; i++) {
+			content[i] = (byte) (i * 31 + i / 251);
+		}
+		return content;
+	}
+
+	private static ByteBuffer ack(int block) {
+		return ByteBuffer.allocate(4).putShort(TFTPServer.ACK).putShort((short) block).flip();
+	}
+
+	/**
+	 * @param seq     sequence number of the block (not rolled over)
+	 * @param content the whole file
+	 * @return the DATA packet carrying that block
+	 */
+	private static ByteBuffer data(int seq, byte[] content) {
+		int offset = (seq - 1) * BLKSIZE;
+		int length = Math.min(BLKSIZE, content.length - offset);
+		return ByteBuffer.allocate(4 + length).putShort(TFTPServer.DATA).putShort((short) seq)
+				.put(content, offset, length).flip();
+	}
+
+	/**
+	 * @return every packet the transfer has sent since the last call
+	 */
+	private List<ByteBuffer> packets() throws IOException {
+		// 迴路上送出的封包在 write 回傳時已經在接收端的 Buffer 中
+		List<ByteBuffer> packets = new ArrayList<>();
+		ByteBuffer buffer = ByteBuffer.allocate(TftpOptions.MAX_BLKSIZE + 4);
+		while (client.read(buffer) > 0) {
+			packets.add(ByteBuffer.wrap(Arrays.copyOf(buffer.array(), buffer.position())));
+			buffer.clear();
+		}
+		return packets;
+	}
+
+	/**
+	 * @param file receives the data of the blocks, or null
+	 * @return block numbers of the DATA packets sent since the last call
+	 */
+	private List<Integer> dataBlocks(ByteArrayOutputStream file) throws IOException {
+		List<Integer> blocks = new ArrayList<>();
+		for (ByteBuffer packet : packets()) {
+			assertEquals(TFTPServer.DATA, packet.getShort(0));
+			blocks.add(packet.getShort(2) & 0xFFFF);
+			if (file != null) {
+				file.write(packet.array(), 4, packet.limit() - 4);
+			}
+		}
+		return blocks;
+	}
+
+	/**
+	 * @return block numbers of the ACK packets sent since the last call
+	 */
+	private List<Integer> acks() throws IOException {
+		List<Integer> blocks = new ArrayList<>();
+		for (ByteBuffer packet : packets()) {
+			assertEquals(TFTPServer.ACK, packet.getShort(0));
+			blocks.add(packet.getShort(2) & 0xFFFF);
+		}
+		return blocks;
+	}
+}